@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands;
+
+import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
+import com.fitbit.bluetooth.fbgatt.utils.JsonStreamWriter;
+import java.io.IOException;
+import java.util.Map;
+import androidx.annotation.Nullable;
+
+import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.COMMAND_KEY;
+import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.ERROR_KEY;
+import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.PASS_STATUS;
+import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESULT_KEY;
+import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.STATUS_KEY;
+
+/**
+ * A passing JSON result whose result array is written to the consumer one entry at a time, so
+ * that commands walking a large GATT tree or device list never hold the whole response.  The
+ * output is the same as {@link com.fitbit.bluetooth.fbgatt.utils.JsonBuilder#makeJsonResult}.
+ */
+public class JsonResultStream {
+    private final JsonStreamWriter writer;
+    private final PluginLoggerInterface logger;
+    private int entries;
+    private boolean failed;
+
+    JsonResultStream(String command, JsonStreamWriter writer, PluginLoggerInterface logger) {
+        this.writer = writer;
+        this.logger = logger;
+        try {
+            writer.beginObject()
+                .name(COMMAND_KEY).value(command)
+                .name(STATUS_KEY).value(PASS_STATUS)
+                .name(RESULT_KEY).beginArray();
+        } catch (IOException e) {
+            onWriteFailed(e);
+        }
+    }
+
+    /**
+     * Will write one entry of the result array
+     *
+     * @param entry The entry, written in the map's iteration order
+     */
+    public void add(Map<String, Object> entry) {
+        if (failed) {
+            return;
+        }
+        try {
+            writer.object(entry);
+            entries++;
+        } catch (IOException e) {
+            onWriteFailed(e);
+        }
+    }
+
+    /**
+     * Will finish the result, the entries already written can't be taken back so an error
+     * that happened part way through is added after the result
+     *
+     * @param error The error, or null if the command completed
+     */
+    public void close(@Nullable String error) {
+        try {
+            if (!failed) {
+                writer.endArray();
+                if (error != null) {
+                    writer.name(ERROR_KEY).value(error);
+                }
+                writer.endObject();
+            }
+            writer.close();
+            logger.logMsg("Dumped " + entries + " streamed entries");
+        } catch (IOException e) {
+            logger.logError(e);
+        }
+    }
+
+    public void close() {
+        close(null);
+    }
+
+    private void onWriteFailed(IOException e) {
+        failed = true;
+        logger.logError(e);
+    }
+}
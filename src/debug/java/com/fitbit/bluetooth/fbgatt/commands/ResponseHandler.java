@@ -86,4 +86,9 @@ public class ResponseHandler implements ResponseHandlerInterface {
             consumer.consumeError(e);
         }
     }
+
+    @Override
+    public JsonResultStream onJsonResultStream(PluginCommandConfig config, String command) {
+        return new JsonResultStream(command, config.getConsumer().consumeJsonStream(), logger);
+    }
 }
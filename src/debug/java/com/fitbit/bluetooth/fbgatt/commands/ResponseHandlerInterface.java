@@ -25,4 +25,13 @@ public interface ResponseHandlerInterface {
     void onResponse(PluginCommandConfig config, TransactionResult result, String error, Map<String, Object> map);
 
     void onError(PluginCommandConfig config, Exception e);
+
+    /**
+     * Will start a passing JSON result that is written to the consumer entry by entry
+     *
+     * @param config The command config
+     * @param command The command name to report
+     * @return the stream, it must be closed once the last entry is added
+     */
+    JsonResultStream onJsonResultStream(PluginCommandConfig config, String command);
 }
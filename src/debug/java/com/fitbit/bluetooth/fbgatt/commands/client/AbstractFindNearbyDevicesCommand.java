@@ -13,6 +13,7 @@ package com.fitbit.bluetooth.fbgatt.commands.client;
 import com.fitbit.bluetooth.fbgatt.FitbitGatt;
 import com.fitbit.bluetooth.fbgatt.GattConnection;
 import com.fitbit.bluetooth.fbgatt.commands.AbstractGattCommand;
+import com.fitbit.bluetooth.fbgatt.commands.JsonResultStream;
 import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
 import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
 import com.fitbit.bluetooth.fbgatt.tools.ConsumerInterface;
@@ -23,15 +24,13 @@ import com.fitbit.bluetooth.fbgatt.utils.JsonBuilder;
 
 import android.bluetooth.BluetoothDevice;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.FAIL_STATUS;
-import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.PASS_STATUS;
 
 /**
  * Common behaviour of the Find Nearby Devices commands.
@@ -49,9 +48,9 @@ abstract class AbstractFindNearbyDevicesCommand extends AbstractGattCommand {
     @Override
     public final void run(PluginCommandConfig config) {
         StringBuilder builder = new StringBuilder();
-        JSONArray jsonArray = new JSONArray();
-        String status = PASS_STATUS;
-        String error = "";
+        // there is one entry per known connection, so they are kept until we know the command passed
+        List<Map<String, Object>> devices = new ArrayList<>();
+        String error = null;
 
         try {
             GattConnectionUtils connectionUtils = config.getConnectionUtils();
@@ -77,23 +76,27 @@ abstract class AbstractFindNearbyDevicesCommand extends AbstractGattCommand {
                     put("rssi", rssi);
                 }};
 
-                JSONObject jsonObject = jsonBuilder.buildJsonResult(map);
-                jsonArray.put(jsonObject);
-                if (!config.isJsonFormat()) {
+                if (config.isJsonFormat()) {
+                    devices.add(map);
+                } else {
                     onMessage(config, String.format("| %1$32s | %2$32s | %3$32s | %4$32s | %5$32s\n", deviceName, deviceAddress, type, origin, rssi));
                 }
             }
         } catch (Exception e) {
-            status = FAIL_STATUS;
             error = Arrays.toString(e.getStackTrace());
         }
 
         ConsumerInterface consumer = config.getConsumer();
-        if (config.isJsonFormat()) {
-            JSONObject result = jsonBuilder.makeJsonResult(getShortName(), status, error, jsonArray);
-            consumer.consumeJson(result);
-        } else {
+        if (!config.isJsonFormat()) {
             consumer.consumeResult(builder.toString());
+        } else if (error != null) {
+            consumer.consumeJson(jsonBuilder.makeJsonResult(getShortName(), FAIL_STATUS, error, null));
+        } else {
+            JsonResultStream jsonStream = responseHandler.onJsonResultStream(config, getShortName());
+            for (Map<String, Object> device : devices) {
+                jsonStream.add(device);
+            }
+            jsonStream.close();
         }
 
         onPostProcessing(config);
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands.client;
+
+import com.fitbit.bluetooth.fbgatt.FitbitGatt;
+import com.fitbit.bluetooth.fbgatt.commands.AbstractGattCommand;
+import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
+import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import androidx.annotation.Nullable;
+
+/**
+ * Stetho command for recording a timeline of the transactions and callbacks and writing it as a
+ * Chrome trace, which can be opened with Perfetto or chrome://tracing.
+ */
+public class GattTimelineTraceCommand extends AbstractGattCommand {
+    static final String ACTION_START = "start";
+    static final String ACTION_STOP = "stop";
+    static final String ACTION_DUMP = "dump";
+    static final int DEFAULT_MAX_EVENTS = 8192;
+
+    private final FitbitGatt fitbitGatt;
+
+    public GattTimelineTraceCommand(FitbitGatt fitbitGatt, PluginLoggerInterface logger) {
+        super("gtt", "gatt-timeline-trace", "start [<max events>] | stop | dump [<path>]\n\n" +
+            "Description: Will start recording when transactions are queued, committed, sent to the stack, called back " +
+            "and delivered, keeping up to max events (default " + DEFAULT_MAX_EVENTS + "), stop recording, or write the " +
+            "recording as a Chrome trace to the path on the phone, or to the console if no path is given.", logger);
+        this.fitbitGatt = fitbitGatt;
+    }
+
+    @Override
+    public void run(PluginCommandConfig config) {
+        Arguments args;
+        try {
+            args = Arguments.parse(config.getArgs());
+        } catch (IllegalArgumentException e) {
+            onError(config, e);
+            return;
+        }
+        switch (args.action) {
+            case ACTION_START:
+                fitbitGatt.startTimelineTrace(args.maxEvents);
+                onSuccess(config, "Recording up to " + args.maxEvents + " timeline events");
+                break;
+            case ACTION_STOP:
+                fitbitGatt.stopTimelineTrace();
+                onSuccess(config, "Stopped recording the timeline");
+                break;
+            default:
+                dump(config, args.path);
+                break;
+        }
+    }
+
+    private void dump(PluginCommandConfig config, @Nullable String path) {
+        if (path == null) {
+            StringWriter writer = new StringWriter();
+            try {
+                fitbitGatt.writeTimelineTrace(writer);
+            } catch (IOException e) {
+                onError(config, e);
+                return;
+            }
+            onMessage(config, writer.toString());
+            return;
+        }
+        try (Writer writer = new FileWriter(path)) {
+            fitbitGatt.writeTimelineTrace(writer);
+        } catch (IOException e) {
+            onError(config, e);
+            return;
+        }
+        onSuccess(config, "Wrote the timeline to " + path);
+    }
+
+    /**
+     * The parsed command line, an action followed by its optional value
+     */
+    static class Arguments {
+        final String action;
+        final int maxEvents;
+        @Nullable
+        final String path;
+
+        private Arguments(String action, int maxEvents, @Nullable String path) {
+            this.action = action;
+            this.maxEvents = maxEvents;
+            this.path = path;
+        }
+
+        static Arguments parse(Iterator<String> args) {
+            if (!args.hasNext()) {
+                throw new IllegalArgumentException("An action is required, start, stop or dump");
+            }
+            String action = args.next();
+            String value = args.hasNext() ? args.next() : null;
+            if (args.hasNext()) {
+                throw new IllegalArgumentException("Unexpected argument " + args.next());
+            }
+            switch (action) {
+                case ACTION_START:
+                    int maxEvents = DEFAULT_MAX_EVENTS;
+                    if (value != null) {
+                        try {
+                            maxEvents = Integer.parseInt(value);
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid max events " + value, e);
+                        }
+                    }
+                    if (maxEvents < 1) {
+                        throw new IllegalArgumentException("The max events must be positive");
+                    }
+                    return new Arguments(action, maxEvents, null);
+                case ACTION_STOP:
+                    if (value != null) {
+                        throw new IllegalArgumentException("Unexpected argument " + value);
+                    }
+                    return new Arguments(action, DEFAULT_MAX_EVENTS, null);
+                case ACTION_DUMP:
+                    return new Arguments(action, DEFAULT_MAX_EVENTS, value);
+                default:
+                    throw new IllegalArgumentException("Unknown action " + action);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ import com.fitbit.bluetooth.fbgatt.FitbitBluetoothDevice;
 import com.fitbit.bluetooth.fbgatt.FitbitGatt;
 import com.fitbit.bluetooth.fbgatt.GattConnection;
 import com.fitbit.bluetooth.fbgatt.commands.AbstractGattCommand;
+import com.fitbit.bluetooth.fbgatt.commands.JsonResultStream;
 import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
 import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
 import com.fitbit.bluetooth.fbgatt.util.Bytes;
@@ -25,13 +26,8 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.util.Map;
 
-import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.PASS_STATUS;
-
 /**
  * Stetho command for listing available services, characteristics and descriptors.
  */
@@ -87,13 +83,13 @@ public class ShowRemoteServicesCommand extends AbstractGattCommand {
             return;
         }
 
-        JSONArray jsonArray = new JSONArray();
+        JsonResultStream jsonStream = config.isJsonFormat() ? responseHandler.onJsonResultStream(config, getFullName()) : null;
         for (BluetoothGattService service : btGatt.getServices()) {
             for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
                 String permissions = characteristicUtils.getStringFromPermissions(characteristic);
                 String properties = characteristicUtils.getStringFromProperties(characteristic);
 
-                if (!config.isJsonFormat()) {
+                if (jsonStream == null) {
                     onMessage(config, String.format("| %1$36s | %2$36s | %3$36s | %4$32s | %5$32s | %6$32s\n",
                         service.getUuid().toString(),
                         characteristic.getUuid().toString(),
@@ -104,13 +100,12 @@ public class ShowRemoteServicesCommand extends AbstractGattCommand {
                     );
                 } else {
                     Map<String, Object> mappedCharacteristic = characteristicUtils.getMapForCharacteristic(service, characteristic, permissions, properties);
-                    JSONObject jsonCharacteristic = jsonBuilder.buildJsonResult(mappedCharacteristic);
-                    jsonArray.put(jsonCharacteristic);
+                    jsonStream.add(mappedCharacteristic);
                 }
 
                 for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
                     String descriptorPermission = descriptorUtils.getStringPermissions(descriptor);
-                    if (!config.isJsonFormat()) {
+                    if (jsonStream == null) {
                         onMessage(config, String.format("| %1$36s | %2$36s | %3$36s | %4$32s | %5$32s | %6$32s\n",
                             service.getUuid().toString(),
                             characteristic.getUuid().toString(),
@@ -121,16 +116,14 @@ public class ShowRemoteServicesCommand extends AbstractGattCommand {
                         );
                     } else {
                         Map<String, Object> mappedDescriptor = descriptorUtils.getMapForDescriptor(service, characteristic, descriptor, descriptorPermission);
-                        JSONObject jsonDescriptor = jsonBuilder.buildJsonResult(mappedDescriptor);
-                        jsonArray.put(jsonDescriptor);
+                        jsonStream.add(mappedDescriptor);
                     }
                 }
             }
         }
 
-        if (config.isJsonFormat()) {
-            JSONObject jsonResult = jsonBuilder.makeJsonResult(getFullName(), PASS_STATUS, "", jsonArray);
-            config.getConsumer().consumeJson(jsonResult);
+        if (jsonStream != null) {
+            jsonStream.close();
         }
 
         connection.getDevice().removeDevicePropertiesChangedListener(devicePropertiesListener);
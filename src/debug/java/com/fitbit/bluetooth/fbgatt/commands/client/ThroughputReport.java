@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands.client;
+
+import com.fitbit.bluetooth.fbgatt.GattConnection;
+import org.json.JSONObject;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import androidx.annotation.NonNull;
+
+/**
+ * The outcome of a {@link ThroughputTestCommand} run, the per operation latencies along with the
+ * link parameters that were in effect while it ran.
+ */
+class ThroughputReport {
+    static final int UNKNOWN_PHY = -1;
+
+    private final String mode;
+    private final int requestedBytes;
+    private final int chunkSize;
+    private final int failures;
+    private final long transferredBytes;
+    private final long elapsedNanos;
+    private final long[] latencyNanos;
+    private final int mtu;
+    private final int txPhy;
+    private final int rxPhy;
+    private final int connectionInterval;
+    private final boolean aborted;
+
+    ThroughputReport(String mode, int requestedBytes, int chunkSize, int failures, long transferredBytes,
+                     long elapsedNanos, long[] latencyNanos, int mtu, int txPhy, int rxPhy,
+                     int connectionInterval, boolean aborted) {
+        this.mode = mode;
+        this.requestedBytes = requestedBytes;
+        this.chunkSize = chunkSize;
+        this.failures = failures;
+        this.transferredBytes = transferredBytes;
+        this.elapsedNanos = elapsedNanos;
+        this.latencyNanos = latencyNanos.clone();
+        Arrays.sort(this.latencyNanos);
+        this.mtu = mtu;
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        this.connectionInterval = connectionInterval;
+        this.aborted = aborted;
+    }
+
+    String getMode() {
+        return mode;
+    }
+
+    int getOperations() {
+        return latencyNanos.length;
+    }
+
+    int getFailures() {
+        return failures;
+    }
+
+    long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * A run has failed if it had to stop early or not a single operation made it through, a few
+     * failed operations are part of what is being measured
+     *
+     * @return true if the run produced usable numbers
+     */
+    boolean isSuccessful() {
+        return !aborted && failures < getOperations();
+    }
+
+    /**
+     * @return The successfully transferred payload per second of wall clock time
+     */
+    double getThroughputBytesPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return transferredBytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Will return the nearest rank percentile of the operation latency, from commit to callback
+     *
+     * @param percentile The percentile, 0 - 100
+     * @return The latency in milliseconds, or 0 if nothing ran
+     */
+    double getLatencyPercentileMillis(double percentile) {
+        if (latencyNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latencyNanos.length);
+        int index = Math.min(latencyNanos.length - 1, Math.max(0, rank - 1));
+        return toMillis(latencyNanos[index]);
+    }
+
+    double getMeanLatencyMillis() {
+        if (latencyNanos.length == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (long latency : latencyNanos) {
+            total += latency;
+        }
+        return toMillis(total) / latencyNanos.length;
+    }
+
+    /**
+     * @return The report as a map for the JSON output, the keys are stable so that they can be scripted against
+     */
+    @NonNull
+    Map<String, Object> toMap() {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("min", getLatencyPercentileMillis(0));
+        latency.put("mean", getMeanLatencyMillis());
+        latency.put("p50", getLatencyPercentileMillis(50));
+        latency.put("p90", getLatencyPercentileMillis(90));
+        latency.put("p99", getLatencyPercentileMillis(99));
+        latency.put("max", getLatencyPercentileMillis(100));
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("mode", mode);
+        map.put("requested_bytes", requestedBytes);
+        map.put("transferred_bytes", transferredBytes);
+        map.put("chunk_size", chunkSize);
+        map.put("operations", getOperations());
+        map.put("failures", failures);
+        map.put("aborted", aborted);
+        map.put("elapsed_ms", toMillis(elapsedNanos));
+        map.put("throughput_bytes_per_second", getThroughputBytesPerSecond());
+        map.put("latency_ms", new JSONObject(latency));
+        map.put("mtu", mtu);
+        map.put("tx_phy", txPhy);
+        map.put("rx_phy", rxPhy);
+        map.put("connection_interval_ms", getConnectionIntervalMillis());
+        return map;
+    }
+
+    private double getConnectionIntervalMillis() {
+        if (connectionInterval == GattConnection.UNKNOWN_CONNECTION_INTERVAL) {
+            return GattConnection.UNKNOWN_CONNECTION_INTERVAL;
+        }
+        // the stack reports the interval in 1.25ms units
+        return connectionInterval * 1.25;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "mode: %s, chunk: %d bytes, operations: %d, failures: %d, aborted: %b\n" +
+                "transferred: %d of %d bytes in %.1fms, throughput: %.1f B/s\n" +
+                "latency ms min: %.2f, mean: %.2f, p50: %.2f, p90: %.2f, p99: %.2f, max: %.2f\n" +
+                "mtu: %d, tx phy: %d, rx phy: %d, connection interval: %.2fms",
+            mode, chunkSize, getOperations(), failures, aborted,
+            transferredBytes, requestedBytes, toMillis(elapsedNanos), getThroughputBytesPerSecond(),
+            getLatencyPercentileMillis(0), getMeanLatencyMillis(), getLatencyPercentileMillis(50),
+            getLatencyPercentileMillis(90), getLatencyPercentileMillis(99), getLatencyPercentileMillis(100),
+            mtu, txPhy, rxPhy, getConnectionIntervalMillis());
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands.client;
+
+import com.fitbit.bluetooth.fbgatt.GattConnection;
+import com.fitbit.bluetooth.fbgatt.GattServerConnection;
+import com.fitbit.bluetooth.fbgatt.GattState;
+import com.fitbit.bluetooth.fbgatt.GattTransaction;
+import com.fitbit.bluetooth.fbgatt.GattTransactionCallback;
+import com.fitbit.bluetooth.fbgatt.TransactionResult;
+import com.fitbit.bluetooth.fbgatt.commands.AbstractGattCommand;
+import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
+import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
+import com.fitbit.bluetooth.fbgatt.tx.NotifyGattServerCharacteristicTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.ReadGattClientPhyTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.WriteGattCharacteristicTransaction;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Stetho command for characterizing a link, it will push the requested number of bytes through
+ * the normal transaction path one chunk at a time and report the throughput, the per operation
+ * latency percentiles, the failures and the negotiated link parameters.
+ */
+public class ThroughputTestCommand extends AbstractGattCommand {
+    static final String MODE_WRITE = "write";
+    static final String MODE_WRITE_NO_RESPONSE = "write-nr";
+    static final String MODE_NOTIFY = "notify";
+    static final String CHUNK_MTU = "mtu";
+    static final int DEFAULT_BYTES = 10 * 1024;
+    // the ATT header of a write or notification
+    private static final int ATT_HEADER_SIZE = 3;
+
+    public ThroughputTestCommand(PluginLoggerInterface logger) {
+        super("tt", "throughput-test", "<mac> <service uuid> <characteristic uuid> [--bytes <n>] [--mode write|write-nr|notify] [--chunk mtu|<n>]\n\n" +
+            "Description: Will send n bytes (default " + DEFAULT_BYTES + ") in chunks of the given size, or of the negotiated mtu, " +
+            "to the remote characteristic with write or write without response, or as notifications on the local " +
+            "server characteristic.  Reports throughput, latency percentiles, failures, mtu, phy and connection interval. " +
+            "For write-nr the latency is the time for the stack to accept the packet.", logger);
+    }
+
+    @Override
+    public void run(PluginCommandConfig config) {
+        Arguments args;
+        try {
+            args = Arguments.parse(config.getArgs());
+        } catch (IllegalArgumentException e) {
+            onError(config, e);
+            return;
+        }
+
+        GattConnection connection = config.getConnectionUtils().getConnectionForMac(args.mac);
+        if (connection == null) {
+            onError(config, new IllegalStateException("No connected client for mac " + args.mac));
+            return;
+        }
+
+        int chunkSize = args.chunk == null ? connection.getMtu() - ATT_HEADER_SIZE : args.chunk;
+        if (chunkSize <= 0) {
+            onError(config, new IllegalArgumentException("Invalid chunk size " + chunkSize));
+            return;
+        }
+
+        GattServerConnection serverConnection = config.getServerConnection();
+        BluetoothGattCharacteristic characteristic = MODE_NOTIFY.equals(args.mode)
+            ? getLocalCharacteristic(serverConnection, args.serviceUuid, args.characteristicUuid)
+            : connection.getRemoteGattServiceCharacteristic(args.serviceUuid, args.characteristicUuid);
+        if (characteristic == null) {
+            onError(config, new IllegalStateException("No characteristic for the uuid " + args.characteristicUuid + " found"));
+            return;
+        }
+
+        int[] phy = readPhy(connection);
+        ThroughputReport report;
+        int writeType = characteristic.getWriteType();
+        if (MODE_WRITE_NO_RESPONSE.equals(args.mode)) {
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        } else if (MODE_WRITE.equals(args.mode)) {
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        }
+        try {
+            report = measure(args, chunkSize, connection, serverConnection, characteristic, phy);
+        } catch (InterruptedException e) {
+            onError(config, e);
+            return;
+        } finally {
+            characteristic.setWriteType(writeType);
+        }
+
+        if (config.isJsonFormat()) {
+            TransactionResult result = new TransactionResult.Builder()
+                .resultStatus(report.isSuccessful() ? TransactionResult.TransactionResultStatus.SUCCESS : TransactionResult.TransactionResultStatus.FAILURE)
+                .build();
+            responseHandler.onResponse(config, result, report.toString(), report.toMap());
+        } else if (report.isSuccessful()) {
+            onSuccess(config, "\n" + report);
+        } else {
+            onFailure(config, "\n" + report);
+        }
+    }
+
+    private ThroughputReport measure(Arguments args, int chunkSize, GattConnection connection, GattServerConnection serverConnection,
+                                     BluetoothGattCharacteristic characteristic, int[] phy) throws InterruptedException {
+        int operations = (args.bytes + chunkSize - 1) / chunkSize;
+        long[] latencies = new long[operations];
+        byte[] chunk = new byte[chunkSize];
+        int failures = 0;
+        long transferred = 0;
+        int completed = 0;
+        boolean aborted = false;
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            int size = Math.min(chunkSize, args.bytes - i * chunkSize);
+            byte[] value = size == chunkSize ? chunk : new byte[size];
+            // a counter in the first byte so that the peripheral can spot drops
+            value[0] = (byte) i;
+            characteristic.setValue(value);
+
+            long opStart = System.nanoTime();
+            TransactionResult result = runOperation(args.mode, connection, serverConnection, characteristic);
+            latencies[completed++] = System.nanoTime() - opStart;
+
+            if (result != null && result.getResultStatus() == TransactionResult.TransactionResultStatus.SUCCESS) {
+                transferred += size;
+            } else {
+                failures++;
+                if (!connection.isConnected()) {
+                    aborted = true;
+                    break;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long[] measured = new long[completed];
+        System.arraycopy(latencies, 0, measured, 0, completed);
+        return new ThroughputReport(args.mode, args.bytes, chunkSize, failures, transferred, elapsed, measured,
+            connection.getMtu(), phy[0], phy[1], connection.getConnectionInterval(), aborted);
+    }
+
+    @Nullable
+    private TransactionResult runOperation(String mode, GattConnection connection, GattServerConnection serverConnection,
+                                           BluetoothGattCharacteristic characteristic) throws InterruptedException {
+        if (MODE_NOTIFY.equals(mode)) {
+            NotifyGattServerCharacteristicTransaction tx = serverConnection.obtainNotifyCharacteristicTransaction(connection.getDevice(),
+                GattState.NOTIFY_CHARACTERISTIC_SUCCESS, characteristic, false);
+            return await(tx, callback -> serverConnection.runTx(tx, callback));
+        }
+        WriteGattCharacteristicTransaction tx = connection.obtainWriteCharacteristicTransaction(GattState.WRITE_CHARACTERISTIC_SUCCESS, characteristic);
+        return await(tx, callback -> connection.runTx(tx, callback));
+    }
+
+    /**
+     * Will run one pooled transaction synchronously, handing it back to its pool once it has called back
+     */
+    @Nullable
+    private static TransactionResult await(GattTransaction<?> tx, Runner runner) throws InterruptedException {
+        AtomicReference<TransactionResult> delivered = new AtomicReference<>();
+        CountDownLatch cdl = new CountDownLatch(1);
+        runner.run(result -> {
+            delivered.set(result);
+            tx.recycle();
+            cdl.countDown();
+        });
+        cdl.await();
+        return delivered.get();
+    }
+
+    /**
+     * @return the tx and rx phy, or {@link ThroughputReport#UNKNOWN_PHY} if they could not be read
+     */
+    private static int[] readPhy(GattConnection connection) {
+        int[] phy = {ThroughputReport.UNKNOWN_PHY, ThroughputReport.UNKNOWN_PHY};
+        CountDownLatch cdl = new CountDownLatch(1);
+        connection.runTx(new ReadGattClientPhyTransaction(connection, GattState.READ_CURRENT_PHY_SUCCESS), result -> {
+            if (result.getResultStatus() == TransactionResult.TransactionResultStatus.SUCCESS) {
+                phy[0] = result.getTxPhy();
+                phy[1] = result.getRxPhy();
+            }
+            cdl.countDown();
+        });
+        try {
+            cdl.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return phy;
+    }
+
+    @Nullable
+    private static BluetoothGattCharacteristic getLocalCharacteristic(GattServerConnection serverConnection, UUID serviceUuid, UUID characteristicUuid) {
+        BluetoothGattService service = serverConnection.getServer().getService(serviceUuid);
+        return service == null ? null : service.getCharacteristic(characteristicUuid);
+    }
+
+    private interface Runner {
+        void run(GattTransactionCallback callback);
+    }
+
+    /**
+     * The parsed command line, the mac and uuids are positional and the rest are flags
+     */
+    static class Arguments {
+        final String mac;
+        final UUID serviceUuid;
+        final UUID characteristicUuid;
+        final int bytes;
+        final String mode;
+        // null means chunks of the negotiated mtu
+        final @Nullable Integer chunk;
+
+        private Arguments(String mac, UUID serviceUuid, UUID characteristicUuid, int bytes, String mode, @Nullable Integer chunk) {
+            this.mac = mac;
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.bytes = bytes;
+            this.mode = mode;
+            this.chunk = chunk;
+        }
+
+        @NonNull
+        static Arguments parse(Iterator<String> args) {
+            String[] positional = new String[3];
+            int index = 0;
+            int bytes = DEFAULT_BYTES;
+            String mode = MODE_WRITE;
+            Integer chunk = null;
+            while (args.hasNext()) {
+                String arg = args.next();
+                switch (arg) {
+                    case "--bytes":
+                        bytes = parseInt(arg, next(args, arg));
+                        break;
+                    case "--mode":
+                        mode = next(args, arg);
+                        if (!MODE_WRITE.equals(mode) && !MODE_WRITE_NO_RESPONSE.equals(mode) && !MODE_NOTIFY.equals(mode)) {
+                            throw new IllegalArgumentException("Unknown mode " + mode);
+                        }
+                        break;
+                    case "--chunk":
+                        String value = next(args, arg);
+                        chunk = CHUNK_MTU.equals(value) ? null : parseInt(arg, value);
+                        break;
+                    default:
+                        if (index >= positional.length) {
+                            throw new IllegalArgumentException("Unexpected argument " + arg);
+                        }
+                        positional[index++] = arg;
+                }
+            }
+            if (index < positional.length) {
+                throw new IllegalArgumentException("A mac, service uuid and characteristic uuid are required");
+            }
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("The byte count must be positive");
+            }
+            return new Arguments(positional[0], UUID.fromString(positional[1]), UUID.fromString(positional[2]), bytes, mode, chunk);
+        }
+
+        private static String next(Iterator<String> args, String flag) {
+            if (!args.hasNext()) {
+                throw new IllegalArgumentException("No value provided for " + flag);
+            }
+            return args.next();
+        }
+
+        private static int parseInt(String flag, String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value " + value + " for " + flag, e);
+            }
+        }
+    }
+}
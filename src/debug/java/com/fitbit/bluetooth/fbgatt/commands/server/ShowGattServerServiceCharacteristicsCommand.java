@@ -12,25 +12,23 @@ package com.fitbit.bluetooth.fbgatt.commands.server;
 
 import com.fitbit.bluetooth.fbgatt.GattServerConnection;
 import com.fitbit.bluetooth.fbgatt.commands.AbstractGattCommand;
+import com.fitbit.bluetooth.fbgatt.commands.JsonResultStream;
 import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
 import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
 import com.fitbit.bluetooth.fbgatt.tools.ConsumerInterface;
 import com.fitbit.bluetooth.fbgatt.util.Bytes;
-import com.fitbit.bluetooth.fbgatt.utils.JsonBuilder;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattService;
 
 import org.json.JSONArray;
-import org.json.JSONObject;
 
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
 
-import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.PASS_STATUS;
 import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESULT_CHARACTERISTIC_UUID_KEY;
 import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESULT_PERMISSIONS_KEY;
 import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESULT_PROPERTIES_KEY;
@@ -40,11 +38,8 @@ import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESUL
  * Stetho command for listing the characteristics hosted by the local Gatt server service.
  */
 public class ShowGattServerServiceCharacteristicsCommand extends AbstractGattCommand {
-    private final JsonBuilder jsonBuilder;
-
     public ShowGattServerServiceCharacteristicsCommand(PluginLoggerInterface logger) {
         super("sgssc", "show-gatt-server-service-characteristics", "<service uuid>\n\nDescription: Will list off characteristics hosted by the provided local gatt server service", logger);
-        this.jsonBuilder = new JsonBuilder(logger);
     }
 
     @Override
@@ -67,8 +62,6 @@ public class ShowGattServerServiceCharacteristicsCommand extends AbstractGattCom
             return;
         }
 
-        JSONArray jsonArray = new JSONArray();
-
         GattServerConnection connection = config.getServerConnection();
         BluetoothGattServer gattServer = connection.getServer();
         BluetoothGattService service = gattServer.getService(UUID.fromString(serviceName));
@@ -77,11 +70,12 @@ public class ShowGattServerServiceCharacteristicsCommand extends AbstractGattCom
             return;
         }
 
+        JsonResultStream jsonStream = config.isJsonFormat() ? responseHandler.onJsonResultStream(config, getShortName()) : null;
         for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
             String permissions = getPermissions(characteristic);
             String properties = getProperties(characteristic);
 
-            if (!config.isJsonFormat()) {
+            if (jsonStream == null) {
                 onMessage(config, String.format("| %1$32s | %2$32s | %3$32s | %4$32s |\n", characteristic.getUuid().toString(), permissions, properties, Bytes.byteArrayToHexString(characteristic.getValue())));
             } else {
                 Map<String, Object> map = new LinkedHashMap<String, Object>() {{
@@ -90,16 +84,16 @@ public class ShowGattServerServiceCharacteristicsCommand extends AbstractGattCom
                     put(RESULT_PROPERTIES_KEY, properties);
                     put(RESULT_VALUE_KEY, Bytes.byteArrayToHexString(characteristic.getValue()));
                 }};
-                JSONObject jsonObject = jsonBuilder.buildJsonResult(map);
-                jsonArray.put(jsonObject);
+                jsonStream.add(map);
             }
         }
 
-        ConsumerInterface consumer = config.getConsumer();
-        if (config.isJsonFormat()) {
-            consumer.consumeJson(jsonBuilder.makeJsonResult(getShortName(), PASS_STATUS, "", jsonArray));
+        if (jsonStream != null) {
+            jsonStream.close();
         } else {
-            consumer.consumeResult(jsonArray.toString());
+            // the text output has always ended with the empty json list
+            ConsumerInterface consumer = config.getConsumer();
+            consumer.consumeResult(new JSONArray().toString());
         }
     }
 
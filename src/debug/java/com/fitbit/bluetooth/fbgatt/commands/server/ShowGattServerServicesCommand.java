@@ -12,6 +12,7 @@ package com.fitbit.bluetooth.fbgatt.commands.server;
 
 import com.fitbit.bluetooth.fbgatt.GattServerConnection;
 import com.fitbit.bluetooth.fbgatt.commands.AbstractGattCommand;
+import com.fitbit.bluetooth.fbgatt.commands.JsonResultStream;
 import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
 import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
 import com.fitbit.bluetooth.fbgatt.tools.ConsumerInterface;
@@ -20,12 +21,10 @@ import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattService;
 
 import org.json.JSONArray;
-import org.json.JSONObject;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.PASS_STATUS;
 import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESULT_SERVICE_TYPE_KEY;
 import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.RESULT_SERVICE_UUID_KEY;
 
@@ -45,7 +44,7 @@ public class ShowGattServerServicesCommand extends AbstractGattCommand {
 
         GattServerConnection connection = config.getServerConnection();
         BluetoothGattServer gattServer = connection.getServer();
-        JSONArray jsonArray = new JSONArray();
+        JsonResultStream jsonStream = config.isJsonFormat() ? responseHandler.onJsonResultStream(config, getShortName()) : null;
         for (BluetoothGattService service : gattServer.getServices()) {
             String serviceUuid = service.getUuid().toString();
             String type;
@@ -60,22 +59,22 @@ public class ShowGattServerServicesCommand extends AbstractGattCommand {
                     type = "unknown";
             }
 
-            if (!config.isJsonFormat()) {
+            if (jsonStream == null) {
                 onMessage(config, String.format("| %1$32s | %2$32s |\n", serviceUuid, type));
             } else {
                 Map<String, Object> map = new LinkedHashMap<>();
                 map.put(RESULT_SERVICE_UUID_KEY, serviceUuid);
                 map.put(RESULT_SERVICE_TYPE_KEY, type);
-                JSONObject jsonObject = jsonBuilder.buildJsonResult(map);
-                jsonArray.put(jsonObject);
+                jsonStream.add(map);
             }
         }
 
-        ConsumerInterface consumer = config.getConsumer();
-        if (config.isJsonFormat()) {
-            consumer.consumeJson(jsonBuilder.makeJsonResult(getShortName(), PASS_STATUS, "", jsonArray));
+        if (jsonStream != null) {
+            jsonStream.close();
         } else {
-            consumer.consumeResult(jsonArray.toString());
+            // the text output has always ended with the empty json list
+            ConsumerInterface consumer = config.getConsumer();
+            consumer.consumeResult(new JSONArray().toString());
         }
     }
 }
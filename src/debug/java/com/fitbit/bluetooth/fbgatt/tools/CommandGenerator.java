@@ -16,6 +16,7 @@ import com.fitbit.bluetooth.fbgatt.commands.client.FindNearbyDevicesGattClientCo
 import com.fitbit.bluetooth.fbgatt.commands.client.GattClientConnectCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.GattClientDisconnectCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.GattClientDiscoverServicesCommand;
+import com.fitbit.bluetooth.fbgatt.commands.client.GattTimelineTraceCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.HelpCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.ReadGattClientCharacteristicCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.ReadGattClientDescriptorCommand;
@@ -32,6 +33,7 @@ import com.fitbit.bluetooth.fbgatt.commands.client.ShowRemoteServicesCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.StartGattCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.StopBackgroundScanGattClientCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.SubscribeToGattClientCharacteristicCommand;
+import com.fitbit.bluetooth.fbgatt.commands.client.ThroughputTestCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.UnsubscribeFromGattClientCharacteristicCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.WriteGattCharacteristicCommand;
 import com.fitbit.bluetooth.fbgatt.commands.client.WriteGattDescriptorCommand;
@@ -118,6 +120,8 @@ class CommandGenerator {
         commands.add(new WriteGattDescriptorCommand(config.getLogger(), config.getDevicePropertiesListener()));
         commands.add(new RefreshGattCommand(config.getFitbitGatt(), config.getLogger(), config.getDevicePropertiesListener()));
         commands.add(new ShowRemoteServicesCommand(config.getFitbitGatt(), config.getLogger(), config.getDevicePropertiesListener()));
+        commands.add(new ThroughputTestCommand(config.getLogger()));
+        commands.add(new GattTimelineTraceCommand(config.getFitbitGatt(), config.getLogger()));
 
         commands.add(new HelpCommand(commands, config.getLogger()));
 
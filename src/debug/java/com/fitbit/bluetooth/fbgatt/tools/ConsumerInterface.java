@@ -10,6 +10,7 @@
 
 package com.fitbit.bluetooth.fbgatt.tools;
 
+import com.fitbit.bluetooth.fbgatt.utils.JsonStreamWriter;
 import org.json.JSONObject;
 
 /**
@@ -30,6 +31,13 @@ public interface ConsumerInterface {
      */
     void consumeJson(JSONObject jsonObject);
 
+    /**
+     * Consume a JSON result as it is written, closing the writer ends the result
+     *
+     * @return the writer for the result
+     */
+    JsonStreamWriter consumeJsonStream();
+
     /**
      * Consume an Exception
      *
@@ -11,11 +11,15 @@
 package com.fitbit.bluetooth.fbgatt.tools;
 
 import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
+import com.fitbit.bluetooth.fbgatt.utils.JsonStreamWriter;
 import com.facebook.stetho.dumpapp.DumperContext;
 import org.json.JSONObject;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Default consumer based on the Stetho commands.
@@ -41,6 +45,11 @@ class DumperConsumer implements ConsumerInterface {
         consumeMessage(jsonObject.toString());
     }
 
+    @Override
+    public JsonStreamWriter consumeJsonStream() {
+        return new JsonStreamWriter(new LineWriter(printStream));
+    }
+
     @Override
     public void consumeError(Exception e) {
         StringWriter sw = new StringWriter();
@@ -65,4 +74,24 @@ class DumperConsumer implements ConsumerInterface {
             logger.logError(e);
         }
     }
+
+    /**
+     * Buffers the streamed JSON on its way to the dumper stream and ends it with a new line like
+     * {@link #consumeJson(JSONObject)}, without closing the dumper stream
+     */
+    private static class LineWriter extends OutputStreamWriter {
+        private final PrintStream printStream;
+
+        LineWriter(PrintStream printStream) {
+            super(printStream, StandardCharsets.UTF_8);
+            this.printStream = printStream;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            printStream.println();
+            printStream.flush();
+        }
+    }
 }
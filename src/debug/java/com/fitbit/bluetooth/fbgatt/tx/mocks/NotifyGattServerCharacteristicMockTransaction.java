@@ -52,8 +52,6 @@ public class NotifyGattServerCharacteristicMockTransaction extends NotifyGattSer
         mainHandler.postDelayed(() -> {
             if(shouldFail) {
                 if(shouldThrow) {
-                    // we want to apply this strategy to every phone, so we will provide an empty target android
-                    // device
                     TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(getName());
                     builder.responseStatus(GattDisconnectReason.getReasonForCode(GattStatus.GATT_INTERNAL_ERROR.getCode()).ordinal());
                     if(this.characteristic != null) {
@@ -64,7 +62,7 @@ public class NotifyGattServerCharacteristicMockTransaction extends NotifyGattSer
                     builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
                     getGattServer().setState(GattState.IDLE);
                     Strategy strategy = strategyProvider.
-                            getStrategyForPhoneAndGattConnection(null, null,
+                            getStrategyForSituation(null,
                                     Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                     if(strategy != null) {
                         strategy.applyStrategy();
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Map;
+import androidx.annotation.Nullable;
+
+/**
+ * Writes JSON straight to a {@link Writer} as it is produced instead of building a
+ * {@link JSONObject} tree first.  Strings and numbers are formatted by org.json itself so the
+ * output is byte for byte what {@link JSONObject#toString()} would have produced for the same
+ * values.
+ */
+public class JsonStreamWriter implements Closeable {
+    private final Writer out;
+    // one entry per open object or array, true once it has an element and needs a separator
+    private final ArrayDeque<Boolean> scopes = new ArrayDeque<>();
+    private boolean afterName;
+
+    public JsonStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        scopes.push(false);
+        out.write('{');
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return end('}');
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        scopes.push(false);
+        out.write('[');
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return end(']');
+    }
+
+    public JsonStreamWriter name(String name) throws IOException {
+        if (scopes.isEmpty() || afterName) {
+            throw new IllegalStateException("A name must be inside an object and followed by a value");
+        }
+        separate();
+        out.write(JSONObject.quote(name));
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Will write a value the way {@link JSONObject} would, nested {@link JSONObject}s and
+     * {@link JSONArray}s are written whole and anything else that is not a boolean or a number
+     * is written as its string
+     *
+     * @param value The value
+     * @return this writer
+     * @throws IOException if the underlying writer failed
+     */
+    public JsonStreamWriter value(@Nullable Object value) throws IOException {
+        beforeValue();
+        if (value == null || value == JSONObject.NULL) {
+            out.write("null");
+        } else if (value instanceof JSONObject || value instanceof JSONArray || value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Number) {
+            try {
+                out.write(JSONObject.numberToString((Number) value));
+            } catch (JSONException e) {
+                throw new IllegalArgumentException(e);
+            }
+        } else {
+            out.write(JSONObject.quote(value.toString()));
+        }
+        return this;
+    }
+
+    /**
+     * Will write a whole object from the entries of the map, in the map's iteration order.  Like
+     * {@link JSONObject#put(String, Object)} entries with a null value are left out.
+     *
+     * @param map The entries
+     * @return this writer
+     * @throws IOException if the underlying writer failed
+     */
+    public JsonStreamWriter object(Map<String, ?> map) throws IOException {
+        beginObject();
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (entry.getValue() != null) {
+                name(entry.getKey()).value(entry.getValue());
+            }
+        }
+        return endObject();
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private JsonStreamWriter end(char bracket) throws IOException {
+        if (scopes.isEmpty() || afterName) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        scopes.pop();
+        out.write(bracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        separate();
+    }
+
+    private void separate() throws IOException {
+        if (scopes.isEmpty()) {
+            return;
+        }
+        boolean hasElements = scopes.pop();
+        scopes.push(true);
+        if (hasElements) {
+            out.write(',');
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.List;
+import androidx.annotation.NonNull;
+
+/**
+ * A connection event listener that can receive several characteristic change notifications in a
+ * single callback.  Only used when the listener is registered with a {@link NotificationDeliveryPolicy}
+ * that has a batch size greater than one, otherwise notifications arrive one at a time through
+ * {@link ConnectionEventListener#onClientCharacteristicChanged(TransactionResult, GattConnection)}
+ */
+
+public interface BatchedConnectionEventListener extends ConnectionEventListener {
+    /**
+     * Will be called with the pending characteristic notifications for a connection, in the order
+     * in which they were received
+     * @param results The {@link TransactionResult}s mapping to these events, never empty
+     * @param connection The {@link GattConnection} for which these events originated
+     */
+    void onClientCharacteristicsChanged(@NonNull List<TransactionResult> results, @NonNull GattConnection connection);
+}
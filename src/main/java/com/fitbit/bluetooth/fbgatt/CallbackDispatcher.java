@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.util.LooperWatchdog;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.HandlerThread;
+import java.util.Locale;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Spreads the gatt client and server callbacks across a fixed number of ordered handler threads
+ * keyed by the remote device address.  Every callback for a given device always lands on the same
+ * shard so ordering per device is preserved, while a slow listener for one device will only delay
+ * the devices that happen to share its shard.
+ *
+ * The first shard is always the FitbitGatt async operation thread, so with a single shard the
+ * behavior is identical to posting everything to that thread.  That thread is watched by the
+ * FitbitGatt watchdog, the threads of the other shards are watched by this dispatcher.
+ */
+
+class CallbackDispatcher {
+    static final int DEFAULT_SHARD_COUNT = 1;
+
+    private final HandlerThread[] threads;
+    private final Handler[] handlers;
+    @Nullable
+    private LooperWatchdog[] watchdogs;
+
+    /**
+     * @param defaultThread The already started thread that will back the first shard
+     * @param shardCount The total number of shards, must be at least one
+     */
+    CallbackDispatcher(@NonNull HandlerThread defaultThread, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "The shard count must be at least 1, was %d", shardCount));
+        }
+        threads = new HandlerThread[shardCount];
+        handlers = new Handler[shardCount];
+        threads[0] = defaultThread;
+        handlers[0] = new Handler(defaultThread.getLooper());
+        for (int i = 1; i < shardCount; i++) {
+            HandlerThread thread = new HandlerThread(String.format(Locale.ENGLISH, "FitbitGatt Callback Thread %d", i), Thread.MAX_PRIORITY);
+            thread.start();
+            threads[i] = thread;
+            handlers[i] = new Handler(thread.getLooper());
+        }
+        Timber.v("Dispatching gatt callbacks across %d shard(s)", shardCount);
+    }
+
+    int getShardCount() {
+        return handlers.length;
+    }
+
+    /**
+     * @return The handler of the first shard, used for work that is not tied to a device
+     */
+    @NonNull
+    Handler getDefaultHandler() {
+        return handlers[0];
+    }
+
+    @NonNull
+    Handler getHandler(@Nullable BluetoothDevice device) {
+        return getHandler(device == null ? null : device.getAddress());
+    }
+
+    /**
+     * Will return the handler for the shard that owns this device address
+     *
+     * @param address The mac address of the remote device, or null for the default shard
+     * @return The shard handler
+     */
+    @NonNull
+    Handler getHandler(@Nullable String address) {
+        return handlers[shardFor(address)];
+    }
+
+    @VisibleForTesting
+    int shardFor(@Nullable String address) {
+        if (address == null || handlers.length == 1) {
+            return 0;
+        }
+        // spread the bits since mac addresses share long common prefixes
+        int hash = address.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % handlers.length;
+    }
+
+    /**
+     * Will start probing the threads owned by this dispatcher for stalls, see {@link LooperWatchdog}
+     */
+    synchronized void startWatching() {
+        if (watchdogs != null || threads.length == 1) {
+            return;
+        }
+        watchdogs = new LooperWatchdog[threads.length - 1];
+        for (int i = 1; i < threads.length; i++) {
+            watchdogs[i - 1] = new LooperWatchdog(threads[i].getLooper());
+            watchdogs[i - 1].startProbing();
+        }
+    }
+
+    synchronized void stopWatching() {
+        if (watchdogs == null) {
+            return;
+        }
+        for (LooperWatchdog watchdog : watchdogs) {
+            watchdog.stopProbing();
+        }
+        watchdogs = null;
+    }
+
+    /**
+     * Will stop the threads owned by this dispatcher, the first shard is owned by FitbitGatt and
+     * is left running
+     */
+    void quit() {
+        stopWatching();
+        for (int i = 1; i < threads.length; i++) {
+            threads[i].quitSafely();
+        }
+    }
+}
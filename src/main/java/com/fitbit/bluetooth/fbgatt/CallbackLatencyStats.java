@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the thread hops made to deliver transaction results, useful for seeing what the
+ * main thread hops cost against delivering on a caller supplied executor
+ */
+
+public class CallbackLatencyStats {
+    private final long mainThreadHops;
+    private final long mainThreadMeanMicros;
+    private final long mainThreadMaxMicros;
+    private final long executorHops;
+    private final long executorMeanMicros;
+    private final long executorMaxMicros;
+
+    CallbackLatencyStats(long mainThreadHops, long mainThreadMeanMicros, long mainThreadMaxMicros,
+                         long executorHops, long executorMeanMicros, long executorMaxMicros) {
+        this.mainThreadHops = mainThreadHops;
+        this.mainThreadMeanMicros = mainThreadMeanMicros;
+        this.mainThreadMaxMicros = mainThreadMaxMicros;
+        this.executorHops = executorHops;
+        this.executorMeanMicros = executorMeanMicros;
+        this.executorMaxMicros = executorMaxMicros;
+    }
+
+    /**
+     * @return The number of results posted to the main looper
+     */
+    public long getMainThreadHops() {
+        return mainThreadHops;
+    }
+
+    /**
+     * @return The average time in microseconds a result waited on the main looper
+     */
+    public long getMainThreadMeanMicros() {
+        return mainThreadMeanMicros;
+    }
+
+    /**
+     * @return The longest time in microseconds a result waited on the main looper
+     */
+    public long getMainThreadMaxMicros() {
+        return mainThreadMaxMicros;
+    }
+
+    /**
+     * @return The number of results handed to caller supplied executors
+     */
+    public long getExecutorHops() {
+        return executorHops;
+    }
+
+    /**
+     * @return The average time in microseconds a result waited on a caller supplied executor
+     */
+    public long getExecutorMeanMicros() {
+        return executorMeanMicros;
+    }
+
+    /**
+     * @return The longest time in microseconds a result waited on a caller supplied executor
+     */
+    public long getExecutorMaxMicros() {
+        return executorMaxMicros;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[CallbackLatencyStats mainThread: %d hops, mean: %dus, max: %dus, executor: %d hops, mean: %dus, max: %dus]",
+            mainThreadHops, mainThreadMeanMicros, mainThreadMaxMicros, executorHops, executorMeanMicros, executorMaxMicros);
+    }
+}
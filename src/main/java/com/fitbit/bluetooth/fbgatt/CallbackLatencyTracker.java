@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import androidx.annotation.NonNull;
+
+/**
+ * Counts the thread hops made to deliver transaction results and how long each waited before it
+ * ran, either on the main looper or on a caller supplied executor, see
+ * {@link GattTransaction#setCallbackExecutor(java.util.concurrent.Executor)}
+ */
+class CallbackLatencyTracker {
+
+    enum Hop {
+        MAIN_THREAD,
+        EXECUTOR
+    }
+
+    private final HopCounters mainThread = new HopCounters();
+    private final HopCounters executor = new HopCounters();
+
+    /**
+     * @param hop          The thread the result hopped to
+     * @param latencyNanos The time from the hop being requested until it ran
+     */
+    void onHop(@NonNull Hop hop, long latencyNanos) {
+        (hop == Hop.MAIN_THREAD ? mainThread : executor).add(Math.max(0, latencyNanos));
+    }
+
+    @NonNull
+    CallbackLatencyStats getStats() {
+        return new CallbackLatencyStats(mainThread.count.get(), mainThread.meanMicros(), mainThread.maxMicros(),
+            executor.count.get(), executor.meanMicros(), executor.maxMicros());
+    }
+
+    private static class HopCounters {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void add(long latencyNanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(latencyNanos);
+            long max = maxNanos.get();
+            while (latencyNanos > max && !maxNanos.compareAndSet(max, latencyNanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        private long meanMicros() {
+            long hops = count.get();
+            return hops == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / hops);
+        }
+
+        private long maxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+        }
+    }
+}
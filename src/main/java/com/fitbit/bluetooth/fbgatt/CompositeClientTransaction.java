@@ -8,6 +8,7 @@
 
 package com.fitbit.bluetooth.fbgatt;
 
+import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,6 +23,9 @@ import timber.log.Timber;
  * stack fails, the execution will be halted with a transaction result that indicates failure
  * then will return all execution results that have happened so far.
  *
+ * A {@link GattConnectTransaction} in the list waits for admission like any other connect, see
+ * {@link FitbitGatt#setConnectionAdmissionLimits(int, int)}.
+ *
  * Created by iowens on 04/25/19.
  */
 
@@ -32,6 +36,8 @@ public class CompositeClientTransaction extends GattClientTransaction implements
     private ArrayList<TransactionResult> results = new ArrayList<>();
     private AtomicInteger transactionIndex = new AtomicInteger(0);
     private TransactionQueueController compositeClientQueueController;
+    @Nullable
+    private volatile ConnectionAdmissionController.AdmissionRequest pendingAdmission;
 
     public CompositeClientTransaction(@Nullable GattConnection connection, @NonNull List<GattClientTransaction> transactionList) {
         super(connection, GattState.IDLE);
@@ -55,7 +61,12 @@ public class CompositeClientTransaction extends GattClientTransaction implements
 
     private void executeTransaction(){
         if(!transactionList.isEmpty()) {
-            transactionList.get(transactionIndex.get()).commit(result -> {
+            GattClientTransaction child = transactionList.get(transactionIndex.get());
+            if (child.getCallbackExecutor() == null && !child.hasStarted()) {
+                // the children deliver where we deliver, so their results need not hop again
+                child.setCallbackExecutor(getCallbackExecutor());
+            }
+            GattTransactionCallback childCallback = result -> {
                 // now result is going to typically be on the main thread and this is a problem, so
                 // in actuality we need to requeue the next tx run, the guarantee is that the provided
                 // tx will run in order and this does not violate that even if other tx jump in-between
@@ -85,7 +96,13 @@ public class CompositeClientTransaction extends GattClientTransaction implements
                     builder.transactionName(NAME).addTransactionResults(results);
                     callCallbackWithTransactionResultAndRelease(finalCallback, builder.build());
                 }
-            });
+            };
+            ConnectionAdmissionController admissionController = FitbitGatt.getInstance().getConnectionAdmissionController();
+            if (child instanceof GattConnectTransaction && admissionController != null && getConnection() != null) {
+                commitWhenAdmitted((GattConnectTransaction) child, admissionController, childCallback);
+            } else {
+                child.commit(childCallback);
+            }
         } else {
             Timber.w("[%s] Transaction list was empty", getDevice());
             TransactionResult.Builder builder = new TransactionResult.Builder();
@@ -95,6 +112,34 @@ public class CompositeClientTransaction extends GattClientTransaction implements
         }
     }
 
+    /**
+     * Will hold the connect until it is admitted, it is then run on our queue like the others
+     */
+    private void commitWhenAdmitted(GattConnectTransaction child, ConnectionAdmissionController admissionController,
+                                    GattTransactionCallback childCallback) {
+        GattConnection connection = getConnection();
+        pendingAdmission = admissionController.requestAdmission(connection, child.getAdmissionPriority(), () -> {
+            pendingAdmission = null;
+            TransactionQueueController queue = compositeClientQueueController;
+            if (queue == null) {
+                // we were closed while the connect waited, give the slot back
+                admissionController.onConnectFinished(connection, false);
+                return;
+            }
+            queue.queueTransaction(() -> child.commit(result -> {
+                admissionController.onConnectFinished(connection,
+                    TransactionResult.TransactionResultStatus.SUCCESS.equals(result.getResultStatus()));
+                childCallback.onTransactionComplete(result);
+            }));
+        }, () -> {
+            pendingAdmission = null;
+            childCallback.onTransactionComplete(new TransactionResult.Builder()
+                .transactionName(child.getName())
+                .resultStatus(TransactionResult.TransactionResultStatus.FAILURE)
+                .build());
+        });
+    }
+
     @Override
     protected void onGattClientTransactionTimeout(GattConnection connection) {
         super.onGattClientTransactionTimeout(connection);
@@ -118,6 +163,12 @@ public class CompositeClientTransaction extends GattClientTransaction implements
 
     @Override
     public void close() {
+        ConnectionAdmissionController.AdmissionRequest admission = pendingAdmission;
+        ConnectionAdmissionController admissionController = FitbitGatt.getInstance().getConnectionAdmissionController();
+        if (admission != null && admissionController != null) {
+            admissionController.withdraw(admission);
+            pendingAdmission = null;
+        }
         if (this.compositeClientQueueController != null) {
             this.compositeClientQueueController.stop();
             this.compositeClientQueueController = null;
@@ -55,7 +55,12 @@ public class CompositeServerTransaction extends GattServerTransaction implements
 
     private void executeTransaction() {
         if (!transactionList.isEmpty()) {
-            transactionList.get(transactionIndex.get()).commit(result -> {
+            GattServerTransaction child = transactionList.get(transactionIndex.get());
+            if (child.getCallbackExecutor() == null && !child.hasStarted()) {
+                // the children deliver where we deliver, so their results need not hop again
+                child.setCallbackExecutor(getCallbackExecutor());
+            }
+            child.commit(result -> {
                 // now result is going to typically be on the main thread and this is a problem, so
                 // in actuality we need to requeue the next tx run, the guarantee is that the provided
                 // tx will run in order and this does not violate that even if other tx jump in-between
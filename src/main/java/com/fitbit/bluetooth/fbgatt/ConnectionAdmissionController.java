@@ -0,0 +1,273 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Decides when a connect may be handed to the stack.  The Android stack can only work on a small
+ * number of connection attempts at once and can only hold a limited number of links, when we
+ * go over either it answers with 133s and we pay for the supervision timeouts, so it is faster
+ * to connect many devices a few at a time.
+ *
+ * Waiting connects are ordered by priority, then by signal strength since a strong signal is
+ * most likely to connect quickly, then by arrival.  A connect that has waited longer than
+ * {@link #STARVATION_THRESHOLD_MILLIS} is served in arrival order ahead of everything else
+ * so that a weak, low priority device is never locked out.
+ *
+ * A connect that is still waiting when its connection is closed or evicted, or when bluetooth
+ * goes off, is refused, it would otherwise wait for a link that will never come.
+ *
+ * The defaults are unlimited, in which case every connect is admitted immediately.
+ */
+
+class ConnectionAdmissionController {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    static final long STARVATION_THRESHOLD_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private int maxInFlightConnects = UNLIMITED;
+    private int maxActiveLinks = UNLIMITED;
+    private final List<AdmissionRequest> waiting = new ArrayList<>();
+    // a connection can have more than one connect in flight if the caller asks twice
+    private final List<GattConnection> inFlight = new ArrayList<>();
+    private final Set<GattConnection> activeLinks = new HashSet<>();
+    private long sequence;
+    private long admittedCount;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    /**
+     * Will set the limits, anything that was waiting and now fits will be admitted
+     *
+     * @param maxInFlightConnects The most connects that may be handed to the stack at once
+     * @param maxActiveLinks The most links, connected or connecting, that we may hold at once
+     */
+    void setLimits(int maxInFlightConnects, int maxActiveLinks) {
+        if (maxInFlightConnects < 1 || maxActiveLinks < 1) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                "The connection limits must be at least 1, were %d in flight and %d active", maxInFlightConnects, maxActiveLinks));
+        }
+        List<AdmissionRequest> admitted;
+        synchronized (this) {
+            this.maxInFlightConnects = maxInFlightConnects;
+            this.maxActiveLinks = maxActiveLinks;
+            admitted = admitWhatFits();
+        }
+        runAdmitted(admitted);
+    }
+
+    /**
+     * Will run the connect now if there is room, otherwise once there is
+     *
+     * @param connection The connection that wants to connect
+     * @param priority Higher priority connects are admitted first
+     * @param connect Hands the connect to the stack, will be run on the thread that made room
+     * @param refuse Completes the connect with a failure if it is refused while waiting, may be null
+     * @return The request, it can be withdrawn while it waits, see {@link #withdraw(AdmissionRequest)}
+     */
+    @NonNull
+    AdmissionRequest requestAdmission(@NonNull GattConnection connection, int priority, @NonNull Runnable connect,
+                                      @Nullable Runnable refuse) {
+        List<AdmissionRequest> admitted;
+        AdmissionRequest request;
+        synchronized (this) {
+            request = new AdmissionRequest(connection, priority, connection.getDevice().getRssi(),
+                sequence++, SystemClock.elapsedRealtime(), connect, refuse);
+            waiting.add(request);
+            admitted = admitWhatFits();
+            if (admitted.isEmpty()) {
+                Timber.d("[%s] Connect is waiting for admission, %d in flight, %d active, %d waiting",
+                    connection.getDevice(), inFlight.size(), activeLinks.size(), waiting.size());
+            }
+        }
+        runAdmitted(admitted);
+        return request;
+    }
+
+    /**
+     * Will drop the request if it is still waiting, it is neither run nor refused
+     *
+     * @param request The request
+     * @return true if it was still waiting
+     */
+    synchronized boolean withdraw(@NonNull AdmissionRequest request) {
+        return waiting.remove(request);
+    }
+
+    /**
+     * Will refuse the connects waiting for this connection, it was closed or evicted
+     *
+     * @param connection The connection
+     */
+    void refuseWaiting(@NonNull GattConnection connection) {
+        List<AdmissionRequest> refused = new ArrayList<>(1);
+        synchronized (this) {
+            Iterator<AdmissionRequest> iterator = waiting.iterator();
+            while (iterator.hasNext()) {
+                AdmissionRequest request = iterator.next();
+                if (request.connection == connection) {
+                    iterator.remove();
+                    refused.add(request);
+                }
+            }
+        }
+        runRefused(refused);
+    }
+
+    /**
+     * Will refuse every waiting connect, bluetooth is going off
+     */
+    void refuseAllWaiting() {
+        List<AdmissionRequest> refused;
+        synchronized (this) {
+            refused = new ArrayList<>(waiting);
+            waiting.clear();
+        }
+        runRefused(refused);
+    }
+
+    /**
+     * The connect transaction for this connection has completed
+     *
+     * @param connection The connection
+     * @param connected true if we are now connected
+     */
+    void onConnectFinished(@NonNull GattConnection connection, boolean connected) {
+        List<AdmissionRequest> admitted;
+        synchronized (this) {
+            inFlight.remove(connection);
+            if (connected) {
+                activeLinks.add(connection);
+            }
+            admitted = admitWhatFits();
+        }
+        runAdmitted(admitted);
+    }
+
+    /**
+     * The link for this connection has gone away, if it was one of ours
+     *
+     * @param connection The connection
+     */
+    void onLinkReleased(@NonNull GattConnection connection) {
+        List<AdmissionRequest> admitted;
+        synchronized (this) {
+            if (!activeLinks.remove(connection)) {
+                return;
+            }
+            admitted = admitWhatFits();
+        }
+        runAdmitted(admitted);
+    }
+
+    @NonNull
+    synchronized ConnectionAdmissionStats getStats() {
+        return new ConnectionAdmissionStats(waiting.size(), inFlight.size(), activeLinks.size(),
+            admittedCount, admittedCount == 0 ? 0 : totalWaitMillis / admittedCount, maxWaitMillis);
+    }
+
+    private List<AdmissionRequest> admitWhatFits() {
+        List<AdmissionRequest> admitted = new ArrayList<>(1);
+        long now = SystemClock.elapsedRealtime();
+        while (!waiting.isEmpty() && inFlight.size() < maxInFlightConnects
+            && inFlight.size() + activeLinks.size() < maxActiveLinks) {
+            AdmissionRequest next = pickNext(now);
+            waiting.remove(next);
+            inFlight.add(next.connection);
+            long waited = now - next.requestedAt;
+            admittedCount++;
+            totalWaitMillis += waited;
+            maxWaitMillis = Math.max(maxWaitMillis, waited);
+            if (waited > 0) {
+                Timber.d("[%s] Connect admitted after waiting %dms", next.connection.getDevice(), waited);
+            }
+            admitted.add(next);
+        }
+        return admitted;
+    }
+
+    @VisibleForTesting
+    AdmissionRequest pickNext(long now) {
+        AdmissionRequest best = null;
+        for (AdmissionRequest candidate : waiting) {
+            if (best == null || goesBefore(candidate, best, now)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static boolean goesBefore(AdmissionRequest a, AdmissionRequest b, long now) {
+        boolean aStarving = now - a.requestedAt >= STARVATION_THRESHOLD_MILLIS;
+        boolean bStarving = now - b.requestedAt >= STARVATION_THRESHOLD_MILLIS;
+        if (aStarving || bStarving) {
+            if (aStarving != bStarving) {
+                return aStarving;
+            }
+            return a.sequence < b.sequence;
+        }
+        if (a.priority != b.priority) {
+            return a.priority > b.priority;
+        }
+        if (a.rssi != b.rssi) {
+            return a.rssi > b.rssi;
+        }
+        return a.sequence < b.sequence;
+    }
+
+    private static void runAdmitted(List<AdmissionRequest> admitted) {
+        for (AdmissionRequest request : admitted) {
+            request.connect.run();
+        }
+    }
+
+    private static void runRefused(List<AdmissionRequest> refused) {
+        for (AdmissionRequest request : refused) {
+            Timber.d("[%s] Connect refused while waiting for admission", request.connection.getDevice());
+            if (request.refuse != null) {
+                request.refuse.run();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static class AdmissionRequest {
+        final GattConnection connection;
+        final int priority;
+        final int rssi;
+        final long sequence;
+        final long requestedAt;
+        final Runnable connect;
+        @Nullable
+        final Runnable refuse;
+
+        AdmissionRequest(GattConnection connection, int priority, int rssi, long sequence, long requestedAt, Runnable connect,
+                         @Nullable Runnable refuse) {
+            this.connection = connection;
+            this.priority = priority;
+            // zero means we never heard the device, treat it as the weakest signal
+            this.rssi = rssi == 0 ? Integer.MIN_VALUE : rssi;
+            this.sequence = sequence;
+            this.requestedAt = requestedAt;
+            this.connect = connect;
+            this.refuse = refuse;
+        }
+    }
+}
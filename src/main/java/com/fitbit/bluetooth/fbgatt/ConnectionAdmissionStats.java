@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the connection admission counters, useful for tuning the connection limits
+ * against how long connects have to wait for their turn
+ */
+
+public class ConnectionAdmissionStats {
+    private final int queuedConnects;
+    private final int inFlightConnects;
+    private final int activeLinks;
+    private final long admittedConnects;
+    private final long meanWaitMillis;
+    private final long maxWaitMillis;
+
+    ConnectionAdmissionStats(int queuedConnects, int inFlightConnects, int activeLinks,
+                             long admittedConnects, long meanWaitMillis, long maxWaitMillis) {
+        this.queuedConnects = queuedConnects;
+        this.inFlightConnects = inFlightConnects;
+        this.activeLinks = activeLinks;
+        this.admittedConnects = admittedConnects;
+        this.meanWaitMillis = meanWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return The number of connects waiting for admission
+     */
+    public int getQueuedConnects() {
+        return queuedConnects;
+    }
+
+    /**
+     * @return The number of connects that have been handed to the stack and have not yet completed
+     */
+    public int getInFlightConnects() {
+        return inFlightConnects;
+    }
+
+    /**
+     * @return The number of links that are established and have not yet been released
+     */
+    public int getActiveLinks() {
+        return activeLinks;
+    }
+
+    /**
+     * @return The number of connects that have been admitted
+     */
+    public long getAdmittedConnects() {
+        return admittedConnects;
+    }
+
+    /**
+     * @return The average time in milliseconds an admitted connect waited for its turn
+     */
+    public long getMeanWaitMillis() {
+        return meanWaitMillis;
+    }
+
+    /**
+     * @return The longest time in milliseconds an admitted connect waited for its turn
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[ConnectionAdmissionStats queued: %d, inFlight: %d, active: %d, admitted: %d, meanWait: %dms, maxWait: %dms]",
+            queuedConnects, inFlightConnects, activeLinks, admittedConnects, meanWaitMillis, maxWaitMillis);
+    }
+}
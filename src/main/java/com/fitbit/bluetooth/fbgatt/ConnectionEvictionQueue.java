@@ -0,0 +1,221 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Holds the eviction deadline of every disconnected connection in the connection map ordered by
+ * deadline, and wakes up on the provided handler exactly when the earliest one is due, so that
+ * expired connections are removed when their TTL ends rather than on a periodic sweep of the
+ * whole map.
+ *
+ * Rescheduling a connection leaves its old deadline in the heap marked as cancelled, those are
+ * skipped when they reach the head and the heap is rebuilt if they start to pile up.
+ *
+ * This also keeps a coarse history of the connection map size so that growth over a day of
+ * scanning can be observed.
+ */
+
+class ConnectionEvictionQueue {
+    static final long NO_DEADLINE = -1;
+    static final long SIZE_SAMPLE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    static final int MAX_SIZE_SAMPLES = 120;
+    private static final int MIN_HEAP_SIZE_TO_COMPACT = 32;
+
+    /**
+     * Will be called on the handler thread once per expired deadline
+     */
+    interface EvictionListener {
+        void onConnectionExpired(@NonNull GattConnection connection);
+    }
+
+    private final Handler handler;
+    private final EvictionListener listener;
+    private final PriorityQueue<Deadline> heap = new PriorityQueue<>();
+    private final Map<GattConnection, Deadline> scheduled = new HashMap<>();
+    private final ArrayDeque<ConnectionMapStats.Sample> sizeSamples = new ArrayDeque<>(MAX_SIZE_SAMPLES);
+    private final Runnable expireDueRunnable = this::expireDue;
+    private long wakeAt = NO_DEADLINE;
+    private long sequence;
+    private long evictedCount;
+    private int peakMapSize;
+
+    /**
+     * @param handler The handler that evictions will run on, this should not be the main thread
+     * @param listener The listener that performs the eviction
+     */
+    ConnectionEvictionQueue(@NonNull Handler handler, @NonNull EvictionListener listener) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    /**
+     * Will set or move the eviction deadline for this connection
+     *
+     * @param connection The connection
+     * @param deadline The elapsed realtime at which the connection should be evicted
+     */
+    synchronized void schedule(@NonNull GattConnection connection, long deadline) {
+        Deadline entry = new Deadline(connection, deadline, sequence++);
+        Deadline previous = scheduled.put(connection, entry);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        heap.add(entry);
+        compactIfNeeded();
+        rearm();
+    }
+
+    /**
+     * Will remove the eviction deadline for this connection, if it has one
+     *
+     * @param connection The connection
+     */
+    synchronized void cancel(@NonNull GattConnection connection) {
+        Deadline previous = scheduled.remove(connection);
+        if (previous != null) {
+            previous.cancelled = true;
+            rearm();
+        }
+    }
+
+    synchronized int getPendingEvictions() {
+        return scheduled.size();
+    }
+
+    synchronized void clear() {
+        heap.clear();
+        scheduled.clear();
+        handler.removeCallbacks(expireDueRunnable);
+        wakeAt = NO_DEADLINE;
+    }
+
+    /**
+     * Will record the connection map size, samples taken within the same interval are coalesced
+     * into the latest one
+     *
+     * @param mapSize The current size of the connection map
+     */
+    synchronized void recordMapSize(int mapSize) {
+        long now = SystemClock.elapsedRealtime();
+        peakMapSize = Math.max(peakMapSize, mapSize);
+        ConnectionMapStats.Sample last = sizeSamples.peekLast();
+        if (last != null && now - last.getElapsedRealtimeMillis() < SIZE_SAMPLE_INTERVAL_MILLIS) {
+            sizeSamples.pollLast();
+            sizeSamples.addLast(new ConnectionMapStats.Sample(last.getElapsedRealtimeMillis(), mapSize));
+            return;
+        }
+        if (sizeSamples.size() == MAX_SIZE_SAMPLES) {
+            sizeSamples.pollFirst();
+        }
+        sizeSamples.addLast(new ConnectionMapStats.Sample(now, mapSize));
+    }
+
+    @NonNull
+    synchronized ConnectionMapStats getStats(int mapSize) {
+        return new ConnectionMapStats(mapSize, Math.max(peakMapSize, mapSize), scheduled.size(),
+            evictedCount, new ArrayList<>(sizeSamples));
+    }
+
+    /**
+     * Will hand every connection whose deadline has passed to the listener
+     */
+    @VisibleForTesting
+    void expireDue() {
+        List<GattConnection> expired = new ArrayList<>(1);
+        synchronized (this) {
+            long now = SystemClock.elapsedRealtime();
+            Deadline head = heap.peek();
+            while (head != null && (head.cancelled || head.deadline <= now)) {
+                heap.poll();
+                if (!head.cancelled) {
+                    scheduled.remove(head.connection);
+                    expired.add(head.connection);
+                }
+                head = heap.peek();
+            }
+            evictedCount += expired.size();
+            wakeAt = NO_DEADLINE;
+            rearm();
+        }
+        for (GattConnection connection : expired) {
+            listener.onConnectionExpired(connection);
+        }
+    }
+
+    private void rearm() {
+        Deadline head = heap.peek();
+        while (head != null && head.cancelled) {
+            heap.poll();
+            head = heap.peek();
+        }
+        if (head == null) {
+            if (wakeAt != NO_DEADLINE) {
+                handler.removeCallbacks(expireDueRunnable);
+                wakeAt = NO_DEADLINE;
+            }
+            return;
+        }
+        if (wakeAt == head.deadline) {
+            return;
+        }
+        handler.removeCallbacks(expireDueRunnable);
+        handler.postDelayed(expireDueRunnable, Math.max(0, head.deadline - SystemClock.elapsedRealtime()));
+        wakeAt = head.deadline;
+    }
+
+    private void compactIfNeeded() {
+        if (heap.size() < MIN_HEAP_SIZE_TO_COMPACT || heap.size() <= 2 * scheduled.size()) {
+            return;
+        }
+        Iterator<Deadline> iterator = heap.iterator();
+        List<Deadline> live = new ArrayList<>(scheduled.size());
+        while (iterator.hasNext()) {
+            Deadline entry = iterator.next();
+            if (!entry.cancelled) {
+                live.add(entry);
+            }
+        }
+        heap.clear();
+        heap.addAll(live);
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        final GattConnection connection;
+        final long deadline;
+        final long sequence;
+        boolean cancelled;
+
+        Deadline(GattConnection connection, long deadline, long sequence) {
+            this.connection = connection;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            if (deadline != other.deadline) {
+                return deadline < other.deadline ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the connection map size and its eviction counters
+ */
+
+public class ConnectionMapStats {
+    private final int mapSize;
+    private final int peakMapSize;
+    private final int pendingEvictions;
+    private final long evictedConnections;
+    private final List<Sample> sizeHistory;
+
+    ConnectionMapStats(int mapSize, int peakMapSize, int pendingEvictions, long evictedConnections,
+                       @NonNull List<Sample> sizeHistory) {
+        this.mapSize = mapSize;
+        this.peakMapSize = peakMapSize;
+        this.pendingEvictions = pendingEvictions;
+        this.evictedConnections = evictedConnections;
+        this.sizeHistory = Collections.unmodifiableList(sizeHistory);
+    }
+
+    /**
+     * @return The number of connections in the map
+     */
+    public int getMapSize() {
+        return mapSize;
+    }
+
+    /**
+     * @return The largest the map has been
+     */
+    public int getPeakMapSize() {
+        return peakMapSize;
+    }
+
+    /**
+     * @return The number of disconnected connections that are waiting for their TTL to end
+     */
+    public int getPendingEvictions() {
+        return pendingEvictions;
+    }
+
+    /**
+     * @return The number of connections that have been evicted because their TTL ended
+     */
+    public long getEvictedConnections() {
+        return evictedConnections;
+    }
+
+    /**
+     * @return The map size over time, at most one sample per minute, oldest first
+     */
+    @NonNull
+    public List<Sample> getSizeHistory() {
+        return sizeHistory;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[ConnectionMapStats size: %d, peak: %d, pendingEvictions: %d, evicted: %d, samples: %d]",
+            mapSize, peakMapSize, pendingEvictions, evictedConnections, sizeHistory.size());
+    }
+
+    /**
+     * The connection map size at a point in time
+     */
+    public static class Sample {
+        private final long elapsedRealtimeMillis;
+        private final int size;
+
+        Sample(long elapsedRealtimeMillis, int size) {
+            this.elapsedRealtimeMillis = elapsedRealtimeMillis;
+            this.size = size;
+        }
+
+        /**
+         * @return The {@link android.os.SystemClock#elapsedRealtime()} of the sample
+         */
+        public long getElapsedRealtimeMillis() {
+            return elapsedRealtimeMillis;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "[%d: %d]", elapsedRealtimeMillis, size);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.concurrent.TimeUnit;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Decides how long a connection must stay in {@link GattState#DISCONNECTING} after the stack
+ * reports a disconnection before we release the client_if and allow a reconnect.
+ *
+ * When the link was terminated on purpose, by us or by the peer, the stack has already exchanged
+ * the terminate and is idle, so we can release immediately.  When the link timed out the
+ * supervision timeout has already elapsed on both sides, so like any other error we only give the
+ * stack {@link #DEFAULT_ERROR_SETTLE_MILLIS} to work off its queued operations.  Only when the link
+ * was dropped on our side without the peer hearing about it, a failed establishment or an LMP
+ * response timeout, may the peer still hold the link until its supervision timeout elapses, so then
+ * we wait for the negotiated supervision timeout, or {@link #DEFAULT_ERROR_SETTLE_MILLIS} if we
+ * never learned it.
+ *
+ * Some phones need longer than this, so if a reconnect made shortly after a release fails we
+ * learn an extra margin for this phone, and slowly give it back as reconnects succeed.
+ */
+
+class DisconnectSettlePolicy {
+    /**
+     * What we used to wait after every disconnection, still used when the link was lost and the
+     * peer should no longer hold it, or we do not know the supervision timeout
+     */
+    static final long DEFAULT_ERROR_SETTLE_MILLIS = 1000;
+    // the largest supervision timeout allowed by the spec
+    static final long MAX_SETTLE_MILLIS = TimeUnit.SECONDS.toMillis(32);
+    static final long MAX_LEARNED_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    static final long LEARNING_STEP_MILLIS = 250;
+    // reconnects attempted longer than this after a release tell us nothing about the settle time
+    static final long RECONNECT_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    static final long UNKNOWN = -1;
+
+    private long learnedMarginMillis;
+    private long settleCount;
+    private long cleanSettleCount;
+    private long totalSettleMillis;
+    private long lastSettleMillis = UNKNOWN;
+
+    /**
+     * @param reasonCode The status delivered with the disconnection, one of the {@link GattDisconnectReason} codes
+     * @return true if the link was terminated on purpose and the stack should be idle
+     */
+    static boolean isCleanDisconnect(int reasonCode) {
+        return reasonCode == GattDisconnectReason.GATT_CONN_UNKNOWN.getCode()
+            || reasonCode == GattDisconnectReason.GATT_CONN_TERMINATE_PEER_USER.getCode()
+            || reasonCode == GattDisconnectReason.GATT_CONN_TERMINATE_LOCAL_HOST.getCode();
+    }
+
+    /**
+     * @param reasonCode The status delivered with the disconnection, one of the {@link GattDisconnectReason} codes
+     * @return true if the link was dropped without a terminate reaching the peer, so the peer may
+     * still hold it until its supervision timeout elapses
+     */
+    static boolean mayStillBeHeldByPeer(int reasonCode) {
+        return reasonCode == GattDisconnectReason.GATT_CONN_FAIL_ESTABLISH.getCode()
+            || reasonCode == GattDisconnectReason.GATT_CONN_LMP_TIMEOUT.getCode();
+    }
+
+    /**
+     * Will work out and record how long to settle for this disconnection
+     *
+     * @param reasonCode The status delivered with the disconnection
+     * @param supervisionTimeoutMillis The negotiated supervision timeout, or {@link #UNKNOWN}
+     * @return The number of milliseconds to wait before releasing the connection
+     */
+    synchronized long onDisconnected(int reasonCode, long supervisionTimeoutMillis) {
+        boolean clean = isCleanDisconnect(reasonCode);
+        long settle;
+        if (clean) {
+            settle = learnedMarginMillis;
+        } else if (mayStillBeHeldByPeer(reasonCode)) {
+            long linkTimeout = supervisionTimeoutMillis > 0 ? supervisionTimeoutMillis : DEFAULT_ERROR_SETTLE_MILLIS;
+            settle = Math.min(MAX_SETTLE_MILLIS, linkTimeout + learnedMarginMillis);
+        } else {
+            // the margin is learned on top of nothing, so it only matters once it outgrows the default
+            settle = Math.max(DEFAULT_ERROR_SETTLE_MILLIS, learnedMarginMillis);
+        }
+        settleCount++;
+        if (clean) {
+            cleanSettleCount++;
+        }
+        totalSettleMillis += settle;
+        lastSettleMillis = settle;
+        return settle;
+    }
+
+    /**
+     * Will learn from the outcome of a connection attempt
+     *
+     * @param connected true if the attempt connected
+     * @param millisSinceRelease The time since this connection was last released, or {@link #UNKNOWN}
+     */
+    synchronized void onConnectAttemptFinished(boolean connected, long millisSinceRelease) {
+        if (millisSinceRelease == UNKNOWN || millisSinceRelease > RECONNECT_WINDOW_MILLIS) {
+            return;
+        }
+        long previous = learnedMarginMillis;
+        if (connected) {
+            learnedMarginMillis = Math.max(0, learnedMarginMillis - LEARNING_STEP_MILLIS / 4);
+        } else {
+            learnedMarginMillis = Math.min(MAX_LEARNED_MARGIN_MILLIS, learnedMarginMillis + LEARNING_STEP_MILLIS);
+        }
+        if (previous != learnedMarginMillis) {
+            Timber.v("Reconnect %dms after release %s, disconnect settle margin now %dms",
+                millisSinceRelease, connected ? "succeeded" : "failed", learnedMarginMillis);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized long getLearnedMarginMillis() {
+        return learnedMarginMillis;
+    }
+
+    @NonNull
+    synchronized DisconnectSettleStats getStats() {
+        return new DisconnectSettleStats(settleCount, cleanSettleCount,
+            settleCount == 0 ? 0 : totalSettleMillis / settleCount, lastSettleMillis, learnedMarginMillis);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of how long connections have waited after a disconnection before they could be
+ * used again
+ */
+
+public class DisconnectSettleStats {
+    private final long settleCount;
+    private final long cleanSettleCount;
+    private final long meanSettleMillis;
+    private final long lastSettleMillis;
+    private final long learnedMarginMillis;
+
+    DisconnectSettleStats(long settleCount, long cleanSettleCount, long meanSettleMillis,
+                          long lastSettleMillis, long learnedMarginMillis) {
+        this.settleCount = settleCount;
+        this.cleanSettleCount = cleanSettleCount;
+        this.meanSettleMillis = meanSettleMillis;
+        this.lastSettleMillis = lastSettleMillis;
+        this.learnedMarginMillis = learnedMarginMillis;
+    }
+
+    /**
+     * @return The number of disconnections that have been settled
+     */
+    public long getSettleCount() {
+        return settleCount;
+    }
+
+    /**
+     * @return The number of those disconnections that were terminated on purpose
+     */
+    public long getCleanSettleCount() {
+        return cleanSettleCount;
+    }
+
+    /**
+     * @return The average settle time in milliseconds
+     */
+    public long getMeanSettleMillis() {
+        return meanSettleMillis;
+    }
+
+    /**
+     * @return The most recent settle time in milliseconds, or -1 if there has not been one
+     */
+    public long getLastSettleMillis() {
+        return lastSettleMillis;
+    }
+
+    /**
+     * @return The extra time in milliseconds this phone has been found to need before a reconnect
+     */
+    public long getLearnedMarginMillis() {
+        return learnedMarginMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[DisconnectSettleStats settled: %d, clean: %d, meanSettle: %dms, lastSettle: %dms, learnedMargin: %dms]",
+            settleCount, cleanSettleCount, meanSettleMillis, lastSettleMillis, learnedMarginMillis);
+    }
+}
@@ -47,6 +47,9 @@ public class FitbitBluetoothDevice {
     BluetoothDevice device;
     private String bluetoothAddress;
     private int rssi;
+    private volatile int smoothedRssi;
+    // while the rssi monitor follows this device only its smoothed rssi changes are announced
+    private volatile boolean rssiMonitored;
     @Nullable
     private ScanRecord scanRecord;
     private String name;
@@ -95,6 +98,14 @@ public class FitbitBluetoothDevice {
 
     public int getRssi() { return rssi; }
 
+    /**
+     * @return The rssi smoothed by the rssi monitor, see {@link FitbitGatt#startRssiMonitor(float, float, int)},
+     * or the last raw rssi if the monitor isn't following this device
+     */
+    public int getSmoothedRssi() {
+        return rssiMonitored ? smoothedRssi : rssi;
+    }
+
     /**
      * Register a listener for changes in this fitbit bluetooth device, will notify on change of name
      * or rssi or scanrecord
@@ -171,9 +182,20 @@ public class FitbitBluetoothDevice {
 
     public void setRssi(int rssi) {
         this.rssi = rssi;
+        if (!rssiMonitored) {
+            notifyListenersOfPropertyChanged();
+        }
+    }
+
+    void setSmoothedRssi(int smoothedRssi) {
+        this.smoothedRssi = smoothedRssi;
         notifyListenersOfPropertyChanged();
     }
 
+    void setRssiMonitored(boolean rssiMonitored) {
+        this.rssiMonitored = rssiMonitored;
+    }
+
     void setScanRecord(ScanRecord scanRecord) {
         this.scanRecord = scanRecord;
         notifyListenersOfPropertyChanged();
@@ -18,7 +18,6 @@ import com.fitbit.bluetooth.fbgatt.logging.BitgattDebugTree;
 import com.fitbit.bluetooth.fbgatt.logging.BitgattReleaseTree;
 import com.fitbit.bluetooth.fbgatt.strategies.BluetoothOffClearGattServerStrategy;
 import com.fitbit.bluetooth.fbgatt.strategies.Strategy;
-import com.fitbit.bluetooth.fbgatt.tx.AddGattServerServiceTransaction;
 import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
 import com.fitbit.bluetooth.fbgatt.util.BluetoothManagerFacade;
 import com.fitbit.bluetooth.fbgatt.util.LooperWatchdog;
@@ -43,10 +42,14 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -92,13 +95,22 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     private static final int OPEN_GATT_SERVER_RETRY_COUNT = 3;
 
     private final ConcurrentHashMap<FitbitBluetoothDevice, GattConnection> connectionMap = new ConcurrentHashMap<>();
-    private static final long CLEANUP_INTERVAL = TimeUnit.MINUTES.toMillis(5);
     // this is only used on init
     private CopyOnWriteArrayList<FitbitGattCallback> overallGattEventListeners;
 
     private BluetoothGattServer gattServer;
-    // this is only used on init
+    // the services the gatt server should host, put back in place whenever the server is reopened
     private final CopyOnWriteArrayList<BluetoothGattService> servicesToAdd = new CopyOnWriteArrayList<>();
+    // set with setGattServerServices rather than for a single start, so a start without services keeps them
+    private volatile boolean servicesToAddWereSet;
+    // the uuids of the hosted services we put in place, the only ones a reconcile may remove
+    private volatile Set<UUID> gattServerOwnedServices = Collections.emptySet();
+    // when the services were last asked for, for the time to ready of the next reconcile
+    private volatile long gattServerServicesRequestedAt;
+    @Nullable
+    private volatile GattServerReconcileListener gattServerReconcileListener;
+    @Nullable
+    private volatile GattServerReconcileResult lastGattServerReconcileResult;
     @Nullable
     private GattServerConnection serverConnection;
     private GattServerCallback serverCallback;
@@ -121,14 +133,31 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     private AtomicBoolean isGattClientStarted = new AtomicBoolean(false);
     private Handler connectionCleanup;
     @Nullable
+    private ConnectionEvictionQueue connectionEvictionQueue;
+    @Nullable
     private LooperWatchdog asyncOperationThreadWatchdog;
     // this should be max priority so as to not affect performance
     private HandlerThread fitbitGattAsyncOperationThread = new HandlerThread("FitbitGatt Async Operation Thread", Thread.MAX_PRIORITY);
     private Handler fitbitGattAsyncOperationHandler;
+    @Nullable
+    private CallbackDispatcher callbackDispatcher;
+    // survives a shutdown, the shard threads are started again with the next start
+    private int callbackDispatchShardCount = CallbackDispatcher.DEFAULT_SHARD_COUNT;
+    private final ConnectionAdmissionController connectionAdmissionController = new ConnectionAdmissionController();
+    private final DisconnectSettlePolicy disconnectSettlePolicy = new DisconnectSettlePolicy();
+    private final RssiMonitor rssiMonitor = new RssiMonitor(connectionMap);
+    private final CallbackLatencyTracker callbackLatencyTracker = new CallbackLatencyTracker();
+    private final TransactionSkipTracker transactionSkipTracker = new TransactionSkipTracker();
+    private final TransactionQueueLimiter transactionQueueLimiter = new TransactionQueueLimiter();
+    private final PendingIntentScanBatcher pendingIntentScanBatcher = new PendingIntentScanBatcher(this);
+    private final StartupTracer startupTracer = new StartupTracer();
+    private final RadioToggleRestorer radioToggleRestorer = new RadioToggleRestorer();
+    private final GattTimelineTracer timelineTracer = new GattTimelineTracer();
     private BluetoothRadioStatusListener radioStatusListener;
     @VisibleForTesting
     volatile boolean isBluetoothOn;
     private volatile boolean slowLoggingEnabled = false;
+    private volatile boolean answeringSubscriptionReads = false;
 
     private BitGattDependencyProvider dependencyProvider = new BitGattDependencyProvider();
 
@@ -168,6 +197,7 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         ourInstance.alwaysConnectedScanner = new AlwaysConnectedScanner(1, false, Looper.getMainLooper());
         ourInstance.fitbitGattAsyncOperationThread.start();
         ourInstance.fitbitGattAsyncOperationHandler = new Handler(ourInstance.fitbitGattAsyncOperationThread.getLooper());
+        ourInstance.callbackDispatcher = new CallbackDispatcher(ourInstance.fitbitGattAsyncOperationThread, CallbackDispatcher.DEFAULT_SHARD_COUNT);
         // we need to make sure that this thread is alive and responsive or our gatt
         // flow will stop and we won't be able to tell
         ourInstance.asyncOperationThreadWatchdog = new LooperWatchdog(ourInstance.fitbitGattAsyncOperationThread.getLooper());
@@ -209,6 +239,364 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         return fitbitGattAsyncOperationThread;
     }
 
+    /**
+     * Will provide the dispatcher that routes the gatt client and server callbacks for each device
+     * to its own ordered callback thread
+     *
+     * @return The callback dispatcher, or null if FitbitGatt has not been set up
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    CallbackDispatcher getCallbackDispatcher() {
+        return callbackDispatcher;
+    }
+
+    /**
+     * Will set the number of threads used to deliver gatt client and server callbacks.  Callbacks
+     * for a single device are always delivered in order on the same thread, devices are hashed by
+     * address across the threads so that a slow listener for one device does not hold up
+     * callbacks for every other device.  The default is a single thread, the FitbitGatt async
+     * operation thread.
+     *
+     * This must be called before any of the start methods, as connections and callbacks bind to
+     * their thread when they are created.
+     *
+     * @param shardCount The number of callback threads, must be at least one
+     * @throws IllegalStateException if FitbitGatt is already started
+     * @throws IllegalArgumentException if the shard count is less than one
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public synchronized void setCallbackDispatchShardCount(int shardCount) {
+        if (isInitialized()) {
+            throw new IllegalStateException("The callback dispatch shard count must be set before FitbitGatt is started");
+        }
+        CallbackDispatcher previous = callbackDispatcher;
+        if (previous != null && previous.getShardCount() == shardCount) {
+            callbackDispatchShardCount = shardCount;
+            return;
+        }
+        callbackDispatchShardCount = shardCount;
+        callbackDispatcher = new CallbackDispatcher(fitbitGattAsyncOperationThread, shardCount);
+        if (previous != null) {
+            previous.quit();
+        }
+    }
+
+    /**
+     * Will provide the controller that decides when a connect may be handed to the stack
+     *
+     * @return The connection admission controller
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    ConnectionAdmissionController getConnectionAdmissionController() {
+        return connectionAdmissionController;
+    }
+
+    /**
+     * Will limit how many connects may be in progress with the stack at once, and how many links,
+     * established or in progress, we may hold at once.  Connects over either limit wait in a queue
+     * and are admitted by priority, see {@link com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction#setAdmissionPriority(int)},
+     * then by the strongest signal, then in the order they were requested, a connect that has
+     * waited too long is admitted ahead of the rest.  Connects inside a {@link CompositeClientTransaction}
+     * wait too.  A waiting connect fails if its connection is closed or evicted, or if bluetooth
+     * goes off.  Both default to unlimited.
+     *
+     * @param maxInFlightConnects The most connects that may be in progress at once, at least one
+     * @param maxActiveLinks The most links that may be held at once, at least one
+     * @throws IllegalArgumentException if either limit is less than one
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setConnectionAdmissionLimits(int maxInFlightConnects, int maxActiveLinks) {
+        connectionAdmissionController.setLimits(maxInFlightConnects, maxActiveLinks);
+    }
+
+    /**
+     * Will provide the connection admission counters, how many connects are waiting or in progress
+     * and how long admitted connects had to wait
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public ConnectionAdmissionStats getConnectionAdmissionStats() {
+        return connectionAdmissionController.getStats();
+    }
+
+    /**
+     * Will provide the policy that decides how long a connection settles after a disconnection
+     *
+     * @return The disconnect settle policy
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    DisconnectSettlePolicy getDisconnectSettlePolicy() {
+        return disconnectSettlePolicy;
+    }
+
+    /**
+     * Will provide the disconnect settle counters.  After a disconnection a connection is held in
+     * disconnecting until the stack has settled, immediately if the link was terminated on purpose
+     * and for the negotiated supervision timeout if it was lost, plus whatever margin this phone
+     * has been found to need.
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public DisconnectSettleStats getDisconnectSettleStats() {
+        return disconnectSettlePolicy.getStats();
+    }
+
+    /**
+     * @return The counters for the thread hops made to deliver transaction results
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    CallbackLatencyTracker getCallbackLatencyTracker() {
+        return callbackLatencyTracker;
+    }
+
+    /**
+     * Will provide how many thread hops were made to deliver transaction results and how long
+     * they waited, on the main thread and on caller supplied executors, see
+     * {@link GattConnection#setCallbackExecutor(java.util.concurrent.Executor)}
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public CallbackLatencyStats getCallbackLatencyStats() {
+        return callbackLatencyTracker.getStats();
+    }
+
+    /**
+     * @return The counters for transactions that were cancelled or ran past their deadline
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    TransactionSkipTracker getTransactionSkipTracker() {
+        return transactionSkipTracker;
+    }
+
+    /**
+     * Will provide how many transactions were cancelled or ran past their deadline, and how many
+     * of those were dropped before they reached the radio, see {@link TransactionHandle#cancel()}
+     * and {@link GattTransaction#setDeadline(long)}
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionSkipStats getTransactionSkipStats() {
+        return transactionSkipTracker.getStats();
+    }
+
+    /**
+     * @return The limits and the depth of all transaction queues together
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    TransactionQueueLimiter getTransactionQueueLimiter() {
+        return transactionQueueLimiter;
+    }
+
+    /**
+     * Will bound the transaction queues so that a producer that outruns the radio sheds work
+     * instead of growing a queue of stale operations.  Each connection and the gatt server has its
+     * own queue of at most the per connection capacity, and all of them together may hold at most
+     * the global capacity.  The transaction that is running does not count.  The queues are
+     * unlimited until this is called.
+     *
+     * @param perConnectionCapacity The most transactions that may wait on one queue, {@link Integer#MAX_VALUE} for no limit
+     * @param globalCapacity        The most transactions that may wait on all queues, {@link Integer#MAX_VALUE} for no limit
+     * @param policy                What to do when a queue is full
+     * @param blockTimeoutMillis    How long a producer waits for room with {@link QueueOverloadPolicy#BLOCK}
+     * @throws IllegalArgumentException if a capacity is less than 1 or the timeout is negative
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setTransactionQueueLimits(int perConnectionCapacity, int globalCapacity, @NonNull QueueOverloadPolicy policy, long blockTimeoutMillis) {
+        transactionQueueLimiter.setLimits(perConnectionCapacity, globalCapacity, policy, blockTimeoutMillis);
+    }
+
+    /**
+     * Will tell the listener whenever a transaction queue is full
+     *
+     * @param listener The listener
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void addTransactionQueueOverloadListener(@NonNull TransactionQueueOverloadListener listener) {
+        transactionQueueLimiter.addListener(listener);
+    }
+
+    /**
+     * @param listener The listener to remove
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void removeTransactionQueueOverloadListener(@NonNull TransactionQueueOverloadListener listener) {
+        transactionQueueLimiter.removeListener(listener);
+    }
+
+    /**
+     * Will provide the depth of all transaction queues together and how much work was shed, see
+     * {@link GattConnection#getTransactionQueueStats()} for a single connection
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionQueueStats getTransactionQueueStats() {
+        return transactionQueueLimiter.getStats();
+    }
+
+    /**
+     * Will read the rssi of the connected peripherals in turn, sharing one budget of reads across
+     * all of them.  A peripheral with transactions running or waiting is skipped so the reads
+     * never hold up data traffic.  The read values and the rssi of advertisements seen while
+     * scanning are smoothed with an exponential moving average and the smoothed value, see
+     * {@link FitbitBluetoothDevice#getSmoothedRssi()}, is announced to the
+     * {@link FitbitBluetoothDevice.DevicePropertiesChangedCallback} only once it has moved by
+     * the hysteresis, the raw values are no longer announced while the monitor runs.  Calling
+     * this again changes the settings.
+     *
+     * @param readsPerSecond  The reads per second across every connected peripheral
+     * @param smoothingFactor The weight of a new sample, above zero and at most one, lower is smoother
+     * @param hysteresisDb    How many dB the smoothed rssi must move before it is announced
+     * @throws IllegalArgumentException if a setting is out of range
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void startRssiMonitor(float readsPerSecond, float smoothingFactor, int hysteresisDb) {
+        if (fitbitGattAsyncOperationHandler == null) {
+            Timber.w("You are trying to monitor rssi before bitgatt was started");
+            return;
+        }
+        rssiMonitor.start(fitbitGattAsyncOperationHandler, readsPerSecond, smoothingFactor, hysteresisDb);
+    }
+
+    /**
+     * Will stop the rssi monitor, raw rssi changes will be announced again
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void stopRssiMonitor() {
+        rssiMonitor.stop();
+    }
+
+    /**
+     * Will provide the rssi monitor counters
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public RssiMonitorStats getRssiMonitorStats() {
+        return rssiMonitor.getStats();
+    }
+
+    /**
+     * Will provide the restorer of connections after bluetooth is turned off and on
+     *
+     * @return The radio toggle restorer
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    RadioToggleRestorer getRadioToggleRestorer() {
+        return radioToggleRestorer;
+    }
+
+    /**
+     * Will have bitgatt put the connections back after bluetooth is turned off and on.  When
+     * bluetooth starts going down the connected peripherals are remembered with their MTU,
+     * connection speed and notification subscriptions, and when it is back they are connected,
+     * discovered and set up again by bitgatt, the highest admission priority first, see
+     * {@link com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction#setAdmissionPriority(int)},
+     * one every pacing interval.  The {@link RadioRestoreListener}s are told once all of them are
+     * done.  If you enable this you should not reconnect on {@link FitbitGattCallback#onBluetoothOn()}
+     * yourself.  Off by default.
+     *
+     * @param pacingMillis The milliseconds between starting the restore of one connection and the next
+     * @throws IllegalArgumentException if the pacing is negative
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void enableRadioToggleRestore(long pacingMillis) {
+        if (fitbitGattAsyncOperationHandler == null) {
+            Timber.w("You are trying to restore connections before bitgatt was started");
+            return;
+        }
+        radioToggleRestorer.enable(fitbitGattAsyncOperationHandler, pacingMillis);
+    }
+
+    /**
+     * Will stop restoring connections after bluetooth is turned off and on, a restore in progress
+     * is abandoned
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void disableRadioToggleRestore() {
+        radioToggleRestorer.disable();
+    }
+
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void addRadioRestoreListener(@NonNull RadioRestoreListener listener) {
+        radioToggleRestorer.addListener(listener);
+    }
+
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void removeRadioRestoreListener(@NonNull RadioRestoreListener listener) {
+        radioToggleRestorer.removeListener(listener);
+    }
+
+    /**
+     * @return The outcome of the last restore of connections, or null if there hasn't been one
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public RadioRestoreResult getLastRadioRestoreResult() {
+        return radioToggleRestorer.getLastResult();
+    }
+
+    /**
+     * @return The timeline of transactions and callbacks being recorded, if any
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    GattTimelineTracer getTimelineTracer() {
+        return timelineTracer;
+    }
+
+    /**
+     * Will start recording when every transaction was queued, committed, handed to the stack,
+     * called back and delivered, with the thread and device, so that the queue, the radio and the
+     * callback threads can be seen on one timeline, see {@link #writeTimelineTrace(Writer)}.  While
+     * recording the same spans are emitted as {@link android.os.Trace} sections so that they line up
+     * with a systrace capture.  The previous recording is dropped.
+     *
+     * @param maxEvents The number of events to keep, once there are more the oldest are dropped
+     * @throws IllegalArgumentException if maxEvents is less than one
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void startTimelineTrace(int maxEvents) {
+        timelineTracer.start(maxEvents);
+    }
+
+    /**
+     * Will stop recording the timeline, what was recorded can still be written
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void stopTimelineTrace() {
+        timelineTracer.stop();
+    }
+
+    /**
+     * Will write the recorded timeline in the Chrome trace event format, it can be opened with
+     * Perfetto or chrome://tracing
+     *
+     * @param writer Where to write the trace, it is flushed but not closed
+     * @throws IOException if the writer fails
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void writeTimelineTrace(@NonNull Writer writer) throws IOException {
+        timelineTracer.writeTo(writer);
+    }
+
     /**
      * Interface for use in opening gatt server
      */
@@ -402,8 +790,11 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
      * This will copy  report delay, callback type, legacy
      * and will run using scan mode low latency as scan scan settings
      *
+     * If Android's limit on scan starts is used up the scan will be started as soon as the limit allows,
+     * {@link FitbitGattCallback#onScanStarted()} will be called when it actually starts.
+     *
      * @param context The android context for providing to the scanner
-     * @return True if the scan started, false if it did not
+     * @return True if the scan started or is waiting for the scan start limit, false if it did not
      */
 
     public boolean startHighPriorityScan(Context context) {
@@ -420,10 +811,12 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
 
     /**
      * Upon setting up your scan filters, this call will start to periodically scan for matching devices, it will notify via the {@link FitbitGattCallback}
-     * interface if a device is discovered and will provide the {@link GattConnection} to you
+     * interface if a device is discovered and will provide the {@link GattConnection} to you.  The
+     * scan windows get shorter and further apart while nothing new is found, and go back to full
+     * length as soon as a new device shows up.
      *
      * @param context The android context for the scanner
-     * @return True if the scan started, false if it did not
+     * @return True if the scan started or is waiting for the scan start limit, false if it did not
      */
     @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
     public boolean startPeriodicScan(Context context) {
@@ -653,6 +1046,22 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         peripheralScanner.resetFilters();
     }
 
+    /**
+     * Will provide the scan scheduler counters, scan starts, time spent scanning and how long it
+     * took to discover new devices, useful for weighing battery cost against discovery latency
+     *
+     * @return A snapshot of the counters, or null if the scanner isn't set up
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public ScanSchedulerStats getScanSchedulerStats() {
+        if (peripheralScanner == null) {
+            Timber.w("You are trying to get the scan counters, but the scanner isn't set-up, did you call FitbitGatt#initializeScanner?");
+            return null;
+        }
+        return peripheralScanner.getScanSchedulerStats();
+    }
+
     /**
      * To determine if the scanner is presently scanning or not
      *
@@ -703,15 +1112,57 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
      */
     @WorkerThread
     public synchronized void start(Context context) {
+        startupTracer.begin(false, null);
         startGattClient(context);
         startGattServer(context);
         initializeScanner(context);
     }
 
+    /**
+     * Will start all the components like {@link #start(Context)}, but without making the caller
+     * wait for the slow pieces.  The gatt server is opened on the async operation thread while the
+     * already connected and bonded peripherals are added on a startup thread of their own, so a
+     * gatt server open that hangs in the stack no longer holds up the known peripherals, and this
+     * returns once the quick pieces are done.  {@link FitbitGattCallback#onGattClientStarted()}
+     * and {@link FitbitGattCallback#onGattServerStarted(GattServerConnection)} are called as the
+     * pieces finish.
+     *
+     * @param context  The context
+     * @param listener Told how long each startup phase took, may be null, see also {@link #getStartupTrace()}
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void startConcurrently(@NonNull Context context, @Nullable StartupTraceListener listener) {
+        HandlerThread startupThread = new HandlerThread("FitbitGatt Startup Thread");
+        synchronized (this) {
+            startupTracer.begin(true, listener);
+            // first, the open is the slowest piece
+            startGattServer(context);
+            startupThread.start();
+            startGattClient(context, new Handler(startupThread.getLooper()));
+            initializeScanner(context);
+        }
+        // the thread ends once the known peripherals were added
+        startupThread.quitSafely();
+    }
+
+    /**
+     * Will provide the timing of each phase of the last {@link #start(Context)} or
+     * {@link #startConcurrently(Context, StartupTraceListener)}, phases that are still running
+     * are missing until they finish
+     *
+     * @return The trace so far, or null if FitbitGatt wasn't started with either
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public StartupTrace getStartupTrace() {
+        return startupTracer.getTrace();
+    }
+
     /**
      * Initializes the scanner component
      */
     public synchronized boolean initializeScanner(@NonNull Context context) {
+        startupTracer.phaseStarted(StartupPhase.SCANNER);
         boolean started = startSimple(context, (error -> {
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onScannerInitError(error);
@@ -721,8 +1172,10 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onScannerInitError(new BluetoothNotEnabledException());
             }
+            startupTracer.phaseFinished(StartupPhase.SCANNER, false);
             return false;
         }
+        startupTracer.phaseFinished(StartupPhase.SCANNER, started);
         return started;
     }
 
@@ -769,32 +1222,57 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
      *
      */
     public synchronized void startGattClient(@NonNull Context context) {
+        startGattClient(context, fitbitGattAsyncOperationHandler);
+    }
+
+    /**
+     * @param knownDevicesHandler The handler the connected and bonded peripherals are added on
+     */
+    private synchronized void startGattClient(@NonNull Context context, Handler knownDevicesHandler) {
         isGattClientStarted.set(true);
         if (!startSimple(context, (error -> {
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattClientStartError(error);
             }
         }))) {
+            skipClientStartupPhases();
             return;
         }
         if (!isBluetoothOn()) {
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattClientStartError(new BluetoothNotEnabledException());
             }
+            skipClientStartupPhases();
             return;
         }
         if (this.aclListener == null) {
+            startupTracer.phaseStarted(StartupPhase.ACL_LISTENER);
             this.aclListener = dependencyProvider.getNewLowEnergyAclListener();
             this.aclListener.register(this.appContext);
+            startupTracer.phaseFinished(StartupPhase.ACL_LISTENER, true);
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattClientStarted();
             }
             if (isBluetoothOn()) {
-                addConnectedDevices(this.appContext);
+                addConnectedDevices(this.appContext, knownDevicesHandler);
+            } else {
+                startupTracer.phaseSkipped(StartupPhase.KNOWN_DEVICES);
             }
+        } else {
+            skipClientStartupPhases();
         }
     }
 
+    private void skipClientStartupPhases() {
+        startupTracer.phaseSkipped(StartupPhase.ACL_LISTENER);
+        startupTracer.phaseSkipped(StartupPhase.KNOWN_DEVICES);
+    }
+
+    private void skipServerStartupPhases() {
+        startupTracer.phaseSkipped(StartupPhase.GATT_SERVER_OPEN);
+        startupTracer.phaseSkipped(StartupPhase.GATT_SERVER_SERVICES);
+    }
+
     synchronized void addConnectedDevice(BluetoothDevice device) {
         fitbitGattAsyncOperationHandler.post(() -> {
             FitbitBluetoothDevice fitbitBluetoothDevice = new FitbitBluetoothDevice(device);
@@ -813,8 +1291,10 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                 if (context != null) {
                     GattConnection conn = new GattConnection(device, context.getMainLooper());
                     conn.setState(GattState.CONNECTED);
-                    connectionMap.put(device, conn);
-                    FitbitGatt.getInstance().notifyListenersOfConnectionAdded(conn);
+                    // the known devices may be added at the same time, see addKnownDevices
+                    if (connectionMap.putIfAbsent(device, conn) == null) {
+                        FitbitGatt.getInstance().notifyListenersOfConnectionAdded(conn);
+                    }
                 } else {
                     Timber.w("Tried to add the connected device, but the cached context was null");
                 }
@@ -842,11 +1322,13 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     @SuppressWarnings("WeakerAccess") // API Method
     public synchronized void startGattServerWithServices(@NonNull Context context, @Nullable List<BluetoothGattService> services) {
         isGattServerStarted.set(true);
+        gattServerServicesRequestedAt = SystemClock.elapsedRealtime();
         if (!startSimple(context, (error -> {
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattServerStartError(error);
             }
         }))) {
+            skipServerStartupPhases();
             return;
         }
 
@@ -854,6 +1336,7 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattServerStartError(new BluetoothNotEnabledException());
             }
+            skipServerStartupPhases();
             return;
         }
 
@@ -862,11 +1345,13 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattServerStartError(new AlreadyStartedException());
             }
+            skipServerStartupPhases();
             return;
         }
 
         if (isGattServerStarting.getAndSet(true)) {
             Timber.tag("FitbitGattServer").d("Server is already trying to start");
+            skipServerStartupPhases();
             return;
         }
 
@@ -883,38 +1368,72 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         }
     }
 
+    /**
+     * Will enable batched scanning for scans started after this call.  When the controller
+     * supports offloaded batching, scan results are held by the controller for up to the report
+     * delay and then delivered together, each batch updates the connections in one pass and
+     * produces one burst of {@link FitbitGattCallback#onBluetoothPeripheralDiscovered(GattConnection)}
+     * with each device at most once.  This lets background scans wake the application processor
+     * far less often at the cost of discovery latency.  If the controller doesn't support
+     * batching the results are delivered as they arrive.
+     *
+     * @param reportDelayMillis The longest time in milliseconds results may be held, zero to disable
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setBatchedScanReportDelay(long reportDelayMillis) {
+        if(this.peripheralScanner != null) {
+            this.peripheralScanner.setBatchReportDelay(reportDelayMillis);
+        } else {
+            Timber.w("Scanner was not initialized so we are not updating the batch report delay");
+        }
+    }
+
     @NonNull
     @VisibleForTesting
     OpenGattServerCallback getOpenGattServerCallback(@Nullable List<BluetoothGattService> services) {
         return started -> {
 
             if (!started) {
+                startupTracer.phaseSkipped(StartupPhase.GATT_SERVER_SERVICES);
                 Timber.w("Could not get an instance of a gatt server, if you keep trying without fixing the issue, you might end up with too many server_if");
                 for (FitbitGattCallback readCallback : overallGattEventListeners) {
                     readCallback.onGattServerStartError(new MissingGattServerErrorException());
                 }
                 return;
             }
-            if (services != null) {
+            if (services != null && !services.isEmpty()) {
+                servicesToAdd.clear();
+                servicesToAdd.addAll(services);
+                servicesToAddWereSet = false;
+            } else if (!servicesToAddWereSet) {
+                // the services of an earlier start are not carried over to this one
+                servicesToAdd.clear();
+            }
+            if (!servicesToAdd.isEmpty()) {
                 Timber.v("Starting to add services, will set to started after complete");
                 // usually the android stack will add the service setup to the bt stack, if this stack
                 // is busy, this can take a while, so we'll need to wait until we get the callbacks
                 // for all of the expected services.
-                if (!services.isEmpty()) {
-                    servicesToAdd.clear();
-                    servicesToAdd.addAll(services);
-                    addServicesToGattServerOnStart();
-                }
+                addServicesToGattServerOnStart();
+            } else {
+                startupTracer.phaseSkipped(StartupPhase.GATT_SERVER_SERVICES);
             }
         };
     }
 
     private synchronized void initialize(Context context) {
         if (!isInitialized.get()) {
+            startupTracer.phaseStarted(StartupPhase.INITIALIZE);
             Timber.v("Starting fitbit gatt");
             appContext = context.getApplicationContext();
             peripheralScanner = dependencyProvider.getNewPeripheralScanner(this, this);
-            connectionCleanup = new Handler(context.getMainLooper());
+            // evictions run off of the main thread, unless the async thread was never started
+            Looper cleanupLooper = fitbitGattAsyncOperationThread.getLooper();
+            connectionCleanup = new Handler(cleanupLooper != null ? cleanupLooper : context.getMainLooper());
+            connectionEvictionQueue = new ConnectionEvictionQueue(connectionCleanup, this::evictExpiredConnection);
+            for (GattConnection connection : connectionMap.values()) {
+                connection.updateEvictionDeadline();
+            }
 
             Timber.v("Initializing the always connected scanner for one device, and that it should stop scanning when it finds one, if you wish to change this, please configure it.");
             if (radioStatusListener == null) {
@@ -922,12 +1441,22 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                 radioStatusListener.startListening();
                 radioStatusListener.setListener(this);
             }
+            if (callbackDispatcher != null && callbackDispatcher.getShardCount() != callbackDispatchShardCount) {
+                // the shard threads were stopped by the last shutdown
+                callbackDispatcher = new CallbackDispatcher(fitbitGattAsyncOperationThread, callbackDispatchShardCount);
+            }
             if (asyncOperationThreadWatchdog != null) {
                 asyncOperationThreadWatchdog.startProbing();
             }
+            if (callbackDispatcher != null) {
+                callbackDispatcher.startWatching();
+            }
             clientCallback = new GattClientCallback();
             serverCallback = new GattServerCallback();
             isInitialized.set(true);
+            startupTracer.phaseFinished(StartupPhase.INITIALIZE, true);
+        } else {
+            startupTracer.phaseSkipped(StartupPhase.INITIALIZE);
         }
     }
 
@@ -937,8 +1466,6 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
             errorHandler.onError(new BluetoothNotEnabledException());
             return false;
         }
-        // will start the cleanup process
-        decrementAndInvalidateClosedConnections();
         return true;
     }
 
@@ -968,10 +1495,22 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         Timber.v("Someone wants to shutdown the gatt");
         this.overallGattEventListeners.clear();
         this.servicesToAdd.clear();
+        this.servicesToAddWereSet = false;
+        this.gattServerOwnedServices = Collections.emptySet();
+        this.lastGattServerReconcileResult = null;
+        this.rssiMonitor.stop();
+        this.pendingIntentScanBatcher.stop();
+        this.radioToggleRestorer.disable();
+        this.timelineTracer.stop();
         this.connectionMap.clear();
         if (asyncOperationThreadWatchdog != null) {
             this.asyncOperationThreadWatchdog.stopProbing();
         }
+        if (callbackDispatcher != null && callbackDispatcher.getShardCount() > 1) {
+            // only the async operation thread is kept until the next start
+            callbackDispatcher.quit();
+            callbackDispatcher = new CallbackDispatcher(fitbitGattAsyncOperationThread, CallbackDispatcher.DEFAULT_SHARD_COUNT);
+        }
         //clean up callbacks and listeners;
         if (serverCallback != null) {
             serverCallback.unregisterAll();
@@ -1008,6 +1547,10 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         //clear up all references
         this.gattServer = null;
         this.serverConnection = null;
+        if (this.connectionEvictionQueue != null) {
+            this.connectionEvictionQueue.clear();
+        }
+        this.connectionEvictionQueue = null;
         this.connectionCleanup = null;
         this.isInitialized.set(false);
         this.isGattClientStarted.set(false);
@@ -1138,6 +1681,12 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     }
 
     private void notifyListenersOfConnectionAdded(GattConnection connection) {
+        // every connection that is put into the map is announced here, so this is where its TTL starts
+        ConnectionEvictionQueue evictionQueue = connectionEvictionQueue;
+        if (evictionQueue != null) {
+            connection.updateEvictionDeadline();
+            evictionQueue.recordMapSize(connectionMap.size());
+        }
         for (FitbitGattCallback callback : this.overallGattEventListeners) {
             callback.onBluetoothPeripheralDiscovered(connection);
         }
@@ -1209,49 +1758,106 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     }
 
     /**
-     * Will iterate through connections in the map to decrement those that need decrementing, and
-     * will evict those that need to be evicted.  This should run for as long as the singleton
-     * exists.
+     * Will evict a connection whose disconnected TTL has ended, if it is still disconnected and
+     * still in the map.  Connected peripherals are never evicted, the caller will need to
+     * disconnect them first, at which point their TTL starts running again.
+     *
+     * @param conn The expired connection
      */
-
-    private void decrementAndInvalidateClosedConnections() {
-        connectionCleanup.postDelayed(this::doDecrementAndInvalidateClosedConnections, CLEANUP_INTERVAL);
+    private void evictExpiredConnection(@NonNull GattConnection conn) {
+        FitbitBluetoothDevice device = conn.getDevice();
+        if (conn.isConnected() || connectionMap.get(device) != conn) {
+            return;
+        }
+        conn.close();
+        if (connectionMap.remove(device, conn)) {
+            notifyListenersOfConnectionDisconnected(conn);
+            Timber.v("Connection for %s is disconnected and pruned", device);
+        }
+        ConnectionEvictionQueue evictionQueue = connectionEvictionQueue;
+        if (evictionQueue != null) {
+            evictionQueue.recordMapSize(connectionMap.size());
+        }
     }
 
+    /**
+     * Will evict every connection whose TTL has ended right now rather than when the eviction
+     * queue next wakes up
+     */
     @VisibleForTesting
-    void doDecrementAndInvalidateClosedConnections() {
-        if (this.appContext == null) {
+    void evictExpiredConnections() {
+        ConnectionEvictionQueue evictionQueue = connectionEvictionQueue;
+        if (evictionQueue == null) {
             Timber.w("[%s] Bitgatt must not be started, please start bitgatt client.", Build.DEVICE);
             return;
         }
-        addConnectedDevices(this.appContext);
-        for (FitbitBluetoothDevice fitbitBluetoothDevice : getConnectionMap().keySet()) {
-            GattConnection conn = getConnectionMap().get(fitbitBluetoothDevice);
-            if (conn != null) {
-                // we only want to try to prune disconnected peripherals, there may be some
-                // peripherals that are connected that we want to get rid of, but the caller
-                // will need to disconnect them first, eventually we will clean up the
-                // connection
-                if (!conn.isConnected()) {
-                    long currentTtl = conn.getDisconnectedTTL();
-                    if (currentTtl <= 0) {
-                        conn.close();
-                        GattConnection connection = getConnectionMap().remove(fitbitBluetoothDevice);
-                        if (connection != null) {
-                            notifyListenersOfConnectionDisconnected(connection);
-                            Timber.v("Connection for %s is disconnected and pruned", connection.getDevice());
-                        }
-                    } else {
-                        conn.setDisconnectedTTL(currentTtl - CLEANUP_INTERVAL);
-                    }
-                }
-            }
+        evictionQueue.expireDue();
+    }
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @Nullable
+    ConnectionEvictionQueue getConnectionEvictionQueue() {
+        return connectionEvictionQueue;
+    }
+
+    /**
+     * Will provide the size of the connection map over time along with the eviction counters.
+     * Disconnected connections are evicted when their TTL ends, the TTL is reset whenever a
+     * transaction is run on the connection.
+     *
+     * @return A snapshot of the counters, or null if FitbitGatt has not been started
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public ConnectionMapStats getConnectionMapStats() {
+        ConnectionEvictionQueue evictionQueue = connectionEvictionQueue;
+        if (evictionQueue == null) {
+            return null;
         }
-        decrementAndInvalidateClosedConnections();
+        return evictionQueue.getStats(connectionMap.size());
     }
 
     @VisibleForTesting
     synchronized void addScannedDevice(FitbitBluetoothDevice device) {
+        GattConnection conn = putScannedDeviceIntoConnections(device);
+        if (conn != null) {
+            notifyListenersOfConnectionAdded(conn);
+        }
+    }
+
+    /**
+     * Will add a batch of scanned devices to the connection map while holding the lock once,
+     * then notify the listeners of every connection in the batch in one pass.  A connection
+     * will only be announced once per batch.
+     *
+     * @param devices The scanned devices
+     */
+    @VisibleForTesting
+    void addScannedDevices(@NonNull List<FitbitBluetoothDevice> devices) {
+        LinkedHashSet<GattConnection> discovered = new LinkedHashSet<>(devices.size());
+        synchronized (this) {
+            for (FitbitBluetoothDevice device : devices) {
+                GattConnection conn = putScannedDeviceIntoConnections(device);
+                if (conn != null) {
+                    discovered.add(conn);
+                }
+            }
+        }
+        Timber.v("Batch of %d scan results touched %d connections", devices.size(), discovered.size());
+        for (GattConnection conn : discovered) {
+            notifyListenersOfConnectionAdded(conn);
+        }
+    }
+
+    /**
+     * Will create the connection for a newly scanned device, or refresh the name, rssi and scan
+     * record of the existing one.  Must be called while holding the lock.
+     *
+     * @param device The scanned device
+     * @return The connection for this device, or null if bitgatt isn't started
+     */
+    @Nullable
+    private GattConnection putScannedDeviceIntoConnections(FitbitBluetoothDevice device) {
         // we need to deal with the scenario where the peripheral was connected, but now
         // it is disconnected, then it is picked up in the background with the scan
         // the listener could potentially be called back twice for the same connection
@@ -1260,13 +1866,12 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         if (null == conn) {
             if (appContext == null) {
                 Timber.w("[%s] Bitgatt must not be started, please start bitgatt client", device);
-                return;
+                return null;
             }
             Timber.v("Adding scanned device %s", device.toString());
             conn = new GattConnection(device, appContext.getMainLooper());
             device.origin = FitbitBluetoothDevice.DeviceOrigin.SCANNED;
             connectionMap.put(device, conn);
-            notifyListenersOfConnectionAdded(conn);
         } else {
             FitbitBluetoothDevice oldDevice = conn.getDevice();
             String previousDeviceName = oldDevice.getName();
@@ -1285,60 +1890,83 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                 oldDevice.setScanRecord(device.getScanRecord());
                 oldDevice.setRssi(device.getRssi());
             }
-            notifyListenersOfConnectionAdded(conn);
+            rssiMonitor.onScanRssi(oldDevice, device.getRssi());
         }
+        return conn;
     }
 
     /**
      * Will create connection objects representing all of the BTLE devices connected presently
-     * or bonded to this phone
+     * or bonded to this phone.  This is done on the given handler, with startConcurrently that is
+     * not the async operation thread, as that thread may be held for seconds opening the gatt server.
      */
-    private void addConnectedDevices(Context context) {
-        fitbitGattAsyncOperationHandler.post(() -> {
-            Timber.v("Adding connected or bonded devices");
-            BluetoothManagerFacade manager = dependencyProvider.getBluetoothManagerFacade(appContext);
-            if (manager != null) {
-                BluetoothAdapter adapter = manager.getAdapter();
-                if (adapter != null) {
-                    List<BluetoothDevice> connectedDevices = manager.getConnectedDevices(BluetoothProfile.GATT);
-                    for (BluetoothDevice connectedDevice : connectedDevices) {
-                        FitbitBluetoothDevice fitbitBluetoothDevice = new FitbitBluetoothDevice(connectedDevice);
-                        fitbitBluetoothDevice.origin = FitbitBluetoothDevice.DeviceOrigin.CONNECTED;
-                        GattConnection connection = connectionMap.get(fitbitBluetoothDevice);
-                        if (null == connection) {
-                            Timber.v("Adding connected device named %s, with address %s", connectedDevice.getName(), connectedDevice.getAddress());
-                            if (appContext != null) {
-                                GattConnection conn = new GattConnection(fitbitBluetoothDevice, appContext.getMainLooper());
-                                connectionMap.put(fitbitBluetoothDevice, conn);
-                                conn.initGattForConnectedDevice();
-                                FitbitGatt.getInstance().notifyListenersOfConnectionAdded(conn);
-                            } else {
-                                Timber.w("Tried to add a discovered device, but the cached context was null");
-                            }
-                        } else {
-                            connection.initGattForConnectedDevice();
-                        }
+    private void addConnectedDevices(Context context, Handler handler) {
+        handler.post(() -> {
+            startupTracer.phaseStarted(StartupPhase.KNOWN_DEVICES);
+            try {
+                Timber.v("Adding connected or bonded devices");
+                BluetoothManagerFacade manager = dependencyProvider.getBluetoothManagerFacade(appContext);
+                if (manager != null) {
+                    BluetoothAdapter adapter = manager.getAdapter();
+                    if (adapter != null) {
+                        addKnownDevices(manager.getConnectedDevices(BluetoothProfile.GATT), adapter.getBondedDevices());
                     }
+                }
+            } finally {
+                startupTracer.phaseFinished(StartupPhase.KNOWN_DEVICES, true);
+            }
+        });
+    }
 
-                    Set<BluetoothDevice> bondedDevices = adapter.getBondedDevices();
-                    for (BluetoothDevice bondedDevice : bondedDevices) {
-                        FitbitBluetoothDevice fitBluetoothDevice = new FitbitBluetoothDevice(bondedDevice);
-                        fitBluetoothDevice.origin = FitbitBluetoothDevice.DeviceOrigin.BONDED;
-                        if (null == connectionMap.get(fitBluetoothDevice)) {
-                            if (appContext == null) {
-                                Timber.w("[%s] Bitgatt must not be started, please start bitgatt", fitBluetoothDevice);
-                                return;
-                            }
-                            GattConnection conn = new GattConnection(fitBluetoothDevice, appContext.getMainLooper());
-                            Timber.v("Adding bonded device named %s, with address %s", bondedDevice.getName(), bondedDevice.getAddress());
-                            connectionMap.put(fitBluetoothDevice, conn);
-                            FitbitGatt.getInstance().notifyListenersOfConnectionAdded(conn);
-                        }
+    /**
+     * Will add the connected and bonded devices that aren't known yet, then notify the listeners
+     * of the connections that were added.  A device added at the same time by a scan or by the
+     * acl listener is kept and not announced twice, as the map is only ever added to if absent.
+     *
+     * @param connectedDevices The devices connected to the phone
+     * @param bondedDevices    The devices bonded to the phone
+     */
+    private void addKnownDevices(@Nullable List<BluetoothDevice> connectedDevices, @Nullable Set<BluetoothDevice> bondedDevices) {
+        Context context = appContext;
+        if (context == null) {
+            Timber.w("Bitgatt must not be started, please start bitgatt");
+            return;
+        }
+        List<GattConnection> added = new ArrayList<>();
+        if (connectedDevices != null) {
+            for (BluetoothDevice connectedDevice : connectedDevices) {
+                FitbitBluetoothDevice fitbitBluetoothDevice = new FitbitBluetoothDevice(connectedDevice);
+                fitbitBluetoothDevice.origin = FitbitBluetoothDevice.DeviceOrigin.CONNECTED;
+                GattConnection connection = connectionMap.get(fitbitBluetoothDevice);
+                if (null == connection) {
+                    Timber.v("Adding connected device named %s, with address %s", connectedDevice.getName(), connectedDevice.getAddress());
+                    GattConnection conn = new GattConnection(fitbitBluetoothDevice, context.getMainLooper());
+                    connection = connectionMap.putIfAbsent(fitbitBluetoothDevice, conn);
+                    if (connection == null) {
+                        connection = conn;
+                        added.add(conn);
                     }
                 }
+                connection.initGattForConnectedDevice();
             }
-            Timber.v("Added all connected or bonded devices");
-        });
+        }
+        if (bondedDevices != null) {
+            for (BluetoothDevice bondedDevice : bondedDevices) {
+                FitbitBluetoothDevice fitBluetoothDevice = new FitbitBluetoothDevice(bondedDevice);
+                fitBluetoothDevice.origin = FitbitBluetoothDevice.DeviceOrigin.BONDED;
+                if (null == connectionMap.get(fitBluetoothDevice)) {
+                    Timber.v("Adding bonded device named %s, with address %s", bondedDevice.getName(), bondedDevice.getAddress());
+                    GattConnection conn = new GattConnection(fitBluetoothDevice, context.getMainLooper());
+                    if (connectionMap.putIfAbsent(fitBluetoothDevice, conn) == null) {
+                        added.add(conn);
+                    }
+                }
+            }
+        }
+        Timber.v("Added all connected or bonded devices");
+        for (GattConnection conn : added) {
+            notifyListenersOfConnectionAdded(conn);
+        }
     }
 
     /**
@@ -1466,6 +2094,7 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
             fitbitGattAsyncOperationHandler.post(tryAndStartGattServer(this.appContext, callback, manager));
         } else {
             Timber.w("No bluetooth manager, we must be simulating, or BT is off!!!");
+            startupTracer.phaseFinished(StartupPhase.GATT_SERVER_OPEN, false);
             callback.onGattServerStatus(false);
         }
     }
@@ -1483,6 +2112,7 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                 //We observed this behaviour inside the FitbitGattTest instrumentation test
                 //when trying to start the gatt server multiple times
                 Timber.tag("FitbitGattServer").d("Trying to start the gatt server");
+                startupTracer.phaseStarted(StartupPhase.GATT_SERVER_OPEN);
                 if (gattServer != null) {
                     gattServer.close();
                 }
@@ -1491,7 +2121,10 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                     if (gattServer != null) {
                         if(gattServer.getServices().size() != 0) {
                             Timber.w("We have services on a fresh gatt server instance");
-                            gattServer.clearServices();
+                            // the ones we want will be kept and the ones we put there before removed when reconciling
+                            if (servicesToAdd.isEmpty()) {
+                                gattServer.clearServices();
+                            }
                         }
                         if (serverConnection != null) {
                             // We have a new server instance we need to replace it in the GattServerConnection
@@ -1500,6 +2133,7 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                         }
                         setGattServerConnection(new GattServerConnection(gattServer, context.getMainLooper()));
                         serverConnection.setState(GattState.IDLE);
+                        startupTracer.phaseFinished(StartupPhase.GATT_SERVER_OPEN, true);
                         callback.onGattServerStatus(true);
                         isGattServerStarting.set(false);
                         Timber.tag("FitbitGattServer").v("Gatt server successfully opened");
@@ -1508,6 +2142,7 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
                 }
                 isGattServerStarting.set(false);
                 Timber.tag("FitbitGattServer").w("Exhausted retries to open gatt server, recommend that you tell your user to clear bluetooth share in the apps list, the GATT db is probably corrupt");
+                startupTracer.phaseFinished(StartupPhase.GATT_SERVER_OPEN, false);
                 callback.onGattServerStatus(false);
             }
         };
@@ -1551,6 +2186,27 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         }
     }
 
+    /**
+     * @return The batcher that applies the results of the pending intent scan off the main thread
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    @NonNull
+    PendingIntentScanBatcher getPendingIntentScanBatcher() {
+        return pendingIntentScanBatcher;
+    }
+
+    /**
+     * Will provide how the results delivered by the pending intent scan were merged and applied,
+     * see {@link #startBackgroundScan(Context, Intent, List)}
+     *
+     * @return A snapshot of the counters
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public PendingIntentScanStats getPendingIntentScanStats() {
+        return pendingIntentScanBatcher.getStats();
+    }
+
     /**
      * To provide an API to attempt to always find a bluetooth device that the caller wants to know
      * is in close proximity.  If this is attempted on a version prior to Android Oreo,
@@ -1807,12 +2463,70 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
         addScannedDevice(device);
     }
 
+    @Override
+    public void onFitbitDevicesFound(List<FitbitBluetoothDevice> devices) {
+        addScannedDevices(devices);
+    }
+
+    /**
+     * Will make the gatt server host exactly the given services.  Services already hosted with
+     * the same layout are left in place, the others are removed and the missing ones added, see
+     * {@link #setGattServerReconcileListener(GattServerReconcileListener)} for the outcome.  If
+     * the server isn't running yet the services will be put in place once it starts, and they
+     * are put back in place whenever the server is reopened after the radio was toggled.
+     *
+     * @param services The services the gatt server should host
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public synchronized void setGattServerServices(@NonNull List<BluetoothGattService> services) {
+        gattServerServicesRequestedAt = SystemClock.elapsedRealtime();
+        servicesToAdd.clear();
+        servicesToAdd.addAll(services);
+        servicesToAddWereSet = true;
+        if (serverConnection != null && gattServer != null && serverConnection.getGattState() != GattState.CLOSED
+            && !isGattServerStarting.get()) {
+            addServicesToGattServerOnStart();
+        }
+    }
+
+    /**
+     * Will set the listener told each time the hosted services have been reconciled with the
+     * desired services
+     *
+     * @param listener The listener, or null to remove it
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setGattServerReconcileListener(@Nullable GattServerReconcileListener listener) {
+        this.gattServerReconcileListener = listener;
+    }
+
+    /**
+     * @return The outcome of the last reconcile of the hosted services, or null if there was none
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public GattServerReconcileResult getLastGattServerReconcileResult() {
+        return lastGattServerReconcileResult;
+    }
+
     private void addServicesToGattServerOnStart() {
+        startupTracer.phaseStarted(StartupPhase.GATT_SERVER_SERVICES);
         GattServerConnection server = getServer();
         if (server != null) {
-            CompositeServerTransaction addServicesTransaction = new CompositeServerTransaction(server, getGattAddServerServiceTransactions(servicesToAdd));
-            server.runTx(addServicesTransaction, getGattAddServicesOnTransactionCallback());
+            GattServerServiceReconciler reconciler = GattServerServiceReconciler.plan(servicesToAdd, server.getServer(),
+                gattServerOwnedServices, gattServerServicesRequestedAt);
+            if (reconciler.isEmpty()) {
+                Timber.d("Gatt server already hosts the desired services");
+                onGattServerServicesReconciled(reconciler, null);
+                return;
+            }
+            CompositeServerTransaction reconcileTransaction = new CompositeServerTransaction(server, reconciler.getTransactions(server));
+            server.runTx(reconcileTransaction, result -> {
+                Timber.d("Gatt server init add service result: %s", result);
+                onGattServerServicesReconciled(reconciler, result);
+            });
         } else {
+            startupTracer.phaseFinished(StartupPhase.GATT_SERVER_SERVICES, false);
             for (FitbitGattCallback cb : overallGattEventListeners) {
                 cb.onGattServerStartError(new MissingGattServerErrorException());
             }
@@ -1820,34 +2534,30 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
 
     }
 
-    @NonNull
-    private List<GattServerTransaction> getGattAddServerServiceTransactions(List<BluetoothGattService> services) {
-        List<GattServerTransaction> transactions = new ArrayList<>();
-        for (BluetoothGattService service : services) {
-            transactions.add(new AddGattServerServiceTransaction(getServer(), GattState.ADD_SERVICE_SUCCESS, service));
+    private void onGattServerServicesReconciled(GattServerServiceReconciler reconciler, @Nullable TransactionResult result) {
+        GattServerReconcileResult reconcileResult = reconciler.toResult(result, SystemClock.elapsedRealtime());
+        Timber.v("Gatt server services reconciled: %s", reconcileResult);
+        lastGattServerReconcileResult = reconcileResult;
+        gattServerOwnedServices = reconciler.getOwned(reconcileResult);
+        startupTracer.phaseFinished(StartupPhase.GATT_SERVER_SERVICES, reconcileResult.getFailed().isEmpty());
+        GattServerConnection server = getServer();
+        if (server != null) {
+            for (UUID removed : reconcileResult.getRemoved()) {
+                server.getSubscriptions().onServiceRemoved(removed);
+            }
         }
-        return transactions;
-    }
-
-    @NonNull
-    private GattTransactionCallback getGattAddServicesOnTransactionCallback() {
-        return result -> {
-            Timber.d("Gatt server init add service result: %s", result);
-            processAddServiceOnStartResult(result);
-        };
-    }
-
-    private void processAddServiceOnStartResult(TransactionResult result) {
-        if (!result.resultStatus.equals(TransactionResult.TransactionResultStatus.SUCCESS)) {
-            List<TransactionResult> results = result.getTransactionResults();
-            for (TransactionResult tr : results) {
-                if (!tr.resultStatus.equals(TransactionResult.TransactionResultStatus.SUCCESS)) {
-                    for (FitbitGattCallback cb : overallGattEventListeners) {
-                        cb.onGattServerStartError(new AddingServiceOnStartException(tr.getServiceUuid()));
-                    }
+        List<UUID> addedOnStart = reconciler.getServicesToAdd();
+        for (UUID failed : reconcileResult.getFailed()) {
+            if (addedOnStart.contains(failed)) {
+                for (FitbitGattCallback cb : overallGattEventListeners) {
+                    cb.onGattServerStartError(new AddingServiceOnStartException(failed));
                 }
             }
         }
+        GattServerReconcileListener listener = gattServerReconcileListener;
+        if (listener != null) {
+            listener.onGattServerServicesReconciled(reconcileResult);
+        }
     }
 
     /**
@@ -1855,9 +2565,16 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
      * mark them all as disconnected and start the TTL
      */
     private void cleanUpBecauseBluetoothIsTurningOff() {
+        // the connects waiting for admission would never get a link
+        connectionAdmissionController.refuseAllWaiting();
         for (Map.Entry<FitbitBluetoothDevice, GattConnection> entry : getConnectionMap().entrySet()) {
             cleanUpConnection(entry.getValue());
         }
+        // every central lost its link to the gatt server, only the bonded ones keep their configuration
+        GattServerConnection localServer = serverConnection;
+        if (localServer != null) {
+            localServer.dropUnbondedSubscriptions();
+        }
         // need to clean up scanner also, if BT turns off then we can no longer be scanning
         if (getPeripheralScanner() != null) {
             if (getPeripheralScanner().isPendingIntentScanning() || getPeripheralScanner().isScanning()) {
@@ -1888,6 +2605,8 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     public void bluetoothOff() {
         isBluetoothOn = false;
         Timber.v("Bluetooth is off");
+        // we will usually have taken this while turning off already
+        radioToggleRestorer.snapshot(getConnectionMap().values());
         cleanUpBecauseBluetoothIsTurningOff();
         for (FitbitGattCallback callback : overallGattEventListeners) {
             callback.onBluetoothOff();
@@ -1909,10 +2628,12 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
             return;
         }
         if (isGattServerStarted.get()) {
+            gattServerServicesRequestedAt = SystemClock.elapsedRealtime();
             startServer(getOpenGattServerCallbackOnBluetoothOn());
         }
         if (isGattClientStarted.get()) {
             switchAllConnectionsToDisconnectedBecauseBtIsOn();
+            radioToggleRestorer.restore();
         }
         for (FitbitGattCallback callback : overallGattEventListeners) {
             callback.onBluetoothOn();
@@ -1938,13 +2659,13 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     @Override
     public void bluetoothTurningOff() {
         isBluetoothOn = false;
+        // the links are still up, so this is the last chance to see how they were set up
+        radioToggleRestorer.snapshot(getConnectionMap().values());
         // let's try to clean up the gatt server on devices that are likely to duplicate or host
         // no services after add on startup due to queueing issues, almost all Samsung devices
-        // seem to behave in this way
-        AndroidDevice strategyDevice = new AndroidDevice.Builder().manufacturerName("Samsung").build();
+        // seem to behave in this way so the bundled strategy rules list them
         Strategy executableStrategy = new StrategyProvider()
-            .getStrategyForPhoneAndGattConnection(strategyDevice,
-                null,
+            .getStrategyForSituation(null,
                 Situation.CLEAR_GATT_SERVER_SERVICES_DEVICE_FUNKY_BT_IMPL);
         if(executableStrategy != null) {
             // we don't want to run any other strategies that may end up
@@ -1989,4 +2710,19 @@ public class FitbitGatt implements PeripheralScanner.TrackerScannerListener, Blu
     public void setSlowLoggingEnabled(boolean newValue) {
         slowLoggingEnabled = newValue;
     }
+
+    boolean isAnsweringSubscriptionReads() {
+        return answeringSubscriptionReads;
+    }
+
+    /**
+     * Use this method to have the gatt server answer reads of a client characteristic configuration
+     * descriptor with the value the reading central wrote, instead of delivering them to the
+     * {@link GattServerListener} and the server connection event listeners.  Disabled by default.
+     * @param newValue true to answer these reads in bitgatt, false to deliver them to the app.
+     */
+    @SuppressWarnings({"unused"}) // API Method
+    public void setAnswerSubscriptionReads(boolean newValue) {
+        answeringSubscriptionReads = newValue;
+    }
 }
@@ -24,11 +24,13 @@ import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import androidx.annotation.Nullable;
 import timber.log.Timber;
 
 /**
@@ -39,20 +41,37 @@ import timber.log.Timber;
 
 public class GattClientCallback extends BluetoothGattCallback {
 
-    private static final long HOT_QUEUE_EMPTYING_TIME = 1000; // we want to allow just enough for the android system queue to flush
-    private final Handler handler;
+    private final Handler defaultHandler;
     private final List<GattClientListener> listeners;
     private final GattUtils gattUtils = new GattUtils();
+    @Nullable
+    private final GattTimelineTracer timelineTracer;
 
     GattClientCallback() {
         super();
         this.listeners = Collections.synchronizedList(new ArrayList<>(4));
         Looper looper = FitbitGatt.getInstance().getFitbitGattAsyncOperationThread().getLooper();
-        this.handler = new Handler(looper);
+        this.defaultHandler = new Handler(looper);
+        this.timelineTracer = FitbitGatt.getInstance().getTimelineTracer();
     }
 
     Handler getClientCallbackHandler(){
-        return this.handler;
+        return this.defaultHandler;
+    }
+
+    /**
+     * Callbacks for a single remote device must stay ordered, so they are always posted to the
+     * dispatcher shard owned by that device
+     *
+     * @param gatt The gatt client, may be null if we are mocking
+     * @return The handler for this device's shard, or the default handler if there is no dispatcher
+     */
+    Handler getHandlerForGatt(@Nullable BluetoothGatt gatt) {
+        CallbackDispatcher dispatcher = FitbitGatt.getInstance().getCallbackDispatcher();
+        if (dispatcher == null || gatt == null) {
+            return this.defaultHandler;
+        }
+        return dispatcher.getHandler(gatt.getDevice());
     }
 
     void addListener(GattClientListener gattListener) {
@@ -86,18 +105,47 @@ public class GattClientCallback extends BluetoothGattCallback {
         return gattUtils.debugSafeGetBtDeviceName(gatt);
     }
 
+    /**
+     * If a timeline is being recorded, will mark the arrival of the callback on the stack's thread
+     * and wrap the dispatch to the listeners in a section on the thread it is posted to
+     *
+     * @param gatt     The gatt client, may be null if we are mocking
+     * @param callback The name of the callback
+     * @param dispatch The dispatch to the listeners
+     * @return The runnable to post
+     */
+    private Runnable traceDispatch(@Nullable BluetoothGatt gatt, String callback, Runnable dispatch) {
+        GattTimelineTracer tracer = timelineTracer;
+        if (tracer == null || !tracer.isRecording()) {
+            return dispatch;
+        }
+        String device = (gatt == null || gatt.getDevice() == null) ? null : gatt.getDevice().getAddress();
+        tracer.instant(GattTimelineTracer.CATEGORY_CALLBACK, callback, device);
+        return () -> {
+            long startedAt = tracer.beginSection(GattTimelineTracer.CATEGORY_CALLBACK, callback);
+            try {
+                dispatch.run();
+            } finally {
+                tracer.endSection(startedAt, GattTimelineTracer.CATEGORY_CALLBACK, callback, device);
+            }
+        };
+    }
+
     @Override
     public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
         super.onPhyUpdate(gatt, txPhy, rxPhy, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onPhyUpdate: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        for (GattClientListener listener : copy) {
-            if (listener.getDevice() != null && gatt != null && listener.getDevice().equals(gatt.getDevice())) {
-                handler.post(() -> listener.onPhyUpdate(gatt, txPhy, rxPhy, status));
+        handler.post(traceDispatch(gatt, "onPhyUpdate", () -> {
+            for (GattClientListener listener : copy) {
+                if (listener.getDevice() != null && gatt != null && listener.getDevice().equals(gatt.getDevice())) {
+                    listener.onPhyUpdate(gatt, txPhy, rxPhy, status);
+                }
             }
-        }
+        }));
         final GattConnection conn;
         if (gatt != null) {
             conn = FitbitGatt.getInstance().getConnection(gatt.getDevice());
@@ -129,20 +177,71 @@ public class GattClientCallback extends BluetoothGattCallback {
     @Override
     public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
         super.onPhyRead(gatt, txPhy, rxPhy, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onPhyRead: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        for (GattClientListener listener : copy) {
-            if(listener.getDevice() != null && gatt != null && listener.getDevice().equals(gatt.getDevice())) {
-                handler.post(() -> listener.onPhyRead(gatt, txPhy, rxPhy, status));
+        handler.post(traceDispatch(gatt, "onPhyRead", () -> {
+            for (GattClientListener listener : copy) {
+                if (listener.getDevice() != null && gatt != null && listener.getDevice().equals(gatt.getDevice())) {
+                    listener.onPhyRead(gatt, txPhy, rxPhy, status);
+                }
             }
+        }));
+    }
+
+    private long getDisconnectSettleMillis(GattConnection conn, int status) {
+        DisconnectSettlePolicy settlePolicy = FitbitGatt.getInstance().getDisconnectSettlePolicy();
+        long settleMillis = settlePolicy == null ? DisconnectSettlePolicy.DEFAULT_ERROR_SETTLE_MILLIS :
+            settlePolicy.onDisconnected(status, conn.getSupervisionTimeoutMillis());
+        conn.setLastDisconnectSettleMillis(settleMillis);
+        return settleMillis;
+    }
+
+    private void onConnectAttemptFinished(GattConnection conn, boolean connected) {
+        DisconnectSettlePolicy settlePolicy = FitbitGatt.getInstance().getDisconnectSettlePolicy();
+        long releasedAt = conn.getReleasedAt();
+        if (settlePolicy != null && releasedAt != DisconnectSettlePolicy.UNKNOWN) {
+            settlePolicy.onConnectAttemptFinished(connected, SystemClock.elapsedRealtime() - releasedAt);
+        }
+    }
+
+    /**
+     * This is hidden in the framework but is called on Android O and above whenever the
+     * connection parameters are updated, we keep the supervision timeout so that we know how
+     * long to settle after the link is lost, and the interval for link diagnostics.  This must not
+     * be annotated with override as it is not in the public sdk.
+     *
+     * @param gatt The gatt client
+     * @param interval The connection interval in 1.25ms units
+     * @param latency The slave latency in connection events
+     * @param timeout The supervision timeout in 10ms units
+     * @param status The gatt status of the update
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // hidden framework callback
+    public void onConnectionUpdated(BluetoothGatt gatt, int interval, int latency, int timeout, int status) {
+        Timber.v("[%s] onConnectionUpdated: interval %d, latency %d, timeout %d, Gatt Response Status %s",
+            getDeviceMacFromGatt(gatt), interval, latency, timeout, GattStatus.getStatusForCode(status));
+        if (gatt == null || status != BluetoothGatt.GATT_SUCCESS) {
+            return;
+        }
+        // there are no listeners to post to, so only the arrival is marked
+        GattTimelineTracer tracer = timelineTracer;
+        if (tracer != null && tracer.isRecording()) {
+            tracer.instant(GattTimelineTracer.CATEGORY_CALLBACK, "onConnectionUpdated", gatt.getDevice() == null ? null : gatt.getDevice().getAddress());
+        }
+        GattConnection conn = FitbitGatt.getInstance().getConnection(gatt.getDevice());
+        if (conn != null) {
+            conn.setSupervisionTimeoutMillis(timeout * 10L);
+            conn.setConnectionInterval(interval);
         }
     }
 
     @Override
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
         super.onConnectionStateChange(gatt, status, newState);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onConnectionStateChange: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         Timber.d("[%s]Connection state: %s", getDeviceMacFromGatt(gatt), newState == BluetoothProfile.STATE_CONNECTED ? "Connected" : "Not-Connected");
@@ -166,27 +265,29 @@ public class GattClientCallback extends BluetoothGattCallback {
         switch(newState) {
             case BluetoothProfile.STATE_DISCONNECTING: // never called by android
             case BluetoothProfile.STATE_DISCONNECTED:
-                Timber.d("[%s] Disconnection reason: %s", getDeviceMacFromGatt(gatt), GattDisconnectReason.getReasonForCode(newState));
+                Timber.d("[%s] Disconnection reason: %s", getDeviceMacFromGatt(gatt), GattDisconnectReason.getReasonForCode(status));
+                if (GattState.CONNECTING.equals(conn.getGattState())) {
+                    onConnectAttemptFinished(conn, false);
+                }
+                conn.resetLinkParameters();
                 /*
-                 * this is tricky, once we get here, the tracker has disconnected, but we still must
-                 * wait for supervision timeout length until we can connect again, so we will force
-                 * the state into disconnecting here for the connection object that requires it and
-                 * require a wait of 2 seconds ( the average supervision timeout ask ) before moving
-                 * it to "disconnected."  This will reduce the number of 133 and bad state errors
-                 * but if someone chooses the Android default 20s, or something greater than 2s
-                 * it might cause difficulty, as such I will log what is going on so someone debugging
-                 * can see what is occurring.  This will be posted before the callback on the main looper
-                 * so that the state transition should appear normal in the callback.  We can change the
-                 * hardcoded value when we can get information from the peripheral what the actual
-                 * connection supervision timeout is.
+                 * this is tricky, once we get here, the tracker has disconnected, but if the link
+                 * was lost we still must wait for the supervision timeout until we can connect
+                 * again, so we will force the state into disconnecting here for the connection
+                 * object that requires it and wait before moving it to "disconnected."  This will
+                 * reduce the number of 133 and bad state errors.  This will be posted before the
+                 * callback on the main looper so that the state transition should appear normal in
+                 * the callback.
                  *
                  * The other reason to wait here is because we want to block any other operations
                  * from trying to use this peripheral until the system has had time to work off the
-                 * backed up bluetooth operations in the queue if there were any, this number is somewhat
-                 * arbitrary, however we want for it to be less than the 60s timeout on a transaction
+                 * backed up bluetooth operations in the queue if there were any.  When the link was
+                 * terminated on purpose there is nothing to wait for, so the settle time comes from
+                 * the disconnect settle policy, see DisconnectSettlePolicy.
                  */
                 if(gatt != null) {
-                    Timber.w("[%s] disconnected, waiting %dms for full disconnection", getDeviceMacFromGatt(gatt), HOT_QUEUE_EMPTYING_TIME);
+                    long settleMillis = getDisconnectSettleMillis(conn, status);
+                    Timber.w("[%s] disconnected, waiting %dms for full disconnection", getDeviceMacFromGatt(gatt), settleMillis);
                     conn.setState(GattState.DISCONNECTING);
                     /*
                      * This is required so that we can cancel the connection attempt if one was pending
@@ -200,19 +301,23 @@ public class GattClientCallback extends BluetoothGattCallback {
                      * Please see : https://wiki.fitbit.com/pages/viewpage.action?pageId=123374229 for a lot more detail
                      */
                     gatt.disconnect();
-                    handler.postDelayed(() -> {
-                        conn.gattRelease();
-                        Timber.i("[%s] Full disconnection", getDeviceMacFromGatt(gatt));
-                        conn.setState(GattState.DISCONNECTED);
+                    // the arrival is traced now, the dispatch once we are fully disconnected
+                    Runnable dispatch = traceDispatch(gatt, "onConnectionStateChange", () -> {
                         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
                         copy.addAll(listeners);
                         for (GattClientListener listener : copy) {
                             if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                                 // we'll want to use the fake state here so that we can wait for disconnecting and call it back
                                 // normally once we are actually disconnected after the assumed supervision timeout.
-                                handler.post(() -> listener.onConnectionStateChange(gatt, status, BluetoothProfile.STATE_DISCONNECTED));
+                                listener.onConnectionStateChange(gatt, status, BluetoothProfile.STATE_DISCONNECTED);
                             }
                         }
+                    });
+                    handler.postDelayed(() -> {
+                        conn.gattRelease();
+                        Timber.i("[%s] Full disconnection", getDeviceMacFromGatt(gatt));
+                        conn.setState(GattState.DISCONNECTED);
+                        handler.post(dispatch);
                         // since this is one of the events that could happen asynchronously, we will
                         // need to iterate through our connection listeners, since this is a disconnection
                         // we will want to report failure so that upstream consumers don't get confused on a connection
@@ -223,28 +328,33 @@ public class GattClientCallback extends BluetoothGattCallback {
                                     .gattState(conn.getGattState())
                                     .responseStatus(GattDisconnectReason.getReasonForCode(status).ordinal()).build(), conn);
                         }
-                    }, HOT_QUEUE_EMPTYING_TIME);
+                    }, settleMillis);
                 } else {
                     Timber.v("[%s] Gatt was null, returning disconnected state immediately", getDeviceMacFromGatt(gatt));
                     ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
                     copy.addAll(listeners);
-                    for (GattClientListener listener : copy) {
-                        handler.post(() -> listener.onConnectionStateChange(null, status, BluetoothProfile.STATE_DISCONNECTED));
-                    }
+                    handler.post(traceDispatch(null, "onConnectionStateChange", () -> {
+                        for (GattClientListener listener : copy) {
+                            listener.onConnectionStateChange(null, status, BluetoothProfile.STATE_DISCONNECTED);
+                        }
+                    }));
                 }
                 break;
             case BluetoothProfile.STATE_CONNECTED:
+                onConnectAttemptFinished(conn, true);
                 ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
                 copy.addAll(listeners);
-                for (GattClientListener listener : copy) {
-                    if(gatt == null) {
-                        handler.post(() -> listener.onConnectionStateChange(null, status, BluetoothProfile.STATE_CONNECTED));
-                    } else if(listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
-                        handler.post(() -> listener.onConnectionStateChange(gatt, status, BluetoothProfile.STATE_CONNECTED));
-                    } else {
-                        Timber.v("[%s] We should never get here, but if we do it is not an exception", getDeviceMacFromGatt(gatt));
+                handler.post(traceDispatch(gatt, "onConnectionStateChange", () -> {
+                    for (GattClientListener listener : copy) {
+                        if(gatt == null) {
+                            listener.onConnectionStateChange(null, status, BluetoothProfile.STATE_CONNECTED);
+                        } else if(listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
+                            listener.onConnectionStateChange(gatt, status, BluetoothProfile.STATE_CONNECTED);
+                        } else {
+                            Timber.v("[%s] We should never get here, but if we do it is not an exception", getDeviceMacFromGatt(gatt));
+                        }
                     }
-                }
+                }));
                 // since this is one of the events that could happen asynchronously, we will
                 // need to iterate through our connection listeners, since this is a disconnection
                 // we will want to report success so that upstream consumers don't get confused,
@@ -268,18 +378,22 @@ public class GattClientCallback extends BluetoothGattCallback {
     @Override
     public void onServicesDiscovered(BluetoothGatt gatt, int status) {
         super.onServicesDiscovered(gatt, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onServicesDiscovered: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        for (GattClientListener listener : copy) {
-            if(listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
-                handler.post(() -> listener.onServicesDiscovered(gatt, status));
+        handler.post(traceDispatch(gatt, "onServicesDiscovered", () -> {
+            for (GattClientListener listener : copy) {
+                if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
+                    listener.onServicesDiscovered(gatt, status);
+                }
             }
-        }
+        }));
         GattConnection conn = FitbitGatt.getInstance().getConnection(gatt.getDevice());
         if(conn != null) {
             List<BluetoothGattService> discoveredServices = gatt.getServices();
+            conn.onServicesDiscovered(gatt, discoveredServices);
             // since this is one of the events that could happen asynchronously, we will
             // need to iterate through our connection listeners
             handler.post(() -> {
@@ -307,24 +421,26 @@ public class GattClientCallback extends BluetoothGattCallback {
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicRead(gatt, characteristic, status);
+        Handler handler = getHandlerForGatt(gatt);
         if (FitbitGatt.getInstance().isSlowLoggingEnabled()) {
             Timber.v("[%s] onCharacteristicRead: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
             Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         }
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onCharacteristicRead", () -> {
         for (GattClientListener listener : copy) {
             if(listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                listener.onCharacteristicRead(gatt, gattUtils.copyCharacteristic(characteristic), status);
             }
         }
-        });
+        }));
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicWrite(gatt, characteristic, status);
+        Handler handler = getHandlerForGatt(gatt);
         if (FitbitGatt.getInstance().isSlowLoggingEnabled()) {
             Timber.v("[%s] onCharacteristicWrite: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
             Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
@@ -332,18 +448,19 @@ public class GattClientCallback extends BluetoothGattCallback {
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
         final BluetoothGattCharacteristicCopy bluetoothGattCharacteristic = gattUtils.copyCharacteristic(characteristic);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onCharacteristicWrite", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                     listener.onCharacteristicWrite(gatt, bluetoothGattCharacteristic, status);
                 }
             }
-        });
+        }));
     }
 
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
         super.onCharacteristicChanged(gatt, characteristic);
+        Handler handler = getHandlerForGatt(gatt);
         if (FitbitGatt.getInstance().isSlowLoggingEnabled()) {
             Timber.d("[%s] onCharacteristicChanged: [Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         }
@@ -351,28 +468,41 @@ public class GattClientCallback extends BluetoothGattCallback {
         copy.addAll(listeners);
         BluetoothDevice device = gatt.getDevice();
         final BluetoothGattCharacteristicCopy copyOfCharacteristic = gattUtils.copyCharacteristic(characteristic);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onCharacteristicChanged", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(device)) {
                     listener.onCharacteristicChanged(gatt, copyOfCharacteristic);
                 }
             }
-        });
+        }));
         GattConnection conn = FitbitGatt.getInstance().getConnection(gatt.getDevice());
         if (conn != null) {
-            handler.post(() -> {
-                // since this is async, the result status is irrelevant so it will always be
-                // success because we received this data, as this is a snapshot of a live object
-                // we will need to copy the values into the tx result
-                TransactionResult result = new TransactionResult.Builder()
-                        .gattState(conn.getGattState())
-                        .characteristicUuid(copyOfCharacteristic.getUuid())
-                        .data(copyOfCharacteristic.getValue())
-                        .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
-                for (ConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
-                    asyncListener.onClientCharacteristicChanged(result, conn);
+            // since this is async, the result status is irrelevant so it will always be
+            // success because we received this data, as this is a snapshot of a live object
+            // we will need to copy the values into the tx result
+            TransactionResult result = new TransactionResult.Builder()
+                    .gattState(conn.getGattState())
+                    .characteristicUuid(copyOfCharacteristic.getUuid())
+                    .data(copyOfCharacteristic.getValue())
+                    .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
+            ArrayList<ConnectionEventListener> unboundedListeners = new ArrayList<>();
+            for (ConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
+                // listeners registered with a delivery policy get their own bounded queue so
+                // that a slow listener can't flood the handler
+                NotificationDeliveryQueue deliveryQueue = conn.getNotificationDeliveryQueue(asyncListener);
+                if (deliveryQueue != null) {
+                    deliveryQueue.offer(result);
+                } else {
+                    unboundedListeners.add(asyncListener);
                 }
-            });
+            }
+            if (!unboundedListeners.isEmpty()) {
+                handler.post(() -> {
+                    for (ConnectionEventListener asyncListener : unboundedListeners) {
+                        asyncListener.onClientCharacteristicChanged(result, conn);
+                    }
+                });
+            }
         } else if (FitbitGatt.getInstance().isSlowLoggingEnabled()){
             Timber.v("[%s] Gatt was null, we could be mocking, if so we can't notify async", getDeviceMacFromGatt(gatt));
         }
@@ -381,87 +511,93 @@ public class GattClientCallback extends BluetoothGattCallback {
     @Override
     public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorRead(gatt, descriptor, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onDescriptorRead: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
         final BluetoothGattDescriptorCopy bluetoothGattDescriptorCopy = gattUtils.copyDescriptor(descriptor);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onDescriptorRead", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                     listener.onDescriptorRead(gatt, bluetoothGattDescriptorCopy, status);
                 }
             }
-        });
+        }));
     }
 
     @Override
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorWrite(gatt, descriptor, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onDescriptorWrite: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
         final BluetoothGattDescriptorCopy bluetoothGattDescriptorCopy = gattUtils.copyDescriptor(descriptor);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onDescriptorWrite", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                     listener.onDescriptorWrite(gatt, bluetoothGattDescriptorCopy, status);
                 }
             }
-        });
+        }));
     }
 
     @Override
     public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
         super.onReliableWriteCompleted(gatt, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onReliableWriteCompleted: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onReliableWriteCompleted", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                     listener.onReliableWriteCompleted(gatt, status);
                 }
             }
-        });
+        }));
     }
 
     @Override
     public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
         super.onReadRemoteRssi(gatt, rssi, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onReadRemoteRssi: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onReadRemoteRssi", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                     listener.onReadRemoteRssi(gatt, rssi, status);
                 }
             }
-        });
+        }));
     }
 
     @Override
     public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
         super.onMtuChanged(gatt, mtu, status);
+        Handler handler = getHandlerForGatt(gatt);
         Timber.v("[%s] onMtuChanged: Gatt Response Status %s", getDeviceMacFromGatt(gatt), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromGatt(gatt), Thread.currentThread().getName());
         ArrayList<GattClientListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
-        handler.post(() -> {
+        handler.post(traceDispatch(gatt, "onMtuChanged", () -> {
             for (GattClientListener listener : copy) {
                 if (listener.getDevice() != null && listener.getDevice().equals(gatt.getDevice())) {
                     listener.onMtuChanged(gatt, mtu, status);
                 }
             }
-        });
+        }));
         GattConnection conn = FitbitGatt.getInstance().getConnection(gatt.getDevice());
         if(conn != null) {
             TransactionResult.Builder builder = new TransactionResult.Builder();
             if(status == BluetoothGatt.GATT_SUCCESS) {
+                conn.setMtu(mtu);
                 builder.resultStatus(TransactionResult.TransactionResultStatus.SUCCESS);
             } else {
                 builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
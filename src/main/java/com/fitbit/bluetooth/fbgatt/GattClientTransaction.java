@@ -73,7 +73,7 @@ public class GattClientTransaction extends GattTransaction<GattClientTransaction
                 TransactionResult transactionResult = new TransactionResult.Builder().transactionName(tx.getName())
                         .gattState(tx.getConnection().getGattState())
                         .resultStatus(TransactionResult.TransactionResultStatus.INVALID_STATE).build();
-                mainThreadHandler.post(() -> callback.onTransactionComplete(transactionResult));
+                postToCallbackThread(() -> callback.onTransactionComplete(transactionResult));
                 release();
                 // we will dispose of all timeouts now because none of the other runnables
                 // will complete
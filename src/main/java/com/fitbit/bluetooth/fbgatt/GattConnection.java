@@ -8,24 +8,34 @@
 
 package com.fitbit.bluetooth.fbgatt;
 
+import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.ReadGattCharacteristicTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.RequestGattConnectionIntervalTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.WriteGattCharacteristicTransaction;
 import com.fitbit.bluetooth.fbgatt.util.GattStatus;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 import static com.fitbit.bluetooth.fbgatt.FitbitGatt.atLeastSDK;
@@ -39,29 +49,96 @@ import static com.fitbit.bluetooth.fbgatt.FitbitGatt.atLeastSDK;
  */
 
 public class GattConnection implements Closeable {
+    /**
+     * The ATT MTU every link starts with before an exchange
+     */
+    public static final int DEFAULT_MTU = 23;
+    public static final int UNKNOWN_CONNECTION_INTERVAL = -1;
     private AtomicLong disconnectedTTL;
     private FitbitBluetoothDevice device;
     private @Nullable volatile BluetoothGatt gatt;
     private GattState state;
-    private GattStateTransitionValidator<GattClientTransaction> guard;
-    private final ConcurrentHashMap<ConnectionEventListener, Boolean> asynchronousEventListeners = new ConcurrentHashMap<>();
+    // the validator holds no state, so every connection can share it
+    private static final GattStateTransitionValidator<GattClientTransaction> guard = new GattStateTransitionValidator<>();
+    /*
+     * Most connections are created for advertisers that we only ever see in a scan, so everything
+     * that is only needed once the connection is used, the listener maps, the transaction queue
+     * and its thread, and the main handler, is created on first use
+     */
+    private volatile @Nullable ConcurrentHashMap<ConnectionEventListener, Boolean> asynchronousEventListeners;
+    private volatile @Nullable ConcurrentHashMap<ConnectionEventListener, NotificationDeliveryQueue> notificationDeliveryQueues;
     private boolean mockMode;
-    private List<BluetoothGattService> mockServices;
-    private TransactionQueueController clientQueue;
+    // looked up live rather than indexed, tests keep adding characteristics to these services
+    private volatile @Nullable List<BluetoothGattService> mockServices;
+    // swapped as a whole on every discovery, readers never lock
+    private volatile @Nullable GattServiceIndex serviceIndex;
+    private volatile @Nullable TransactionQueueController clientQueue;
     private AtomicLong intraTransactionDelay = new AtomicLong(0);
-    private @NonNull Handler mainHandler;
+    @Nullable
+    private volatile Executor callbackExecutor;
+    private volatile long evictionDeadline = ConnectionEvictionQueue.NO_DEADLINE;
+    private volatile long supervisionTimeoutMillis = DisconnectSettlePolicy.UNKNOWN;
+    private volatile int mtu = DEFAULT_MTU;
+    private volatile int connectionInterval = UNKNOWN_CONNECTION_INTERVAL;
+    private volatile @Nullable RequestGattConnectionIntervalTransaction.Speed requestedConnectionSpeed;
+    // replaced as a whole on every change, readers never lock
+    private volatile List<NotificationSubscription> notificationSubscriptions = Collections.emptyList();
+    private volatile int lastAdmissionPriority;
+    private volatile long lastDisconnectSettleMillis = DisconnectSettlePolicy.UNKNOWN;
+    private volatile long releasedAt = DisconnectSettlePolicy.UNKNOWN;
+    private final Looper mainLooper;
+    private volatile @Nullable Handler mainHandler;
+    private volatile @Nullable TransactionPool<ReadGattCharacteristicTransaction> readPool;
+    private volatile @Nullable TransactionPool<WriteGattCharacteristicTransaction> writePool;
 
     public GattConnection(FitbitBluetoothDevice device, Looper mainLooper) {
         this.device = device;
-        this.guard = new GattStateTransitionValidator<GattClientTransaction>();
-        this.mockServices = new ArrayList<>(1);
-        this.clientQueue = new TransactionQueueController(this);
         this.state = GattState.DISCONNECTED;
         this.disconnectedTTL = new AtomicLong(FitbitGatt.MAX_TTL);
-        this.mainHandler = new Handler(mainLooper);
+        this.mainLooper = mainLooper;
+    }
+
+    /**
+     * @return true once this connection has been used, and so has created its transaction queue
+     */
+    @VisibleForTesting
+    boolean isMaterialized() {
+        return clientQueue != null;
+    }
+
+    private @NonNull ConcurrentHashMap<ConnectionEventListener, Boolean> getOrCreateEventListeners() {
+        ConcurrentHashMap<ConnectionEventListener, Boolean> listeners = asynchronousEventListeners;
+        if (listeners == null) {
+            synchronized (this) {
+                listeners = asynchronousEventListeners;
+                if (listeners == null) {
+                    listeners = new ConcurrentHashMap<>(2);
+                    asynchronousEventListeners = listeners;
+                }
+            }
+        }
+        return listeners;
+    }
+
+    private @NonNull ConcurrentHashMap<ConnectionEventListener, NotificationDeliveryQueue> getOrCreateDeliveryQueues() {
+        ConcurrentHashMap<ConnectionEventListener, NotificationDeliveryQueue> queues = notificationDeliveryQueues;
+        if (queues == null) {
+            synchronized (this) {
+                queues = notificationDeliveryQueues;
+                if (queues == null) {
+                    queues = new ConcurrentHashMap<>(2);
+                    notificationDeliveryQueues = queues;
+                }
+            }
+        }
+        return queues;
     }
 
     long getDisconnectedTTL() {
+        long deadline = evictionDeadline;
+        if (deadline != ConnectionEvictionQueue.NO_DEADLINE) {
+            return Math.max(0, deadline - SystemClock.elapsedRealtime());
+        }
         return this.disconnectedTTL.get();
     }
 
@@ -72,15 +149,42 @@ public class GattConnection implements Closeable {
     // API Method
     void resetDisconnectedTTL() {
         this.disconnectedTTL.set(FitbitGatt.MAX_TTL);
+        updateEvictionDeadline();
     }
 
     void setDisconnectedTTL(long value) {
         this.disconnectedTTL.set(value);
+        updateEvictionDeadline();
+    }
+
+    /**
+     * The TTL only runs down while we are disconnected, so a disconnected connection has an
+     * eviction deadline, and a connected one keeps whatever TTL it had left until it disconnects
+     */
+    void updateEvictionDeadline() {
+        ConnectionEvictionQueue evictionQueue = FitbitGatt.getInstance().getConnectionEvictionQueue();
+        synchronized (this) {
+            if (isConnected()) {
+                if (evictionDeadline != ConnectionEvictionQueue.NO_DEADLINE) {
+                    disconnectedTTL.set(Math.max(0, evictionDeadline - SystemClock.elapsedRealtime()));
+                    evictionDeadline = ConnectionEvictionQueue.NO_DEADLINE;
+                    if (evictionQueue != null) {
+                        evictionQueue.cancel(this);
+                    }
+                }
+            } else {
+                evictionDeadline = SystemClock.elapsedRealtime() + disconnectedTTL.get();
+                if (evictionQueue != null) {
+                    evictionQueue.schedule(this, evictionDeadline);
+                }
+            }
+        }
     }
 
     @VisibleForTesting
     int numberOfEventListeners() {
-        return this.asynchronousEventListeners.size();
+        ConcurrentHashMap<ConnectionEventListener, Boolean> listeners = asynchronousEventListeners;
+        return listeners == null ? 0 : listeners.size();
     }
 
     /**
@@ -105,6 +209,204 @@ public class GattConnection implements Closeable {
         return intraTransactionDelay.get();
     }
 
+    void setSupervisionTimeoutMillis(long supervisionTimeoutMillis) {
+        this.supervisionTimeoutMillis = supervisionTimeoutMillis;
+    }
+
+    /**
+     * Will return the link supervision timeout negotiated for this connection, the stack only
+     * reports this on Android O and above
+     *
+     * @return The supervision timeout in milliseconds, or -1 if we haven't been told
+     */
+    @SuppressWarnings("unused") // API Method
+    public long getSupervisionTimeoutMillis() {
+        return supervisionTimeoutMillis;
+    }
+
+    void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    /**
+     * Will return the ATT MTU negotiated for this connection, the usable payload of a single
+     * write or notification is three bytes less than this
+     *
+     * @return The MTU, or {@link #DEFAULT_MTU} if none has been negotiated since the link came up
+     */
+    @SuppressWarnings("unused") // API Method
+    public int getMtu() {
+        return mtu;
+    }
+
+    void setConnectionInterval(int connectionInterval) {
+        this.connectionInterval = connectionInterval;
+    }
+
+    /**
+     * Will return the connection interval last reported by the stack, this is only reported on
+     * Android O and above
+     *
+     * @return The connection interval in 1.25ms units, or {@link #UNKNOWN_CONNECTION_INTERVAL}
+     */
+    @SuppressWarnings("unused") // API Method
+    public int getConnectionInterval() {
+        return connectionInterval;
+    }
+
+    /**
+     * Will remember the connection speed requested for this link, so that it can be requested
+     * again if the link has to be restored
+     *
+     * @param speed The speed the stack accepted the request for
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void setRequestedConnectionSpeed(@NonNull RequestGattConnectionIntervalTransaction.Speed speed) {
+        this.requestedConnectionSpeed = speed;
+    }
+
+    @Nullable
+    RequestGattConnectionIntervalTransaction.Speed getRequestedConnectionSpeed() {
+        return requestedConnectionSpeed;
+    }
+
+    /**
+     * Will remember that notifications for the characteristic were turned on with the stack
+     *
+     * @param characteristic The remote characteristic
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void onNotificationsEnabled(@NonNull BluetoothGattCharacteristic characteristic) {
+        BluetoothGattService service = characteristic.getService();
+        if (service != null) {
+            updateNotificationSubscription(service.getUuid(), characteristic.getUuid(), true, null, false);
+        }
+    }
+
+    /**
+     * Will remember that notifications for the characteristic were turned off with the stack
+     *
+     * @param characteristic The remote characteristic
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void onNotificationsDisabled(@NonNull BluetoothGattCharacteristic characteristic) {
+        BluetoothGattService service = characteristic.getService();
+        if (service != null) {
+            updateNotificationSubscription(service.getUuid(), characteristic.getUuid(), false, null, false);
+        }
+    }
+
+    /**
+     * Will remember what was written to a client characteristic configuration descriptor, any
+     * other descriptor is ignored
+     *
+     * @param descriptor The remote descriptor that was written, with the value written
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void onDescriptorWritten(@NonNull BluetoothGattDescriptor descriptor) {
+        BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+        if (!GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION.equals(descriptor.getUuid())
+            || characteristic == null || characteristic.getService() == null) {
+            return;
+        }
+        byte[] value = descriptor.getValue();
+        boolean turnedOff = value == null || Arrays.equals(value, BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        updateNotificationSubscription(characteristic.getService().getUuid(), characteristic.getUuid(), null,
+            turnedOff ? null : value, true);
+    }
+
+    private synchronized void updateNotificationSubscription(UUID serviceUuid, UUID characteristicUuid,
+                                                             @Nullable Boolean enabled, @Nullable byte[] configuration,
+                                                             boolean configurationChanged) {
+        List<NotificationSubscription> updated = new ArrayList<>(notificationSubscriptions.size() + 1);
+        NotificationSubscription subscription = new NotificationSubscription(serviceUuid, characteristicUuid, false, null);
+        for (NotificationSubscription existing : notificationSubscriptions) {
+            if (existing.isFor(serviceUuid, characteristicUuid)) {
+                subscription = existing;
+            } else {
+                updated.add(existing);
+            }
+        }
+        if (enabled != null) {
+            subscription = subscription.withEnabled(enabled);
+        }
+        if (configurationChanged) {
+            subscription = subscription.withConfiguration(configuration);
+        }
+        if (!subscription.isEmpty()) {
+            updated.add(subscription);
+        }
+        notificationSubscriptions = Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * @return The notification subscriptions made on this link, in the order they were made
+     */
+    @NonNull
+    List<NotificationSubscription> getNotificationSubscriptions() {
+        return notificationSubscriptions;
+    }
+
+    /**
+     * Will return what was last written to the client characteristic configuration descriptor of
+     * the remote characteristic on this link
+     *
+     * @param serviceUuid        The service UUID hosting the remote characteristic
+     * @param characteristicUuid The remote characteristic UUID
+     * @return The value written, or null if notifications and indications are off at the peripheral as far as we know
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public @Nullable byte[] getWrittenClientCharacteristicConfiguration(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid) {
+        for (NotificationSubscription subscription : notificationSubscriptions) {
+            if (subscription.isFor(serviceUuid, characteristicUuid)) {
+                return subscription.getConfiguration();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The admission priority of the last connect run on this connection
+     */
+    int getLastAdmissionPriority() {
+        return lastAdmissionPriority;
+    }
+
+    /**
+     * The MTU, connection interval, requested speed and notification subscriptions only hold for
+     * the link they were negotiated on
+     */
+    void resetLinkParameters() {
+        this.mtu = DEFAULT_MTU;
+        this.connectionInterval = UNKNOWN_CONNECTION_INTERVAL;
+        this.requestedConnectionSpeed = null;
+        synchronized (this) {
+            this.notificationSubscriptions = Collections.emptyList();
+        }
+    }
+
+    void setLastDisconnectSettleMillis(long settleMillis) {
+        this.lastDisconnectSettleMillis = settleMillis;
+    }
+
+    /**
+     * Will return how long this connection waited in disconnecting after it was last disconnected
+     * before it could be used again, see {@link FitbitGatt#getDisconnectSettleStats()}
+     *
+     * @return The settle time in milliseconds, or -1 if this connection has not been disconnected
+     */
+    @SuppressWarnings("unused") // API Method
+    public long getLastDisconnectSettleMillis() {
+        return lastDisconnectSettleMillis;
+    }
+
+    /**
+     * @return The elapsed realtime at which the gatt was last released, or -1 if it never was
+     */
+    long getReleasedAt() {
+        return releasedAt;
+    }
+
     /**
      * To register for connection related events only, this is primarily for the main
      * {@link FitbitGatt} singleton, but if something wants to listen to the global connection
@@ -114,7 +416,7 @@ public class GattConnection implements Closeable {
      */
 
     public void registerConnectionEventListener(@NonNull ConnectionEventListener eventListener) {
-        if (this.asynchronousEventListeners.putIfAbsent(eventListener, true) != null) {
+        if (getOrCreateEventListeners().putIfAbsent(eventListener, true) != null) {
             Timber.v("[%s] This listener is already registered", getDevice());
         }
     }
@@ -128,16 +430,71 @@ public class GattConnection implements Closeable {
      */
 
     public void unregisterConnectionEventListener(@NonNull ConnectionEventListener eventListener) {
-        Boolean previousValue = asynchronousEventListeners.remove(eventListener);
+        ConcurrentHashMap<ConnectionEventListener, Boolean> listeners = asynchronousEventListeners;
+        Boolean previousValue = listeners == null ? null : listeners.remove(eventListener);
         if (previousValue == null) { // null when returned from ConcurrentHashMap.remove() means the key was not present.
             Timber.v("[%s] There are no event listeners to remove", Build.MODEL);
         }
+        ConcurrentHashMap<ConnectionEventListener, NotificationDeliveryQueue> queues = notificationDeliveryQueues;
+        NotificationDeliveryQueue deliveryQueue = queues == null ? null : queues.remove(eventListener);
+        if (deliveryQueue != null) {
+            deliveryQueue.close();
+        }
+    }
+
+    /**
+     * To register for connection related events with bounded delivery of characteristic change
+     * notifications.  All other connection events are delivered as they would be with
+     * {@link GattConnection#registerConnectionEventListener(ConnectionEventListener)}, but
+     * notifications for this listener are held in a queue described by the provided policy so that
+     * a slow listener can not grow the callback thread's message queue without limit.  If the
+     * listener is already registered, its delivery policy will be replaced, any notifications
+     * pending under the previous policy are discarded.
+     *
+     * @param eventListener The {@link ConnectionEventListener} instance for connection events
+     * @param policy        The {@link NotificationDeliveryPolicy} for characteristic change notifications
+     */
+    @SuppressWarnings("WeakerAccess") // API Method
+    public void registerConnectionEventListener(@NonNull ConnectionEventListener eventListener, @NonNull NotificationDeliveryPolicy policy) {
+        // deliver on this device's callback shard so that notifications stay ordered with the
+        // rest of this device's callbacks
+        CallbackDispatcher dispatcher = FitbitGatt.getInstance().getCallbackDispatcher();
+        Handler deliveryHandler = dispatcher != null ? dispatcher.getHandler(getDevice().getAddress()) :
+            new Handler(FitbitGatt.getInstance().getFitbitGattAsyncOperationThread().getLooper());
+        NotificationDeliveryQueue previousQueue = getOrCreateDeliveryQueues().put(eventListener,
+            new NotificationDeliveryQueue(this, eventListener, policy, deliveryHandler));
+        if (previousQueue != null) {
+            Timber.v("[%s] Replacing notification delivery policy %s with %s", getDevice(), previousQueue.getPolicy(), policy);
+            previousQueue.close();
+        }
+        registerConnectionEventListener(eventListener);
+    }
+
+    /**
+     * Will provide the notification delivery counters for a listener registered with a
+     * {@link NotificationDeliveryPolicy}
+     *
+     * @param eventListener The {@link ConnectionEventListener} instance
+     * @return The current counters, or null if the listener was not registered with a policy
+     */
+    @SuppressWarnings("WeakerAccess") // API Method
+    public @Nullable
+    NotificationDeliveryStats getNotificationDeliveryStats(@NonNull ConnectionEventListener eventListener) {
+        NotificationDeliveryQueue deliveryQueue = getNotificationDeliveryQueue(eventListener);
+        return deliveryQueue == null ? null : deliveryQueue.getStats();
+    }
+
+    @Nullable
+    NotificationDeliveryQueue getNotificationDeliveryQueue(@NonNull ConnectionEventListener eventListener) {
+        ConcurrentHashMap<ConnectionEventListener, NotificationDeliveryQueue> queues = notificationDeliveryQueues;
+        return queues == null ? null : queues.get(eventListener);
     }
 
     @NonNull
     ArrayList<ConnectionEventListener> getConnectionEventListeners() {
         //We want a copy of the listeners set, so that clients can't modify it.
-        return new ArrayList<>(asynchronousEventListeners.keySet());
+        ConcurrentHashMap<ConnectionEventListener, Boolean> listeners = asynchronousEventListeners;
+        return listeners == null ? new ArrayList<>(0) : new ArrayList<>(listeners.keySet());
     }
 
     /**
@@ -183,11 +540,28 @@ public class GattConnection implements Closeable {
      * @param state The state to set the connection to
      */
 
-    public synchronized void setState(GattState state) {
-        if (FitbitGatt.getInstance().isSlowLoggingEnabled()) {
-            Timber.v("[%s] Transitioning from state %s to state %s", getDevice(), this.state.name(), state.name());
+    public void setState(GattState state) {
+        boolean linkReleased;
+        boolean connectedChanged;
+        synchronized (this) {
+            if (FitbitGatt.getInstance().isSlowLoggingEnabled()) {
+                Timber.v("[%s] Transitioning from state %s to state %s", getDevice(), this.state.name(), state.name());
+            }
+            linkReleased = this.state != state && (state == GattState.DISCONNECTED || state == GattState.BT_OFF);
+            boolean wasConnected = isConnected();
+            this.state = state;
+            connectedChanged = wasConnected != isConnected();
+        }
+        if (connectedChanged) {
+            updateEvictionDeadline();
+        }
+        // outside of our lock, releasing the link may admit another connection's connect
+        if (linkReleased) {
+            ConnectionAdmissionController admissionController = FitbitGatt.getInstance().getConnectionAdmissionController();
+            if (admissionController != null) {
+                admissionController.onLinkReleased(this);
+            }
         }
-        this.state = state;
     }
 
     /**
@@ -219,27 +593,68 @@ public class GattConnection implements Closeable {
     }
 
     @VisibleForTesting
-    void addService(BluetoothGattService service) {
-        this.mockServices.add(service);
+    synchronized void addService(BluetoothGattService service) {
+        List<BluetoothGattService> current = this.mockServices;
+        List<BluetoothGattService> updated = current == null ? new ArrayList<>(1) : new ArrayList<>(current);
+        updated.add(service);
+        this.mockServices = updated;
     }
 
-    boolean connectedDeviceHostsService(UUID serviceUuid) {
-        if (mockMode) {
-            for (BluetoothGattService service : mockServices) {
-                if (service.getUuid() != null && service.getUuid().equals(serviceUuid)) {
-                    return true;
-                }
-            }
-            return false;
-        } else {
-            // if the device has not had discovery performed, we will not know that the connection
-            // is hosting the service
-            if (isConnected()) {
-                return null != getGatt() && null != getGatt().getService(serviceUuid);
-            } else {
-                return false;
+    @Nullable
+    private BluetoothGattService getMockService(UUID uuid) {
+        List<BluetoothGattService> services = mockServices;
+        if (services == null) {
+            return null;
+        }
+        for (BluetoothGattService service : services) {
+            if (uuid.equals(service.getUuid())) {
+                return service;
             }
         }
+        return null;
+    }
+
+    /**
+     * Will replace the index of the remote gatt tree with one built from the services just
+     * discovered on the gatt
+     *
+     * @param discoveredOn The gatt the services were discovered on
+     * @param services     The discovered services
+     */
+    void onServicesDiscovered(@NonNull BluetoothGatt discoveredOn, @Nullable List<BluetoothGattService> services) {
+        if (mockMode) {
+            return;
+        }
+        GattServiceIndex index = GattServiceIndex.build(discoveredOn, services);
+        serviceIndex = index;
+        Timber.v("[%s] Indexed %d services and %d characteristics", getDevice(), index.getServiceCount(), index.getCharacteristicCount());
+    }
+
+    /**
+     * Will drop the index of the remote gatt tree, a discovery is about to replace the tree
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void invalidateServiceIndex() {
+        serviceIndex = null;
+    }
+
+    /**
+     * @return The index of the remote gatt tree if it still describes the gatt the connection
+     * holds, null if lookups must fall back to the gatt
+     */
+    @Nullable
+    private GattServiceIndex getCurrentServiceIndex(@Nullable BluetoothGatt localGatt) {
+        GattServiceIndex index = serviceIndex;
+        if (index == null) {
+            return null;
+        }
+        return index.isBuiltFrom(localGatt) ? index : null;
+    }
+
+    boolean connectedDeviceHostsService(UUID serviceUuid) {
+        // if the device has not had discovery performed, we will not know that the connection
+        // is hosting the service
+        return getRemoteGattService(serviceUuid) != null;
     }
 
     /**
@@ -252,12 +667,48 @@ public class GattConnection implements Closeable {
 
     public @Nullable
     BluetoothGattCharacteristic getRemoteGattServiceCharacteristic(UUID serviceUuid, UUID characteristicUuid) {
-        BluetoothGattService service = getRemoteGattService(serviceUuid);
-        if (service == null) {
+        if (mockMode) {
+            BluetoothGattService service = getMockService(serviceUuid);
+            return service == null ? null : service.getCharacteristic(characteristicUuid);
+        }
+        BluetoothGatt localGatt = gatt;
+        if (!isConnected() || localGatt == null) {
             return null;
-        } else {
-            return service.getCharacteristic(characteristicUuid);
         }
+        GattServiceIndex index = getCurrentServiceIndex(localGatt);
+        if (index != null) {
+            return index.getCharacteristic(serviceUuid, characteristicUuid);
+        }
+        BluetoothGattService service = localGatt.getService(serviceUuid);
+        return service == null ? null : service.getCharacteristic(characteristicUuid);
+    }
+
+    /**
+     * Convenience method for fetching the client characteristic configuration descriptor (0x2902)
+     * of a remote characteristic, used to turn notifications or indications on
+     *
+     * @param serviceUuid        The service UUID hosting the remote service
+     * @param characteristicUuid The characteristic UUID hosted by the remote service
+     * @return The {@link BluetoothGattDescriptor} or null if the characteristic or the descriptor is not present
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public @Nullable
+    BluetoothGattDescriptor getRemoteClientCharacteristicConfiguration(UUID serviceUuid, UUID characteristicUuid) {
+        if (mockMode) {
+            BluetoothGattCharacteristic characteristic = getRemoteGattServiceCharacteristic(serviceUuid, characteristicUuid);
+            return characteristic == null ? null : characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION);
+        }
+        BluetoothGatt localGatt = gatt;
+        if (!isConnected() || localGatt == null) {
+            return null;
+        }
+        GattServiceIndex index = getCurrentServiceIndex(localGatt);
+        if (index != null) {
+            return index.getClientCharacteristicConfiguration(serviceUuid, characteristicUuid);
+        }
+        BluetoothGattService service = localGatt.getService(serviceUuid);
+        BluetoothGattCharacteristic characteristic = service == null ? null : service.getCharacteristic(characteristicUuid);
+        return characteristic == null ? null : characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION);
     }
 
     /**
@@ -270,16 +721,12 @@ public class GattConnection implements Closeable {
     public @Nullable
     BluetoothGattService getRemoteGattService(UUID uuid) {
         if (mockMode) {
-            for (BluetoothGattService service : mockServices) {
-                if (uuid.equals(service.getUuid())) {
-                    return service;
-                }
-            }
-            return null;
+            return getMockService(uuid);
         } else {
             BluetoothGatt localGatt = gatt;
             if (isConnected() && localGatt != null) {
-                return localGatt.getService(uuid);
+                GattServiceIndex index = getCurrentServiceIndex(localGatt);
+                return index == null ? localGatt.getService(uuid) : index.getService(uuid);
             } else {
                 return null;
             }
@@ -426,7 +873,7 @@ public class GattConnection implements Closeable {
     private void mockConnect() {
         Timber.i("[%s] Mock connecting!!!!", getDevice());
         setState(GattState.CONNECTING);
-        mainHandler.postDelayed(() -> FitbitGatt.getInstance().getClientCallback().
+        getMainHandler().postDelayed(() -> FitbitGatt.getInstance().getClientCallback().
                 onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_CONNECTED), 1499);
         FitbitGatt.getInstance().putConnectionIntoDevices(device, this);
     }
@@ -434,7 +881,7 @@ public class GattConnection implements Closeable {
     private void mockDisconnect() {
         Timber.i("[%s] Mock disconnecting!!!", getDevice());
         setState(GattState.DISCONNECTING);
-        mainHandler.postDelayed(() -> FitbitGatt.getInstance().getClientCallback().onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_DISCONNECTED), 150);
+        getMainHandler().postDelayed(() -> FitbitGatt.getInstance().getClientCallback().onConnectionStateChange(null, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_DISCONNECTED), 150);
     }
 
     /**
@@ -472,14 +919,32 @@ public class GattConnection implements Closeable {
 
     @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
     synchronized void finish() {
+        ConnectionAdmissionController admissionController = FitbitGatt.getInstance().getConnectionAdmissionController();
+        if (admissionController != null) {
+            admissionController.refuseWaiting(this);
+        }
         BluetoothGatt localGatt = this.gatt;
         if (localGatt != null) {
             closeClientIf(localGatt);
             gatt = null;
+            serviceIndex = null;
             setState(GattState.DISCONNECTED);
         }
-        clientQueue.stop();
-        asynchronousEventListeners.clear();
+        TransactionQueueController queue = clientQueue;
+        if (queue != null) {
+            queue.stop();
+        }
+        ConcurrentHashMap<ConnectionEventListener, Boolean> listeners = asynchronousEventListeners;
+        if (listeners != null) {
+            listeners.clear();
+        }
+        ConcurrentHashMap<ConnectionEventListener, NotificationDeliveryQueue> queues = notificationDeliveryQueues;
+        if (queues != null) {
+            for (NotificationDeliveryQueue deliveryQueue : queues.values()) {
+                deliveryQueue.close();
+            }
+            queues.clear();
+        }
     }
 
     /**
@@ -490,17 +955,32 @@ public class GattConnection implements Closeable {
         if (localGatt != null) {
             closeClientIf(localGatt);
             gatt = null;
+            serviceIndex = null;
             setState(GattState.DISCONNECTED);
         }
     }
 
+    /**
+     * @return true if a transaction is running or waiting on this connection
+     */
+    boolean hasPendingTransactions() {
+        if (getGattState().getStateType() == StateType.IN_PROGRESS) {
+            return true;
+        }
+        TransactionQueueController queue = clientQueue;
+        return queue != null && queue.getQueuedTransactionCount() > 0;
+    }
+
     /**
      * This is different from finish in that we might use this connection instance again
      */
 
     void cleanUpConnection() {
         Timber.v("[%s] Cleaning up connection, flushing pending gatt operations", getDevice());
-        clientQueue.clearQueue();
+        TransactionQueueController queue = clientQueue;
+        if (queue != null) {
+            queue.clearQueue();
+        }
     }
 
     /**
@@ -522,6 +1002,60 @@ public class GattConnection implements Closeable {
                 && !getGattState().equals(GattState.FAILURE_CONNECTING_WITH_SYSTEM_CRASH);
     }
 
+    /**
+     * Will set the executor that the results of transactions run on this connection are delivered
+     * on when the transaction doesn't have one of its own, see
+     * {@link GattTransaction#setCallbackExecutor(Executor)}.  It applies to transactions run
+     * after it is set.
+     *
+     * @param executor The executor, or null to deliver on the main thread
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setCallbackExecutor(@Nullable Executor executor) {
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * @return The executor results are delivered on by default, or null for the main thread
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Will run the provided transaction like {@link #runTxWithHandle(GattClientTransaction, GattTransactionCallback)}
+     * delivering the result on the given executor, on failure as well as on success
+     *
+     * @param transaction The transaction to run
+     * @param executor    The executor to deliver the result on
+     * @param callback    The gatt transaction callback
+     * @return A handle to cancel the transaction with
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionHandle runTx(GattClientTransaction transaction, @NonNull Executor executor, GattTransactionCallback callback) {
+        transaction.setCallbackExecutor(executor);
+        return runTxWithHandle(transaction, callback);
+    }
+
+    /**
+     * Will run the provided transaction like {@link #runTxWithHandle(GattClientTransaction, GattTransactionCallback)}
+     * with an absolute deadline, see {@link GattTransaction#setDeadline(long)}
+     *
+     * @param transaction The transaction to run
+     * @param deadline    The {@link SystemClock#elapsedRealtime()} in milliseconds by which the result is needed
+     * @param callback    The gatt transaction callback
+     * @return A handle to cancel the transaction with
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionHandle runTx(GattClientTransaction transaction, long deadline, GattTransactionCallback callback) {
+        transaction.setDeadline(deadline);
+        return runTxWithHandle(transaction, callback);
+    }
+
     /**
      * Will run the provided transaction once the execution thread is ready, internally will queue the
      * transaction on the calling thread.  If these come in too quickly from arbitrary threads
@@ -535,13 +1069,59 @@ public class GattConnection implements Closeable {
      * <p>
      * Every time a transaction is attempted, we will reset the disconnected TTL to prevent cleanup
      *
+     * The run can't be cancelled, use {@link #runTxWithHandle(GattClientTransaction, GattTransactionCallback)}
+     * for a handle to cancel it with.
+     *
      * @param transaction The transaction to run
      * @param callback    The gatt transaction callback
      */
 
     public void runTx(GattClientTransaction transaction, GattTransactionCallback callback) {
+        runTxWithHandle(transaction, callback);
+    }
+
+    /**
+     * Will run the provided transaction like {@link #runTx(GattClientTransaction, GattTransactionCallback)} and
+     * return a handle to the run
+     *
+     * @param transaction The transaction to run
+     * @param callback    The gatt transaction callback
+     * @return A handle to cancel the transaction with, see {@link TransactionHandle#cancel()}
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionHandle runTxWithHandle(GattClientTransaction transaction, GattTransactionCallback callback) {
         Timber.v("[%s] Received transaction: %s", getDevice(), transaction.getName());
         resetDisconnectedTTL();
+        transaction.markQueued();
+        Executor defaultExecutor = callbackExecutor;
+        if (defaultExecutor != null && transaction.getCallbackExecutor() == null) {
+            transaction.setCallbackExecutor(defaultExecutor);
+        }
+        TransactionHandle handle = transaction.newHandle();
+        if (transaction instanceof GattConnectTransaction) {
+            lastAdmissionPriority = ((GattConnectTransaction) transaction).getAdmissionPriority();
+        }
+        ConnectionAdmissionController admissionController = FitbitGatt.getInstance().getConnectionAdmissionController();
+        if (admissionController != null && transaction instanceof GattConnectTransaction) {
+            // the connect holds its admission until it completes, however it completes
+            GattTransactionCallback admittedCallback = result -> {
+                admissionController.onConnectFinished(this,
+                    TransactionResult.TransactionResultStatus.SUCCESS.equals(result.getResultStatus()));
+                if (callback != null) {
+                    callback.onTransactionComplete(result);
+                }
+            };
+            // a refused connect never held a slot, so it is failed without the bookkeeping above
+            admissionController.requestAdmission(this, ((GattConnectTransaction) transaction).getAdmissionPriority(),
+                () -> dispatchTx(transaction, admittedCallback), () -> transaction.failWithoutRunning(callback));
+        } else {
+            dispatchTx(transaction, callback);
+        }
+        return handle;
+    }
+
+    private void dispatchTx(GattClientTransaction transaction, GattTransactionCallback callback) {
         if (intraTransactionDelay.get() == 0) {
             queueTransaction(transaction, callback);
         } else {
@@ -558,7 +1138,27 @@ public class GattConnection implements Closeable {
     }
 
     private void queueTransaction(GattClientTransaction transaction, GattTransactionCallback callback) {
-        clientQueue.queueTransaction(() -> transaction.commit(callback));
+        getClientTransactionQueueController().queueTransaction(transaction, callback);
+    }
+
+    /**
+     * Will limit how many transactions may wait on this connection, overriding the per connection
+     * capacity set with {@link FitbitGatt#setTransactionQueueLimits(int, int, QueueOverloadPolicy, long)}
+     *
+     * @param capacity The most transactions that may wait, at least 1
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setTransactionQueueCapacity(int capacity) {
+        getClientTransactionQueueController().setCapacity(capacity);
+    }
+
+    /**
+     * @return The depth, high water mark and shed work of this connection's transaction queue
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionQueueStats getTransactionQueueStats() {
+        return getClientTransactionQueueController().getStats();
     }
 
     /**
@@ -569,7 +1169,93 @@ public class GattConnection implements Closeable {
      */
     @SuppressWarnings("WeakerAccess") // API Method
     public TransactionQueueController getClientTransactionQueueController() {
-        return clientQueue;
+        TransactionQueueController queue = clientQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = clientQueue;
+                if (queue == null) {
+                    queue = new TransactionQueueController(this);
+                    clientQueue = queue;
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Will hand out a read transaction from this connection's pool, creating one if the pool is
+     * empty.  Call {@link GattTransaction#recycle()} once the result has been consumed, which may be
+     * from inside the callback, to hand it back; a transaction that is never recycled is simply
+     * garbage collected.
+     *
+     * @param successEndState The state to end in on success
+     * @param characteristic The characteristic to read
+     * @return A read transaction that has not been started
+     */
+    @SuppressWarnings("WeakerAccess") // API Method
+    public ReadGattCharacteristicTransaction obtainReadCharacteristicTransaction(GattState successEndState, BluetoothGattCharacteristic characteristic) {
+        TransactionPool<ReadGattCharacteristicTransaction> pool = getReadPool();
+        ReadGattCharacteristicTransaction tx = pool.poll();
+        if (tx != null) {
+            tx.reuse(successEndState, characteristic);
+            return tx;
+        }
+        final ReadGattCharacteristicTransaction created = new ReadGattCharacteristicTransaction(this, successEndState, characteristic);
+        created.setRecycler(() -> pool.offer(created));
+        pool.onCreated();
+        return created;
+    }
+
+    /**
+     * Will hand out a write transaction from this connection's pool, creating one if the pool is
+     * empty, see {@link #obtainReadCharacteristicTransaction(GattState, BluetoothGattCharacteristic)}
+     *
+     * @param successEndState The state to end in on success
+     * @param characteristic The characteristic to write, holding the value to write
+     * @return A write transaction that has not been started
+     */
+    @SuppressWarnings("WeakerAccess") // API Method
+    public WriteGattCharacteristicTransaction obtainWriteCharacteristicTransaction(GattState successEndState, BluetoothGattCharacteristic characteristic) {
+        TransactionPool<WriteGattCharacteristicTransaction> pool = getWritePool();
+        WriteGattCharacteristicTransaction tx = pool.poll();
+        if (tx != null) {
+            tx.reuse(successEndState, characteristic);
+            return tx;
+        }
+        final WriteGattCharacteristicTransaction created = new WriteGattCharacteristicTransaction(this, successEndState, characteristic);
+        created.setRecycler(() -> pool.offer(created));
+        pool.onCreated();
+        return created;
+    }
+
+    @VisibleForTesting
+    @NonNull TransactionPool<ReadGattCharacteristicTransaction> getReadPool() {
+        TransactionPool<ReadGattCharacteristicTransaction> pool = readPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = readPool;
+                if (pool == null) {
+                    pool = new TransactionPool<>();
+                    readPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    @VisibleForTesting
+    @NonNull TransactionPool<WriteGattCharacteristicTransaction> getWritePool() {
+        TransactionPool<WriteGattCharacteristicTransaction> pool = writePool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = writePool;
+                if (pool == null) {
+                    pool = new TransactionPool<>();
+                    writePool = pool;
+                }
+            }
+        }
+        return pool;
     }
 
     boolean getMockMode() {
@@ -606,6 +1292,8 @@ public class GattConnection implements Closeable {
         if (localGatt != null) {
             closeClientIf(localGatt);
             gatt = null;
+            serviceIndex = null;
+            releasedAt = SystemClock.elapsedRealtime();
             setState(GattState.DISCONNECTED);
         } else {
             Timber.w("[%s] The gatt was null when trying to release, the logic is busted or you are suffering from an Android bug, look into a strategy.", getDevice());
@@ -613,7 +1301,17 @@ public class GattConnection implements Closeable {
     }
 
     public @NonNull Handler getMainHandler() {
-        return mainHandler;
+        Handler handler = mainHandler;
+        if (handler == null) {
+            synchronized (this) {
+                handler = mainHandler;
+                if (handler == null) {
+                    handler = new Handler(mainLooper);
+                    mainHandler = handler;
+                }
+            }
+        }
+        return handler;
     }
 
     /**
@@ -23,6 +23,7 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -40,7 +41,7 @@ import timber.log.Timber;
 
 class GattServerCallback extends BluetoothGattServerCallback {
 
-    private final @NonNull Handler handler;
+    private final @NonNull Handler defaultHandler;
 
     private final List<GattServerListener> listeners;
     private GattUtils gattUtils = new GattUtils();
@@ -49,7 +50,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
         super();
         this.listeners = Collections.synchronizedList(new ArrayList<>(4));
         Looper looper = FitbitGatt.getInstance().getFitbitGattAsyncOperationThread().getLooper();
-        this.handler = new Handler(looper);
+        this.defaultHandler = new Handler(looper);
     }
 
     void addListener(GattServerListener gattListener) {
@@ -82,12 +83,28 @@ class GattServerCallback extends BluetoothGattServerCallback {
     }
 
     @NonNull Handler getServerCallbackHandler(){
-        return this.handler;
+        return this.defaultHandler;
+    }
+
+    /**
+     * Callbacks for a single remote device must stay ordered, so they are always posted to the
+     * dispatcher shard owned by that device
+     *
+     * @param device The remote device
+     * @return The handler for this device's shard, or the default handler if there is no dispatcher
+     */
+    @NonNull Handler getHandlerForDevice(@Nullable BluetoothDevice device) {
+        CallbackDispatcher dispatcher = FitbitGatt.getInstance().getCallbackDispatcher();
+        if (dispatcher == null) {
+            return this.defaultHandler;
+        }
+        return dispatcher.getHandler(device);
     }
 
     @Override
     public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
         super.onConnectionStateChange(device, status, newState);
+        Handler handler = getHandlerForDevice(device);
         Timber.v("[%s] onConnectionStateChange: Gatt Response Status %s", getDeviceMacFromDevice(device), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
@@ -104,6 +121,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
             switch (newState) {
                 case BluetoothProfile.STATE_DISCONNECTING: // never called by android
                 case BluetoothProfile.STATE_DISCONNECTED:
+                    conn.getSubscriptions().onDisconnected(device);
                     for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
                         // since this is async, the result status is irrelevant so it will always be
                         // success because we received this data
@@ -144,7 +162,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
         for (GattServerListener listener : copy) {
-            handler.post(() -> listener.onServerServiceAdded(status, service));
+            defaultHandler.post(() -> listener.onServerServiceAdded(status, service));
         }
     }
     // for Characteristics and Descriptors, they are backed by c level objects and the references
@@ -154,6 +172,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset, BluetoothGattCharacteristic characteristic) {
         super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
+        Handler handler = getHandlerForDevice(device);
         Timber.d("[%s] onCharacteristicReadRequest: [Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         GattServerConnection conn = FitbitGatt.getInstance().getServer();
         if (conn != null) {
@@ -183,21 +202,21 @@ class GattServerCallback extends BluetoothGattServerCallback {
                     }
                 });
             } else {
+                // since this is async, the result status is irrelevant so it will always be
+                // success because we received this data, the one result is shared by every listener
+                UUID serviceUuid = null;
+                if (characteristic.getService() != null) {
+                    serviceUuid = characteristic.getService().getUuid();
+                }
+                TransactionResult result = new TransactionResult.Builder()
+                        .gattState(conn.getGattState())
+                        .requestId(requestId)
+                        .offset(offset)
+                        .serviceUuid(serviceUuid)
+                        .characteristicUuid(copyOfCharacteristic == null ? null : copyOfCharacteristic.getUuid())
+                        .data(copyOfCharacteristic == null ? null : copyOfCharacteristic.getValue())
+                        .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
                 for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
-                    // since this is async, the result status is irrelevant so it will always be
-                    // success because we received this data
-                    UUID serviceUuid = null;
-                    if (characteristic.getService() != null) {
-                        serviceUuid = characteristic.getService().getUuid();
-                    }
-                    TransactionResult result = new TransactionResult.Builder()
-                            .gattState(conn.getGattState())
-                            .requestId(requestId)
-                            .offset(offset)
-                            .serviceUuid(serviceUuid)
-                            .characteristicUuid(copyOfCharacteristic == null ? null : copyOfCharacteristic.getUuid())
-                            .data(copyOfCharacteristic == null ? null : copyOfCharacteristic.getValue())
-                            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
                     handler.post(() -> asyncListener.onServerCharacteristicReadRequest(device, result, conn));
                 }
             }
@@ -207,6 +226,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId, BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
         super.onCharacteristicWriteRequest(device, requestId, characteristic, preparedWrite, responseNeeded, offset, value);
+        Handler handler = getHandlerForDevice(device);
         Timber.d("[%s] onCharacteristicWriteRequest: [Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         GattServerConnection conn = FitbitGatt.getInstance().getServer();
         if (conn != null && ifNotHostingCharacteristicRespondError(conn, characteristic, device, requestId, offset)) {
@@ -233,23 +253,23 @@ class GattServerCallback extends BluetoothGattServerCallback {
                     }
                 });
             } else {
+                // since this is async, the result status is irrelevant so it will always be
+                // success because we received this data, the one result is shared by every listener
+                UUID serviceUuid = null;
+                if (characteristic.getService() != null) {
+                    serviceUuid = characteristic.getService().getUuid();
+                }
+                TransactionResult result = new TransactionResult.Builder()
+                        .gattState(conn.getGattState())
+                        .characteristicUuid(copyOfCharacteristic == null ? null : copyOfCharacteristic.getUuid())
+                        .serviceUuid(serviceUuid)
+                        .data(value)
+                        .requestId(requestId)
+                        .offset(offset)
+                        .preparedWrite(preparedWrite)
+                        .responseRequired(responseNeeded)
+                        .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
                 for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
-                    // since this is async, the result status is irrelevant so it will always be
-                    // success because we received this data
-                    UUID serviceUuid = null;
-                    if (characteristic.getService() != null) {
-                        serviceUuid = characteristic.getService().getUuid();
-                    }
-                    TransactionResult result = new TransactionResult.Builder()
-                            .gattState(conn.getGattState())
-                            .characteristicUuid(copyOfCharacteristic == null ? null : copyOfCharacteristic.getUuid())
-                            .serviceUuid(serviceUuid)
-                            .data(value)
-                            .requestId(requestId)
-                            .offset(offset)
-                            .preparedWrite(preparedWrite)
-                            .responseRequired(responseNeeded)
-                            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
                     handler.post(() -> asyncListener.onServerCharacteristicWriteRequest(device, result, conn));
                 }
             }
@@ -259,6 +279,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onDescriptorReadRequest(BluetoothDevice device, int requestId, int offset, BluetoothGattDescriptor descriptor) {
         super.onDescriptorReadRequest(device, requestId, offset, descriptor);
+        Handler handler = getHandlerForDevice(device);
         Timber.d("[%s] onDescriptorReadRequest: [Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         GattServerConnection conn = FitbitGatt.getInstance().getServer();
         if (conn != null) {
@@ -266,6 +287,12 @@ class GattServerCallback extends BluetoothGattServerCallback {
                 // we returned an error to the requester, or if the gatt server is null we returned nothing and must be mocking which we will handle below
                 return;
             }
+            if (FitbitGatt.getInstance().isAnsweringSubscriptionReads() && conn.getServer() != null
+                && GattServerSubscriptions.isClientCharacteristicConfiguration(descriptor) && descriptor.getCharacteristic() != null) {
+                // the hosted descriptor value is shared by all centrals, answer with this central's own
+                respondWithClientCharacteristicConfiguration(conn, device, requestId, offset, descriptor.getCharacteristic());
+                return;
+            }
         }
         Timber.v("[%s] You must respond to this request", getDeviceMacFromDevice(device));
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
@@ -287,26 +314,27 @@ class GattServerCallback extends BluetoothGattServerCallback {
                     }
                 });
             } else {
-                for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
-                    // since this is async, the result status is irrelevant so it will always be
-                    // success because we received this data
-                    UUID characteristicUuid = null;
-                    UUID serviceUuid = null;
-                    if (descriptor.getCharacteristic() != null) {
-                        characteristicUuid = descriptor.getCharacteristic().getUuid();
-                        if (descriptor.getCharacteristic().getService() != null) {
-                            serviceUuid = descriptor.getCharacteristic().getService().getUuid();
-                        }
+                // since this is async, the result status is irrelevant so it will always be
+                // success because we received this data, the one result is shared by every listener
+                UUID characteristicUuid = null;
+                UUID serviceUuid = null;
+                if (descriptor.getCharacteristic() != null) {
+                    characteristicUuid = descriptor.getCharacteristic().getUuid();
+                    if (descriptor.getCharacteristic().getService() != null) {
+                        serviceUuid = descriptor.getCharacteristic().getService().getUuid();
                     }
-                    TransactionResult result = new TransactionResult.Builder()
-                            .gattState(conn.getGattState())
-                            .serviceUuid(serviceUuid)
-                            .characteristicUuid(characteristicUuid)
-                            .descriptorUuid(UUID.fromString(descriptor.getUuid().toString()))
-                            .data(copyOfDescriptor == null ? new byte[]{} : copyOfDescriptor.getValue())
-                            .requestId(requestId)
-                            .offset(offset)
-                            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
+                }
+                // UUIDs are immutable so there is no need to copy this one
+                TransactionResult result = new TransactionResult.Builder()
+                        .gattState(conn.getGattState())
+                        .serviceUuid(serviceUuid)
+                        .characteristicUuid(characteristicUuid)
+                        .descriptorUuid(descriptor.getUuid())
+                        .data(copyOfDescriptor == null ? new byte[]{} : copyOfDescriptor.getValue())
+                        .requestId(requestId)
+                        .offset(offset)
+                        .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
+                for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
                     handler.post(() -> asyncListener.onServerDescriptorReadRequest(device, result, conn));
                 }
             }
@@ -316,6 +344,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onDescriptorWriteRequest(BluetoothDevice device, int requestId, BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded, int offset, byte[] value) {
         super.onDescriptorWriteRequest(device, requestId, descriptor, preparedWrite, responseNeeded, offset, value);
+        Handler handler = getHandlerForDevice(device);
         Timber.d("[%s] onDescriptorWriteRequest: [Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         GattServerConnection conn = FitbitGatt.getInstance().getServer();
         if (conn != null) {
@@ -344,28 +373,37 @@ class GattServerCallback extends BluetoothGattServerCallback {
                     }
                 });
             } else {
-                for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
-                    // since this is async, the result status is irrelevant so it will always be
-                    // success because we received this data
-                    UUID characteristicUuid = null;
-                    UUID serviceUuid = null;
-                    if (descriptor.getCharacteristic() != null) {
-                        characteristicUuid = descriptor.getCharacteristic().getUuid();
-                        if (descriptor.getCharacteristic().getService() != null) {
-                            serviceUuid = descriptor.getCharacteristic().getService().getUuid();
-                        }
+                // the configuration is only written once the app responds to it with success
+                if (GattServerSubscriptions.isClientCharacteristicConfiguration(descriptor)
+                    && descriptor.getCharacteristic() != null && device != null && !preparedWrite && offset == 0) {
+                    if (responseNeeded) {
+                        conn.getSubscriptions().onConfigurationWriteRequested(device, requestId, descriptor.getCharacteristic(), value);
+                    } else {
+                        conn.getSubscriptions().onConfigurationWritten(device, descriptor.getCharacteristic(), value);
                     }
-                    TransactionResult result = new TransactionResult.Builder()
-                            .gattState(conn.getGattState())
-                            .serviceUuid(serviceUuid)
-                            .characteristicUuid(characteristicUuid)
-                            .descriptorUuid(copyOfDescriptor == null ? null : copyOfDescriptor.getUuid())
-                            .data(value)
-                            .requestId(requestId)
-                            .offset(offset)
-                            .preparedWrite(preparedWrite)
-                            .responseRequired(responseNeeded)
-                            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
+                }
+                // since this is async, the result status is irrelevant so it will always be
+                // success because we received this data, the one result is shared by every listener
+                UUID characteristicUuid = null;
+                UUID serviceUuid = null;
+                if (descriptor.getCharacteristic() != null) {
+                    characteristicUuid = descriptor.getCharacteristic().getUuid();
+                    if (descriptor.getCharacteristic().getService() != null) {
+                        serviceUuid = descriptor.getCharacteristic().getService().getUuid();
+                    }
+                }
+                TransactionResult result = new TransactionResult.Builder()
+                        .gattState(conn.getGattState())
+                        .serviceUuid(serviceUuid)
+                        .characteristicUuid(characteristicUuid)
+                        .descriptorUuid(copyOfDescriptor == null ? null : copyOfDescriptor.getUuid())
+                        .data(value)
+                        .requestId(requestId)
+                        .offset(offset)
+                        .preparedWrite(preparedWrite)
+                        .responseRequired(responseNeeded)
+                        .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
+                for (ServerConnectionEventListener asyncListener : conn.getConnectionEventListeners()) {
                     handler.post(() -> asyncListener.onServerDescriptorWriteRequest(device, result, conn));
                 }
             }
@@ -375,6 +413,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
         super.onExecuteWrite(device, requestId, execute);
+        Handler handler = getHandlerForDevice(device);
         Timber.d("[%s] onExecuteWrite: [Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         Timber.v("[%s] You must respond to this request", getDeviceMacFromDevice(device));
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
@@ -387,6 +426,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onNotificationSent(BluetoothDevice device, int status) {
         super.onNotificationSent(device, status);
+        Handler handler = getHandlerForDevice(device);
         Timber.v("[%s] onNotificationSent: Gatt Response Status %s", getDeviceMacFromDevice(device), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
@@ -399,6 +439,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onMtuChanged(BluetoothDevice device, int mtu) {
         super.onMtuChanged(device, mtu);
+        Handler handler = getHandlerForDevice(device);
         Timber.d("[%s] onMtuChanged: [Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
         copy.addAll(listeners);
@@ -424,6 +465,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onPhyUpdate(BluetoothDevice device, int txPhy, int rxPhy, int status) {
         super.onPhyUpdate(device, txPhy, rxPhy, status);
+        Handler handler = getHandlerForDevice(device);
         Timber.v("[%s] onPhyUpdate: Gatt Response Status %s", getDeviceMacFromDevice(device), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
@@ -436,6 +478,7 @@ class GattServerCallback extends BluetoothGattServerCallback {
     @Override
     public void onPhyRead(BluetoothDevice device, int txPhy, int rxPhy, int status) {
         super.onPhyRead(device, txPhy, rxPhy, status);
+        Handler handler = getHandlerForDevice(device);
         Timber.v("[%s] onPhyRead: Gatt Response Status %s", getDeviceMacFromDevice(device), GattStatus.getStatusForCode(status));
         Timber.d("[%s][Threading] Originally called on thread : %s", getDeviceMacFromDevice(device), Thread.currentThread().getName());
         ArrayList<GattServerListener> copy = new ArrayList<>(listeners.size());
@@ -547,9 +590,32 @@ class GattServerCallback extends BluetoothGattServerCallback {
      * @param offset    The offset
      */
 
+    /**
+     * Will answer a read of the client characteristic configuration with the value this central
+     * wrote, or with everything disabled if it never wrote one
+     *
+     * @param conn           The gatt server connection
+     * @param device         The bluetooth device
+     * @param requestId      The request id
+     * @param offset         The offset
+     * @param characteristic The characteristic owning the descriptor
+     */
+    private void respondWithClientCharacteristicConfiguration(GattServerConnection conn, BluetoothDevice device, int requestId, int offset, BluetoothGattCharacteristic characteristic) {
+        byte[] value = conn.getSubscriptions().getConfigurationValue(device, characteristic);
+        int status = offset > value.length ? GattStatus.GATT_INVALID_OFFSET.getCode() : GattStatus.GATT_SUCCESS.getCode();
+        byte[] response = offset > value.length ? new byte[0] : Arrays.copyOfRange(value, offset, value.length);
+        getHandlerForDevice(device).post(() -> {
+            try {
+                conn.getServer().sendResponse(device, requestId, status, offset, response);
+            } catch (NullPointerException e) {
+                Timber.w(e, "[%s] Looks like BluetoothGattServer#sendResponse(...) can run into the unboxing bug also.  No response sent, peripheral may disconnect.", getDeviceMacFromDevice(device));
+            }
+        });
+    }
+
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     void returnErrorToRemoteClient(GattServerConnection conn, BluetoothDevice device, int requestId, int offset) {
-        handler.post(() -> {
+        getHandlerForDevice(device).post(() -> {
             try {
                 conn.getServer().sendResponse(device, requestId, GattStatus.GATT_ERROR.getCode(), offset, new byte[0]);
             } catch (NullPointerException e) {
@@ -8,7 +8,12 @@
 
 package com.fitbit.bluetooth.fbgatt;
 
+import com.fitbit.bluetooth.fbgatt.tx.NotifyGattServerCharacteristicTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.SendGattServerResponseTransaction;
+import com.fitbit.bluetooth.fbgatt.util.GattStatus;
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothProfile;
 import android.os.Build;
@@ -17,10 +22,14 @@ import android.os.Looper;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
@@ -36,11 +45,16 @@ public class GattServerConnection implements Closeable {
     private TransactionQueueController serverQueue;
     private GattState state;
     private AtomicLong intraTransactionDelay = new AtomicLong(0);
+    @Nullable
+    private volatile Executor callbackExecutor;
     private GattStateTransitionValidator<GattServerTransaction> guard;
     private final ConcurrentHashMap<ServerConnectionEventListener, Boolean> asynchronousEventListeners = new ConcurrentHashMap<>();
     private HashSet<FitbitBluetoothDevice> connectedDevices = new HashSet<>();
     private Handler mainHandler;
     private boolean mockMode;
+    private final TransactionPool<NotifyGattServerCharacteristicTransaction> notifyPool = new TransactionPool<>();
+    private final TransactionPool<SendGattServerResponseTransaction> responsePool = new TransactionPool<>();
+    private final GattServerSubscriptions subscriptions = new GattServerSubscriptions();
 
     protected GattServerConnection(@Nullable BluetoothGattServer server, Looper looper) {
         this.server = server;
@@ -114,6 +128,60 @@ public class GattServerConnection implements Closeable {
     public long getIntraTransactionDelay(){
         return intraTransactionDelay.get();
     }
+    /**
+     * Will set the executor that the results of transactions run on this connection are delivered
+     * on when the transaction doesn't have one of its own, see
+     * {@link GattTransaction#setCallbackExecutor(Executor)}.  It applies to transactions run
+     * after it is set.
+     *
+     * @param executor The executor, or null to deliver on the main thread
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setCallbackExecutor(@Nullable Executor executor) {
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * @return The executor results are delivered on by default, or null for the main thread
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Will run the provided transaction like {@link #runTxWithHandle(GattServerTransaction, GattTransactionCallback)}
+     * delivering the result on the given executor, on failure as well as on success
+     *
+     * @param transaction The transaction to run
+     * @param executor    The executor to deliver the result on
+     * @param callback    The gatt transaction callback
+     * @return A handle to cancel the transaction with
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionHandle runTx(GattServerTransaction transaction, @NonNull Executor executor, GattTransactionCallback callback) {
+        transaction.setCallbackExecutor(executor);
+        return runTxWithHandle(transaction, callback);
+    }
+
+    /**
+     * Will run the provided transaction like {@link #runTxWithHandle(GattServerTransaction, GattTransactionCallback)}
+     * with an absolute deadline, see {@link GattTransaction#setDeadline(long)}
+     *
+     * @param transaction The transaction to run
+     * @param deadline    The {@link android.os.SystemClock#elapsedRealtime()} in milliseconds by which the result is needed
+     * @param callback    The gatt transaction callback
+     * @return A handle to cancel the transaction with
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionHandle runTx(GattServerTransaction transaction, long deadline, GattTransactionCallback callback) {
+        transaction.setDeadline(deadline);
+        return runTxWithHandle(transaction, callback);
+    }
+
     /**
      * Will run the provided transaction once the execution thread is ready, internally will queue the
      * transaction on the calling thread.  If these come in too quickly from arbitrary threads
@@ -123,12 +191,35 @@ public class GattServerConnection implements Closeable {
      * setting {@link GattConnection#setIntraTransactionDelay(long)}.  The recommended delay is 3ms
      * this seems to prevent gatt_if queue wedging for most phones, although more or less delay
      * maybe usable for the library user depending on the performance of the phone, it's BT stack,
-     * and the peripheral
+     * and the peripheral.
+     * The run can't be cancelled, use {@link #runTxWithHandle(GattServerTransaction, GattTransactionCallback)}
+     * for a handle to cancel it with.
+     *
      * @param transaction The transaction to run
      * @param callback The gatt transaction callback
      */
 
     public void runTx(GattServerTransaction transaction, GattTransactionCallback callback) {
+        runTxWithHandle(transaction, callback);
+    }
+
+    /**
+     * Will run the provided transaction like {@link #runTx(GattServerTransaction, GattTransactionCallback)} and
+     * return a handle to the run
+     *
+     * @param transaction The transaction to run
+     * @param callback    The gatt transaction callback
+     * @return A handle to cancel the transaction with, see {@link TransactionHandle#cancel()}
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionHandle runTxWithHandle(GattServerTransaction transaction, GattTransactionCallback callback) {
+        transaction.markQueued();
+        Executor defaultExecutor = callbackExecutor;
+        if (defaultExecutor != null && transaction.getCallbackExecutor() == null) {
+            transaction.setCallbackExecutor(defaultExecutor);
+        }
+        TransactionHandle handle = transaction.newHandle();
         if(intraTransactionDelay.get() == 0) {
             queueTransaction(transaction, callback);
         } else {
@@ -142,10 +233,31 @@ public class GattServerConnection implements Closeable {
                 queueTransaction(transaction, callback);
             }, intraTransactionDelay.get());
         }
+        return handle;
     }
 
     private void queueTransaction(GattServerTransaction transaction, GattTransactionCallback callback) {
-        serverQueue.queueTransaction(() -> transaction.commit(callback));
+        serverQueue.queueTransaction(transaction, callback);
+    }
+
+    /**
+     * Will limit how many transactions may wait on the gatt server, overriding the per queue
+     * capacity set with {@link FitbitGatt#setTransactionQueueLimits(int, int, QueueOverloadPolicy, long)}
+     *
+     * @param capacity The most transactions that may wait, at least 1
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setTransactionQueueCapacity(int capacity) {
+        serverQueue.setCapacity(capacity);
+    }
+
+    /**
+     * @return The depth, high water mark and shed work of the gatt server transaction queue
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    @NonNull
+    public TransactionQueueStats getTransactionQueueStats() {
+        return serverQueue.getStats();
     }
 
     /**
@@ -165,6 +277,136 @@ public class GattServerConnection implements Closeable {
         return serverQueue;
     }
 
+    /**
+     * Will hand out a notify transaction from this server's pool, creating one if the pool is empty.
+     * Call {@link GattTransaction#recycle()} once the result has been consumed, which may be from
+     * inside the callback, to hand it back.
+     *
+     * @param device The central to notify
+     * @param successEndState The state to end in on success
+     * @param characteristic The characteristic holding the value to notify
+     * @param confirm true to indicate, false to notify
+     * @return A notify transaction that has not been started
+     */
+    @SuppressWarnings("WeakerAccess") // API Method
+    public NotifyGattServerCharacteristicTransaction obtainNotifyCharacteristicTransaction(FitbitBluetoothDevice device, GattState successEndState,
+                                                                                           BluetoothGattCharacteristic characteristic, boolean confirm) {
+        NotifyGattServerCharacteristicTransaction tx = notifyPool.poll();
+        if (tx != null) {
+            tx.reuse(device, successEndState, characteristic, confirm);
+            return tx;
+        }
+        final NotifyGattServerCharacteristicTransaction created = new NotifyGattServerCharacteristicTransaction(this, device, successEndState, characteristic, confirm);
+        created.setRecycler(() -> notifyPool.offer(created));
+        notifyPool.onCreated();
+        return created;
+    }
+
+    /**
+     * Will hand out a response transaction from this server's pool, creating one if the pool is
+     * empty, see {@link #obtainNotifyCharacteristicTransaction(FitbitBluetoothDevice, GattState, BluetoothGattCharacteristic, boolean)}
+     *
+     * @param successEndState The state to end in on success
+     * @param device The central that made the request
+     * @param requestId The id of the request being answered
+     * @param status The gatt status to respond with
+     * @param offset The offset of the value
+     * @param value The value to respond with
+     * @return A response transaction that has not been started
+     */
+    @SuppressWarnings("WeakerAccess") // API Method
+    public SendGattServerResponseTransaction obtainSendResponseTransaction(GattState successEndState, FitbitBluetoothDevice device,
+                                                                           int requestId, int status, int offset, byte[] value) {
+        SendGattServerResponseTransaction tx = responsePool.poll();
+        if (tx != null) {
+            tx.reuse(successEndState, device, requestId, status, offset, value);
+            return tx;
+        }
+        final SendGattServerResponseTransaction created = new SendGattServerResponseTransaction(this, successEndState, device, requestId, status, offset, value);
+        created.setRecycler(() -> responsePool.offer(created));
+        responsePool.onCreated();
+        return created;
+    }
+
+    GattServerSubscriptions getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Will forget the client characteristic configuration of every central, once the gatt server
+     * is closed or bluetooth is off no central can still be subscribed to it
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void clearSubscriptions() {
+        subscriptions.clear();
+    }
+
+    /**
+     * Will forget the client characteristic configuration of every central that isn't bonded, as
+     * when they all disconnect because bluetooth is turning off
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void dropUnbondedSubscriptions() {
+        subscriptions.dropUnbonded();
+    }
+
+    /**
+     * Will record a client characteristic configuration written by a central once the app has
+     * responded to the write with success, any other response drops it
+     *
+     * @param device    The central
+     * @param requestId The id of the request that was answered
+     * @param status    The gatt status of the response
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void onResponseSent(@NonNull BluetoothDevice device, int requestId, int status) {
+        subscriptions.onConfigurationWriteAnswered(device, requestId, status == GattStatus.GATT_SUCCESS.getCode());
+    }
+
+    /**
+     * Will provide the centrals that have enabled notifications or indications on the given
+     * hosted characteristic by writing its client characteristic configuration descriptor
+     *
+     * @param characteristic The hosted characteristic
+     * @return The subscribed centrals, empty if there are none
+     */
+    @SuppressWarnings("unused") // API Method
+    @NonNull
+    public List<FitbitBluetoothDevice> getSubscribers(@NonNull BluetoothGattCharacteristic characteristic) {
+        return new ArrayList<>(subscriptions.getSubscribers(characteristic).keySet());
+    }
+
+    /**
+     * @param device The central
+     * @param characteristic The hosted characteristic
+     * @return true if the central has enabled notifications or indications on the characteristic
+     */
+    @SuppressWarnings("unused") // API Method
+    public boolean isSubscribed(@NonNull FitbitBluetoothDevice device, @NonNull BluetoothGattCharacteristic characteristic) {
+        return subscriptions.getConfiguration(device.getAddress(), characteristic) != GattServerSubscriptions.NONE;
+    }
+
+    /**
+     * Will hand out one notify transaction from the pool for each central subscribed to the
+     * characteristic, so that only those centrals are sent the value.  A central that enabled
+     * notifications is notified, one that only enabled indications is indicated.
+     *
+     * @param successEndState The state to end in on success
+     * @param characteristic The characteristic holding the value to notify
+     * @return The notify transactions, not started, empty if nobody is subscribed
+     */
+    @SuppressWarnings("unused") // API Method
+    @NonNull
+    public List<NotifyGattServerCharacteristicTransaction> obtainNotifySubscribersTransactions(GattState successEndState, BluetoothGattCharacteristic characteristic) {
+        Map<FitbitBluetoothDevice, Integer> subscribers = subscriptions.getSubscribers(characteristic);
+        List<NotifyGattServerCharacteristicTransaction> transactions = new ArrayList<>(subscribers.size());
+        for (Map.Entry<FitbitBluetoothDevice, Integer> subscriber : subscribers.entrySet()) {
+            boolean confirm = (subscriber.getValue() & GattServerSubscriptions.NOTIFY) == 0;
+            transactions.add(obtainNotifyCharacteristicTransaction(subscriber.getKey(), successEndState, characteristic, confirm));
+        }
+        return transactions;
+    }
+
     public void connect(FitbitBluetoothDevice device) {
         if(mockMode) {
             connectedDevices.add(device);
@@ -234,6 +476,7 @@ public class GattServerConnection implements Closeable {
             // it always prevents adding services on the GS9+ ( Exynos ) and on the Pixel 2 ( Q )
             server.close();
             setState(GattState.CLOSE_GATT_SERVER_SUCCESS);
+            subscriptions.clear();
             if(serverQueue != null) {
                 serverQueue.stop();
             }
@@ -283,5 +526,6 @@ public class GattServerConnection implements Closeable {
         if(serverQueue != null) {
             serverQueue.stop();
         }
+        subscriptions.clear();
     }
 }
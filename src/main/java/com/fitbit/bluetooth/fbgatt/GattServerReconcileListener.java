@@ -0,0 +1,23 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Will be told each time the services hosted by the gatt server have been brought in line with
+ * the desired services, on start, after the radio was toggled or after the desired services
+ * were changed with {@link FitbitGatt#setGattServerServices(java.util.List)}
+ */
+public interface GattServerReconcileListener {
+    /**
+     * @param result What was kept, added or removed and how long it took for the server to be ready
+     */
+    void onGattServerServicesReconciled(@NonNull GattServerReconcileResult result);
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import androidx.annotation.NonNull;
+
+/**
+ * The outcome of bringing the services hosted by the gatt server in line with the services set
+ * with {@link FitbitGatt#setGattServerServices(List)} or provided on start.  Services that were
+ * already hosted exactly as desired are kept, only the rest are removed or added.  A service
+ * that was hosted with a different layout is both removed and added, and also listed as replaced.
+ */
+public class GattServerReconcileResult {
+    private final List<UUID> kept;
+    private final List<UUID> added;
+    private final List<UUID> removed;
+    private final List<UUID> replaced;
+    private final List<UUID> failed;
+    private final long timeToReadyMillis;
+
+    GattServerReconcileResult(List<UUID> kept, List<UUID> added, List<UUID> removed, List<UUID> replaced,
+                              List<UUID> failed, long timeToReadyMillis) {
+        this.kept = Collections.unmodifiableList(kept);
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.replaced = Collections.unmodifiableList(replaced);
+        this.failed = Collections.unmodifiableList(failed);
+        this.timeToReadyMillis = timeToReadyMillis;
+    }
+
+    /**
+     * @return The services that were already hosted as desired and were left alone
+     */
+    public List<UUID> getKept() {
+        return kept;
+    }
+
+    /**
+     * @return The services that were added
+     */
+    public List<UUID> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return The services that were removed, because they are no longer desired or have changed
+     */
+    public List<UUID> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return The services that were hosted with a different layout and were removed and added again
+     */
+    public List<UUID> getReplaced() {
+        return replaced;
+    }
+
+    /**
+     * @return The services that could not be added or removed, or were never tried because an earlier one failed
+     */
+    public List<UUID> getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return true if the hosted services now match the desired services
+     */
+    public boolean isReady() {
+        return failed.isEmpty();
+    }
+
+    /**
+     * @return The time from the request to start the server, or to change its services, until
+     * the services were in place
+     */
+    public long getTimeToReadyMillis() {
+        return timeToReadyMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[GattServerReconcileResult ready: %b, kept: %d, added: %d, removed: %d, replaced: %d, failed: %s, time to ready: %dms]",
+            isReady(), kept.size(), added.size(), removed.size(), replaced.size(), failed, timeToReadyMillis);
+    }
+}
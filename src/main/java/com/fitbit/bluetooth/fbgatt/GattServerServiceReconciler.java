@@ -0,0 +1,245 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.tx.AddGattServerServiceTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.RemoveGattServerServicesTransaction;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Works out the smallest set of changes that brings the services hosted by a gatt server in
+ * line with the desired services.  A hosted service is kept if a desired service has the same
+ * layout, the same uuid, type, included services and the same characteristics and descriptors
+ * with the same properties and permissions in the same order, values are not compared as they
+ * are not part of the layout and are expected to change.  A hosted service that is not kept is
+ * only removed if we put it there for an earlier set of desired services, or if a desired service
+ * has its uuid, services the app added itself are left alone.  Then everything else desired is
+ * added, so a restart or a radio toggle that left the services in place costs nothing and one
+ * that changed a single service only replaces that service.
+ */
+class GattServerServiceReconciler {
+
+    private final List<BluetoothGattService> toRemove = new ArrayList<>();
+    private final List<BluetoothGattService> toAdd = new ArrayList<>();
+    private final List<UUID> kept = new ArrayList<>();
+    private final long requestedAt;
+
+    private GattServerServiceReconciler(long requestedAt) {
+        this.requestedAt = requestedAt;
+    }
+
+    /**
+     * Will compare the desired services with the services hosted by the server
+     *
+     * @param desired     The services the server should host
+     * @param server      The server, or null if there isn't one yet in which case nothing is hosted
+     * @param owned       The uuids of the services put in place by earlier reconciles, see
+     *                    {@link #getOwned(GattServerReconcileResult)}
+     * @param requestedAt The {@link android.os.SystemClock#elapsedRealtime()} at which the
+     *                    services were requested, for the time to ready
+     * @return The reconciler holding the changes
+     */
+    static GattServerServiceReconciler plan(@NonNull List<BluetoothGattService> desired, @Nullable BluetoothGattServer server,
+                                            @NonNull Set<UUID> owned, long requestedAt) {
+        List<BluetoothGattService> hosted = server == null ? null : server.getServices();
+        return plan(desired, hosted == null ? Collections.<BluetoothGattService>emptyList() : hosted, owned, requestedAt);
+    }
+
+    @VisibleForTesting
+    static GattServerServiceReconciler plan(@NonNull List<BluetoothGattService> desired, @NonNull List<BluetoothGattService> hosted,
+                                            @NonNull Set<UUID> owned, long requestedAt) {
+        GattServerServiceReconciler reconciler = new GattServerServiceReconciler(requestedAt);
+        boolean[] matched = new boolean[hosted.size()];
+        Set<UUID> desiredUuids = new HashSet<>(desired.size());
+        for (BluetoothGattService service : desired) {
+            desiredUuids.add(service.getUuid());
+        }
+        for (BluetoothGattService service : desired) {
+            int match = -1;
+            for (int i = 0; i < hosted.size(); i++) {
+                if (!matched[i] && hasSameLayout(service, hosted.get(i))) {
+                    match = i;
+                    break;
+                }
+            }
+            if (match >= 0) {
+                matched[match] = true;
+                reconciler.kept.add(service.getUuid());
+            } else {
+                reconciler.toAdd.add(service);
+            }
+        }
+        for (int i = 0; i < hosted.size(); i++) {
+            UUID uuid = hosted.get(i).getUuid();
+            if (!matched[i] && (owned.contains(uuid) || desiredUuids.contains(uuid))) {
+                reconciler.toRemove.add(hosted.get(i));
+            }
+        }
+        return reconciler;
+    }
+
+    /**
+     * @return true if the hosted services already are the desired services
+     */
+    boolean isEmpty() {
+        return toRemove.isEmpty() && toAdd.isEmpty();
+    }
+
+    /**
+     * Will provide the removals followed by the additions, to be run in this order with a
+     * {@link CompositeServerTransaction}
+     *
+     * @param server The server connection to run them on
+     * @return The transactions
+     */
+    @NonNull
+    List<GattServerTransaction> getTransactions(@NonNull GattServerConnection server) {
+        List<GattServerTransaction> transactions = new ArrayList<>(toRemove.size() + toAdd.size());
+        for (BluetoothGattService service : toRemove) {
+            transactions.add(new RemoveGattServerServicesTransaction(server, GattState.REMOVE_SERVER_SERVICE_SUCCESS, service));
+        }
+        for (BluetoothGattService service : toAdd) {
+            transactions.add(new AddGattServerServiceTransaction(server, GattState.ADD_SERVICE_SUCCESS, service));
+        }
+        return transactions;
+    }
+
+    /**
+     * Will build the result once the transactions have run.  The composite transaction stops at
+     * the first failure, so a change without a child result was never tried and has failed too.
+     *
+     * @param result The result of the {@link CompositeServerTransaction}, or null if nothing had to run
+     * @param now    The current {@link android.os.SystemClock#elapsedRealtime()}
+     * @return The reconcile result
+     */
+    @NonNull
+    GattServerReconcileResult toResult(@Nullable TransactionResult result, long now) {
+        List<TransactionResult> results = result == null ? Collections.<TransactionResult>emptyList() : result.getTransactionResults();
+        List<UUID> added = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        List<UUID> failed = new ArrayList<>();
+        for (int i = 0; i < toRemove.size() + toAdd.size(); i++) {
+            boolean succeeded = i < results.size()
+                && TransactionResult.TransactionResultStatus.SUCCESS.equals(results.get(i).getResultStatus());
+            UUID uuid = i < toRemove.size() ? toRemove.get(i).getUuid() : toAdd.get(i - toRemove.size()).getUuid();
+            if (!succeeded) {
+                failed.add(uuid);
+            } else if (i < toRemove.size()) {
+                removed.add(uuid);
+            } else {
+                added.add(uuid);
+            }
+        }
+        Set<UUID> removedUuids = new HashSet<>(removed);
+        List<UUID> replaced = new ArrayList<>();
+        for (UUID uuid : added) {
+            if (removedUuids.contains(uuid)) {
+                replaced.add(uuid);
+            }
+        }
+        return new GattServerReconcileResult(new ArrayList<>(kept), added, removed, replaced, failed, now - requestedAt);
+    }
+
+    /**
+     * @param result The result of this reconcile, see {@link #toResult(TransactionResult, long)}
+     * @return The uuids of the services we put in place and are still hosted, those we kept or
+     * added and those we could not remove
+     */
+    @NonNull
+    Set<UUID> getOwned(@NonNull GattServerReconcileResult result) {
+        Set<UUID> owned = new HashSet<>(result.getKept());
+        owned.addAll(result.getAdded());
+        for (BluetoothGattService service : toRemove) {
+            if (result.getFailed().contains(service.getUuid())) {
+                owned.add(service.getUuid());
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * @return The uuids of the services that are to be added
+     */
+    @NonNull
+    List<UUID> getServicesToAdd() {
+        List<UUID> uuids = new ArrayList<>(toAdd.size());
+        for (BluetoothGattService service : toAdd) {
+            uuids.add(service.getUuid());
+        }
+        return uuids;
+    }
+
+    @VisibleForTesting
+    static boolean hasSameLayout(@NonNull BluetoothGattService desired, @NonNull BluetoothGattService hosted) {
+        if (!equal(desired.getUuid(), hosted.getUuid()) || desired.getType() != hosted.getType()) {
+            return false;
+        }
+        List<BluetoothGattService> desiredIncluded = nonNull(desired.getIncludedServices());
+        List<BluetoothGattService> hostedIncluded = nonNull(hosted.getIncludedServices());
+        if (desiredIncluded.size() != hostedIncluded.size()) {
+            return false;
+        }
+        for (int i = 0; i < desiredIncluded.size(); i++) {
+            if (!equal(desiredIncluded.get(i).getUuid(), hostedIncluded.get(i).getUuid())) {
+                return false;
+            }
+        }
+        List<BluetoothGattCharacteristic> desiredCharacteristics = nonNull(desired.getCharacteristics());
+        List<BluetoothGattCharacteristic> hostedCharacteristics = nonNull(hosted.getCharacteristics());
+        if (desiredCharacteristics.size() != hostedCharacteristics.size()) {
+            return false;
+        }
+        for (int i = 0; i < desiredCharacteristics.size(); i++) {
+            if (!hasSameLayout(desiredCharacteristics.get(i), hostedCharacteristics.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasSameLayout(BluetoothGattCharacteristic desired, BluetoothGattCharacteristic hosted) {
+        if (!equal(desired.getUuid(), hosted.getUuid())
+            || desired.getProperties() != hosted.getProperties()
+            || desired.getPermissions() != hosted.getPermissions()) {
+            return false;
+        }
+        List<BluetoothGattDescriptor> desiredDescriptors = nonNull(desired.getDescriptors());
+        List<BluetoothGattDescriptor> hostedDescriptors = nonNull(hosted.getDescriptors());
+        if (desiredDescriptors.size() != hostedDescriptors.size()) {
+            return false;
+        }
+        for (int i = 0; i < desiredDescriptors.size(); i++) {
+            if (!equal(desiredDescriptors.get(i).getUuid(), hostedDescriptors.get(i).getUuid())
+                || desiredDescriptors.get(i).getPermissions() != hostedDescriptors.get(i).getPermissions()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equal(@Nullable UUID a, @Nullable UUID b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static <T> List<T> nonNull(@Nullable List<T> list) {
+        return list == null ? Collections.<T>emptyList() : list;
+    }
+}
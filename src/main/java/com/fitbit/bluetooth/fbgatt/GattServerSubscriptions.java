@@ -0,0 +1,289 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Keeps the client characteristic configuration (0x2902) of each central for each hosted
+ * characteristic.  The descriptor hosted by the gatt server holds a single value shared by every
+ * central, so the per central state is kept here from the descriptor writes and used to answer
+ * the descriptor reads and to find the centrals that want a notification or an indication.
+ * A write is only recorded once the app has accepted it by responding with success.
+ * As the specification asks, the configuration of a bonded central survives a disconnection and
+ * the one of any other central is dropped.
+ */
+class GattServerSubscriptions {
+    static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    static final int NONE = 0;
+    static final int NOTIFY = 0x01;
+    static final int INDICATE = 0x02;
+
+    // characteristic to the configuration of each subscribed central by address
+    private final ConcurrentHashMap<CharacteristicKey, ConcurrentHashMap<String, Subscriber>> subscriptions = new ConcurrentHashMap<>();
+    // held while a central is added or an emptied characteristic is dropped, so that a central is
+    // never added to a map that is being removed, the map methods that would do this atomically
+    // need API 24
+    private final Object subscribersLock = new Object();
+    // writes the app has not answered yet by central address and request id
+    private final ConcurrentHashMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    static boolean isClientCharacteristicConfiguration(@Nullable BluetoothGattDescriptor descriptor) {
+        return descriptor != null && CLIENT_CHARACTERISTIC_CONFIGURATION.equals(descriptor.getUuid());
+    }
+
+    /**
+     * Will hold a write of the client characteristic configuration until the app answers it
+     *
+     * @param device         The central
+     * @param requestId      The id of the write request
+     * @param characteristic The characteristic owning the descriptor
+     * @param value          The value written
+     */
+    void onConfigurationWriteRequested(@NonNull BluetoothDevice device, int requestId, @NonNull BluetoothGattCharacteristic characteristic, @Nullable byte[] value) {
+        pendingWrites.put(pendingKey(device.getAddress(), requestId), new PendingWrite(characteristic, value));
+    }
+
+    /**
+     * Will record the held write for this request if the app accepted it, and forget it otherwise
+     *
+     * @param device    The central
+     * @param requestId The id of the answered request
+     * @param accepted  true if the app responded with success
+     */
+    void onConfigurationWriteAnswered(@NonNull BluetoothDevice device, int requestId, boolean accepted) {
+        PendingWrite write = pendingWrites.remove(pendingKey(device.getAddress(), requestId));
+        if (write == null) {
+            return;
+        }
+        if (accepted) {
+            onConfigurationWritten(device, write.characteristic, write.value);
+        } else {
+            Timber.v("[%s] The app refused the client characteristic configuration of %s", device, write.characteristic.getUuid());
+        }
+    }
+
+    /**
+     * Will record a write of the client characteristic configuration
+     *
+     * @param device         The central
+     * @param characteristic The characteristic owning the descriptor
+     * @param value          The value written, two bytes little endian
+     * @return true if the value was a valid configuration and was recorded
+     */
+    boolean onConfigurationWritten(@NonNull BluetoothDevice device, @NonNull BluetoothGattCharacteristic characteristic, @Nullable byte[] value) {
+        if (value == null || value.length != 2) {
+            Timber.w("[%s] Ignoring a client characteristic configuration of %d bytes", device, value == null ? 0 : value.length);
+            return false;
+        }
+        int configuration = value[0] & (NOTIFY | INDICATE);
+        CharacteristicKey key = new CharacteristicKey(characteristic);
+        if (configuration == NONE) {
+            Map<String, Subscriber> subscribers = subscriptions.get(key);
+            if (subscribers != null) {
+                subscribers.remove(device.getAddress());
+            }
+        } else {
+            Subscriber subscriber = new Subscriber(new FitbitBluetoothDevice(device), configuration);
+            synchronized (subscribersLock) {
+                ConcurrentHashMap<String, Subscriber> subscribers = subscriptions.get(key);
+                if (subscribers == null) {
+                    subscribers = new ConcurrentHashMap<>();
+                    subscriptions.put(key, subscribers);
+                }
+                subscribers.put(device.getAddress(), subscriber);
+            }
+        }
+        Timber.v("[%s] Client characteristic configuration of %s is now %d", device, characteristic.getUuid(), configuration);
+        return true;
+    }
+
+    /**
+     * @param device         The central
+     * @param characteristic The characteristic
+     * @return The value of the client characteristic configuration for this central
+     */
+    @NonNull
+    byte[] getConfigurationValue(@NonNull BluetoothDevice device, @NonNull BluetoothGattCharacteristic characteristic) {
+        return new byte[]{(byte) getConfiguration(device.getAddress(), characteristic), 0};
+    }
+
+    int getConfiguration(@NonNull String address, @NonNull BluetoothGattCharacteristic characteristic) {
+        Map<String, Subscriber> subscribers = subscriptions.get(new CharacteristicKey(characteristic));
+        if (subscribers == null) {
+            return NONE;
+        }
+        Subscriber subscriber = subscribers.get(address);
+        return subscriber == null ? NONE : subscriber.configuration;
+    }
+
+    /**
+     * @param characteristic The characteristic
+     * @return The centrals with notifications or indications enabled and their configuration
+     */
+    @NonNull
+    Map<FitbitBluetoothDevice, Integer> getSubscribers(@NonNull BluetoothGattCharacteristic characteristic) {
+        Map<String, Subscriber> subscribers = subscriptions.get(new CharacteristicKey(characteristic));
+        if (subscribers == null || subscribers.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<FitbitBluetoothDevice, Integer> copy = new LinkedHashMap<>(subscribers.size());
+        for (Subscriber subscriber : subscribers.values()) {
+            copy.put(subscriber.device, subscriber.configuration);
+        }
+        return copy;
+    }
+
+    /**
+     * Will drop the configuration of a central that isn't bonded once it disconnects
+     *
+     * @param device The central
+     */
+    void onDisconnected(@Nullable BluetoothDevice device) {
+        if (device == null) {
+            return;
+        }
+        String address = device.getAddress();
+        // a write of a central that went away can no longer be answered
+        Iterator<String> pending = pendingWrites.keySet().iterator();
+        while (pending.hasNext()) {
+            if (pending.next().startsWith(address + '/')) {
+                pending.remove();
+            }
+        }
+        if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
+            return;
+        }
+        List<CharacteristicKey> emptied = new ArrayList<>();
+        for (Map.Entry<CharacteristicKey, ConcurrentHashMap<String, Subscriber>> entry : subscriptions.entrySet()) {
+            entry.getValue().remove(address);
+            if (entry.getValue().isEmpty()) {
+                emptied.add(entry.getKey());
+            }
+        }
+        dropEmptied(emptied);
+    }
+
+    /**
+     * Will drop the configuration of every central that isn't bonded, as when they all
+     * disconnect because bluetooth is turning off
+     */
+    void dropUnbonded() {
+        pendingWrites.clear();
+        List<CharacteristicKey> emptied = new ArrayList<>();
+        for (Map.Entry<CharacteristicKey, ConcurrentHashMap<String, Subscriber>> entry : subscriptions.entrySet()) {
+            Iterator<Subscriber> subscribers = entry.getValue().values().iterator();
+            while (subscribers.hasNext()) {
+                BluetoothDevice device = subscribers.next().device.getBtDevice();
+                if (device == null || device.getBondState() != BluetoothDevice.BOND_BONDED) {
+                    subscribers.remove();
+                }
+            }
+            if (entry.getValue().isEmpty()) {
+                emptied.add(entry.getKey());
+            }
+        }
+        dropEmptied(emptied);
+    }
+
+    private void dropEmptied(List<CharacteristicKey> emptied) {
+        synchronized (subscribersLock) {
+            for (CharacteristicKey key : emptied) {
+                Map<String, Subscriber> subscribers = subscriptions.get(key);
+                if (subscribers != null && subscribers.isEmpty()) {
+                    subscriptions.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Will drop the configurations for characteristics of a service that is no longer hosted
+     *
+     * @param serviceUuid The service
+     */
+    void onServiceRemoved(@Nullable UUID serviceUuid) {
+        Iterator<CharacteristicKey> keys = subscriptions.keySet().iterator();
+        while (keys.hasNext()) {
+            CharacteristicKey key = keys.next();
+            if (key.serviceUuid == null ? serviceUuid == null : key.serviceUuid.equals(serviceUuid)) {
+                keys.remove();
+            }
+        }
+    }
+
+    void clear() {
+        subscriptions.clear();
+        pendingWrites.clear();
+    }
+
+    private static String pendingKey(String address, int requestId) {
+        return address + '/' + requestId;
+    }
+
+    private static class PendingWrite {
+        private final BluetoothGattCharacteristic characteristic;
+        @Nullable
+        private final byte[] value;
+
+        private PendingWrite(BluetoothGattCharacteristic characteristic, @Nullable byte[] value) {
+            this.characteristic = characteristic;
+            this.value = value;
+        }
+    }
+
+    private static class Subscriber {
+        private final FitbitBluetoothDevice device;
+        private final int configuration;
+
+        private Subscriber(FitbitBluetoothDevice device, int configuration) {
+            this.device = device;
+            this.configuration = configuration;
+        }
+    }
+
+    private static class CharacteristicKey {
+        @Nullable
+        private final UUID serviceUuid;
+        private final UUID characteristicUuid;
+
+        private CharacteristicKey(BluetoothGattCharacteristic characteristic) {
+            this.serviceUuid = characteristic.getService() == null ? null : characteristic.getService().getUuid();
+            this.characteristicUuid = characteristic.getUuid();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CharacteristicKey)) {
+                return false;
+            }
+            CharacteristicKey other = (CharacteristicKey) obj;
+            return characteristicUuid.equals(other.characteristicUuid)
+                && (serviceUuid == null ? other.serviceUuid == null : serviceUuid.equals(other.serviceUuid));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * characteristicUuid.hashCode() + (serviceUuid == null ? 0 : serviceUuid.hashCode());
+        }
+    }
+}
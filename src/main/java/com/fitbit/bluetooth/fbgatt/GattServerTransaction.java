@@ -89,7 +89,7 @@ public class GattServerTransaction extends GattTransaction<GattServerTransaction
                 TransactionResult transactionResult = new TransactionResult.Builder().transactionName(tx.getName())
                         .gattState(tx.getGattServer().getGattState())
                         .resultStatus(TransactionResult.TransactionResultStatus.INVALID_STATE).build();
-                mainThreadHandler.post(() -> callback.onTransactionComplete(transactionResult));
+                postToCallbackThread(() -> callback.onTransactionComplete(transactionResult));
                 release();
                 // we will dispose of all timeouts now because none of the other runnables
                 // will complete
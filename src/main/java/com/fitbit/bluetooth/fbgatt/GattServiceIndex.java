@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * An immutable index over the gatt tree discovered on a connection.  It is built once when the
+ * services are discovered and replaced as a whole on the next discovery, so lookups never lock and
+ * never see a half built tree.  The platform {@link BluetoothGatt#getService(UUID)} and
+ * {@link BluetoothGattService#getCharacteristic(UUID)} walk lists on every call, here a lookup is
+ * a probe of an open addressed table keyed by the two longs of the UUID, and allocates nothing.
+ *
+ * UUIDs built on the bluetooth base UUID, which are most of the standard services and
+ * characteristics, are kept in a separate table by their 16 bit alias.
+ *
+ * As with the platform, when a UUID appears more than once at the same level the first one wins.
+ */
+class GattServiceIndex {
+    private static final long BASE_UUID_MSB_MASK = 0xFFFF0000FFFFFFFFL;
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final int NO_ALIAS = -1;
+
+    @Nullable
+    private final BluetoothGatt source;
+    private final UuidTable<ServiceEntry> services;
+    private final int characteristicCount;
+
+    private GattServiceIndex(@Nullable BluetoothGatt source, UuidTable<ServiceEntry> services, int characteristicCount) {
+        this.source = source;
+        this.services = services;
+        this.characteristicCount = characteristicCount;
+    }
+
+    /**
+     * Will index the services, their characteristics and the client characteristic configuration
+     * descriptor of each characteristic
+     *
+     * @param source   The gatt the services were discovered on, or null if there is none
+     * @param services The discovered services
+     * @return The index
+     */
+    @NonNull
+    static GattServiceIndex build(@Nullable BluetoothGatt source, @Nullable List<BluetoothGattService> services) {
+        List<BluetoothGattService> discovered = services == null ? Collections.emptyList() : services;
+        List<UUID> serviceUuids = new ArrayList<>(discovered.size());
+        List<ServiceEntry> serviceEntries = new ArrayList<>(discovered.size());
+        int characteristicCount = 0;
+        for (BluetoothGattService service : discovered) {
+            if (service == null || service.getUuid() == null) {
+                continue;
+            }
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            int size = characteristics == null ? 0 : characteristics.size();
+            List<UUID> characteristicUuids = new ArrayList<>(size);
+            List<CharacteristicEntry> characteristicEntries = new ArrayList<>(size);
+            if (characteristics != null) {
+                for (BluetoothGattCharacteristic characteristic : characteristics) {
+                    if (characteristic == null || characteristic.getUuid() == null) {
+                        continue;
+                    }
+                    characteristicUuids.add(characteristic.getUuid());
+                    characteristicEntries.add(new CharacteristicEntry(characteristic,
+                        characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION)));
+                }
+            }
+            UuidTable<CharacteristicEntry> characteristicTable = new UuidTable<>(characteristicUuids, characteristicEntries);
+            characteristicCount += characteristicTable.size;
+            serviceUuids.add(service.getUuid());
+            serviceEntries.add(new ServiceEntry(service, characteristicTable));
+        }
+        return new GattServiceIndex(source, new UuidTable<>(serviceUuids, serviceEntries), characteristicCount);
+    }
+
+    /**
+     * @param gatt The gatt the connection holds now
+     * @return true if this index was built from the services discovered on that gatt
+     */
+    boolean isBuiltFrom(@Nullable BluetoothGatt gatt) {
+        return source == gatt;
+    }
+
+    @Nullable
+    BluetoothGattService getService(@NonNull UUID serviceUuid) {
+        ServiceEntry entry = services.get(serviceUuid);
+        return entry == null ? null : entry.service;
+    }
+
+    @Nullable
+    BluetoothGattCharacteristic getCharacteristic(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid) {
+        CharacteristicEntry entry = getCharacteristicEntry(serviceUuid, characteristicUuid);
+        return entry == null ? null : entry.characteristic;
+    }
+
+    /**
+     * @return The 0x2902 descriptor of the characteristic, or null if it has none
+     */
+    @Nullable
+    BluetoothGattDescriptor getClientCharacteristicConfiguration(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid) {
+        CharacteristicEntry entry = getCharacteristicEntry(serviceUuid, characteristicUuid);
+        return entry == null ? null : entry.clientCharacteristicConfiguration;
+    }
+
+    int getServiceCount() {
+        return services.size;
+    }
+
+    int getCharacteristicCount() {
+        return characteristicCount;
+    }
+
+    @Nullable
+    private CharacteristicEntry getCharacteristicEntry(UUID serviceUuid, UUID characteristicUuid) {
+        ServiceEntry entry = services.get(serviceUuid);
+        return entry == null ? null : entry.characteristics.get(characteristicUuid);
+    }
+
+    /**
+     * @return The 16 bit alias if the UUID is built on the bluetooth base UUID, or {@link #NO_ALIAS}
+     */
+    @VisibleForTesting
+    static int shortAlias(long mostSignificantBits, long leastSignificantBits) {
+        if (leastSignificantBits != BASE_UUID_LSB || (mostSignificantBits & BASE_UUID_MSB_MASK) != BASE_UUID_MSB) {
+            return NO_ALIAS;
+        }
+        return (int) (mostSignificantBits >>> 32);
+    }
+
+    private static class ServiceEntry {
+        private final BluetoothGattService service;
+        private final UuidTable<CharacteristicEntry> characteristics;
+
+        private ServiceEntry(BluetoothGattService service, UuidTable<CharacteristicEntry> characteristics) {
+            this.service = service;
+            this.characteristics = characteristics;
+        }
+    }
+
+    private static class CharacteristicEntry {
+        private final BluetoothGattCharacteristic characteristic;
+        @Nullable
+        private final BluetoothGattDescriptor clientCharacteristicConfiguration;
+
+        private CharacteristicEntry(BluetoothGattCharacteristic characteristic, @Nullable BluetoothGattDescriptor clientCharacteristicConfiguration) {
+            this.characteristic = characteristic;
+            this.clientCharacteristicConfiguration = clientCharacteristicConfiguration;
+        }
+    }
+
+    /**
+     * Two open addressed tables with linear probing, one keyed by the 16 bit alias of base UUIDs
+     * and one by both halves of any other UUID.  Each is sized to at most half full so that a
+     * miss ends quickly.
+     */
+    private static class UuidTable<V> {
+        private final int[] aliasKeys;
+        private final Object[] aliasValues;
+        private final long[] mostSignificantKeys;
+        private final long[] leastSignificantKeys;
+        private final Object[] values;
+        private final int size;
+
+        private UuidTable(List<UUID> keys, List<V> entries) {
+            int aliased = 0;
+            for (UUID key : keys) {
+                if (shortAlias(key.getMostSignificantBits(), key.getLeastSignificantBits()) != NO_ALIAS) {
+                    aliased++;
+                }
+            }
+            aliasKeys = new int[tableSize(aliased)];
+            aliasValues = new Object[aliasKeys.length];
+            mostSignificantKeys = new long[tableSize(keys.size() - aliased)];
+            leastSignificantKeys = new long[mostSignificantKeys.length];
+            values = new Object[mostSignificantKeys.length];
+            int inserted = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                if (put(keys.get(i), entries.get(i))) {
+                    inserted++;
+                }
+            }
+            size = inserted;
+        }
+
+        private static int tableSize(int count) {
+            return count == 0 ? 1 : Integer.highestOneBit(count * 2 - 1) << 1;
+        }
+
+        private static int hash(long mostSignificantBits, long leastSignificantBits) {
+            long h = (mostSignificantBits ^ leastSignificantBits) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static int hash(int alias) {
+            int h = alias * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        // first one in wins, as the platform returns the first match
+        private boolean put(UUID key, V value) {
+            long msb = key.getMostSignificantBits();
+            long lsb = key.getLeastSignificantBits();
+            int alias = shortAlias(msb, lsb);
+            if (alias != NO_ALIAS) {
+                int mask = aliasKeys.length - 1;
+                for (int slot = hash(alias) & mask; ; slot = (slot + 1) & mask) {
+                    if (aliasValues[slot] == null) {
+                        aliasKeys[slot] = alias;
+                        aliasValues[slot] = value;
+                        return true;
+                    } else if (aliasKeys[slot] == alias) {
+                        return false;
+                    }
+                }
+            }
+            int mask = values.length - 1;
+            for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+                if (values[slot] == null) {
+                    mostSignificantKeys[slot] = msb;
+                    leastSignificantKeys[slot] = lsb;
+                    values[slot] = value;
+                    return true;
+                } else if (mostSignificantKeys[slot] == msb && leastSignificantKeys[slot] == lsb) {
+                    return false;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Nullable
+        private V get(UUID key) {
+            long msb = key.getMostSignificantBits();
+            long lsb = key.getLeastSignificantBits();
+            int alias = shortAlias(msb, lsb);
+            if (alias != NO_ALIAS) {
+                int mask = aliasKeys.length - 1;
+                for (int slot = hash(alias) & mask; ; slot = (slot + 1) & mask) {
+                    Object value = aliasValues[slot];
+                    if (value == null || aliasKeys[slot] == alias) {
+                        return (V) value;
+                    }
+                }
+            }
+            int mask = values.length - 1;
+            for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+                Object value = values[slot];
+                if (value == null || (mostSignificantKeys[slot] == msb && leastSignificantKeys[slot] == lsb)) {
+                    return (V) value;
+                }
+            }
+        }
+    }
+}
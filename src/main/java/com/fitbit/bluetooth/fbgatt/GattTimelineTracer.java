@@ -0,0 +1,275 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Records the queueing, commit, stack call, callback and result delivery of transactions as spans
+ * on a timeline, tagged with the thread they ran on and the device, so that they can be written
+ * out in the Chrome trace event format and opened in Perfetto or chrome://tracing.  While
+ * recording the spans are also emitted as {@link Trace} sections so that they line up with a
+ * systrace capture, the async ones only on Q and later.  The events are kept in a ring, once it is
+ * full the oldest are dropped.
+ */
+class GattTimelineTracer {
+    static final int DEFAULT_MAX_EVENTS = 8192;
+    static final long NOT_RECORDING = -1;
+    static final String CATEGORY_QUEUE = "queue";
+    static final String CATEGORY_TRANSACTION = "transaction";
+    static final String CATEGORY_STACK = "stack";
+    static final String CATEGORY_CALLBACK = "callback";
+    static final String CATEGORY_DELIVERY = "delivery";
+    // the limit on the length of a trace section name
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+    private static final char PHASE_COMPLETE = 'X';
+    private static final char PHASE_ASYNC_BEGIN = 'b';
+    private static final char PHASE_ASYNC_END = 'e';
+    private static final char PHASE_INSTANT = 'i';
+
+    private final Object lock = new Object();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, String> threadNames = new HashMap<>();
+    private volatile boolean recording;
+    private TimelineEvent[] events = new TimelineEvent[0];
+    private int next;
+    private int count;
+    private long dropped;
+
+    /**
+     * Will begin a new recording, dropping the events of the previous one
+     *
+     * @param maxEvents The number of events to keep
+     * @throws IllegalArgumentException if maxEvents is less than one
+     */
+    void start(int maxEvents) {
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "At least one event must be kept, not %d", maxEvents));
+        }
+        synchronized (lock) {
+            events = new TimelineEvent[maxEvents];
+            next = 0;
+            count = 0;
+            dropped = 0;
+            threadNames.clear();
+            recording = true;
+        }
+        Timber.d("Recording a timeline of up to %d events", maxEvents);
+    }
+
+    /**
+     * Will stop recording, the events recorded so far are kept until the next start
+     */
+    void stop() {
+        recording = false;
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * @return An id for a pair of async events, never 0
+     */
+    int nextId() {
+        int id = ids.incrementAndGet();
+        return id == 0 ? ids.incrementAndGet() : id;
+    }
+
+    void beginAsync(@NonNull String category, @NonNull String name, int id, @Nullable String device) {
+        if (!recording) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(sectionName(category, name), id);
+        }
+        record(PHASE_ASYNC_BEGIN, category, name, SystemClock.elapsedRealtimeNanos(), 0, id, device);
+    }
+
+    /**
+     * Ends an async span even if the recording was stopped since it began, so that it is not left
+     * open in the trace
+     */
+    void endAsync(@NonNull String category, @NonNull String name, int id, @Nullable String device) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(sectionName(category, name), id);
+        }
+        record(PHASE_ASYNC_END, category, name, SystemClock.elapsedRealtimeNanos(), 0, id, device);
+    }
+
+    /**
+     * Will begin a section on the current thread, it must be ended on this thread with
+     * {@link #endSection(long, String, String, String)}
+     *
+     * @return The time the section began, or {@link #NOT_RECORDING}
+     */
+    long beginSection(@NonNull String category, @NonNull String name) {
+        if (!recording) {
+            return NOT_RECORDING;
+        }
+        Trace.beginSection(sectionName(category, name));
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    void endSection(long startedAt, @NonNull String category, @NonNull String name, @Nullable String device) {
+        if (startedAt == NOT_RECORDING) {
+            return;
+        }
+        Trace.endSection();
+        record(PHASE_COMPLETE, category, name, startedAt, SystemClock.elapsedRealtimeNanos() - startedAt, 0, device);
+    }
+
+    void instant(@NonNull String category, @NonNull String name, @Nullable String device) {
+        if (!recording) {
+            return;
+        }
+        record(PHASE_INSTANT, category, name, SystemClock.elapsedRealtimeNanos(), 0, 0, device);
+    }
+
+    /**
+     * Will write the recorded events as a Chrome trace event format JSON object
+     *
+     * @param writer Where to write the trace, it is not closed
+     * @throws IOException if the writer fails
+     */
+    void writeTo(@NonNull Writer writer) throws IOException {
+        TimelineEvent[] snapshot;
+        Map<Integer, String> names;
+        long droppedEvents;
+        synchronized (lock) {
+            snapshot = new TimelineEvent[count];
+            int oldest = (next - count + events.length) % Math.max(events.length, 1);
+            for (int i = 0; i < count; i++) {
+                snapshot[i] = events[(oldest + i) % events.length];
+            }
+            names = new HashMap<>(threadNames);
+            droppedEvents = dropped;
+        }
+        int pid = Process.myPid();
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (Map.Entry<Integer, String> thread : names.entrySet()) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write(String.format(Locale.ENGLISH, "\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d,\"args\":{\"name\":", pid, thread.getKey()));
+            writeString(writer, thread.getValue());
+            writer.write("}}");
+        }
+        for (TimelineEvent event : snapshot) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":");
+            writeString(writer, event.name);
+            writer.write(",\"cat\":");
+            writeString(writer, event.category);
+            writer.write(String.format(Locale.ENGLISH, ",\"ph\":\"%c\",\"ts\":%s,\"pid\":%d,\"tid\":%d",
+                event.phase, micros(event.timestampNanos), pid, event.tid));
+            if (event.phase == PHASE_COMPLETE) {
+                writer.write(String.format(Locale.ENGLISH, ",\"dur\":%s", micros(event.durationNanos)));
+            } else if (event.phase == PHASE_INSTANT) {
+                writer.write(",\"s\":\"t\"");
+            } else {
+                writer.write(String.format(Locale.ENGLISH, ",\"id\":\"0x%x\"", event.id));
+            }
+            if (event.device != null) {
+                writer.write(",\"args\":{\"device\":");
+                writeString(writer, event.device);
+                writer.write('}');
+            }
+            writer.write('}');
+        }
+        writer.write(String.format(Locale.ENGLISH, "\n],\"displayTimeUnit\":\"ms\",\"otherData\":{\"droppedEvents\":%d}}\n", droppedEvents));
+        writer.flush();
+    }
+
+    private void record(char phase, String category, String name, long timestampNanos, long durationNanos, int id, @Nullable String device) {
+        int tid = Process.myTid();
+        TimelineEvent event = new TimelineEvent(phase, category, name, timestampNanos, durationNanos, tid, id, device);
+        synchronized (lock) {
+            if (events.length == 0) {
+                return;
+            }
+            if (!threadNames.containsKey(tid)) {
+                threadNames.put(tid, Thread.currentThread().getName());
+            }
+            if (count == events.length) {
+                dropped++;
+            } else {
+                count++;
+            }
+            events[next] = event;
+            next = (next + 1) % events.length;
+        }
+    }
+
+    private static String sectionName(String category, String name) {
+        String section = category + ' ' + name;
+        return section.length() > MAX_SECTION_NAME_LENGTH ? section.substring(0, MAX_SECTION_NAME_LENGTH) : section;
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ENGLISH, "%d.%03d", nanos / 1000, nanos % 1000);
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format(Locale.ENGLISH, "\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    private static class TimelineEvent {
+        private final char phase;
+        private final String category;
+        private final String name;
+        private final long timestampNanos;
+        private final long durationNanos;
+        private final int tid;
+        private final int id;
+        @Nullable
+        private final String device;
+
+        private TimelineEvent(char phase, String category, String name, long timestampNanos, long durationNanos,
+                              int tid, int id, @Nullable String device) {
+            this.phase = phase;
+            this.category = category;
+            this.name = name;
+            this.timestampNanos = timestampNanos;
+            this.durationNanos = durationNanos;
+            this.tid = tid;
+            this.id = id;
+            this.device = device;
+        }
+    }
+}
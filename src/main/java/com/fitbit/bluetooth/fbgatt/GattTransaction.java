@@ -12,15 +12,18 @@ import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
 import android.content.Context;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
@@ -47,6 +50,16 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
      * We shouldn't allow any gatt transaction including
      */
     protected static final long DEFAULT_GATT_TRANSACTION_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    /**
+     * No deadline, the transaction only has its timeout
+     */
+    public static final long NO_DEADLINE = 0;
+    /**
+     * The queue priority of a transaction that was given none
+     */
+    public static final int DEFAULT_QUEUE_PRIORITY = 0;
+    // the executor whose runnable is running on this thread, results for it can be delivered in place
+    private static final ThreadLocal<Executor> CURRENT_CALLBACK_EXECUTOR = new ThreadLocal<>();
 
     protected final Handler timeoutHandler;
     protected final Handler mainThreadHandler;
@@ -66,8 +79,37 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
     protected AtomicInteger executedTransactions = new AtomicInteger(0);
     protected boolean haltChain = false;
     private final Object hookLock = new Object();
-    private final CountDownLatch cdl = new CountDownLatch(1);
+    // replaced when the transaction is reset for reuse, commit holds on to the latch it started with
+    private volatile CountDownLatch cdl = new CountDownLatch(1);
     protected StrategyProvider strategyProvider = new StrategyProvider();
+    private volatile boolean released = false;
+    // handed to a connection to run but maybe not committed yet, a recycle must wait for the release
+    private volatile boolean queued = false;
+    // set by the pool that owns this transaction, will hand it back once it has been reset
+    @Nullable
+    private Runnable recycler;
+    private final AtomicBoolean recycleRequested = new AtomicBoolean(false);
+    private final AtomicBoolean recyclePosted = new AtomicBoolean(false);
+    private final Runnable resetAndRecycleRunnable = this::resetAndRecycle;
+    @Nullable
+    private volatile Executor callbackExecutor;
+    @Nullable
+    private final CallbackLatencyTracker callbackLatencyTracker;
+    @Nullable
+    private final GattTimelineTracer timelineTracer;
+    // the ids of the timeline spans this run has open, 0 if it has none
+    private final AtomicInteger queueSpanId = new AtomicInteger(0);
+    private final AtomicInteger transactionSpanId = new AtomicInteger(0);
+    private volatile long deadline = NO_DEADLINE;
+    // a run is cancelled while it waits or while it runs, and commit only starts a run that is waiting
+    private static final int RUN_WAITING = 0;
+    private static final int RUN_STARTED = 1;
+    private static final int RUN_CANCELLED_WAITING = 2;
+    private static final int RUN_CANCELLED_STARTED = 3;
+    private final AtomicInteger runState = new AtomicInteger(RUN_WAITING);
+    // moves on every reset, so a handle from an earlier run can't cancel a later one
+    private final AtomicInteger runGeneration = new AtomicInteger(0);
+    private volatile int queuePriority = DEFAULT_QUEUE_PRIORITY;
 
     public GattTransaction(GattState successEndState) {
         this.appContext = FitbitGatt.getInstance().getAppContext();
@@ -81,6 +123,8 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
         // We will need the main thread handler for calling back on errors that occur prior to the
         // gatt request for consistency.
         this.mainThreadHandler = new Handler(this.appContext.getMainLooper());
+        this.callbackLatencyTracker = FitbitGatt.getInstance().getCallbackLatencyTracker();
+        this.timelineTracer = FitbitGatt.getInstance().getTimelineTracer();
         this.successEndState = successEndState;
 
         /*
@@ -104,6 +148,163 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
     public abstract @Nullable
     FitbitBluetoothDevice getDevice();
 
+    /**
+     * Will deliver the result of this transaction on the given executor instead of the main
+     * thread, on failure as well as on success, so a caller already working off of the main
+     * thread does not pay for a hop there and back.  Results are handed to the executor in
+     * the order they are produced, so it should be serial if the order matters.  Must be set
+     * before the transaction is committed and is cleared when the transaction is reset, see
+     * {@link GattConnection#setCallbackExecutor(Executor)} for a default.
+     *
+     * @param executor The executor to deliver the result on, or null for the main thread
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setCallbackExecutor(@Nullable Executor executor) {
+        if (taskHasStarted.get()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] You can't change the callback executor after the task has started", getDevice()));
+        }
+        this.callbackExecutor = executor;
+    }
+
+    /**
+     * @return The executor the result will be delivered on, or null for the main thread
+     */
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Will set an absolute deadline for this transaction on the {@link SystemClock#elapsedRealtime()}
+     * clock.  If the deadline has passed by the time the transaction reaches the front of the queue
+     * it is dropped with {@link TransactionResult.TransactionResultStatus#TIMEOUT} without touching
+     * the radio, otherwise its timeout is shortened so that it ends by the deadline.  Must be set
+     * before the transaction is committed and is cleared when the transaction is reset.
+     *
+     * @param deadline The elapsed realtime in milliseconds by which the caller needs the result,
+     *                 or {@link #NO_DEADLINE}
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setDeadline(long deadline) {
+        if (taskHasStarted.get()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] You can't change the deadline after the task has started", getDevice()));
+        }
+        this.deadline = deadline;
+    }
+
+    /**
+     * Will set how important this transaction is when a full queue has to evict work, see
+     * {@link QueueOverloadPolicy#EVICT_LOWEST_PRIORITY}.  Must be set before it is queued.
+     *
+     * @param queuePriority Higher values are kept over lower ones, the default is {@link #DEFAULT_QUEUE_PRIORITY}
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public void setQueuePriority(int queuePriority) {
+        if (taskHasStarted.get()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] You can't change the queue priority after the task has started", getDevice()));
+        }
+        this.queuePriority = queuePriority;
+    }
+
+    /**
+     * @return The priority used when a full queue has to evict work
+     */
+    public int getQueuePriority() {
+        return queuePriority;
+    }
+
+    /**
+     * @return The absolute deadline on the elapsed realtime clock, or {@link #NO_DEADLINE}
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return true if this transaction was cancelled during this run
+     */
+    public boolean isCancelled() {
+        int state = runState.get();
+        return state == RUN_CANCELLED_WAITING || state == RUN_CANCELLED_STARTED;
+    }
+
+    /**
+     * @return A handle that can cancel this run of the transaction
+     */
+    @NonNull
+    TransactionHandle newHandle() {
+        return new TransactionHandle(this, runGeneration.get());
+    }
+
+    /**
+     * Will cancel the run of this transaction that the handle was made for.  A transaction that
+     * is still queued is dropped before it reaches the radio and delivers
+     * {@link TransactionResult.TransactionResultStatus#CANCELLED}.  A transaction already in
+     * flight is ended through the timeout handling since its operation may have reached the
+     * peripheral, so it delivers {@link TransactionResult.TransactionResultStatus#TIMEOUT}.
+     *
+     * @param generation The run the handle was made for
+     * @return true if the transaction was cancelled by this call
+     */
+    @SuppressWarnings("unchecked")
+    boolean cancel(int generation) {
+        if (generation != runGeneration.get() || released) {
+            return false;
+        }
+        if (runState.compareAndSet(RUN_WAITING, RUN_CANCELLED_WAITING)) {
+            Timber.d("[%s] Cancelled %s, it will be dropped from the queue", getDevice(), getName());
+        } else if (runState.compareAndSet(RUN_STARTED, RUN_CANCELLED_STARTED)) {
+            Timber.d("[%s] Cancelling %s while it is in flight", getDevice(), getName());
+            onSkipped(TransactionSkipTracker.Reason.CANCELLED_IN_FLIGHT);
+            timeoutHandler.removeCallbacksAndMessages(null);
+            timeoutHandler.post(() -> {
+                GattTransactionCallback localCallback = callback;
+                if (!released && localCallback != null && generation == runGeneration.get()) {
+                    handleTimeout((T) this, localCallback);
+                }
+            });
+        } else {
+            // already cancelled
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Will run the runnable on the thread results are delivered on, the caller's executor if one
+     * was set, or the main thread.  Transactions use this to deliver results that did not come
+     * from the stack, like failing to start the operation.
+     *
+     * @param runnable The runnable that delivers the result
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void postToCallbackThread(@NonNull Runnable runnable) {
+        postToCallbackThread(runnable, 0);
+    }
+
+    /**
+     * Will run the runnable on the thread results are delivered on after a delay, the delay is
+     * kept on the main looper but the runnable only runs on the caller's executor if one was set
+     *
+     * @param runnable    The runnable that delivers the result
+     * @param delayMillis The delay in milliseconds
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void postToCallbackThread(@NonNull Runnable runnable, long delayMillis) {
+        Executor executor = callbackExecutor;
+        if (executor == null) {
+            long postedAt = SystemClock.elapsedRealtimeNanos() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            mainThreadHandler.postDelayed(() -> {
+                onHop(CallbackLatencyTracker.Hop.MAIN_THREAD, postedAt);
+                runnable.run();
+            }, delayMillis);
+        } else if (delayMillis > 0) {
+            mainThreadHandler.postDelayed(() -> executeOnCallbackExecutor(executor, runnable), delayMillis);
+        } else {
+            executeOnCallbackExecutor(executor, runnable);
+        }
+    }
+
     /**
      * Used to determine if this transaction has already been run
      *
@@ -114,6 +315,17 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
         return taskHasStarted.get();
     }
 
+    /**
+     * Used to determine if this transaction has been committed and has not yet delivered its
+     * result and released
+     *
+     * @return true if the transaction is running
+     */
+
+    public boolean isInFlight() {
+        return taskHasStarted.get() && !released;
+    }
+
     /**
      * Will execute the transaction's discreet operations, will return before executing all transactions
      * if a transaction status of fail or timeout is returned before the last transaction, transactions
@@ -122,14 +334,33 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
      * All transaction callbacks will occur on the fbgatt thread associated with the connection,
      * unless they are performing GATT operations which will result on the callback being delivered
      * on the main thread.  If the user needs to transition back to the main thread for a non-gatt
-     * operation, they will have to make that transition themselves.
+     * operation, they will have to make that transition themselves.  If a callback executor was
+     * set, see {@link #setCallbackExecutor(Executor)}, every result is delivered on it instead.
      */
     @VisibleForTesting( otherwise = VisibleForTesting.PACKAGE_PRIVATE)
     @SuppressWarnings("unchecked")
     public void commit(GattTransactionCallback callback) {
 
+        if (recycleRequested.get()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] This transaction was recycled, obtain a new one", getDevice()));
+        }
         if (taskHasStarted.getAndSet(true)) {
-            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] This transaction was already started!", getDevice()));
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] This transaction was already started, it must be reset before it is run again", getDevice()));
+        }
+        final CountDownLatch latch = cdl;
+        long runTimeout = timeout;
+        endTimelineSpan(queueSpanId, GattTimelineTracer.CATEGORY_QUEUE);
+        if (isCancelled()) {
+            dropBeforeRun(callback, TransactionResult.TransactionResultStatus.CANCELLED, TransactionSkipTracker.Reason.CANCELLED_QUEUED);
+            return;
+        }
+        if (deadline != NO_DEADLINE) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                dropBeforeRun(callback, TransactionResult.TransactionResultStatus.TIMEOUT, TransactionSkipTracker.Reason.EXPIRED_QUEUED);
+                return;
+            }
+            runTimeout = Math.min(runTimeout, remaining);
         }
         // let's allocate the array to the proper size ( why let it grow and waste cycles )
         ArrayList<T> transactions = new ArrayList<>(preCommitHooks.size() + postCommitHooks.size() + 1);
@@ -141,8 +372,15 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
             transactions.add((T) this);
             transactions.addAll(postCommitHooks);
         }
+        // the callback is set first so that a cancel that sees the run started can end it, a
+        // cancel that got in before this is the one that wins
+        if (!runState.compareAndSet(RUN_WAITING, RUN_STARTED)) {
+            dropBeforeRun(callback, TransactionResult.TransactionResultStatus.CANCELLED, TransactionSkipTracker.Reason.CANCELLED_QUEUED);
+            return;
+        }
+        beginTimelineSpan(transactionSpanId, GattTimelineTracer.CATEGORY_TRANSACTION);
         // the entire transaction must complete in {@link timeout} time.
-        scheduleTransactionTimeout((T) this, callback);
+        scheduleTransactionTimeout((T) this, callback, runTimeout);
         while (!transactions.isEmpty()) {
             T tx = (T) transactions.remove(0);
             if (!areConditionsValidForExecution(tx)) {
@@ -162,7 +400,7 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
                 return;
             }
             try {
-                cdl.await(timeout, TimeUnit.MILLISECONDS);
+                latch.await(runTimeout, TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 Timber.d("Transaction was interrupted while waiting for result, re-interrupting thread : %s", Thread.currentThread().getName());
                 Thread.currentThread().interrupt();
@@ -195,7 +433,12 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
         registerListener(tx);
         // it might be a pre / post commit hook so we'll need to set it here too on the tx
         tx.taskHasStarted.getAndSet(true);
-        tx.transaction(getGattTransactionCallback(tx, callback));
+        long startedAt = beginTimelineSection(GattTimelineTracer.CATEGORY_STACK, tx.getName());
+        try {
+            tx.transaction(getGattTransactionCallback(tx, callback));
+        } finally {
+            endTimelineSection(startedAt, GattTimelineTracer.CATEGORY_STACK, tx.getName());
+        }
     }
 
     protected abstract void unregisterListener(T tx);
@@ -215,8 +458,11 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
     @CallSuper
     public void callCallbackWithTransactionResultAndRelease(GattTransactionCallback callback, TransactionResult result) {
         // to deal with transaction changes after the callback is null
-        if(callback != null) {
+        if(callback instanceof ParentGattTransactionCallback) {
+            // our own bookkeeping must be done before we release, it delivers through the executor
             callback.onTransactionComplete(result);
+        } else if(callback != null) {
+            deliverResult(callback, result);
         } else {
             Timber.i("The callback was null, not delivering result: %s, but releasing", result);
             // fixing https://console.firebase.google.com/project/api-project-625585532877/crashlytics/app/android:com.fitbit.betabit.FitbitMobile.hockeyapp/issues/5ca51fcbf8b88c296348095d?time=last-seven-days&sessionId=5CAB9C94031500014AB702C03F806B64_DNE_8_v2
@@ -236,7 +482,7 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
                 }
                 if (!result.resultStatus.equals(TransactionResult.TransactionResultStatus.SUCCESS)) {
                     Timber.w("[%s] The transaction %s failed, Result: %s", getDevice(), tx.getName(), result);
-                    wrappedCallback.onTransactionComplete(result);
+                    deliverResult(wrappedCallback, result);
                     unregisterListener(tx);
                     Timber.w("[%s] Halting the execution chain because tx %s failed", getDevice(), tx.getName());
                     GattTransaction.this.haltChain = true;
@@ -255,7 +501,7 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
                         // only callback here if there is only a single transaction, otherwise
                         // let the internal callbacks handle it
                         if (totalTx == 1) {
-                            wrappedCallback.onTransactionComplete(result);
+                            deliverResult(wrappedCallback, result);
                             release();
                         }
                     } else if (FitbitGatt.getInstance().isSlowLoggingEnabled()) {
@@ -267,8 +513,158 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
         };
     }
 
-    private void scheduleTransactionTimeout(T tx, GattTransactionCallback callback) {
-        timeoutHandler.postDelayed(() -> handleTimeout(tx, callback), timeout);
+    /**
+     * Will hand the result to the caller's executor if one was set and we aren't already running
+     * on it, otherwise calls back in place
+     */
+    private void deliverResult(@NonNull GattTransactionCallback callback, @NonNull TransactionResult result) {
+        Executor executor = callbackExecutor;
+        if (executor == null || CURRENT_CALLBACK_EXECUTOR.get() == executor) {
+            completeCallback(callback, result);
+        } else {
+            executeOnCallbackExecutor(executor, () -> completeCallback(callback, result));
+        }
+    }
+
+    private void completeCallback(@NonNull GattTransactionCallback callback, @NonNull TransactionResult result) {
+        long startedAt = beginTimelineSection(GattTimelineTracer.CATEGORY_DELIVERY, getName());
+        try {
+            callback.onTransactionComplete(result);
+        } finally {
+            endTimelineSection(startedAt, GattTimelineTracer.CATEGORY_DELIVERY, getName());
+        }
+    }
+
+    /**
+     * Will be called by the connection this transaction was handed to before it is queued, from
+     * then on a {@link #recycle()} waits for the transaction to release
+     */
+    void markQueued() {
+        queued = true;
+    }
+
+    /**
+     * @return true if the transaction was handed to a connection or committed and has not released
+     */
+    private boolean isHeld() {
+        return (queued || taskHasStarted.get()) && !released;
+    }
+
+    /**
+     * Will be called by the queue this transaction was put on, the time it waits there is part
+     * of the timeline if one is being recorded, see {@link FitbitGatt#startTimelineTrace(int)}
+     */
+    void onQueued() {
+        beginTimelineSpan(queueSpanId, GattTimelineTracer.CATEGORY_QUEUE);
+    }
+
+    private void beginTimelineSpan(AtomicInteger spanId, String category) {
+        if (timelineTracer != null && timelineTracer.isRecording()) {
+            int id = timelineTracer.nextId();
+            spanId.set(id);
+            timelineTracer.beginAsync(category, getName(), id, getTimelineDevice());
+        }
+    }
+
+    private void endTimelineSpan(AtomicInteger spanId, String category) {
+        int id = spanId.getAndSet(0);
+        if (timelineTracer != null && id != 0) {
+            timelineTracer.endAsync(category, getName(), id, getTimelineDevice());
+        }
+    }
+
+    private long beginTimelineSection(String category, String name) {
+        return timelineTracer == null ? GattTimelineTracer.NOT_RECORDING : timelineTracer.beginSection(category, name);
+    }
+
+    private void endTimelineSection(long startedAt, String category, String name) {
+        if (timelineTracer != null) {
+            timelineTracer.endSection(startedAt, category, name, getTimelineDevice());
+        }
+    }
+
+    @Nullable
+    private String getTimelineDevice() {
+        FitbitBluetoothDevice device = getDevice();
+        return device == null ? null : device.getAddress();
+    }
+
+    private void executeOnCallbackExecutor(@NonNull Executor executor, @NonNull Runnable runnable) {
+        long executedAt = SystemClock.elapsedRealtimeNanos();
+        executor.execute(() -> {
+            onHop(CallbackLatencyTracker.Hop.EXECUTOR, executedAt);
+            Executor previous = CURRENT_CALLBACK_EXECUTOR.get();
+            CURRENT_CALLBACK_EXECUTOR.set(executor);
+            try {
+                runnable.run();
+            } finally {
+                CURRENT_CALLBACK_EXECUTOR.set(previous);
+            }
+        });
+    }
+
+    private void onHop(CallbackLatencyTracker.Hop hop, long requestedAtNanos) {
+        if (callbackLatencyTracker != null) {
+            callbackLatencyTracker.onHop(hop, SystemClock.elapsedRealtimeNanos() - requestedAtNanos);
+        }
+    }
+
+    private void scheduleTransactionTimeout(T tx, GattTransactionCallback callback, long runTimeout) {
+        timeoutHandler.postDelayed(() -> handleTimeout(tx, callback), runTimeout);
+    }
+
+    /**
+     * Will refuse this transaction because its queue was full, it is answered with
+     * {@link TransactionResult.TransactionResultStatus#REJECTED} and never runs
+     *
+     * @param callback The callback that was given with the transaction
+     */
+    void rejectWithoutRunning(@Nullable GattTransactionCallback callback) {
+        if (taskHasStarted.getAndSet(true)) {
+            Timber.w("[%s] %s was already started, not rejecting it", getDevice(), getName());
+            return;
+        }
+        dropBeforeRun(callback, TransactionResult.TransactionResultStatus.REJECTED, null);
+    }
+
+    /**
+     * Will fail this transaction without running it, its connection went away before it could
+     * run, it is answered with {@link TransactionResult.TransactionResultStatus#FAILURE}
+     *
+     * @param callback The callback that was given with the transaction
+     */
+    void failWithoutRunning(@Nullable GattTransactionCallback callback) {
+        if (taskHasStarted.getAndSet(true)) {
+            Timber.w("[%s] %s was already started, not failing it", getDevice(), getName());
+            return;
+        }
+        dropBeforeRun(callback, TransactionResult.TransactionResultStatus.FAILURE, null);
+    }
+
+    /**
+     * Will deliver the result for a transaction that was cancelled, expired or refused while
+     * queued, nothing has been sent to the radio
+     */
+    private void dropBeforeRun(@Nullable GattTransactionCallback callback, TransactionResult.TransactionResultStatus status,
+                               @Nullable TransactionSkipTracker.Reason reason) {
+        Timber.d("[%s] Dropping %s before it ran, %s", getDevice(), getName(), status);
+        endTimelineSpan(queueSpanId, GattTimelineTracer.CATEGORY_QUEUE);
+        if (reason != null) {
+            onSkipped(reason);
+        }
+        TransactionResult result = new TransactionResult.Builder().transactionName(getName())
+            .resultStatus(status).build();
+        if (callback != null) {
+            postToCallbackThread(() -> deliverResult(callback, result));
+        }
+        release();
+    }
+
+    private void onSkipped(TransactionSkipTracker.Reason reason) {
+        TransactionSkipTracker tracker = FitbitGatt.getInstance().getTransactionSkipTracker();
+        if (tracker != null) {
+            tracker.onSkipped(reason);
+        }
     }
 
     protected void handleTimeout(T tx, GattTransactionCallback callback) {
@@ -285,12 +681,12 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
         if (transactionResult == null) {
             transactionResult = new TransactionResult.Builder().transactionName(tx.getName())
                     .resultStatus(TransactionResult.TransactionResultStatus.INVALID_STATE).build();
-            localCallback.onTransactionComplete(transactionResult);
+            deliverResult(localCallback, transactionResult);
             unregisterListener(tx);
             release();
             throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] Gatt server and gatt client can not both be null", getDevice()));
         }
-        localCallback.onTransactionComplete(transactionResult);
+        deliverResult(localCallback, transactionResult);
         unregisterListener(tx);
         release();
         Timber.v("[%s] The transaction timed out and the callbacks have already been notified, going to idle state", getDevice());
@@ -356,7 +752,96 @@ public abstract class GattTransaction<T extends GattTransaction<T>> {
 
     @CallSuper
     protected void release(){
+        released = true;
+        endTimelineSpan(transactionSpanId, GattTimelineTracer.CATEGORY_TRANSACTION);
         cdl.countDown();
+        if (recycleRequested.get()) {
+            postRecycle();
+        }
+    }
+
+    /**
+     * Will return this transaction to the state it was in before it was committed so that it can be
+     * committed again, the hooks are kept and reset too.  Subclasses holding per-run state must
+     * clear it here.
+     *
+     * @throws IllegalStateException if the transaction is queued or in flight
+     */
+    @CallSuper
+    protected void reset() {
+        if (isHeld()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] The transaction %s can not be reset while it is in flight", getDevice(), getName()));
+        }
+        timeoutHandler.removeCallbacksAndMessages(null);
+        synchronized (hookLock) {
+            for (T hook : preCommitHooks) {
+                hook.reset();
+            }
+            for (T hook : postCommitHooks) {
+                hook.reset();
+            }
+        }
+        this.callback = null;
+        this.callbackExecutor = null;
+        this.deadline = NO_DEADLINE;
+        this.queuePriority = DEFAULT_QUEUE_PRIORITY;
+        runState.set(RUN_WAITING);
+        runGeneration.incrementAndGet();
+        this.haltChain = false;
+        executedTransactions.set(0);
+        cdl = new CountDownLatch(1);
+        released = false;
+        queued = false;
+        taskHasStarted.set(false);
+    }
+
+    /**
+     * Will hand a pooled transaction back to its pool, see
+     * {@link GattConnection#obtainReadCharacteristicTransaction(GattState, android.bluetooth.BluetoothGattCharacteristic)}.
+     * This may be called from the transaction callback, if the transaction is still queued or in
+     * flight it will go back to the pool once it has released.  The transaction must not be used after this.
+     *
+     * @throws IllegalStateException if the transaction did not come from a pool or was already recycled
+     */
+    public void recycle() {
+        if (recycler == null) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] The transaction %s was not obtained from a pool", getDevice(), getName()));
+        }
+        if (!recycleRequested.compareAndSet(false, true)) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] The transaction %s was already recycled", getDevice(), getName()));
+        }
+        if (!isHeld()) {
+            postRecycle();
+        }
+    }
+
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void setRecycler(@Nullable Runnable recycler) {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Transactions may release more than once in the same call, so the reset is posted to run
+     * after whatever released us has unwound
+     */
+    private void postRecycle() {
+        if (recyclePosted.compareAndSet(false, true)) {
+            mainThreadHandler.post(resetAndRecycleRunnable);
+        }
+    }
+
+    private void resetAndRecycle() {
+        reset();
+        recycleRequested.set(false);
+        recyclePosted.set(false);
+        Runnable localRecycler = recycler;
+        if (localRecycler != null) {
+            localRecycler.run();
+        }
+    }
+
+    protected void setSuccessState(GattState successEndState) {
+        this.successEndState = successEndState;
     }
 
     protected void transaction(GattTransactionCallback callback) {
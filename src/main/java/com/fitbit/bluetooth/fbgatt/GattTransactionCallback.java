@@ -13,7 +13,8 @@ import androidx.annotation.NonNull;
 
 /**
  * The callback via which we deliver the result of the gatt transaction, must always be delivered
- * on the ui thread
+ * on the ui thread unless the caller gave an executor, see
+ * {@link GattTransaction#setCallbackExecutor(java.util.concurrent.Executor)}
  *
  * Created by iowens on 11/6/17.
  */
@@ -8,7 +8,6 @@
 
 package com.fitbit.bluetooth.fbgatt;
 
-import com.fitbit.bluetooth.fbgatt.exception.BitGattStartException;
 import com.fitbit.bluetooth.fbgatt.util.BluetoothUtils;
 import com.fitbit.bluetooth.fbgatt.util.ScanFailedReason;
 import android.annotation.TargetApi;
@@ -20,7 +19,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import java.util.List;
-import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
@@ -88,137 +86,12 @@ public class HandleIntentBasedScanResult extends BroadcastReceiver {
 
     private void processResults(List<ScanResult> results) {
         if (results != null && !results.isEmpty()) {
-            GattClientCallback callbackClient = fitbitGatt.getClientCallback();
-            if (callbackClient != null && fitbitGatt.isInitialized()) {
-                callbackClient.getClientCallbackHandler().post(() -> {
-                    for (ScanResult result : results) {
-                        if (callbackClient != null) {
-                            addToBitGatt(getFitbitBluetoothDevice(result));
-                        }
-                    }
-                });
-            } else {
-                Timber.w("Bitgatt is not started adding results for processing at start");
-                fitbitGatt.registerGattEventListener(new HandleIntentGattCallback(results));
-            }
+            // keeps the broadcast, and so the process, alive until the results were applied
+            fitbitGatt.getPendingIntentScanBatcher().submit(results, goAsync());
         }
     }
 
-    private void addToBitGatt(FitbitBluetoothDevice fitbitBluetoothDevice) {
-        if (fitbitGatt.isPendingIntentScanning()) {
-            Timber.v("Bitgatt is started and scanning, so we should add %s", fitbitBluetoothDevice);
-        } else {
-            Timber.v("Bitgatt is started, but is not intent scanning, so we may have died in the background adding %s and telling bitgatt that we are still intent scanning", fitbitBluetoothDevice);
-            PeripheralScanner scanner = fitbitGatt.getPeripheralScanner();
-            if (scanner != null) {
-                scanner.setIsPendingIntentScanning(true);
-            } else {
-                Timber.v("Tried to handle the event and update the scanner's internal state, but the scanner was null");
-            }
-        }
-        fitbitGatt.addBackgroundScannedDeviceConnection(fitbitBluetoothDevice);
-    }
-
-    @NonNull
-    private FitbitBluetoothDevice getFitbitBluetoothDevice(ScanResult result) {
-        FitbitBluetoothDevice fitbitBluetoothDevice = new FitbitBluetoothDevice(result.getDevice());
-        fitbitBluetoothDevice.setScanRecord(result.getScanRecord());
-        fitbitBluetoothDevice.origin = FitbitBluetoothDevice.DeviceOrigin.SCANNED;
-        fitbitBluetoothDevice.setRssi(result.getRssi());
-        return fitbitBluetoothDevice;
-    }
-
     private boolean hasBluetoothAdapterEnabled(Context context) {
         return bluetoothUtils.isBluetoothEnabled(context);
     }
-
-
-    private class HandleIntentGattCallback implements FitbitGatt.FitbitGattCallback {
-
-
-        private final List<ScanResult> results;
-
-        HandleIntentGattCallback(List<ScanResult> results) {
-            this.results = results;
-        }
-
-        @Override
-        public void onBluetoothPeripheralDiscovered(@NonNull GattConnection connection) {
-            //no-op
-        }
-
-        @Override
-        public void onBluetoothPeripheralDisconnected(@NonNull GattConnection connection) {
-            //no-op
-        }
-
-
-        @Override
-        public void onScanStarted() {
-            //no-op
-        }
-
-        @Override
-        public void onScanStopped() {
-            //no-op
-        }
-
-        @Override
-        public void onScannerInitError(BitGattStartException error) {
-            //no-op
-        }
-
-        @Override
-        public void onPendingIntentScanStopped() {
-            //no-op
-        }
-
-        @Override
-        public void onPendingIntentScanStarted() {
-            //no-op
-        }
-
-        @Override
-        public void onBluetoothOff() {
-            //no-op
-        }
-
-        @Override
-        public void onBluetoothOn() {
-            //no-op
-        }
-
-        @Override
-        public void onBluetoothTurningOn() {
-            //no-op
-        }
-
-        @Override
-        public void onBluetoothTurningOff() {
-            //no-op
-        }
-
-        @Override
-        public void onGattServerStarted(GattServerConnection serverConnection) {
-            //no-op
-        }
-
-        @Override
-        public void onGattServerStartError(BitGattStartException error) {
-            //no-op
-        }
-
-        @Override
-        public void onGattClientStarted() {
-            processResults(results);
-            //we added the device we unregister the callback
-            fitbitGatt.unregisterGattEventListener(this);
-        }
-
-        @Override
-        public void onGattClientStartError(BitGattStartException error) {
-            //no-op
-        }
-    }
-
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * Describes how characteristic change notifications should be delivered to a single
+ * {@link ConnectionEventListener} registered on a {@link GattConnection}.  Without a policy every
+ * notification is posted straight onto the async operation thread, so a slow listener lets that
+ * message queue grow for as long as the peripheral keeps streaming.  With a policy the notifications
+ * for the listener are held in a bounded queue and the {@link OverflowStrategy} decides what happens
+ * when the listener falls behind.
+ * <p>
+ * Use {@link GattConnection#registerConnectionEventListener(ConnectionEventListener, NotificationDeliveryPolicy)}
+ * to apply a policy.
+ */
+
+public class NotificationDeliveryPolicy {
+
+    /**
+     * What to do when the delivery queue for a listener is full
+     */
+    public enum OverflowStrategy {
+        /**
+         * The thread delivering the notification from the stack will wait until the listener has
+         * made room.  If the notification is produced on the delivery thread itself, waiting would
+         * deadlock, so in that case the oldest pending notification is dropped instead.
+         */
+        BLOCK_PRODUCER,
+        /**
+         * The oldest pending notification is discarded to make room for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * Only the latest pending value for each characteristic is kept, a new value replaces the
+         * pending value for the same characteristic in place.  If the queue is full of distinct
+         * characteristics the oldest one is discarded.
+         */
+        CONFLATE_LATEST
+    }
+
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    private final int batchSize;
+    private final OverflowStrategy overflowStrategy;
+
+    private NotificationDeliveryPolicy(int capacity, int batchSize, OverflowStrategy overflowStrategy) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.overflowStrategy = overflowStrategy;
+    }
+
+    /**
+     * The maximum number of notifications that may be pending for the listener
+     *
+     * @return The queue capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The maximum number of notifications handed over per delivery, if greater than one and the
+     * listener implements {@link BatchedConnectionEventListener} they will be delivered as one list
+     *
+     * @return The batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * The strategy applied when the queue is full
+     *
+     * @return The overflow strategy
+     */
+    public @NonNull OverflowStrategy getOverflowStrategy() {
+        return overflowStrategy;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[NotificationDeliveryPolicy capacity: %d, batchSize: %d, overflowStrategy: %s]",
+            capacity, batchSize, overflowStrategy);
+    }
+
+    /**
+     * The builder for the notification delivery policy, defaults to a capacity of
+     * {@link NotificationDeliveryPolicy#DEFAULT_CAPACITY}, single notification delivery and
+     * {@link OverflowStrategy#DROP_OLDEST}
+     */
+    public static class Builder {
+        private int capacity = DEFAULT_CAPACITY;
+        private int batchSize = 1;
+        private OverflowStrategy overflowStrategy = OverflowStrategy.DROP_OLDEST;
+
+        public Builder() {
+
+        }
+
+        /**
+         * Sets the maximum number of pending notifications
+         *
+         * @param capacity The capacity, must be at least one
+         * @return This builder
+         */
+        public Builder capacity(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH, "The capacity must be at least 1, was %d", capacity));
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of notifications handed over per delivery
+         *
+         * @param batchSize The batch size, must be at least one
+         * @return This builder
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException(String.format(Locale.ENGLISH, "The batch size must be at least 1, was %d", batchSize));
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets the strategy applied when the queue is full
+         *
+         * @param overflowStrategy The overflow strategy
+         * @return This builder
+         */
+        public Builder overflowStrategy(@NonNull OverflowStrategy overflowStrategy) {
+            this.overflowStrategy = overflowStrategy;
+            return this;
+        }
+
+        /**
+         * Will construct an instance of a {@link NotificationDeliveryPolicy}
+         *
+         * @return The policy described by this builder
+         */
+        public NotificationDeliveryPolicy build() {
+            return new NotificationDeliveryPolicy(capacity, batchSize, overflowStrategy);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * A bounded queue of characteristic change notifications for a single {@link ConnectionEventListener}
+ * on a single {@link GattConnection}.  The producer is the thread on which the stack delivers
+ * {@link GattClientCallback#onCharacteristicChanged(android.bluetooth.BluetoothGatt, android.bluetooth.BluetoothGattCharacteristic)},
+ * the consumer is the provided handler.  At most one drain runnable is posted to the handler at
+ * a time, and it re-posts itself after each batch so that other work on the handler is not starved
+ * by a fast peripheral.
+ */
+
+class NotificationDeliveryQueue {
+
+    private final GattConnection connection;
+    private final ConnectionEventListener listener;
+    private final NotificationDeliveryPolicy policy;
+    private final Handler handler;
+    private final Object lock = new Object();
+    // used for every strategy except conflation
+    private final ArrayDeque<TransactionResult> pending = new ArrayDeque<>();
+    // used for conflation, keeps insertion order so the oldest characteristic is evicted first
+    private final LinkedHashMap<UUID, TransactionResult> conflated = new LinkedHashMap<>();
+    private final Runnable drainRunnable = this::drain;
+    private boolean drainScheduled;
+    private volatile boolean closed;
+    private int highWaterMark;
+    private long deliveredCount;
+    private long droppedCount;
+    private long conflatedCount;
+    private long producerBlockedCount;
+
+    NotificationDeliveryQueue(@NonNull GattConnection connection, @NonNull ConnectionEventListener listener,
+                              @NonNull NotificationDeliveryPolicy policy, @NonNull Handler handler) {
+        this.connection = connection;
+        this.listener = listener;
+        this.policy = policy;
+        this.handler = handler;
+    }
+
+    @NonNull
+    ConnectionEventListener getListener() {
+        return listener;
+    }
+
+    @NonNull
+    NotificationDeliveryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Will add the notification to the queue, applying the overflow strategy if the queue is full
+     *
+     * @param result The notification result
+     */
+    void offer(@NonNull TransactionResult result) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (policy.getOverflowStrategy() == NotificationDeliveryPolicy.OverflowStrategy.CONFLATE_LATEST) {
+                offerConflated(result);
+            } else {
+                if (!offerQueued(result)) {
+                    return;
+                }
+            }
+            int depth = size();
+            if (depth > highWaterMark) {
+                highWaterMark = depth;
+            }
+            if (!drainScheduled) {
+                drainScheduled = true;
+                handler.post(drainRunnable);
+            }
+        }
+    }
+
+    private void offerConflated(TransactionResult result) {
+        UUID key = result.getCharacteristicUuid();
+        if (conflated.containsKey(key)) {
+            // replace in place so that this characteristic keeps its position
+            conflated.put(key, result);
+            conflatedCount++;
+            return;
+        }
+        if (conflated.size() >= policy.getCapacity()) {
+            Iterator<UUID> iterator = conflated.keySet().iterator();
+            iterator.next();
+            iterator.remove();
+            droppedCount++;
+        }
+        conflated.put(key, result);
+    }
+
+    private boolean offerQueued(TransactionResult result) {
+        while (pending.size() >= policy.getCapacity()) {
+            if (policy.getOverflowStrategy() == NotificationDeliveryPolicy.OverflowStrategy.BLOCK_PRODUCER
+                && Looper.myLooper() != handler.getLooper()) {
+                producerBlockedCount++;
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Timber.i("[%s] Interrupted while waiting for the listener to catch up, dropping notification", connection.getDevice());
+                    Thread.currentThread().interrupt();
+                    droppedCount++;
+                    return false;
+                }
+                if (closed) {
+                    return false;
+                }
+            } else {
+                pending.pollFirst();
+                droppedCount++;
+            }
+        }
+        pending.addLast(result);
+        return true;
+    }
+
+    private int size() {
+        return policy.getOverflowStrategy() == NotificationDeliveryPolicy.OverflowStrategy.CONFLATE_LATEST ?
+            conflated.size() : pending.size();
+    }
+
+    @VisibleForTesting
+    void drain() {
+        List<TransactionResult> batch = new ArrayList<>(Math.min(policy.getBatchSize(), policy.getCapacity()));
+        synchronized (lock) {
+            if (policy.getOverflowStrategy() == NotificationDeliveryPolicy.OverflowStrategy.CONFLATE_LATEST) {
+                Iterator<TransactionResult> iterator = conflated.values().iterator();
+                while (iterator.hasNext() && batch.size() < policy.getBatchSize()) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+            } else {
+                while (!pending.isEmpty() && batch.size() < policy.getBatchSize()) {
+                    batch.add(pending.pollFirst());
+                }
+            }
+            // wake up any producer waiting for room
+            lock.notifyAll();
+            if (batch.isEmpty() || closed) {
+                drainScheduled = false;
+                return;
+            }
+        }
+        if (batch.size() > 1 && listener instanceof BatchedConnectionEventListener) {
+            ((BatchedConnectionEventListener) listener).onClientCharacteristicsChanged(batch, connection);
+        } else {
+            for (TransactionResult result : batch) {
+                listener.onClientCharacteristicChanged(result, connection);
+            }
+        }
+        synchronized (lock) {
+            deliveredCount += batch.size();
+            if (size() > 0 && !closed) {
+                handler.post(drainRunnable);
+            } else {
+                drainScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Will discard everything pending and release any waiting producer, no further notifications
+     * will be accepted
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            pending.clear();
+            conflated.clear();
+            handler.removeCallbacks(drainRunnable);
+            drainScheduled = false;
+            lock.notifyAll();
+        }
+    }
+
+    @NonNull
+    NotificationDeliveryStats getStats() {
+        synchronized (lock) {
+            return new NotificationDeliveryStats(size(), highWaterMark, deliveredCount, droppedCount,
+                conflatedCount, producerBlockedCount);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the notification delivery counters for a listener registered with a
+ * {@link NotificationDeliveryPolicy}
+ */
+
+public class NotificationDeliveryStats {
+    private final int queueDepth;
+    private final int highWaterMark;
+    private final long deliveredCount;
+    private final long droppedCount;
+    private final long conflatedCount;
+    private final long producerBlockedCount;
+
+    NotificationDeliveryStats(int queueDepth, int highWaterMark, long deliveredCount, long droppedCount,
+                              long conflatedCount, long producerBlockedCount) {
+        this.queueDepth = queueDepth;
+        this.highWaterMark = highWaterMark;
+        this.deliveredCount = deliveredCount;
+        this.droppedCount = droppedCount;
+        this.conflatedCount = conflatedCount;
+        this.producerBlockedCount = producerBlockedCount;
+    }
+
+    /**
+     * @return The number of notifications waiting to be delivered
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return The largest number of notifications that were waiting at any time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return The number of notifications handed to the listener
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return The number of notifications discarded because the queue was full
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return The number of notifications replaced by a newer value for the same characteristic
+     */
+    public long getConflatedCount() {
+        return conflatedCount;
+    }
+
+    /**
+     * @return The number of times the producing thread had to wait for room in the queue
+     */
+    public long getProducerBlockedCount() {
+        return producerBlockedCount;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[NotificationDeliveryStats depth: %d, highWaterMark: %d, delivered: %d, dropped: %d, conflated: %d, producerBlocked: %d]",
+            queueDepth, highWaterMark, deliveredCount, droppedCount, conflatedCount, producerBlockedCount);
+    }
+}
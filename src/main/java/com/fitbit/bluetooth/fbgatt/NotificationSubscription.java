@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Arrays;
+import java.util.UUID;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * What a connection has done to get notifications from one remote characteristic, whether the
+ * notifications were turned on with the stack and what was last written to the client
+ * characteristic configuration descriptor of the peripheral.  Immutable, a change makes a new one.
+ */
+class NotificationSubscription {
+    private final UUID serviceUuid;
+    private final UUID characteristicUuid;
+    private final boolean enabled;
+    @Nullable
+    private final byte[] configuration;
+
+    NotificationSubscription(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid, boolean enabled, @Nullable byte[] configuration) {
+        this.serviceUuid = serviceUuid;
+        this.characteristicUuid = characteristicUuid;
+        this.enabled = enabled;
+        this.configuration = configuration == null ? null : Arrays.copyOf(configuration, configuration.length);
+    }
+
+    @NonNull
+    UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    @NonNull
+    UUID getCharacteristicUuid() {
+        return characteristicUuid;
+    }
+
+    /**
+     * @return true if notifications were turned on with the stack
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The value last written to the 0x2902 descriptor, or null if it wasn't written
+     */
+    @Nullable
+    byte[] getConfiguration() {
+        return configuration == null ? null : Arrays.copyOf(configuration, configuration.length);
+    }
+
+    boolean isFor(@NonNull UUID serviceUuid, @NonNull UUID characteristicUuid) {
+        return this.serviceUuid.equals(serviceUuid) && this.characteristicUuid.equals(characteristicUuid);
+    }
+
+    /**
+     * @return true if neither the stack nor the peripheral has anything turned on
+     */
+    boolean isEmpty() {
+        return !enabled && configuration == null;
+    }
+
+    @NonNull
+    NotificationSubscription withEnabled(boolean enabled) {
+        return new NotificationSubscription(serviceUuid, characteristicUuid, enabled, configuration);
+    }
+
+    @NonNull
+    NotificationSubscription withConfiguration(@Nullable byte[] configuration) {
+        return new NotificationSubscription(serviceUuid, characteristicUuid, enabled, configuration);
+    }
+}
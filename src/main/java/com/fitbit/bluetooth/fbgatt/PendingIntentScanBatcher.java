@@ -0,0 +1,293 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.exception.BitGattStartException;
+import android.bluetooth.le.ScanResult;
+import android.content.BroadcastReceiver;
+import android.os.Handler;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Takes the results of the pending intent scan off the main thread.  The broadcast receiver
+ * hands the parsed results over and keeps the broadcast alive with
+ * {@link BroadcastReceiver#goAsync()}, the results are turned into devices on the async operation
+ * thread, merged with whatever else arrived within the deduplication window so that a peripheral
+ * seen in several broadcasts is only applied once with its newest rssi and scan record, and the
+ * whole batch is applied to the connection map in one update.
+ *
+ * Results that arrive before bitgatt is started are held in a bounded buffer, the oldest are
+ * dropped when it is full, and are applied once the client starts.
+ *
+ * Everything but {@link #submit(List, BroadcastReceiver.PendingResult)} runs on the worker thread.
+ */
+class PendingIntentScanBatcher {
+    static final long DEFAULT_DEDUPLICATION_WINDOW_MILLIS = 250;
+    static final int MAX_BUFFERED_BEFORE_START = 256;
+
+    private final FitbitGatt fitbitGatt;
+    private volatile long deduplicationWindowMillis = DEFAULT_DEDUPLICATION_WINDOW_MILLIS;
+    @Nullable
+    private volatile Handler workerHandler;
+    // address to the newest result, in the order they were first seen
+    private final LinkedHashMap<String, FitbitBluetoothDevice> buffered = new LinkedHashMap<>();
+    private final List<BroadcastReceiver.PendingResult> waitingBroadcasts = new ArrayList<>();
+    private final StartListener startListener = new StartListener();
+    private boolean flushScheduled;
+    private boolean waitingForStart;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    PendingIntentScanBatcher(@NonNull FitbitGatt fitbitGatt) {
+        this.fitbitGatt = fitbitGatt;
+    }
+
+    @VisibleForTesting
+    void setDeduplicationWindowMillis(long deduplicationWindowMillis) {
+        this.deduplicationWindowMillis = deduplicationWindowMillis;
+    }
+
+    /**
+     * Will hand the results to the worker, the broadcast is finished once they were applied, or
+     * right away if bitgatt isn't started yet
+     *
+     * @param results       The results from the broadcast
+     * @param pendingResult The result from {@link BroadcastReceiver#goAsync()}, null if the receiver was called directly
+     */
+    void submit(@NonNull List<ScanResult> results, @Nullable BroadcastReceiver.PendingResult pendingResult) {
+        getWorkerHandler().post(() -> enqueue(results, pendingResult));
+    }
+
+    /**
+     * Will drop whatever is buffered and let go of the broadcasts still held
+     */
+    void stop() {
+        Handler handler = workerHandler;
+        if (handler != null) {
+            handler.post(() -> {
+                handler.removeCallbacksAndMessages(null);
+                flushScheduled = false;
+                buffered.clear();
+                finishWaitingBroadcasts();
+                if (waitingForStart) {
+                    waitingForStart = false;
+                    fitbitGatt.unregisterGattEventListener(startListener);
+                }
+            });
+        }
+    }
+
+    @NonNull
+    PendingIntentScanStats getStats() {
+        return new PendingIntentScanStats(received.get(), deduplicated.get(), dropped.get(), applied.get(), batches.get());
+    }
+
+    private Handler getWorkerHandler() {
+        Handler handler = workerHandler;
+        if (handler == null) {
+            synchronized (this) {
+                handler = workerHandler;
+                if (handler == null) {
+                    handler = new Handler(fitbitGatt.getFitbitGattAsyncOperationThread().getLooper());
+                    workerHandler = handler;
+                }
+            }
+        }
+        return handler;
+    }
+
+    private void enqueue(List<ScanResult> results, @Nullable BroadcastReceiver.PendingResult pendingResult) {
+        for (ScanResult result : results) {
+            if (result == null || result.getDevice() == null) {
+                continue;
+            }
+            received.incrementAndGet();
+            FitbitBluetoothDevice device = getFitbitBluetoothDevice(result);
+            if (buffered.containsKey(device.getAddress())) {
+                deduplicated.incrementAndGet();
+            }
+            buffered.put(device.getAddress(), device);
+        }
+        if (isClientStarted()) {
+            if (pendingResult != null) {
+                waitingBroadcasts.add(pendingResult);
+            }
+            scheduleFlush(deduplicationWindowMillis);
+        } else {
+            trimToCapacity();
+            // the broadcast can't be held for as long as a start might take
+            if (pendingResult != null) {
+                pendingResult.finish();
+            }
+            if (!waitingForStart) {
+                Timber.w("Bitgatt is not started, holding %d results for processing at start", buffered.size());
+                waitingForStart = true;
+                fitbitGatt.registerGattEventListener(startListener);
+            }
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            getWorkerHandler().postDelayed(this::flush, delayMillis);
+        }
+    }
+
+    private void trimToCapacity() {
+        Iterator<String> eldest = buffered.keySet().iterator();
+        while (buffered.size() > MAX_BUFFERED_BEFORE_START && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        if (!buffered.isEmpty()) {
+            List<FitbitBluetoothDevice> batch = new ArrayList<>(buffered.values());
+            buffered.clear();
+            markPendingIntentScanning();
+            fitbitGatt.addScannedDevices(batch);
+            applied.addAndGet(batch.size());
+            batches.incrementAndGet();
+        }
+        finishWaitingBroadcasts();
+    }
+
+    private void finishWaitingBroadcasts() {
+        for (BroadcastReceiver.PendingResult pendingResult : waitingBroadcasts) {
+            pendingResult.finish();
+        }
+        waitingBroadcasts.clear();
+    }
+
+    private void markPendingIntentScanning() {
+        if (fitbitGatt.isPendingIntentScanning()) {
+            return;
+        }
+        Timber.v("Bitgatt is started, but is not intent scanning, so we may have died in the background, telling bitgatt that we are still intent scanning");
+        PeripheralScanner scanner = fitbitGatt.getPeripheralScanner();
+        if (scanner != null) {
+            scanner.setIsPendingIntentScanning(true);
+        } else {
+            Timber.v("Tried to handle the event and update the scanner's internal state, but the scanner was null");
+        }
+    }
+
+    private boolean isClientStarted() {
+        return fitbitGatt.isInitialized() && fitbitGatt.getClientCallback() != null;
+    }
+
+    @NonNull
+    private static FitbitBluetoothDevice getFitbitBluetoothDevice(ScanResult result) {
+        FitbitBluetoothDevice fitbitBluetoothDevice = new FitbitBluetoothDevice(result.getDevice());
+        fitbitBluetoothDevice.setScanRecord(result.getScanRecord());
+        fitbitBluetoothDevice.origin = FitbitBluetoothDevice.DeviceOrigin.SCANNED;
+        fitbitBluetoothDevice.setRssi(result.getRssi());
+        return fitbitBluetoothDevice;
+    }
+
+    private class StartListener implements FitbitGatt.FitbitGattCallback {
+
+        @Override
+        public void onBluetoothPeripheralDiscovered(@NonNull GattConnection connection) {
+            //no-op
+        }
+
+        @Override
+        public void onBluetoothPeripheralDisconnected(@NonNull GattConnection connection) {
+            //no-op
+        }
+
+        @Override
+        public void onScanStarted() {
+            //no-op
+        }
+
+        @Override
+        public void onScanStopped() {
+            //no-op
+        }
+
+        @Override
+        public void onScannerInitError(BitGattStartException error) {
+            //no-op
+        }
+
+        @Override
+        public void onPendingIntentScanStopped() {
+            //no-op
+        }
+
+        @Override
+        public void onPendingIntentScanStarted() {
+            //no-op
+        }
+
+        @Override
+        public void onBluetoothOff() {
+            //no-op
+        }
+
+        @Override
+        public void onBluetoothOn() {
+            //no-op
+        }
+
+        @Override
+        public void onBluetoothTurningOn() {
+            //no-op
+        }
+
+        @Override
+        public void onBluetoothTurningOff() {
+            //no-op
+        }
+
+        @Override
+        public void onGattServerStarted(GattServerConnection serverConnection) {
+            //no-op
+        }
+
+        @Override
+        public void onGattServerStartError(BitGattStartException error) {
+            //no-op
+        }
+
+        @Override
+        public void onGattClientStarted() {
+            getWorkerHandler().post(() -> {
+                if (waitingForStart) {
+                    waitingForStart = false;
+                    // the buffered results go out in one batch
+                    fitbitGatt.unregisterGattEventListener(this);
+                    scheduleFlush(0);
+                }
+            });
+        }
+
+        @Override
+        public void onGattClientStartError(BitGattStartException error) {
+            //no-op
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of how the results of the pending intent scan were batched before they were applied
+ */
+
+public class PendingIntentScanStats {
+    private final long received;
+    private final long deduplicated;
+    private final long dropped;
+    private final long applied;
+    private final long batches;
+
+    PendingIntentScanStats(long received, long deduplicated, long dropped, long applied, long batches) {
+        this.received = received;
+        this.deduplicated = deduplicated;
+        this.dropped = dropped;
+        this.applied = applied;
+        this.batches = batches;
+    }
+
+    /**
+     * @return The number of results delivered by the broadcasts
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return The number of results merged into a newer result for the same peripheral
+     */
+    public long getDeduplicated() {
+        return deduplicated;
+    }
+
+    /**
+     * @return The number of results dropped because the buffer held before start was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The number of devices applied to the connection map
+     */
+    public long getApplied() {
+        return applied;
+    }
+
+    /**
+     * @return The number of bulk updates of the connection map
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[PendingIntentScanStats received: %d, deduplicated: %d, dropped: %d, applied: %d, batches: %d]",
+            received, deduplicated, dropped, applied, batches);
+    }
+}
@@ -21,14 +21,18 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Parcel;
 import android.os.ParcelUuid;
+import android.os.SystemClock;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -52,22 +56,43 @@ class PeripheralScanner {
     final static long SCAN_TOO_MUCH_WARN_INTERVAL = TimeUnit.SECONDS.toMillis(30);
     final static long TEST_SCAN_DURATION = TimeUnit.SECONDS.toMillis(2);
     final static long TEST_SCAN_INTERVAL = TEST_SCAN_DURATION * 2;
-    private final static int MAX_BACKOFF_MULTIPLIER = 2; // should always correspond to roughly 16 minutes worst case
+    // at worst four scan intervals, 16 minutes, pass between the end of a window and the next
+    private final static int MAX_BACKOFF_MULTIPLIER = 4;
+    // periodic windows shrink while they find nothing new, 120s down to 30s
+    private final static int MAX_WINDOW_DIVISOR = 4;
+    private static final int DEFAULT_WINDOW_DIVISOR = 1;
     static final int BACKGROUND_SCAN_REQUEST_CODE = 21436;
     static final String SCANNED_DEVICE_ACTION = "com.fitbit.bluetooth.fbgatt.ScannedDevice";
-    private static final int MAX_SCANS_ALLOWED_PER_30_SECONDS = 4;
+    // the stack will make our scans opportunistic if the app starts more than 5 in
+    // SCAN_TOO_MUCH_WARN_INTERVAL, one is left for the pending intent scan and other scanners in the app
+    static final int MAX_SCANS_ALLOWED_PER_30_SECONDS = 4;
     private static final int DEFAULT_SCAN_BACKOFF_MULTIPLIER = 1;
 
     Handler mHandler;
     @VisibleForTesting
     final Runnable scanTimeoutRunnable = new ScanTimeoutRunnable();
     private final Runnable periodicRunnable = new PeriodicScanRunnable();
+    private final Runnable deferredScanRunnable = new DeferredScanRunnable();
     private ScannerInterface scanner;
     private boolean stopPeriodicalScan;
     private int scanBackoffMultiplier = 1;
+    private int scanWindowDivisor = DEFAULT_WINDOW_DIVISOR;
     private int minRssi = Integer.MIN_VALUE;
     private final ArrayList<ScanFilter> scanFilters = new ArrayList<>(1);
-    private final AtomicInteger scanCount;
+    private final ScanStartTokenBucket scanStartBucket;
+    // a scan that was requested while the start limit was used up, waiting for a token
+    @Nullable
+    private ScanSettings deferredScanSettings;
+    private boolean deferredScanIsPeriodic;
+    private long deferredScanRequestedAt;
+    private volatile long scanRequestedAt;
+    private long scanStartedAt;
+    private final AtomicLong scanStarts = new AtomicLong();
+    private final AtomicLong deferredStarts = new AtomicLong();
+    private final AtomicLong rejectedStarts = new AtomicLong();
+    private final AtomicLong scanningMillis = new AtomicLong();
+    private final AtomicLong devicesDiscovered = new AtomicLong();
+    private final AtomicLong discoveryLatencyTotalMillis = new AtomicLong();
     AtomicBoolean isScanning;
     private final AtomicBoolean pendingIntentIsScanning;
     AtomicBoolean periodicalScanEnabled;
@@ -81,6 +106,9 @@ class PeripheralScanner {
     private PendingIntent backgroundIntentBasedScanIntent;
     private final FitbitGatt fbGatt;
 
+    // when greater than zero the controller will hold results for this long and hand them up in one batch
+    private long batchReportDelayMillis = 0;
+
     private ScanSettings scanSettings = new ScanSettings
             .Builder()
             .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
@@ -91,20 +119,17 @@ class PeripheralScanner {
 
         void onFitbitDeviceFound(FitbitBluetoothDevice device);
 
+        /**
+         * A batch of devices delivered together by the controller, each address will appear at
+         * most once with its most recent scan result
+         *
+         * @param devices The devices found in this batch
+         */
+        void onFitbitDevicesFound(List<FitbitBluetoothDevice> devices);
+
         void onPendingIntentScanStatusChanged(boolean isScanning);
     }
 
-    private Runnable resetScanCounter = new Runnable() {
-        @Override
-        public void run() {
-            long scannerTime = getScannerDuration();
-            Timber.v("Resetting scan too much counter, %s ms have gone by.", scannerTime);
-            scanCount.set(0);
-            mHandler.postDelayed(resetScanCounter, SCAN_TOO_MUCH_WARN_INTERVAL);
-        }
-
-    };
-
     PeripheralScanner(@NonNull TrackerScannerListener listener, @NonNull FitbitGatt fbGatt) {
         this.listener = listener;
         this.fbGatt = fbGatt;
@@ -114,13 +139,10 @@ class PeripheralScanner {
         // you can't call start / stop more than 5 times in 30 seconds, if you do
         // the system will convert your scan to opportunistic so you'll have to wait for something
         // else to scan and back off your scan interval to 3120ms.  It will also silently
-        // fail any new scans, so we'll track it with this handy counter.
-        scanCount = new AtomicInteger(0);
+        // fail any new scans, so we'll hold scans back until a start is available.
+        scanStartBucket = new ScanStartTokenBucket(MAX_SCANS_ALLOWED_PER_30_SECONDS, SCAN_TOO_MUCH_WARN_INTERVAL);
         // we can use the main looper because the scan command doesn't block
         mHandler = new Handler(fbGatt.getAppContext().getMainLooper());
-        // we can just run this every 30s, if the caller doesn't do anything wrong it should never
-        // exceed five ... once it gets to 4 don't let the user start another one
-        mHandler.postDelayed(resetScanCounter, SCAN_TOO_MUCH_WARN_INTERVAL);
         bleUtils = new BluetoothUtils();
         scanner = new BitgattLeScanner(fbGatt.getAppContext());
         callback = new ScanCallback() {
@@ -132,6 +154,7 @@ class PeripheralScanner {
                     if (!foundDevices.containsKey(device.getAddress())) {
                         foundDevices.put(device.getAddress(), device);
                         resetScanBackoff = true;
+                        recordDiscovery();
                     }
                     dev.setRssi(result.getRssi());
                     dev.origin = FitbitBluetoothDevice.DeviceOrigin.SCANNED;
@@ -145,17 +168,29 @@ class PeripheralScanner {
 
             @Override
             public void onBatchScanResults(List<ScanResult> results) {
+                // a batch will often contain several advertisements from the same device, only
+                // the most recent one is interesting
+                LinkedHashMap<String, FitbitBluetoothDevice> batch = new LinkedHashMap<>(results.size());
                 for (ScanResult result : results) {
-                    FitbitBluetoothDevice dev = new FitbitBluetoothDevice(result.getDevice());
+                    BluetoothDevice device = result.getDevice();
+                    FitbitBluetoothDevice dev = new FitbitBluetoothDevice(device);
                     if (minRssi == Integer.MIN_VALUE || minRssi < result.getRssi()) {
+                        if (!foundDevices.containsKey(device.getAddress())) {
+                            foundDevices.put(device.getAddress(), device);
+                            resetScanBackoff = true;
+                            recordDiscovery();
+                        }
                         dev.origin = FitbitBluetoothDevice.DeviceOrigin.SCANNED;
                         dev.setRssi(result.getRssi());
                         dev.setScanRecord(result.getScanRecord());
-                        listener.onFitbitDeviceFound(dev);
+                        batch.put(device.getAddress(), dev);
                     } else {
                         Timber.v("Scanned device %s below RSSI threshold", dev);
                     }
                 }
+                if (!batch.isEmpty()) {
+                    listener.onFitbitDevicesFound(new ArrayList<>(batch.values()));
+                }
             }
 
             @Override
@@ -163,6 +198,7 @@ class PeripheralScanner {
                 super.onScanFailed(errorCode);
                 Timber.w("onScanFailed %s", ScanFailure.getFailureForReason(errorCode));
                 isScanning.set(false);
+                recordScanStopped();
                 listener.onScanStatusChanged(isScanning.get());
                 if (!fbGatt.isBluetoothOn()) {
                     Timber.v("Bluetooth was off, releasing the scanner");
@@ -175,6 +211,17 @@ class PeripheralScanner {
         return instrumentationTestMode ? TEST_SCAN_DURATION : SCAN_DURATION;
     }
 
+    /**
+     * Periodic scans that keep coming up empty get shorter windows, any newly found device
+     * puts the window back to the full scanner duration
+     *
+     * @return The length of the next periodic scan window
+     */
+    @VisibleForTesting
+    synchronized long getPeriodicScanDuration() {
+        return getScannerDuration() / scanWindowDivisor;
+    }
+
     private long getScannerInterval() {
         return instrumentationTestMode ? TEST_SCAN_INTERVAL : SCAN_INTERVAL;
     }
@@ -219,32 +266,44 @@ class PeripheralScanner {
 
     /**
      * This will start periodic scan with low power mode, please note that this will return false
-     * if there is already a high-priority scan going on.
+     * if there is already a high-priority scan going on.  If the system scan start limit is used
+     * up the scan will start as soon as it allows.
      *
-     * @return true if scan started, false if not
+     * @return true if scan started or is waiting for the scan start limit, false if not
      */
     synchronized boolean startPeriodicScan(@Nullable Context context) {
         if (context == null) {
             Timber.v("Can't start a high priority scan with a null context");
             return false;
         }
+        scanBackoffMultiplier = DEFAULT_SCAN_BACKOFF_MULTIPLIER;
+        scanWindowDivisor = DEFAULT_WINDOW_DIVISOR;
+        return startScheduledPeriodicScan(context);
+    }
+
+    /**
+     * Starts the next periodic scan keeping the duty cycle that the previous windows adapted to
+     *
+     * @return true if scan started or is waiting for the scan start limit, false if not
+     */
+    private synchronized boolean startScheduledPeriodicScan(@Nullable Context context) {
         if (stopPeriodicalScan || isScanning.get()) {
             Timber.v("Not starting periodical scan: isScanning: %b, was stopPeriodicalScan requested? %b", isScanning.get(), stopPeriodicalScan);
             return false;
         }
         Timber.d("Start Periodic Scan");
-        scanBackoffMultiplier = DEFAULT_SCAN_BACKOFF_MULTIPLIER;
         periodicalScanEnabled.set(true);
-        return startScan(context);
+        return startScan(context, scanSettings, true);
     }
 
     /**
      * This will start a high priority scan
      *
      * This will copy  report delay, callback type, legacy
-     * and will run using scan mode low latency as scan scan settings
+     * and will run using scan mode low latency as scan scan settings.  If the system scan start
+     * limit is used up the scan will start as soon as it allows, replacing any waiting periodic scan.
      *
-     * @return true if scan started, false if not
+     * @return true if scan started or is waiting for the scan start limit, false if not
      */
     synchronized boolean startHighPriorityScan(@Nullable Context context) {
         if (context == null) {
@@ -266,7 +325,7 @@ class PeripheralScanner {
             builder.setLegacy(scanSettings.getLegacy());
         }
         Timber.d("Start High priority Scan");
-        return startScan(context, builder.build());
+        return startScan(context, builder.build(), false);
     }
 
     /**
@@ -279,6 +338,7 @@ class PeripheralScanner {
         }
         Timber.d("StopScanning requested ");
         stopScan(context);
+        clearDeferredScan();
         mHandler.removeCallbacks(scanTimeoutRunnable);
         mHandler.removeCallbacks(periodicRunnable);
     }
@@ -299,6 +359,9 @@ class PeripheralScanner {
         // we stop the scan
         if (periodicalScanEnabled.get()) {
             stopScan(context);
+            if (deferredScanSettings != null && !deferredScanIsPeriodic) {
+                clearDeferredScan();
+            }
             mHandler.removeCallbacks(scanTimeoutRunnable);
             mHandler.removeCallbacks(periodicRunnable);
             mHandler.post(periodicRunnable);
@@ -319,7 +382,11 @@ class PeripheralScanner {
         }
         // set scan multipliers back to default
         scanBackoffMultiplier = DEFAULT_SCAN_BACKOFF_MULTIPLIER;
+        scanWindowDivisor = DEFAULT_WINDOW_DIVISOR;
         periodicalScanEnabled.set(false);
+        if (deferredScanSettings != null && deferredScanIsPeriodic) {
+            clearDeferredScan();
+        }
         mHandler.removeCallbacks(scanTimeoutRunnable);
         mHandler.removeCallbacks(periodicRunnable);
         // if we are presently actively scanning we will let that scan run it's course and then
@@ -459,6 +526,75 @@ class PeripheralScanner {
         this.scanSettings = scanSettings;
     }
 
+    /**
+     * Will set the report delay used for scans started by this scanner when the controller
+     * supports offloaded batching, results are then delivered in bulk rather than one at a
+     * time.  Will not affect a running scan.
+     *
+     * @param batchReportDelayMillis The report delay in milliseconds, zero to disable batching
+     */
+    void setBatchReportDelay(long batchReportDelayMillis) {
+        this.batchReportDelayMillis = Math.max(0, batchReportDelayMillis);
+    }
+
+    @VisibleForTesting
+    long getBatchReportDelay() {
+        return batchReportDelayMillis;
+    }
+
+    /**
+     * If batching is enabled and the hardware supports it, will copy the provided settings
+     * with the batch report delay applied.  Settings that already carry a report delay, or that
+     * set something that can not be copied, are left alone.
+     *
+     * @param adapter The bluetooth adapter
+     * @param settings The settings the scan would otherwise use
+     * @return The settings to use for the scan
+     */
+    @VisibleForTesting
+    ScanSettings applyBatchReportDelay(@NonNull BluetoothAdapter adapter, @NonNull ScanSettings settings) {
+        if (batchReportDelayMillis <= 0 || settings.getReportDelayMillis() > 0) {
+            return settings;
+        }
+        if (!adapter.isOffloadedScanBatchingSupported()) {
+            Timber.w("Offloaded scan batching is not supported by this controller, results will not be batched");
+            return settings;
+        }
+        if (atLeastSDK(M) && settings.getCallbackType() != ScanSettings.CALLBACK_TYPE_ALL_MATCHES) {
+            Timber.w("Batching can only be used with the all matches callback type, results will not be batched");
+            return settings;
+        }
+        ScanSettings.Builder builder = new ScanSettings.Builder()
+                .setScanMode(settings.getScanMode());
+        if(atLeastSDK(M)) {
+            builder.setCallbackType(settings.getCallbackType());
+        }
+        if(atLeastSDK(O)) {
+            builder.setLegacy(settings.getLegacy());
+            builder.setPhy(settings.getPhy());
+        }
+        // the match mode and the number of matches have no getters, so if the copy is not the
+        // same as the original the caller set something we can not carry over
+        if (!isSameSettings(settings, builder.build())) {
+            Timber.w("The scan settings can not be copied, results will not be batched");
+            return settings;
+        }
+        return builder.setReportDelay(batchReportDelayMillis).build();
+    }
+
+    private static boolean isSameSettings(@NonNull ScanSettings settings, @NonNull ScanSettings copy) {
+        Parcel original = Parcel.obtain();
+        Parcel copied = Parcel.obtain();
+        try {
+            settings.writeToParcel(original, 0);
+            copy.writeToParcel(copied, 0);
+            return Arrays.equals(original.marshall(), copied.marshall());
+        } finally {
+            original.recycle();
+            copied.recycle();
+        }
+    }
+
     /**
      * To determine if there is an active scan going on right now
      *
@@ -557,8 +693,9 @@ class PeripheralScanner {
             listener.onPendingIntentScanStatusChanged(pendingIntentIsScanning.get());
             return false;
         }
-        if (scanCount.get() >= MAX_SCANS_ALLOWED_PER_30_SECONDS) {
+        if (scanStartBucket.availableTokens(SystemClock.elapsedRealtime()) == 0) {
             Timber.e("Yo Dawg I heard u like scanning ... You have already started %d scanners in this 30s, you must wait", MAX_SCANS_ALLOWED_PER_30_SECONDS);
+            rejectedStarts.incrementAndGet();
             listener.onPendingIntentScanStatusChanged(pendingIntentIsScanning.get());
             return false;
         }
@@ -587,9 +724,8 @@ class PeripheralScanner {
                 listener.onPendingIntentScanStatusChanged(pendingIntentIsScanning.get());
                 return false;
             }
-            int count = scanCount.incrementAndGet();
-            Timber.v("Starting scan, scan count in this %d ms is %d", getScannerDuration(), count);
             if (didStart == 0) {
+                recordBackgroundScanStart();
                 Timber.d("You have started a system background scan, any other scan is still running");
                 boolean oldValue = pendingIntentIsScanning.getAndSet(true);
                 Timber.v("Scan started, changing from scanning status %b to %b", oldValue, pendingIntentIsScanning.get());
@@ -664,8 +800,9 @@ class PeripheralScanner {
                 listener.onPendingIntentScanStatusChanged(pendingIntentIsScanning.get());
                 return null;
             }
-            if (scanCount.get() >= MAX_SCANS_ALLOWED_PER_30_SECONDS) {
+            if (scanStartBucket.availableTokens(SystemClock.elapsedRealtime()) == 0) {
                 Timber.e("Yo Dawg I heard u like scanning ... You have already started %d scanners in this 30s, you must wait", MAX_SCANS_ALLOWED_PER_30_SECONDS);
+                rejectedStarts.incrementAndGet();
                 listener.onPendingIntentScanStatusChanged(pendingIntentIsScanning.get());
                 return null;
             }
@@ -708,9 +845,8 @@ class PeripheralScanner {
                     listener.onPendingIntentScanStatusChanged(pendingIntentIsScanning.get());
                     return null;
                 }
-                int count = scanCount.incrementAndGet();
-                Timber.v("Starting scan, scan count in this %d ms is %d", getScannerDuration(), count);
                 if (didStart == 0) {
+                    recordBackgroundScanStart();
                     Timber.d("You have started a DIY system background scan, stopping periodical scan until background scan is stopped");
                     boolean oldValue = pendingIntentIsScanning.getAndSet(true);
                     Timber.v("Scan started, changing from scanning status %b to %b", oldValue, pendingIntentIsScanning.get());
@@ -774,7 +910,11 @@ class PeripheralScanner {
         }
     }
 
-    private synchronized boolean startScan(@Nullable Context context, ScanSettings scanSettings) {
+    private synchronized boolean startScan(@Nullable Context context, ScanSettings scanSettings, boolean periodic) {
+        return startScan(context, scanSettings, periodic, SystemClock.elapsedRealtime());
+    }
+
+    private synchronized boolean startScan(@Nullable Context context, ScanSettings scanSettings, boolean periodic, long requestedAt) {
         ArrayList<ScanFilter> filters;
         synchronized (scanFilters) {
             filters = new ArrayList<>(scanFilters);
@@ -783,21 +923,28 @@ class PeripheralScanner {
             Timber.v("Can't start scan with a null context");
             return false;
         }
-        if (scanCount.get() >= MAX_SCANS_ALLOWED_PER_30_SECONDS) {
-            Timber.e("Yo Dawg I heard u like scanning ... You have already started %d scanners in this %d, you must wait", MAX_SCANS_ALLOWED_PER_30_SECONDS, getScannerDuration());
-            listener.onScanStatusChanged(isScanning.get());
+        // a start that would do nothing must not be deferred or counted against the limit
+        if (isScanning.get()) {
+            Timber.w("Already scanning, will not start a new scan");
             return false;
         }
+        if (scanStartBucket.availableTokens(SystemClock.elapsedRealtime()) == 0) {
+            Timber.w("You have already started %d scanners in this %d ms, the scan will start when the system allows", MAX_SCANS_ALLOWED_PER_30_SECONDS, SCAN_TOO_MUCH_WARN_INTERVAL);
+            return deferScan(scanSettings, periodic, requestedAt);
+        }
+        scanRequestedAt = requestedAt;
         //remove timeout and other scan request
         mHandler.removeCallbacks(scanTimeoutRunnable);
         mHandler.removeCallbacks(periodicRunnable);
         //start scan
         if (!isScanning.getAndSet(true)) {
             ScanSettings settings = scanSettings;
-            if (bleUtils.getBluetoothAdapter(context) == null) {
+            BluetoothAdapter adapter = bleUtils.getBluetoothAdapter(context);
+            if (adapter == null) {
                 // we should just use a basic one if we are in mock mode
                 settings = new ScanSettings.Builder().build();
             } else {
+                settings = applyBatchReportDelay(adapter, settings);
                 // don't start a scanner without scan filters
                 Timber.v("Scan filter's size: %s", filters.size());
                 if (filters.isEmpty()) {
@@ -813,6 +960,11 @@ class PeripheralScanner {
             // we can get here is scanner had previously been defined, but now the
             // adapter is turned off
             if (scanner.isBluetoothEnabled()) {
+                if (!scanStartBucket.tryAcquire(SystemClock.elapsedRealtime())) {
+                    // a background scan took the last start since we looked
+                    isScanning.set(false);
+                    return deferScan(scanSettings, periodic, requestedAt);
+                }
                 try {
                     scanner.startScan(filters, settings, callback);
                 } catch (NullPointerException e) {
@@ -821,8 +973,8 @@ class PeripheralScanner {
                     listener.onScanStatusChanged(isScanning.get());
                     return false;
                 }
-                int count = scanCount.incrementAndGet();
-                Timber.v("Starting scan, scan count in this %d ms is %d", getScannerDuration(), count);
+                recordScanStart();
+                scanStartedAt = SystemClock.elapsedRealtime();
                 scanStarted = true;
             } else {
                 Timber.w("BT Seems to be off, not starting scan");
@@ -833,7 +985,7 @@ class PeripheralScanner {
             resetScanBackoff = false;
 
             //Schedule timeout
-            mHandler.postDelayed(scanTimeoutRunnable, getScannerDuration());
+            mHandler.postDelayed(scanTimeoutRunnable, periodic ? getPeriodicScanDuration() : getScannerDuration());
             return scanStarted;
         } else {
             Timber.w("Already scanning, will not start a new scan");
@@ -841,8 +993,80 @@ class PeripheralScanner {
         }
     }
 
-    private synchronized boolean startScan(@Nullable Context context) {
-       return  startScan(context, scanSettings);
+    /**
+     * Will hold on to a scan request until the system scan start limit allows it, a high priority
+     * request replaces a waiting periodic one but not the other way around
+     *
+     * @return true if the request will be started later, false if it was dropped
+     */
+    private synchronized boolean deferScan(ScanSettings settings, boolean periodic, long requestedAt) {
+        if (periodic && deferredScanSettings != null && !deferredScanIsPeriodic) {
+            Timber.v("A high priority scan is already waiting, not deferring the periodic scan");
+            return false;
+        }
+        if (deferredScanSettings == null) {
+            deferredStarts.incrementAndGet();
+        }
+        deferredScanSettings = settings;
+        deferredScanIsPeriodic = periodic;
+        deferredScanRequestedAt = requestedAt;
+        long delay = scanStartBucket.millisUntilNextToken(SystemClock.elapsedRealtime());
+        Timber.d("Deferring %s scan for %d ms", periodic ? "periodic" : "high priority", delay);
+        mHandler.removeCallbacks(deferredScanRunnable);
+        mHandler.postDelayed(deferredScanRunnable, delay);
+        return true;
+    }
+
+    private synchronized void clearDeferredScan() {
+        deferredScanSettings = null;
+        mHandler.removeCallbacks(deferredScanRunnable);
+    }
+
+    /**
+     * The scan start must already have been taken from the start bucket
+     */
+    private void recordScanStart() {
+        long count = scanStarts.incrementAndGet();
+        Timber.v("Starting scan, %d scan starts left in this %d ms, %d scans started in total",
+            scanStartBucket.availableTokens(SystemClock.elapsedRealtime()), SCAN_TOO_MUCH_WARN_INTERVAL, count);
+    }
+
+    /**
+     * A background scan that the stack accepted counts against the start limit even if it had
+     * already been spent since we looked
+     */
+    private void recordBackgroundScanStart() {
+        if (!scanStartBucket.tryAcquire(SystemClock.elapsedRealtime())) {
+            Timber.w("The background scan started over the limit of %d starts in %d ms, the system may make it opportunistic",
+                MAX_SCANS_ALLOWED_PER_30_SECONDS, SCAN_TOO_MUCH_WARN_INTERVAL);
+        }
+        recordScanStart();
+    }
+
+    private synchronized void recordScanStopped() {
+        if (scanStartedAt != 0) {
+            scanningMillis.addAndGet(SystemClock.elapsedRealtime() - scanStartedAt);
+            scanStartedAt = 0;
+        }
+    }
+
+    private void recordDiscovery() {
+        devicesDiscovered.incrementAndGet();
+        discoveryLatencyTotalMillis.addAndGet(SystemClock.elapsedRealtime() - scanRequestedAt);
+    }
+
+    /**
+     * @return A snapshot of the scan start, battery and discovery counters
+     */
+    @NonNull
+    synchronized ScanSchedulerStats getScanSchedulerStats() {
+        long scanning = scanningMillis.get();
+        if (scanStartedAt != 0) {
+            scanning += SystemClock.elapsedRealtime() - scanStartedAt;
+        }
+        return new ScanSchedulerStats(scanStarts.get(), deferredStarts.get(), rejectedStarts.get(),
+            scanning, devicesDiscovered.get(), discoveryLatencyTotalMillis.get(),
+            getPeriodicScanDuration(), scanBackoffMultiplier * getScannerInterval());
     }
 
     /**
@@ -862,11 +1086,13 @@ class PeripheralScanner {
             boolean oldValue = isScanning.getAndSet(false);
             Timber.v("Stopping scan, changing from %b to %b", oldValue, false);
             scanner.stopScan(callback);
+            recordScanStopped();
         } else {
             // adapter was null or BT was off
             Timber.w("Bluetooth must have been turned off");
             boolean oldValue = isScanning.getAndSet(false);
             Timber.v("Stopping scan, changing from %b to %b", oldValue, false);
+            recordScanStopped();
             listener.onScanStatusChanged(false);
         }
         listener.onScanStatusChanged(false);
@@ -909,7 +1135,26 @@ class PeripheralScanner {
     class PeriodicScanRunnable implements Runnable {
         @Override
         public void run() {
-            startPeriodicScan(fbGatt.getAppContext());
+            startScheduledPeriodicScan(fbGatt.getAppContext());
+        }
+    }
+
+    class DeferredScanRunnable implements Runnable {
+        @Override
+        public void run() {
+            synchronized (PeripheralScanner.this) {
+                ScanSettings settings = deferredScanSettings;
+                deferredScanSettings = null;
+                if (settings == null) {
+                    return;
+                }
+                if (deferredScanIsPeriodic && (stopPeriodicalScan || !periodicalScanEnabled.get())) {
+                    Timber.v("Periodic scan was cancelled while waiting for the scan start limit");
+                    return;
+                }
+                Timber.d("Starting deferred %s scan", deferredScanIsPeriodic ? "periodic" : "high priority");
+                startScan(fbGatt.getAppContext(), settings, deferredScanIsPeriodic, deferredScanRequestedAt);
+            }
         }
     }
 
@@ -920,10 +1165,14 @@ class PeripheralScanner {
             Timber.d("Scan timeout");
             stopScan(fbGatt.getAppContext());
             if (periodicalScanEnabled.get()) {
+                // adapt the duty cycle to what the last window yielded, if something new showed
+                // up scan fully and often, otherwise scan less and for shorter windows
                 if (resetScanBackoff) {
                     scanBackoffMultiplier = DEFAULT_SCAN_BACKOFF_MULTIPLIER;
+                    scanWindowDivisor = DEFAULT_WINDOW_DIVISOR;
                 } else {
                     scanBackoffMultiplier = Math.min(MAX_BACKOFF_MULTIPLIER, scanBackoffMultiplier << 1);
+                    scanWindowDivisor = Math.min(MAX_WINDOW_DIVISOR, scanWindowDivisor << 1);
                 }
                 Timber.d("Posting the periodic start to run in %d ms", scanBackoffMultiplier * getScannerInterval());
                 mHandler.postDelayed(periodicRunnable, scanBackoffMultiplier * getScannerInterval());
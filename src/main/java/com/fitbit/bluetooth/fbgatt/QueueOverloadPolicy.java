@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+/**
+ * What to do with a transaction that arrives at a full transaction queue, see
+ * {@link FitbitGatt#setTransactionQueueLimits(int, int, QueueOverloadPolicy, long)}
+ */
+public enum QueueOverloadPolicy {
+    /**
+     * The new transaction is refused immediately with
+     * {@link TransactionResult.TransactionResultStatus#REJECTED}
+     */
+    REJECT,
+    /**
+     * The thread queueing the transaction waits for room, up to the block timeout, and the
+     * transaction is refused if there is still no room.  A thread running a looper, like the main
+     * thread or the threads the library delivers callbacks on, is never blocked, a transaction
+     * queued from it is refused instead.
+     */
+    BLOCK,
+    /**
+     * The oldest of the lowest priority queued transactions is dropped with
+     * {@link TransactionResult.TransactionResultStatus#REJECTED} to make room, unless the new
+     * transaction has a lower priority than all of them, in which case it is refused, see
+     * {@link GattTransaction#setQueuePriority(int)}
+     */
+    EVICT_LOWEST_PRIORITY
+}
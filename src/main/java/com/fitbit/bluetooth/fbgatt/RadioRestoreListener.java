@@ -0,0 +1,23 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Told once the connections that were up when bluetooth was turned off have all been restored or
+ * have failed to be restored, this is called on whichever thread the last restore finished on, so
+ * it must not block
+ */
+public interface RadioRestoreListener {
+    /**
+     * @param result What was restored and how long it took
+     */
+    void onRadioRestoreFinished(@NonNull RadioRestoreResult result);
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * The outcome of restoring the connections that were up when bluetooth was turned off
+ */
+
+public class RadioRestoreResult {
+    private final int connections;
+    private final int restored;
+    private final int subscriptionsRestored;
+    private final int subscriptionsFailed;
+    private final long radioOffMillis;
+    private final long timeToRestoreMillis;
+    private final List<FitbitBluetoothDevice> failedDevices;
+
+    RadioRestoreResult(int connections, int restored, int subscriptionsRestored, int subscriptionsFailed,
+                       long radioOffMillis, long timeToRestoreMillis, @NonNull List<FitbitBluetoothDevice> failedDevices) {
+        this.connections = connections;
+        this.restored = restored;
+        this.subscriptionsRestored = subscriptionsRestored;
+        this.subscriptionsFailed = subscriptionsFailed;
+        this.radioOffMillis = radioOffMillis;
+        this.timeToRestoreMillis = timeToRestoreMillis;
+        this.failedDevices = Collections.unmodifiableList(failedDevices);
+    }
+
+    /**
+     * @return The number of connections that were up when bluetooth was turned off
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return The number of connections that were connected and discovered again
+     */
+    public int getRestored() {
+        return restored;
+    }
+
+    /**
+     * @return The number of connections that could not be connected or discovered again
+     */
+    public int getFailed() {
+        return connections - restored;
+    }
+
+    /**
+     * @return The number of notification subscriptions turned on again
+     */
+    public int getSubscriptionsRestored() {
+        return subscriptionsRestored;
+    }
+
+    /**
+     * @return The number of notification subscriptions that could not be turned on again
+     */
+    public int getSubscriptionsFailed() {
+        return subscriptionsFailed;
+    }
+
+    /**
+     * @return The milliseconds from bluetooth going down until it was back on
+     */
+    public long getRadioOffMillis() {
+        return radioOffMillis;
+    }
+
+    /**
+     * @return The milliseconds from bluetooth being back on until the last connection was restored or failed
+     */
+    public long getTimeToRestoreMillis() {
+        return timeToRestoreMillis;
+    }
+
+    /**
+     * @return The peripherals that could not be connected or discovered again
+     */
+    @NonNull
+    public List<FitbitBluetoothDevice> getFailedDevices() {
+        return failedDevices;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[RadioRestoreResult connections: %d, restored: %d, failed: %d, subscriptions restored: %d, subscriptions failed: %d, radio off: %dms, time to restore: %dms]",
+            connections, restored, getFailed(), subscriptionsRestored, subscriptionsFailed, radioOffMillis, timeToRestoreMillis);
+    }
+}
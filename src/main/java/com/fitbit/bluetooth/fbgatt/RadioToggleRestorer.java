@@ -0,0 +1,383 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.tx.GattClientDiscoverServicesTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.RequestGattConnectionIntervalTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.RequestMtuGattTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.SubscribeToCharacteristicNotificationsTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.WriteGattDescriptorTransaction;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Puts the connections back the way they were after bluetooth is turned off and on again.  When
+ * the radio starts going down the connected peripherals are snapshotted, with the MTU, the
+ * connection speed and the notification subscriptions of each link and the admission priority of
+ * its last connect.  When the radio is back each is connected, discovered, given its MTU and speed
+ * and resubscribed, the highest priority first and the next one a pacing interval after the one
+ * before so that the stack isn't handed every connect at once.  Once every connection is restored
+ * or has failed the listeners are told once.
+ *
+ * A peripheral that is already connected again by the time its turn comes is counted as restored
+ * and left alone.  If the radio goes down again while restoring, the restore is abandoned and
+ * whatever is connected at that moment is snapshotted instead.
+ */
+class RadioToggleRestorer {
+    static final long DEFAULT_PACING_MILLIS = 250;
+
+    private final CopyOnWriteArrayList<RadioRestoreListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled;
+    private volatile long pacingMillis = DEFAULT_PACING_MILLIS;
+    @Nullable
+    private volatile Handler handler;
+    @Nullable
+    private volatile RadioRestoreResult lastResult;
+    // guarded by this
+    @Nullable
+    private List<Target> snapshot;
+    private long radioOffAt;
+    private int generation;
+
+    /**
+     * Will snapshot the connections the next time bluetooth goes down
+     *
+     * @param handler      The handler to pace the restores on
+     * @param pacingMillis The milliseconds between starting the restore of one connection and the next
+     */
+    synchronized void enable(@NonNull Handler handler, long pacingMillis) {
+        if (pacingMillis < 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "The pacing must not be negative, was %dms", pacingMillis));
+        }
+        this.handler = handler;
+        this.pacingMillis = pacingMillis;
+        this.enabled = true;
+    }
+
+    /**
+     * Will drop the snapshot and abandon any restore in progress
+     */
+    synchronized void disable() {
+        enabled = false;
+        snapshot = null;
+        generation++;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void addListener(@NonNull RadioRestoreListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    void removeListener(@NonNull RadioRestoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Nullable
+    RadioRestoreResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Will remember the connected peripherals and how their links were set up, unless they were
+     * already remembered since bluetooth last came back on
+     *
+     * @param connections Every known connection
+     */
+    synchronized void snapshot(@NonNull Collection<GattConnection> connections) {
+        if (!enabled || snapshot != null) {
+            return;
+        }
+        // a restore still running is over, its connections are going down with the radio
+        generation++;
+        List<Target> targets = new ArrayList<>();
+        for (GattConnection connection : connections) {
+            if (connection.isConnected()) {
+                targets.add(new Target(connection, connection.getLastAdmissionPriority(), connection.getMtu(),
+                    connection.getRequestedConnectionSpeed(), connection.getNotificationSubscriptions()));
+            }
+        }
+        // stable, so equal priorities keep the order of the connection map
+        Collections.sort(targets, (first, second) -> Integer.compare(second.priority, first.priority));
+        snapshot = targets;
+        radioOffAt = SystemClock.elapsedRealtime();
+        Timber.d("Bluetooth is going down, %d connections will be restored when it is back", targets.size());
+    }
+
+    /**
+     * Will start restoring the snapshotted connections, bluetooth is back on
+     */
+    void restore() {
+        List<Target> targets;
+        Handler restoreHandler;
+        Run run;
+        synchronized (this) {
+            targets = snapshot;
+            restoreHandler = handler;
+            snapshot = null;
+            if (!enabled || targets == null || restoreHandler == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            run = new Run(++generation, targets.size(), now, now - radioOffAt);
+        }
+        if (targets.isEmpty()) {
+            run.complete();
+            return;
+        }
+        Timber.d("Bluetooth is back, restoring %d connections %dms apart", targets.size(), pacingMillis);
+        for (int i = 0; i < targets.size(); i++) {
+            Target target = targets.get(i);
+            restoreHandler.postDelayed(() -> {
+                if (run.isCurrent()) {
+                    new TargetRestore(run, target).start();
+                }
+            }, i * pacingMillis);
+        }
+    }
+
+    private synchronized boolean isCurrent(int runGeneration) {
+        return enabled && generation == runGeneration;
+    }
+
+    private void notifyFinished(@NonNull RadioRestoreResult result) {
+        lastResult = result;
+        Timber.i("Finished restoring connections after bluetooth was turned back on, %s", result);
+        for (RadioRestoreListener listener : listeners) {
+            listener.onRadioRestoreFinished(result);
+        }
+    }
+
+    /**
+     * A connection as it was when the radio went down
+     */
+    private static class Target {
+        private final GattConnection connection;
+        private final int priority;
+        private final int mtu;
+        @Nullable
+        private final RequestGattConnectionIntervalTransaction.Speed speed;
+        private final List<NotificationSubscription> subscriptions;
+
+        private Target(GattConnection connection, int priority, int mtu,
+                       @Nullable RequestGattConnectionIntervalTransaction.Speed speed,
+                       List<NotificationSubscription> subscriptions) {
+            this.connection = connection;
+            this.priority = priority;
+            this.mtu = mtu;
+            this.speed = speed;
+            this.subscriptions = subscriptions;
+        }
+    }
+
+    /**
+     * One restore of every snapshotted connection
+     */
+    private class Run {
+        private final int runGeneration;
+        private final AtomicInteger remaining;
+        private final int connections;
+        private final long startedAt;
+        private final long radioOffMillis;
+        private final AtomicInteger restored = new AtomicInteger();
+        private final AtomicInteger subscriptionsRestored = new AtomicInteger();
+        private final AtomicInteger subscriptionsFailed = new AtomicInteger();
+        private final List<FitbitBluetoothDevice> failedDevices = new CopyOnWriteArrayList<>();
+
+        private Run(int runGeneration, int connections, long startedAt, long radioOffMillis) {
+            this.runGeneration = runGeneration;
+            this.connections = connections;
+            this.remaining = new AtomicInteger(connections);
+            this.startedAt = startedAt;
+            this.radioOffMillis = radioOffMillis;
+        }
+
+        private boolean isCurrent() {
+            return RadioToggleRestorer.this.isCurrent(runGeneration);
+        }
+
+        private void onTargetFinished(@NonNull GattConnection connection, boolean success) {
+            if (success) {
+                restored.incrementAndGet();
+            } else {
+                failedDevices.add(connection.getDevice());
+            }
+            if (remaining.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            if (isCurrent()) {
+                notifyFinished(new RadioRestoreResult(connections, restored.get(), subscriptionsRestored.get(),
+                    subscriptionsFailed.get(), radioOffMillis, SystemClock.elapsedRealtime() - startedAt,
+                    new ArrayList<>(failedDevices)));
+            }
+        }
+    }
+
+    /**
+     * Connect, discover, MTU, speed, then each subscription in turn, every step runs once the one
+     * before has completed.  Only the connect and the discovery have to succeed for the connection
+     * to count as restored.
+     */
+    private class TargetRestore {
+        private final Run run;
+        private final Target target;
+        private final GattConnection connection;
+        private int subscriptionIndex;
+
+        private TargetRestore(Run run, Target target) {
+            this.run = run;
+            this.target = target;
+            this.connection = target.connection;
+        }
+
+        private void start() {
+            if (connection.isConnected()) {
+                Timber.v("[%s] Already connected again, leaving it alone", connection.getDevice());
+                run.onTargetFinished(connection, true);
+                return;
+            }
+            GattConnectTransaction connect = new GattConnectTransaction(connection, GattState.CONNECTED);
+            connect.setAdmissionPriority(target.priority);
+            connection.runTx(connect, result -> {
+                if (!run.isCurrent()) {
+                    return;
+                }
+                if (isSuccess(result)) {
+                    discover();
+                } else {
+                    Timber.w("[%s] Could not reconnect after bluetooth came back, %s", connection.getDevice(), result);
+                    run.onTargetFinished(connection, false);
+                }
+            });
+        }
+
+        private void discover() {
+            connection.runTx(new GattClientDiscoverServicesTransaction(connection, GattState.DISCOVERY_SUCCESS), result -> {
+                if (!run.isCurrent()) {
+                    return;
+                }
+                if (isSuccess(result)) {
+                    requestMtu();
+                } else {
+                    Timber.w("[%s] Could not discover services after bluetooth came back, %s", connection.getDevice(), result);
+                    run.onTargetFinished(connection, false);
+                }
+            });
+        }
+
+        private void requestMtu() {
+            if (target.mtu <= GattConnection.DEFAULT_MTU) {
+                requestSpeed();
+                return;
+            }
+            // the link is usable at the default MTU, so a failure here doesn't fail the restore
+            connection.runTx(new RequestMtuGattTransaction(connection, GattState.REQUEST_MTU_SUCCESS, target.mtu), result -> {
+                if (run.isCurrent()) {
+                    requestSpeed();
+                }
+            });
+        }
+
+        private void requestSpeed() {
+            if (target.speed == null) {
+                resubscribeNext();
+                return;
+            }
+            connection.runTx(new RequestGattConnectionIntervalTransaction(connection, GattState.REQUEST_CONNECTION_INTERVAL_SUCCESS, target.speed), result -> {
+                if (run.isCurrent()) {
+                    resubscribeNext();
+                }
+            });
+        }
+
+        private void resubscribeNext() {
+            if (subscriptionIndex >= target.subscriptions.size()) {
+                run.onTargetFinished(connection, true);
+                return;
+            }
+            NotificationSubscription subscription = target.subscriptions.get(subscriptionIndex++);
+            BluetoothGattCharacteristic characteristic = connection.getRemoteGattServiceCharacteristic(
+                subscription.getServiceUuid(), subscription.getCharacteristicUuid());
+            if (characteristic == null) {
+                Timber.w("[%s] The characteristic %s is gone, can't resubscribe", connection.getDevice(), subscription.getCharacteristicUuid());
+                run.subscriptionsFailed.incrementAndGet();
+                resubscribeNext();
+                return;
+            }
+            if (!subscription.isEnabled()) {
+                writeConfiguration(subscription);
+                return;
+            }
+            connection.runTx(new SubscribeToCharacteristicNotificationsTransaction(connection,
+                GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS, characteristic), result -> {
+                if (!run.isCurrent()) {
+                    return;
+                }
+                if (isSuccess(result)) {
+                    writeConfiguration(subscription);
+                } else {
+                    run.subscriptionsFailed.incrementAndGet();
+                    resubscribeNext();
+                }
+            });
+        }
+
+        private void writeConfiguration(NotificationSubscription subscription) {
+            byte[] configuration = subscription.getConfiguration();
+            if (configuration == null) {
+                run.subscriptionsRestored.incrementAndGet();
+                resubscribeNext();
+                return;
+            }
+            BluetoothGattDescriptor descriptor = connection.getRemoteClientCharacteristicConfiguration(
+                subscription.getServiceUuid(), subscription.getCharacteristicUuid());
+            if (descriptor == null) {
+                run.subscriptionsFailed.incrementAndGet();
+                resubscribeNext();
+                return;
+            }
+            descriptor.setValue(configuration);
+            connection.runTx(new WriteGattDescriptorTransaction(connection, GattState.WRITE_DESCRIPTOR_SUCCESS, descriptor), result -> {
+                if (!run.isCurrent()) {
+                    return;
+                }
+                if (isSuccess(result)) {
+                    run.subscriptionsRestored.incrementAndGet();
+                } else {
+                    run.subscriptionsFailed.incrementAndGet();
+                }
+                resubscribeNext();
+            });
+        }
+
+        private boolean isSuccess(TransactionResult result) {
+            return TransactionResult.TransactionResultStatus.SUCCESS.equals(result.getResultStatus());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction;
+import android.os.Handler;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Reads the rssi of the connected peripherals within a single budget of reads per second shared
+ * by all of them, one peripheral per tick in turn.  A peripheral with a transaction running or
+ * waiting is skipped for that tick so that the reads never hold up data traffic.  The read
+ * values and the rssi of advertisements seen while scanning go through an exponential moving
+ * average, and the smoothed value is only announced to the
+ * {@link FitbitBluetoothDevice.DevicePropertiesChangedCallback} once it has moved at least the
+ * hysteresis away from the last value announced.
+ */
+class RssiMonitor {
+    // the stack reports 127 when the rssi of an advertisement isn't known
+    private static final int MAX_VALID_RSSI = 20;
+    private static final int MIN_VALID_RSSI = -127;
+
+    private final Map<FitbitBluetoothDevice, GattConnection> connections;
+    private final ConcurrentHashMap<FitbitBluetoothDevice, Track> tracks = new ConcurrentHashMap<>();
+    // the connections with a read in flight, so a slow read is never stacked
+    private final ConcurrentHashMap<GattConnection, Boolean> reading = new ConcurrentHashMap<>();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong failedReads = new AtomicLong();
+    private final AtomicLong yieldedReads = new AtomicLong();
+    private final AtomicLong scanSamples = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final Runnable tick = this::tick;
+    private volatile Handler handler;
+    private volatile long readIntervalMillis;
+    private volatile float smoothingFactor;
+    private volatile int hysteresisDb;
+    private volatile boolean running;
+    private int cursor;
+
+    RssiMonitor(@NonNull Map<FitbitBluetoothDevice, GattConnection> connections) {
+        this.connections = connections;
+    }
+
+    /**
+     * Will start reading, or change the settings if already reading
+     *
+     * @param handler         The handler to schedule the reads on
+     * @param readsPerSecond  The number of reads per second across every connected peripheral
+     * @param smoothingFactor The weight of a new sample, between zero exclusive and one inclusive
+     * @param hysteresisDb    How far the smoothed rssi must move before it is announced
+     */
+    synchronized void start(@NonNull Handler handler, float readsPerSecond, float smoothingFactor, int hysteresisDb) {
+        if (readsPerSecond <= 0 || smoothingFactor <= 0 || smoothingFactor > 1 || hysteresisDb < 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                "Invalid rssi monitor settings, %f reads per second, %f smoothing and %d dB hysteresis", readsPerSecond, smoothingFactor, hysteresisDb));
+        }
+        stopTicking();
+        this.handler = handler;
+        this.readIntervalMillis = Math.max(1, (long) (1000 / readsPerSecond));
+        this.smoothingFactor = smoothingFactor;
+        this.hysteresisDb = hysteresisDb;
+        this.running = true;
+        Timber.d("Monitoring rssi every %dms", readIntervalMillis);
+        handler.postDelayed(tick, readIntervalMillis);
+    }
+
+    /**
+     * Will stop reading and hand the announcement of rssi changes back to the raw values
+     */
+    synchronized void stop() {
+        stopTicking();
+        for (FitbitBluetoothDevice device : tracks.keySet()) {
+            device.setRssiMonitored(false);
+        }
+        tracks.clear();
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Will feed the rssi of an advertisement from a peripheral we already know into the filter
+     *
+     * @param device The peripheral
+     * @param rssi   The rssi of the advertisement
+     */
+    void onScanRssi(@NonNull FitbitBluetoothDevice device, int rssi) {
+        if (running && onSample(device, rssi)) {
+            scanSamples.incrementAndGet();
+        }
+    }
+
+    @NonNull
+    RssiMonitorStats getStats() {
+        return new RssiMonitorStats(reads.get(), failedReads.get(), yieldedReads.get(), scanSamples.get(),
+            published.get(), tracks.size(), running ? readIntervalMillis : 0);
+    }
+
+    /**
+     * Will smooth the sample and announce the smoothed value if it left the hysteresis band
+     *
+     * @param device The peripheral
+     * @param rssi   The raw rssi
+     * @return true if the sample was valid and used
+     */
+    @VisibleForTesting
+    boolean onSample(@NonNull FitbitBluetoothDevice device, int rssi) {
+        if (rssi < MIN_VALID_RSSI || rssi > MAX_VALID_RSSI) {
+            return false;
+        }
+        Track track = tracks.get(device);
+        if (track == null) {
+            tracks.putIfAbsent(device, new Track());
+            track = tracks.get(device);
+            device.setRssiMonitored(true);
+        }
+        int toPublish;
+        synchronized (track) {
+            if (track.samples == 0) {
+                track.smoothed = rssi;
+            } else {
+                track.smoothed += smoothingFactor * (rssi - track.smoothed);
+            }
+            track.samples++;
+            int rounded = Math.round(track.smoothed);
+            if (track.samples > 1 && Math.abs(rounded - track.published) < Math.max(1, hysteresisDb)) {
+                return true;
+            }
+            track.published = rounded;
+            toPublish = rounded;
+        }
+        published.incrementAndGet();
+        device.setSmoothedRssi(toPublish);
+        return true;
+    }
+
+    @VisibleForTesting
+    void tick() {
+        if (!running) {
+            return;
+        }
+        readNext();
+        Handler localHandler = handler;
+        if (running && localHandler != null) {
+            localHandler.postDelayed(tick, readIntervalMillis);
+        }
+    }
+
+    private void readNext() {
+        List<GattConnection> connected = new ArrayList<>(connections.size());
+        for (GattConnection connection : connections.values()) {
+            if (connection.isConnected()) {
+                connected.add(connection);
+            }
+        }
+        forgetDevicesWeNoLongerKnow();
+        int count = connected.size();
+        for (int i = 0; i < count; i++) {
+            cursor = (cursor + 1) % count;
+            GattConnection connection = connected.get(cursor);
+            if (reading.containsKey(connection) || connection.hasPendingTransactions()) {
+                yieldedReads.incrementAndGet();
+                continue;
+            }
+            read(connection);
+            return;
+        }
+    }
+
+    private void read(GattConnection connection) {
+        reads.incrementAndGet();
+        reading.put(connection, Boolean.TRUE);
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), result -> {
+            reading.remove(connection);
+            if (!running) {
+                // stopped while the read was out, it must not publish to a device we stopped monitoring
+                return;
+            }
+            if (result.getResultStatus() == TransactionResult.TransactionResultStatus.SUCCESS) {
+                onSample(connection.getDevice(), result.getRssi());
+            } else {
+                failedReads.incrementAndGet();
+                Timber.v("[%s] Monitored rssi read failed with %s", connection.getDevice(), result.getResultStatus());
+            }
+        });
+    }
+
+    private void forgetDevicesWeNoLongerKnow() {
+        Iterator<FitbitBluetoothDevice> devices = tracks.keySet().iterator();
+        while (devices.hasNext()) {
+            FitbitBluetoothDevice device = devices.next();
+            if (!connections.containsKey(device)) {
+                device.setRssiMonitored(false);
+                devices.remove();
+            }
+        }
+    }
+
+    private void stopTicking() {
+        running = false;
+        Handler localHandler = handler;
+        if (localHandler != null) {
+            localHandler.removeCallbacks(tick);
+        }
+    }
+
+    private static class Track {
+        private float smoothed;
+        private int published;
+        private long samples;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the rssi monitor counters, useful for checking that the read budget is right for
+ * the number of peripherals and how often the smoothed rssi is announced
+ */
+
+public class RssiMonitorStats {
+    private final long reads;
+    private final long failedReads;
+    private final long yieldedReads;
+    private final long scanSamples;
+    private final long publishedChanges;
+    private final int monitoredDevices;
+    private final long readIntervalMillis;
+
+    RssiMonitorStats(long reads, long failedReads, long yieldedReads, long scanSamples,
+                     long publishedChanges, int monitoredDevices, long readIntervalMillis) {
+        this.reads = reads;
+        this.failedReads = failedReads;
+        this.yieldedReads = yieldedReads;
+        this.scanSamples = scanSamples;
+        this.publishedChanges = publishedChanges;
+        this.monitoredDevices = monitoredDevices;
+        this.readIntervalMillis = readIntervalMillis;
+    }
+
+    /**
+     * @return The number of rssi reads handed to the connections
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * @return The number of rssi reads that failed
+     */
+    public long getFailedReads() {
+        return failedReads;
+    }
+
+    /**
+     * @return The number of times a peripheral was skipped because it had transactions running or waiting
+     */
+    public long getYieldedReads() {
+        return yieldedReads;
+    }
+
+    /**
+     * @return The number of advertisement rssi values fed into the filter
+     */
+    public long getScanSamples() {
+        return scanSamples;
+    }
+
+    /**
+     * @return The number of smoothed rssi changes announced to the device listeners
+     */
+    public long getPublishedChanges() {
+        return publishedChanges;
+    }
+
+    /**
+     * @return The number of peripherals with a smoothed rssi
+     */
+    public int getMonitoredDevices() {
+        return monitoredDevices;
+    }
+
+    /**
+     * @return The time in milliseconds between two reads, or zero if the monitor isn't running
+     */
+    public long getReadIntervalMillis() {
+        return readIntervalMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[RssiMonitorStats reads: %d, failed: %d, yielded: %d, scanSamples: %d, published: %d, devices: %d, interval: %dms]",
+            reads, failedReads, yieldedReads, scanSamples, publishedChanges, monitoredDevices, readIntervalMillis);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the scan scheduler counters, useful for judging the battery cost of scanning
+ * against how quickly new peripherals are found
+ */
+
+public class ScanSchedulerStats {
+    private final long scanStarts;
+    private final long deferredStarts;
+    private final long rejectedStarts;
+    private final long scanningMillis;
+    private final long devicesDiscovered;
+    private final long discoveryLatencyTotalMillis;
+    private final long periodicWindowMillis;
+    private final long periodicIntervalMillis;
+
+    ScanSchedulerStats(long scanStarts, long deferredStarts, long rejectedStarts, long scanningMillis,
+                       long devicesDiscovered, long discoveryLatencyTotalMillis,
+                       long periodicWindowMillis, long periodicIntervalMillis) {
+        this.scanStarts = scanStarts;
+        this.deferredStarts = deferredStarts;
+        this.rejectedStarts = rejectedStarts;
+        this.scanningMillis = scanningMillis;
+        this.devicesDiscovered = devicesDiscovered;
+        this.discoveryLatencyTotalMillis = discoveryLatencyTotalMillis;
+        this.periodicWindowMillis = periodicWindowMillis;
+        this.periodicIntervalMillis = periodicIntervalMillis;
+    }
+
+    /**
+     * @return The number of scans handed to the system scanner
+     */
+    public long getScanStarts() {
+        return scanStarts;
+    }
+
+    /**
+     * @return The number of scan requests that had to wait for the system scan start limit
+     */
+    public long getDeferredStarts() {
+        return deferredStarts;
+    }
+
+    /**
+     * @return The number of pending intent scan requests refused because of the system scan start limit
+     */
+    public long getRejectedStarts() {
+        return rejectedStarts;
+    }
+
+    /**
+     * @return The total time in milliseconds that our own scans have been running, system managed
+     * pending intent scans are not included
+     */
+    public long getScanningMillis() {
+        return scanningMillis;
+    }
+
+    /**
+     * @return The number of previously unseen peripherals found by our scans
+     */
+    public long getDevicesDiscovered() {
+        return devicesDiscovered;
+    }
+
+    /**
+     * @return The average time in milliseconds from a scan being requested until a previously
+     * unseen peripheral is found, or zero if nothing has been found
+     */
+    public long getMeanDiscoveryLatencyMillis() {
+        return devicesDiscovered == 0 ? 0 : discoveryLatencyTotalMillis / devicesDiscovered;
+    }
+
+    /**
+     * @return The length in milliseconds of the next periodic scan window
+     */
+    public long getPeriodicWindowMillis() {
+        return periodicWindowMillis;
+    }
+
+    /**
+     * @return The time in milliseconds between the start of the next two periodic scans
+     */
+    public long getPeriodicIntervalMillis() {
+        return periodicIntervalMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[ScanSchedulerStats starts: %d, deferred: %d, rejected: %d, scanning: %dms, discovered: %d, meanDiscoveryLatency: %dms, window: %dms, interval: %dms]",
+            scanStarts, deferredStarts, rejectedStarts, scanningMillis, devicesDiscovered,
+            getMeanDiscoveryLatencyMillis(), periodicWindowMillis, periodicIntervalMillis);
+    }
+}
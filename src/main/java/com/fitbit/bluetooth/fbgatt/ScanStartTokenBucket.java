@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.ArrayDeque;
+
+/**
+ * Models the limit Android places on how often an application may start a scan.  If an app
+ * starts more than five scans within thirty seconds the stack will silently turn the new scans
+ * into opportunistic ones, so we must never exceed that.
+ *
+ * Each start consumes a token and that token comes back one full window after it was spent,
+ * which is how the stack counts, so as long as a token is available a start is always safe.
+ * Time is provided by the caller so that this can be driven by any clock.
+ */
+
+class ScanStartTokenBucket {
+    private final int capacity;
+    private final long windowMillis;
+    // the times at which the tokens that are out were spent, oldest first
+    private final ArrayDeque<Long> spent;
+
+    /**
+     * @param capacity The number of starts allowed within the window
+     * @param windowMillis The length of the window in milliseconds
+     */
+    ScanStartTokenBucket(int capacity, long windowMillis) {
+        if (capacity < 1 || windowMillis < 1) {
+            throw new IllegalArgumentException("The capacity and window must both be positive");
+        }
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        this.spent = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Will take a token if one is available
+     *
+     * @param nowMillis The current time in milliseconds
+     * @return true if a token was taken and a scan may be started now
+     */
+    synchronized boolean tryAcquire(long nowMillis) {
+        refill(nowMillis);
+        if (spent.size() >= capacity) {
+            return false;
+        }
+        spent.addLast(nowMillis);
+        return true;
+    }
+
+    /**
+     * @param nowMillis The current time in milliseconds
+     * @return The number of starts that can be made right now
+     */
+    synchronized int availableTokens(long nowMillis) {
+        refill(nowMillis);
+        return capacity - spent.size();
+    }
+
+    /**
+     * @param nowMillis The current time in milliseconds
+     * @return The number of milliseconds until a token will be available, zero if one is now
+     */
+    synchronized long millisUntilNextToken(long nowMillis) {
+        refill(nowMillis);
+        if (spent.size() < capacity) {
+            return 0;
+        }
+        return spent.peekFirst() + windowMillis - nowMillis;
+    }
+
+    private void refill(long nowMillis) {
+        while (!spent.isEmpty() && spent.peekFirst() + windowMillis <= nowMillis) {
+            spent.pollFirst();
+        }
+    }
+}
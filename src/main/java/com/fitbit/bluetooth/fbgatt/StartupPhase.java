@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+/**
+ * The pieces of work done while FitbitGatt starts, see {@link StartupTrace}
+ */
+public enum StartupPhase {
+    /**
+     * Setting up the callbacks, the radio status listener and the peripheral scanner
+     */
+    INITIALIZE,
+    /**
+     * Registering for the low energy connection broadcasts
+     */
+    ACL_LISTENER,
+    /**
+     * Adding the peripherals that are already connected or bonded
+     */
+    KNOWN_DEVICES,
+    /**
+     * Opening the gatt server, including its retries
+     */
+    GATT_SERVER_OPEN,
+    /**
+     * Adding the startup services to the gatt server
+     */
+    GATT_SERVER_SERVICES,
+    /**
+     * Making the scanner ready for use
+     */
+    SCANNER
+}
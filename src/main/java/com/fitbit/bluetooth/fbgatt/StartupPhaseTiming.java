@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * How long one startup phase took, and on which thread it ran
+ */
+
+public class StartupPhaseTiming {
+    private final StartupPhase phase;
+    private final long startOffsetMillis;
+    private final long durationMillis;
+    @Nullable
+    private final String threadName;
+    private final boolean successful;
+    private final boolean skipped;
+
+    StartupPhaseTiming(@NonNull StartupPhase phase, long startOffsetMillis, long durationMillis,
+                       @Nullable String threadName, boolean successful, boolean skipped) {
+        this.phase = phase;
+        this.startOffsetMillis = startOffsetMillis;
+        this.durationMillis = durationMillis;
+        this.threadName = threadName;
+        this.successful = successful;
+        this.skipped = skipped;
+    }
+
+    @NonNull
+    public StartupPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The milliseconds from the start of startup until this phase began
+     */
+    public long getStartOffsetMillis() {
+        return startOffsetMillis;
+    }
+
+    /**
+     * @return The milliseconds this phase took
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return The name of the thread the phase began on, null if it was skipped
+     */
+    @Nullable
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @return true if the phase did what it was meant to
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * @return true if the phase didn't run, for instance because bluetooth was off or the piece
+     * was already started
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[StartupPhaseTiming phase: %s, offset: %dms, duration: %dms, thread: %s, successful: %b, skipped: %b]",
+            phase, startOffsetMillis, durationMillis, threadName, successful, skipped);
+    }
+}
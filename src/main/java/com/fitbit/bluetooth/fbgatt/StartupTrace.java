@@ -0,0 +1,80 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A snapshot of the phases of the last FitbitGatt startup, in the order they finished
+ */
+
+public class StartupTrace {
+    private final boolean concurrent;
+    private final boolean complete;
+    private final long totalMillis;
+    private final List<StartupPhaseTiming> phases;
+
+    StartupTrace(boolean concurrent, boolean complete, long totalMillis, @NonNull List<StartupPhaseTiming> phases) {
+        this.concurrent = concurrent;
+        this.complete = complete;
+        this.totalMillis = totalMillis;
+        this.phases = Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * @return true if the startup ran its independent phases concurrently
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * @return true if every phase has finished or was skipped
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return The milliseconds from the start of startup until the last phase finished so far
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    @NonNull
+    public List<StartupPhaseTiming> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @param phase The phase
+     * @return The timing of the phase, or null if it hasn't finished
+     */
+    @Nullable
+    public StartupPhaseTiming getTiming(@NonNull StartupPhase phase) {
+        for (StartupPhaseTiming timing : phases) {
+            if (timing.getPhase() == phase) {
+                return timing;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[StartupTrace concurrent: %b, complete: %b, total: %dms, phases: %s]",
+            concurrent, complete, totalMillis, phases);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Told how long each phase of FitbitGatt startup took, these are called on whichever thread the
+ * phase finished on, so they must not block
+ */
+public interface StartupTraceListener {
+    /**
+     * @param timing The phase that just finished or was skipped
+     */
+    void onStartupPhaseFinished(@NonNull StartupPhaseTiming timing);
+
+    /**
+     * @param trace The timing of every phase
+     */
+    void onStartupFinished(@NonNull StartupTrace trace);
+}
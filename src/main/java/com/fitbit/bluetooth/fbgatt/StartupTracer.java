@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Records the phases of a FitbitGatt startup.  A trace is begun by the start methods and every
+ * phase must then finish or be skipped, the phases report from whichever thread they run on.
+ * Phase events outside of a startup, such as the gatt server reopening after a bluetooth toggle,
+ * are ignored.
+ */
+class StartupTracer {
+    private final Object lock = new Object();
+    private final EnumSet<StartupPhase> pending = EnumSet.noneOf(StartupPhase.class);
+    private final EnumMap<StartupPhase, Long> runningSince = new EnumMap<>(StartupPhase.class);
+    private final EnumMap<StartupPhase, String> runningOn = new EnumMap<>(StartupPhase.class);
+    private final List<StartupPhaseTiming> finished = new ArrayList<>(StartupPhase.values().length);
+    private boolean begun;
+    private boolean concurrent;
+    private long startedAt;
+    private long lastFinishedAt;
+    @Nullable
+    private StartupTraceListener listener;
+
+    /**
+     * Will begin a new trace, dropping the previous one
+     *
+     * @param concurrent true if the independent phases run concurrently
+     * @param listener   The listener to tell about this startup, may be null
+     */
+    void begin(boolean concurrent, @Nullable StartupTraceListener listener) {
+        synchronized (lock) {
+            this.begun = true;
+            this.concurrent = concurrent;
+            this.listener = listener;
+            this.startedAt = SystemClock.elapsedRealtime();
+            this.lastFinishedAt = startedAt;
+            pending.clear();
+            pending.addAll(EnumSet.allOf(StartupPhase.class));
+            runningSince.clear();
+            runningOn.clear();
+            finished.clear();
+        }
+    }
+
+    void phaseStarted(@NonNull StartupPhase phase) {
+        synchronized (lock) {
+            if (pending.contains(phase) && !runningSince.containsKey(phase)) {
+                runningSince.put(phase, SystemClock.elapsedRealtime());
+                runningOn.put(phase, Thread.currentThread().getName());
+            }
+        }
+    }
+
+    void phaseFinished(@NonNull StartupPhase phase, boolean successful) {
+        finish(phase, successful, false);
+    }
+
+    void phaseSkipped(@NonNull StartupPhase phase) {
+        finish(phase, false, true);
+    }
+
+    /**
+     * @return The trace of the last startup so far, or null if nothing was started
+     */
+    @Nullable
+    StartupTrace getTrace() {
+        synchronized (lock) {
+            return begun ? snapshotLocked() : null;
+        }
+    }
+
+    private void finish(StartupPhase phase, boolean successful, boolean skipped) {
+        StartupPhaseTiming timing;
+        StartupTrace completed = null;
+        StartupTraceListener localListener;
+        synchronized (lock) {
+            if (!pending.remove(phase)) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            Long since = runningSince.remove(phase);
+            String thread = runningOn.remove(phase);
+            long began = since == null ? now : since;
+            if (!skipped && thread == null) {
+                thread = Thread.currentThread().getName();
+            }
+            timing = new StartupPhaseTiming(phase, began - startedAt, now - began, thread, successful, skipped);
+            finished.add(timing);
+            lastFinishedAt = Math.max(lastFinishedAt, now);
+            if (pending.isEmpty()) {
+                completed = snapshotLocked();
+            }
+            localListener = listener;
+        }
+        Timber.v("Startup phase finished %s", timing);
+        if (localListener != null) {
+            localListener.onStartupPhaseFinished(timing);
+        }
+        if (completed != null) {
+            Timber.d("Startup finished %s", completed);
+            if (localListener != null) {
+                localListener.onStartupFinished(completed);
+            }
+        }
+    }
+
+    private StartupTrace snapshotLocked() {
+        return new StartupTrace(concurrent, pending.isEmpty(), lastFinishedAt - startedAt, new ArrayList<>(finished));
+    }
+}
@@ -12,7 +12,9 @@ import com.fitbit.bluetooth.fbgatt.strategies.BluetoothOffClearGattServerStrateg
 import com.fitbit.bluetooth.fbgatt.strategies.DelaySubscriptionResultStrategy;
 import com.fitbit.bluetooth.fbgatt.strategies.HandleTrackerVanishingUnderGattOperationStrategy;
 import com.fitbit.bluetooth.fbgatt.strategies.Strategy;
+import org.json.JSONException;
 import android.os.Build;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
@@ -32,6 +34,102 @@ import timber.log.Timber;
 public class StrategyProvider {
 
     private static final String UNMATCHABLE_DEVICE_NAME = "71E6CB80-BCD7-4F11-9433-66DB2D4ABE4E"; // guid from a long time ago
+    @Nullable
+    private static volatile StrategyRuleTable ruleTable;
+
+    /**
+     * The build properties can't change while we run, and reading the radio version is a system
+     * property lookup, so the profile of this phone is only built once
+     */
+    private static final class CurrentDevice {
+        private static final AndroidDevice INSTANCE = new AndroidDevice.Builder().
+                device(Build.DEVICE).
+                deviceModel(Build.MODEL).
+                apiLevel(Build.VERSION.SDK_INT).
+                board(Build.BOARD).
+                bootloader(Build.BOOTLOADER).
+                brand(Build.BRAND).
+                display(Build.DISPLAY).
+                fingerprint(Build.FINGERPRINT).
+                hardware(Build.HARDWARE).
+                host(Build.HOST).
+                id(Build.ID).
+                manufacturerName(Build.MANUFACTURER).
+                product(Build.PRODUCT).
+                radioVersion(Build.getRadioVersion()).
+                type(Build.TYPE).build();
+    }
+
+    /**
+     * @return The profile of the phone we are running on
+     */
+    @NonNull
+    public static AndroidDevice getCurrentDevice() {
+        return CurrentDevice.INSTANCE;
+    }
+
+    /**
+     * Will replace the bundled strategy rules, so that a workaround for a phone can be shipped
+     * as data.  The format is the one of the rules bundled in StrategyRuleTable.
+     *
+     * @param json The rule table
+     * @throws IllegalArgumentException if the json isn't a rule table
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public static void loadStrategyRules(@NonNull String json) {
+        try {
+            ruleTable = StrategyRuleTable.compile(json, getCurrentDevice());
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Not a strategy rule table", e);
+        }
+        Timber.i("Loaded %d strategy rules", ruleTable.getRuleCount());
+    }
+
+    @VisibleForTesting
+    static void resetStrategyRules() {
+        ruleTable = null;
+    }
+
+    @NonNull
+    private static StrategyRuleTable getRuleTable() {
+        StrategyRuleTable table = ruleTable;
+        if (table == null) {
+            synchronized (StrategyProvider.class) {
+                table = ruleTable;
+                if (table == null) {
+                    table = StrategyRuleTable.compileBundled(getCurrentDevice());
+                    ruleTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Will return the strategy the strategy rules call for in this situation on this phone
+     *
+     * @param conn The gatt connection associated with this strategy, null for the gatt server
+     * @param situation The situation
+     * @return The strategy or null if no rule applies to this phone
+     */
+    public @Nullable
+    Strategy getStrategyForSituation(@Nullable GattConnection conn, @NonNull Situation situation) {
+        String strategy = getRuleTable().getStrategy(situation);
+        if (strategy == null) {
+            return null;
+        }
+        AndroidDevice currentDevice = getCurrentDevice();
+        switch (strategy) {
+            case StrategyRuleTable.TRACKER_VANISHING:
+                return new HandleTrackerVanishingUnderGattOperationStrategy(conn, currentDevice);
+            case StrategyRuleTable.DELAY_SUBSCRIPTION_RESULT:
+                return new DelaySubscriptionResultStrategy(conn, currentDevice);
+            case StrategyRuleTable.CLEAR_GATT_SERVER_SERVICES:
+                return new BluetoothOffClearGattServerStrategy(conn, currentDevice);
+            default:
+                return null;
+        }
+    }
 
     /**
      * An unmatchable device that can be used for developers who wish to experiment with strategies
@@ -52,23 +150,7 @@ public class StrategyProvider {
      */
     public @Nullable
     Strategy getStrategyForPhoneAndGattConnection(@Nullable AndroidDevice strategyDevice, @Nullable GattConnection conn, Situation situation) {
-        AndroidDevice currentDevice = new AndroidDevice.Builder().
-                device(Build.DEVICE).
-                deviceModel(Build.MODEL).
-                apiLevel(Build.VERSION.SDK_INT).
-                board(Build.BOARD).
-                bootloader(Build.BOOTLOADER).
-                brand(Build.BRAND).
-                display(Build.DISPLAY).
-                fingerprint(Build.FINGERPRINT).
-                hardware(Build.HARDWARE).
-                host(Build.HOST).
-                id(Build.ID).
-                manufacturerName(Build.MANUFACTURER).
-                product(Build.PRODUCT).
-                radioVersion(Build.getRadioVersion()).
-                type(Build.TYPE).build();
-                return getStrategyForPhoneAndGattConnection(currentDevice, strategyDevice, conn, situation);
+        return getStrategyForPhoneAndGattConnection(getCurrentDevice(), strategyDevice, conn, situation);
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
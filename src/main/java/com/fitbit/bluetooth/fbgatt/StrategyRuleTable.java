@@ -0,0 +1,180 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.Iterator;
+import java.util.Map;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * The strategy rules compiled for the phone we are running on.  A rule names a {@link Situation},
+ * the strategy to apply in it and optionally the phones it applies to:
+ *
+ * <pre>
+ * {"rules": [
+ *   {"situation": "CLEAR_GATT_SERVER_SERVICES_DEVICE_FUNKY_BT_IMPL",
+ *    "strategy": "BluetoothOffClearGattServerStrategy",
+ *    "device": {"manufacturerName": "samsung", "minApiLevel": 23}}
+ * ]}
+ * </pre>
+ *
+ * The device keys are the {@link AndroidDevice} properties, strings compare without case and
+ * every key must match, a rule without a device applies to every phone.  As the phone never
+ * changes while we run, the rules are matched once when they are compiled and the first
+ * matching rule of each situation is kept, so a lookup is an array index.
+ */
+class StrategyRuleTable {
+    // the rules that ship with the library, kept as a constant so compiling them never touches
+    // the apk.  The tracker vanishing strategy has no device, so every transaction that calls for
+    // it on TRACKER_WENT_AWAY_DURING_GATT_OPERATION gets it on every phone.
+    static final String BUNDLED_RULES = "{\"rules\": ["
+        + "{\"situation\": \"TRACKER_WENT_AWAY_DURING_GATT_OPERATION\","
+        + " \"strategy\": \"HandleTrackerVanishingUnderGattOperationStrategy\"},"
+        + "{\"situation\": \"CLEAR_GATT_SERVER_SERVICES_DEVICE_FUNKY_BT_IMPL\","
+        + " \"strategy\": \"BluetoothOffClearGattServerStrategy\","
+        + " \"device\": {\"manufacturerName\": \"samsung\"}}"
+        + "]}";
+    static final String TRACKER_VANISHING = "HandleTrackerVanishingUnderGattOperationStrategy";
+    static final String DELAY_SUBSCRIPTION_RESULT = "DelaySubscriptionResultStrategy";
+    static final String CLEAR_GATT_SERVER_SERVICES = "BluetoothOffClearGattServerStrategy";
+    private static final String RULES_KEY = "rules";
+    private static final String SITUATION_KEY = "situation";
+    private static final String STRATEGY_KEY = "strategy";
+    private static final String DEVICE_KEY = "device";
+    private static final String MIN_API_LEVEL_KEY = "minApiLevel";
+    private static final String MAX_API_LEVEL_KEY = "maxApiLevel";
+
+    // the strategy for each situation by ordinal, null if none applies to this phone
+    private final String[] strategies = new String[Situation.values().length];
+    private final int ruleCount;
+
+    private StrategyRuleTable(int ruleCount) {
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * @param situation The situation
+     * @return The name of the strategy to apply on this phone, or null if there is none
+     */
+    @Nullable
+    String getStrategy(@NonNull Situation situation) {
+        return strategies[situation.ordinal()];
+    }
+
+    int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * Will compile the rules for the given phone, rules that are not understood are logged and
+     * left out rather than risk them matching every phone
+     *
+     * @param json          The rules
+     * @param currentDevice The phone
+     * @return The compiled table
+     * @throws JSONException if the json isn't a rule table, a rule that can't be read is skipped
+     */
+    @NonNull
+    static StrategyRuleTable compile(@NonNull String json, @NonNull AndroidDevice currentDevice) throws JSONException {
+        JSONArray rules = new JSONObject(json).getJSONArray(RULES_KEY);
+        StrategyRuleTable table = new StrategyRuleTable(rules.length());
+        for (int i = 0; i < rules.length(); i++) {
+            try {
+                table.compileRule(i, rules.getJSONObject(i), currentDevice);
+            } catch (JSONException e) {
+                // a missing key or a value of the wrong type only costs us this rule
+                Timber.w("Skipping strategy rule %d, %s", i, e.getMessage());
+            }
+        }
+        return table;
+    }
+
+    private void compileRule(int index, @NonNull JSONObject rule, @NonNull AndroidDevice currentDevice) throws JSONException {
+        Situation situation;
+        try {
+            situation = Situation.valueOf(rule.getString(SITUATION_KEY));
+        } catch (IllegalArgumentException e) {
+            Timber.w("Skipping strategy rule %d, unknown situation %s", index, rule.optString(SITUATION_KEY));
+            return;
+        }
+        String strategy = rule.getString(STRATEGY_KEY);
+        if (!isKnownStrategy(strategy)) {
+            Timber.w("Skipping strategy rule %d, unknown strategy %s", index, strategy);
+            return;
+        }
+        if (strategies[situation.ordinal()] == null && matches(index, rule.optJSONObject(DEVICE_KEY), currentDevice)) {
+            strategies[situation.ordinal()] = strategy;
+        }
+    }
+
+    /**
+     * Will compile the rules bundled with the library
+     *
+     * @param currentDevice The phone
+     * @return The compiled table, empty if the bundled rules could not be read
+     */
+    @NonNull
+    static StrategyRuleTable compileBundled(@NonNull AndroidDevice currentDevice) {
+        try {
+            return compile(BUNDLED_RULES, currentDevice);
+        } catch (JSONException e) {
+            Timber.e(e, "The bundled strategy rules could not be read, no strategies will be applied");
+            return new StrategyRuleTable(0);
+        }
+    }
+
+    @VisibleForTesting
+    static boolean matches(int index, @Nullable JSONObject device, @NonNull AndroidDevice currentDevice) throws JSONException {
+        if (device == null) {
+            return true;
+        }
+        Map<String, Object> properties = currentDevice.getAndroidProperties();
+        Integer apiLevel = currentDevice.getApiLevel();
+        Iterator<String> keys = device.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (MIN_API_LEVEL_KEY.equals(key)) {
+                if (apiLevel == null || apiLevel < device.getInt(key)) {
+                    return false;
+                }
+            } else if (MAX_API_LEVEL_KEY.equals(key)) {
+                if (apiLevel == null || apiLevel > device.getInt(key)) {
+                    return false;
+                }
+            } else if (!properties.containsKey(key)) {
+                Timber.w("Skipping strategy rule %d, unknown device property %s", index, key);
+                return false;
+            } else {
+                Object property = properties.get(key);
+                Object expected = device.get(key);
+                if (property == null) {
+                    return false;
+                }
+                if (property instanceof String) {
+                    if (!((String) property).equalsIgnoreCase(String.valueOf(expected))) {
+                        return false;
+                    }
+                } else if (!(expected instanceof Number) || ((Number) expected).intValue() != ((Number) property).intValue()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isKnownStrategy(String strategy) {
+        return TRACKER_VANISHING.equals(strategy) || DELAY_SUBSCRIPTION_RESULT.equals(strategy) || CLEAR_GATT_SERVER_SERVICES.equals(strategy);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Returned when a transaction is run with
+ * {@link GattConnection#runTxWithHandle(GattClientTransaction, GattTransactionCallback)} so that
+ * the caller can give up on it.  The handle is bound to one run of the transaction, once a pooled
+ * transaction has been reset for another run the handle no longer affects it.
+ */
+
+public class TransactionHandle {
+    private final GattTransaction<?> transaction;
+    private final int generation;
+
+    TransactionHandle(@NonNull GattTransaction<?> transaction, int generation) {
+        this.transaction = transaction;
+        this.generation = generation;
+    }
+
+    /**
+     * Will cancel the transaction.  If it is still queued it is dropped before it reaches the
+     * radio and the callback receives {@link TransactionResult.TransactionResultStatus#CANCELLED},
+     * if it is in flight it is ended like a timeout and the callback receives
+     * {@link TransactionResult.TransactionResultStatus#TIMEOUT}.  Either way the callback is
+     * called exactly once.
+     *
+     * @return true if the transaction was cancelled by this call, false if it had already
+     * completed or been cancelled
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"}) // API Method
+    public boolean cancel() {
+        return transaction.cancel(generation);
+    }
+
+    /**
+     * @return The name of the transaction
+     */
+    @NonNull
+    public String getTransactionName() {
+        return transaction.getName();
+    }
+}
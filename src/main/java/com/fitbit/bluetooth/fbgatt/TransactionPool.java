@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A small bounded free list of recycled transactions of one type for one connection, so that
+ * high frequency reads, writes, notifications and responses do not allocate a new transaction,
+ * latch and handler per operation.
+ *
+ * Transactions only come back here through {@link GattTransaction#recycle()} once they have been
+ * released and reset, so anything handed out by {@link #poll()} is ready to be reused.
+ *
+ * @param <T> The transaction type
+ */
+
+class TransactionPool<T extends GattTransaction<?>> {
+    static final int DEFAULT_CAPACITY = 4;
+
+    private final ArrayDeque<T> free;
+    private final int capacity;
+    private long created;
+    private long reused;
+
+    TransactionPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    TransactionPool(int capacity) {
+        this.capacity = capacity;
+        this.free = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @return A reset transaction, or null if the caller should create one
+     */
+    @Nullable
+    synchronized T poll() {
+        T tx = free.pollFirst();
+        if (tx != null) {
+            reused++;
+        }
+        return tx;
+    }
+
+    /**
+     * Will count a transaction created because the pool was empty
+     */
+    synchronized void onCreated() {
+        created++;
+    }
+
+    /**
+     * Will return a reset transaction to the pool, if the pool is full it is left to the GC
+     *
+     * @param tx The transaction
+     */
+    synchronized void offer(@NonNull T tx) {
+        if (free.size() < capacity) {
+            free.addFirst(tx);
+        }
+    }
+
+    synchronized int size() {
+        return free.size();
+    }
+
+    synchronized long getCreated() {
+        return created;
+    }
+
+    synchronized long getReused() {
+        return reused;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "[TransactionPool free: %d, created: %d, reused: %d]",
+            free.size(), created, reused);
+    }
+}
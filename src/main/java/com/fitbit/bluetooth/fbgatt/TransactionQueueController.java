@@ -8,29 +8,157 @@
 
 package com.fitbit.bluetooth.fbgatt;
 
+import android.os.Looper;
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 class TransactionQueueController {
+    /**
+     * The queue follows the per queue capacity set on {@link FitbitGatt}
+     */
+    static final int DEFAULT_CAPACITY = -1;
+    // a producer blocked on the overall capacity isn't woken by other queues, so it looks again
+    private static final long GLOBAL_ROOM_POLL_MILLIS = 20;
 
     private String threadName;
     private AtomicBoolean stopped = new AtomicBoolean(true);
     private final LinkedBlockingQueue<Runnable> transactionQueue = new LinkedBlockingQueue<>();
     private ClientThread transactionThread;
+    // only the connection and gatt server queues are limited, composite transactions run their
+    // children on queues of their own that must never refuse them
+    private final boolean limited;
+    @Nullable
+    private final FitbitBluetoothDevice device;
+    private final Object capacityLock = new Object();
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private int highWaterMark;
+    private long rejected;
+    private long evicted;
+    private long blocked;
 
     TransactionQueueController(String name) {
-        this.threadName = name;
+        this(name, false, null);
     }
 
     TransactionQueueController(GattConnection connection) {
-        this(String.format(Locale.ENGLISH, "%s GATT Transaction Thread", connection.getDevice().getName()));
+        this(String.format(Locale.ENGLISH, "%s GATT Transaction Thread", connection.getDevice().getName()), true, connection.getDevice());
     }
 
     TransactionQueueController() {
-        this("GATT Server Transaction Thread");
+        this("GATT Server Transaction Thread", true, null);
+    }
+
+    private TransactionQueueController(String name, boolean limited, @Nullable FitbitBluetoothDevice device) {
+        this.threadName = name;
+        this.limited = limited;
+        this.device = device;
+    }
+
+    /**
+     * @param capacity The most transactions that may wait on this queue, or {@link #DEFAULT_CAPACITY}
+     */
+    void setCapacity(int capacity) {
+        if (capacity < 1 && capacity != DEFAULT_CAPACITY) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH, "The queue capacity must be at least 1, was %d", capacity));
+        }
+        synchronized (capacityLock) {
+            this.capacity = capacity;
+            capacityLock.notifyAll();
+        }
+    }
+
+    /**
+     * Will queue the transaction within the capacity of this queue and the overall capacity, if
+     * there is no room the overload policy decides what is refused, a refused transaction is
+     * answered with {@link TransactionResult.TransactionResultStatus#REJECTED} without running
+     *
+     * @param transaction The transaction
+     * @param callback    The callback for its result
+     * @return true if the transaction was queued
+     */
+    boolean queueTransaction(@NonNull GattTransaction<?> transaction, @Nullable GattTransactionCallback callback) {
+        QueuedTransaction entry = new QueuedTransaction(transaction, callback);
+        TransactionQueueLimiter limiter = limited ? FitbitGatt.getInstance().getTransactionQueueLimiter() : null;
+        if (limiter == null) {
+            queueTransaction(entry);
+            return true;
+        }
+        if (stopped.get()) {
+            Timber.i("Implicitly restarting queue");
+            start();
+        }
+        QueuedTransaction refused = null;
+        QueueOverloadPolicy appliedPolicy = null;
+        TransactionQueueStats overloadStats = null;
+        synchronized (capacityLock) {
+            long blockedUntil = 0;
+            while (true) {
+                boolean roomHere = transactionQueue.size() < getCapacity(limiter);
+                if (roomHere && limiter.tryAcquire()) {
+                    entry.holdsGlobalSlot = true;
+                    addLocked(entry);
+                    break;
+                }
+                QueueOverloadPolicy policy = limiter.getPolicy();
+                if (policy == QueueOverloadPolicy.EVICT_LOWEST_PRIORITY) {
+                    QueuedTransaction victim = findEvictionVictimLocked();
+                    if (victim != null && victim.priority <= entry.priority && transactionQueue.remove(victim)) {
+                        // the new transaction takes over the slot of the one it replaces
+                        entry.holdsGlobalSlot = victim.holdsGlobalSlot;
+                        addLocked(entry);
+                        refused = victim;
+                        evicted++;
+                        limiter.onEvicted();
+                    } else {
+                        refused = entry;
+                        rejected++;
+                        limiter.onRejected();
+                    }
+                    appliedPolicy = policy;
+                    break;
+                }
+                if (policy == QueueOverloadPolicy.BLOCK && mayBlockCurrentThread()) {
+                    long now = SystemClock.elapsedRealtime();
+                    if (blockedUntil == 0) {
+                        blockedUntil = now + limiter.getBlockTimeoutMillis();
+                        blocked++;
+                        limiter.onBlocked();
+                    }
+                    long remaining = blockedUntil - now;
+                    if (remaining > 0) {
+                        try {
+                            capacityLock.wait(roomHere ? Math.min(remaining, GLOBAL_ROOM_POLL_MILLIS) : remaining);
+                            continue;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+                refused = entry;
+                rejected++;
+                limiter.onRejected();
+                appliedPolicy = policy == QueueOverloadPolicy.BLOCK ? QueueOverloadPolicy.BLOCK : QueueOverloadPolicy.REJECT;
+                break;
+            }
+            if (appliedPolicy != null) {
+                overloadStats = getStatsLocked(limiter);
+            }
+        }
+        if (refused != null) {
+            refused.transaction.rejectWithoutRunning(refused.callback);
+        }
+        if (overloadStats != null) {
+            limiter.notifyOverloaded(device, appliedPolicy, overloadStats);
+        }
+        return refused != entry;
     }
 
     void queueTransaction(Runnable tx) {
@@ -41,8 +169,99 @@ class TransactionQueueController {
         transactionQueue.add(tx);
     }
 
+    /**
+     * @return The number of transactions waiting, not counting the one running
+     */
+    int getQueuedTransactionCount() {
+        return transactionQueue.size();
+    }
+
+    /**
+     * Will drop everything waiting, the transactions are failed without running so that their
+     * callers hear back and pooled ones go back to their pool
+     */
     void clearQueue() {
-        transactionQueue.clear();
+        List<Runnable> cleared = new ArrayList<>(transactionQueue.size());
+        transactionQueue.drainTo(cleared);
+        int slots = 0;
+        for (Runnable tx : cleared) {
+            if (tx instanceof QueuedTransaction && ((QueuedTransaction) tx).holdsGlobalSlot) {
+                slots++;
+            }
+        }
+        onLeftQueue(slots);
+        for (Runnable tx : cleared) {
+            if (tx instanceof QueuedTransaction) {
+                QueuedTransaction queued = (QueuedTransaction) tx;
+                queued.transaction.failWithoutRunning(queued.callback);
+            }
+        }
+    }
+
+    /**
+     * @return The depth, high water mark and shed work of this queue
+     */
+    @NonNull
+    TransactionQueueStats getStats() {
+        synchronized (capacityLock) {
+            return getStatsLocked(limited ? FitbitGatt.getInstance().getTransactionQueueLimiter() : null);
+        }
+    }
+
+    private TransactionQueueStats getStatsLocked(@Nullable TransactionQueueLimiter limiter) {
+        int reportedCapacity = limiter == null ? TransactionQueueLimiter.UNLIMITED : getCapacity(limiter);
+        return new TransactionQueueStats(transactionQueue.size(), highWaterMark, reportedCapacity, rejected, evicted, blocked);
+    }
+
+    private int getCapacity(TransactionQueueLimiter limiter) {
+        int localCapacity = capacity;
+        return localCapacity == DEFAULT_CAPACITY ? limiter.getPerQueueCapacity() : localCapacity;
+    }
+
+    private void addLocked(QueuedTransaction entry) {
+        transactionQueue.add(entry);
+        highWaterMark = Math.max(highWaterMark, transactionQueue.size());
+    }
+
+    /**
+     * @return The oldest of the lowest priority transactions waiting, or null if none can be evicted
+     */
+    @Nullable
+    private QueuedTransaction findEvictionVictimLocked() {
+        QueuedTransaction victim = null;
+        for (Runnable tx : transactionQueue) {
+            if (tx instanceof QueuedTransaction) {
+                QueuedTransaction queued = (QueuedTransaction) tx;
+                if (victim == null || queued.priority < victim.priority) {
+                    victim = queued;
+                }
+            }
+        }
+        return victim;
+    }
+
+    private void onLeftQueue(int globalSlots) {
+        if (!limited) {
+            return;
+        }
+        if (globalSlots > 0) {
+            TransactionQueueLimiter limiter = FitbitGatt.getInstance().getTransactionQueueLimiter();
+            if (limiter != null) {
+                limiter.release(globalSlots);
+            }
+        }
+        synchronized (capacityLock) {
+            capacityLock.notifyAll();
+        }
+    }
+
+    /**
+     * A thread running a looper, the main thread, the async operation thread or a callback
+     * dispatcher thread, must not wait for room, the results and the callbacks that would make
+     * room may have to run on it.  Neither may our own queue thread, it is what makes the room.
+     */
+    private boolean mayBlockCurrentThread() {
+        return Looper.myLooper() == null && Thread.currentThread() != transactionThread;
     }
 
     @VisibleForTesting
@@ -86,6 +305,9 @@ class TransactionQueueController {
             while (!stopped.get()) {
                 try {
                     tx = transactionQueue.take();
+                    if (tx instanceof QueuedTransaction) {
+                        onLeftQueue(((QueuedTransaction) tx).holdsGlobalSlot ? 1 : 0);
+                    }
                     tx.run();
                 } catch (InterruptedException e) {
                     Timber.i("Thread was interrupted, it's OK, we will retake");
@@ -95,4 +317,24 @@ class TransactionQueueController {
         }
     }
 
+    private static class QueuedTransaction implements Runnable {
+        private final GattTransaction<?> transaction;
+        @Nullable
+        private final GattTransactionCallback callback;
+        private final int priority;
+        private boolean holdsGlobalSlot;
+
+        private QueuedTransaction(GattTransaction<?> transaction, @Nullable GattTransactionCallback callback) {
+            this.transaction = transaction;
+            this.callback = callback;
+            this.priority = transaction.getQueuePriority();
+            transaction.onQueued();
+        }
+
+        @Override
+        public void run() {
+            transaction.commit(callback);
+        }
+    }
+
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Holds the transaction queue limits and the depth of every connection and gatt server queue
+ * taken together.  Each queue checks its own capacity, then takes a slot here for the global
+ * capacity, and hands the slot back when the transaction leaves the queue.
+ *
+ * The defaults are unlimited, in which case nothing is ever refused.
+ */
+class TransactionQueueLimiter {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private volatile int perQueueCapacity = UNLIMITED;
+    private volatile int globalCapacity = UNLIMITED;
+    private volatile QueueOverloadPolicy policy = QueueOverloadPolicy.REJECT;
+    private volatile long blockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final CopyOnWriteArrayList<TransactionQueueOverloadListener> listeners = new CopyOnWriteArrayList<>();
+
+    void setLimits(int perQueueCapacity, int globalCapacity, @NonNull QueueOverloadPolicy policy, long blockTimeoutMillis) {
+        if (perQueueCapacity < 1 || globalCapacity < 1 || blockTimeoutMillis < 0) {
+            throw new IllegalArgumentException(String.format(Locale.ENGLISH,
+                "The queue capacities must be at least 1 and the block timeout not negative, were %d per queue, %d overall and %dms",
+                perQueueCapacity, globalCapacity, blockTimeoutMillis));
+        }
+        this.perQueueCapacity = perQueueCapacity;
+        this.globalCapacity = globalCapacity;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    int getPerQueueCapacity() {
+        return perQueueCapacity;
+    }
+
+    @NonNull
+    QueueOverloadPolicy getPolicy() {
+        return policy;
+    }
+
+    long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * @return true if there was room for one more transaction overall and it was taken
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = depth.get();
+            if (current >= globalCapacity) {
+                return false;
+            }
+            if (depth.compareAndSet(current, current + 1)) {
+                int high = highWaterMark.get();
+                while (current + 1 > high && !highWaterMark.compareAndSet(high, current + 1)) {
+                    high = highWaterMark.get();
+                }
+                return true;
+            }
+        }
+    }
+
+    void release(int slots) {
+        depth.addAndGet(-slots);
+    }
+
+    void onRejected() {
+        rejected.incrementAndGet();
+    }
+
+    void onEvicted() {
+        evicted.incrementAndGet();
+    }
+
+    void onBlocked() {
+        blocked.incrementAndGet();
+    }
+
+    void addListener(@NonNull TransactionQueueOverloadListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    void removeListener(@NonNull TransactionQueueOverloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    void notifyOverloaded(@Nullable FitbitBluetoothDevice device, @NonNull QueueOverloadPolicy appliedPolicy, @NonNull TransactionQueueStats stats) {
+        Timber.w("[%s] Transaction queue is full, applied %s, %s", device, appliedPolicy, stats);
+        for (TransactionQueueOverloadListener listener : listeners) {
+            listener.onTransactionQueueOverloaded(device, appliedPolicy, stats);
+        }
+    }
+
+    @NonNull
+    TransactionQueueStats getStats() {
+        return new TransactionQueueStats(depth.get(), highWaterMark.get(), globalCapacity,
+            rejected.get(), evicted.get(), blocked.get());
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Told when a transaction queue is full, so that the producers can back off
+ */
+public interface TransactionQueueOverloadListener {
+    /**
+     * Will be called on the thread that queued the transaction, after the policy was applied,
+     * so it must not block
+     *
+     * @param device The peripheral whose queue was full, or null for the gatt server queue
+     * @param policy The policy that was applied
+     * @param stats  The counters of the queue that was full
+     */
+    void onTransactionQueueOverloaded(@Nullable FitbitBluetoothDevice device, @NonNull QueueOverloadPolicy policy,
+                                      @NonNull TransactionQueueStats stats);
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of how deep a transaction queue is, or all of them together, and how much work was
+ * shed because they were full
+ */
+
+public class TransactionQueueStats {
+    private final int depth;
+    private final int highWaterMark;
+    private final int capacity;
+    private final long rejected;
+    private final long evicted;
+    private final long blocked;
+
+    TransactionQueueStats(int depth, int highWaterMark, int capacity, long rejected, long evicted, long blocked) {
+        this.depth = depth;
+        this.highWaterMark = highWaterMark;
+        this.capacity = capacity;
+        this.rejected = rejected;
+        this.evicted = evicted;
+        this.blocked = blocked;
+    }
+
+    /**
+     * @return The number of transactions waiting, not counting the one running
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The deepest the queue has been
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * @return The most transactions that may wait, {@link Integer#MAX_VALUE} if unlimited
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of transactions refused because the queue was full
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return The number of queued transactions dropped to make room for a higher priority one
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return The number of times a producer had to wait for room
+     */
+    public long getBlocked() {
+        return blocked;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[TransactionQueueStats depth: %d, highWater: %d, capacity: %d, rejected: %d, evicted: %d, blocked: %d]",
+            depth, highWaterMark, capacity, rejected, evicted, blocked);
+    }
+}
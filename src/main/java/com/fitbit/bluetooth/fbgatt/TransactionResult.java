@@ -13,6 +13,7 @@ import com.fitbit.bluetooth.fbgatt.util.GattStatus;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -25,6 +26,12 @@ import androidx.annotation.Nullable;
  * {@link ServerConnectionEventListener}.  Items in this class are final except where they can
  * change after initialization.
  *
+ * A result is built for every read, write, notification and server request so it is kept small,
+ * the empty service and child result lists are only created if they are asked for and the payload
+ * is held by reference rather than copied.  Asynchronous results are shared between every listener that
+ * receives them, so they should be treated as read-only, {@link #getDataView()} will provide the
+ * payload without risk of one listener changing it for the others.
+ *
  * Created by iowens on 10/19/17.
  */
 
@@ -48,7 +55,15 @@ public class TransactionResult {
         /**
          * The transaction timed out
          */
-        TIMEOUT
+        TIMEOUT,
+        /**
+         * The transaction was cancelled before it ran, nothing was sent to the peripheral
+         */
+        CANCELLED,
+        /**
+         * The transaction was refused because its queue was full, nothing was sent to the peripheral
+         */
+        REJECTED
     }
 
     /**
@@ -88,7 +103,8 @@ public class TransactionResult {
     /**
      * The gatt server services found as the result of a discover transaction
      */
-    private final List<BluetoothGattService> gattServerServices;
+    @Nullable
+    private List<BluetoothGattService> gattServerServices;
     /**
      * The resulting {@link GattState} for a transaction
      */
@@ -100,14 +116,13 @@ public class TransactionResult {
     /**
      * The data payload copied out of the {@link android.bluetooth.BluetoothGattDescriptor} or the {@link BluetoothGattCharacteristic}
      * this needs to be copied because the value attribute of these objects is a dereferenced pointer
-     * to the underlying data structure which can change as something else writes to that gatt item
-     * this is not final because we don't ever want for this to be null, but we don't know what the
-     * size of the value attribute for the result of this transaction will be when the builder is
-     * constructing the result.  In theory we could leave it to the builder, but then we would need
-     * to fight lint, so it's easier to ensure that it could never be null.
+     * to the underlying data structure which can change as something else writes to that gatt item.
+     * The transaction copies it once and the result holds that copy by reference.  This is not
+     * final because it can be set after the result is built, see {@link #setData(byte[])}.
      */
-    // it can be an empty array, but should never be null
-    private byte[] data = new byte[1];
+    // null when the transaction produced no data, see getData()
+    @Nullable
+    private byte[] data;
     /**
      * The RSSI value of the {@link com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction} transaction
      *
@@ -135,7 +150,8 @@ public class TransactionResult {
      */
     private String transactionName;
 
-    private ArrayList<TransactionResult> transactionResults;
+    @Nullable
+    private List<TransactionResult> transactionResults;
 
     /**
      * Will construct a transaction result from an existing transaction result for a different
@@ -150,7 +166,7 @@ public class TransactionResult {
                 result.preparedWrite, result.responseRequired, result.transactionName, result.txPhy,
                 result.rxPhy, result.transactionResults);
         this.transactionName = newTransactionName;
-        this.transactionResults = new ArrayList<>();
+        this.transactionResults = null;
     }
 
     /**
@@ -190,13 +206,13 @@ public class TransactionResult {
         this.rssi = rssi;
         this.mtu = mtu;
         this.offset = offset;
-        this.gattServerServices = (services == null) ? new ArrayList<>() : services;
+        this.gattServerServices = services;
         this.preparedWrite = preparedWrite;
         this.responseRequired = responseRequired;
         this.transactionName = transactionName;
         this.txPhy = txPhy;
         this.rxPhy = rxPhy;
-        this.transactionResults = new ArrayList<>(transactionResults);
+        this.transactionResults = (transactionResults == null || transactionResults.isEmpty()) ? null : new ArrayList<>(transactionResults);
     }
 
     /**
@@ -219,6 +235,16 @@ public class TransactionResult {
         return this.data;
     }
 
+    /**
+     * A read-only view of the data, this does not copy the payload so it is the cheapest way for
+     * a listener to consume a result that is shared with other listeners
+     * @return A read-only buffer over the data or null if there is no data
+     */
+    public @Nullable ByteBuffer getDataView() {
+        byte[] localData = this.data;
+        return localData == null ? null : ByteBuffer.wrap(localData).asReadOnlyBuffer();
+    }
+
     /**
      * The RSSI value provided by the {@link com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction}
      * can be undefined if read from a transaction that is not involved with reading the RSSI
@@ -267,10 +293,13 @@ public class TransactionResult {
     /**
      * This will provide a list of services delivered in {@link com.fitbit.bluetooth.fbgatt.tx.GattClientDiscoverServicesTransaction}
      * this will never be null because the builder will default to an empty list, even if someone creates this class without
-     * using the builder the constructor will force this to be populated with an empty list
+     * using the builder the empty list will be created the first time it is asked for.
      * @return Either the list of services or an empty list
      */
-    public @NonNull List<BluetoothGattService> getServices() {
+    public synchronized @NonNull List<BluetoothGattService> getServices() {
+        if (this.gattServerServices == null) {
+            this.gattServerServices = new ArrayList<>();
+        }
         return this.gattServerServices;
     }
 
@@ -356,10 +385,14 @@ public class TransactionResult {
     public GattState getResultState() { return this.resultState; }
 
     /**
-     * Gets the transaction results
+     * Gets the transaction results, for results without children the empty list is created the
+     * first time it is asked for
      * @return The list of transaction results
      */
-    public List<TransactionResult> getTransactionResults(){
+    public synchronized List<TransactionResult> getTransactionResults(){
+        if (this.transactionResults == null) {
+            this.transactionResults = new ArrayList<>();
+        }
         return this.transactionResults;
     }
 
@@ -381,11 +414,12 @@ public class TransactionResult {
         private int offset;
         private int txPhy = 1; /** or {@link BluetoothDevice.PHY_LE_1M} because it's default for BLE */
         private int rxPhy = 1; /** or {@link BluetoothDevice.PHY_LE_1M} because it's default for BLE */
-        private List<BluetoothGattService> services = new ArrayList<>();
+        private @Nullable List<BluetoothGattService> services;
         private boolean preparedWrite;
         private boolean responseRequired;
         private String transactionName = "Unknown";
-        private ArrayList<TransactionResult> results = new ArrayList<>();
+        // only composite transactions have child results, so this is created on first add
+        private @Nullable ArrayList<TransactionResult> results;
 
         public Builder() {
 
@@ -397,6 +431,9 @@ public class TransactionResult {
          * @return This builder
          */
         public Builder addTransactionResults(List<TransactionResult> results) {
+            if (this.results == null) {
+                this.results = new ArrayList<>(results.size());
+            }
             this.results.addAll(results);
             return this;
         }
@@ -407,6 +444,9 @@ public class TransactionResult {
          * @return This builder
          */
         public Builder addTransactionResult(TransactionResult transactionResult) {
+            if (this.results == null) {
+                this.results = new ArrayList<>(2);
+            }
             this.results.add(transactionResult);
             return this;
         }
@@ -588,6 +628,6 @@ public class TransactionResult {
 
     @Override
     public String toString() {
-        return String.format(Locale.ENGLISH, "Transaction Name: %s, Gatt State: %s, Transaction Result Status: %s, Response Status: %s, rssi: %d, mtu: %d, Characteristic UUID: %s, Service UUID: %s, Descriptor UUID: %s, Data: %s, Offset: %d, txPhy: %d, rxPhy: %d, transaction results: %s", this.transactionName, this.resultState, this.resultStatus, GattStatus.getStatusForCode(this.responseStatus), this.rssi, this.mtu, this.characteristicUuid, this.serviceUuid, this.descriptorUuid, Bytes.byteArrayToHexString(this.data), this.offset, this.txPhy, this.rxPhy, this.transactionResults);
+        return String.format(Locale.ENGLISH, "Transaction Name: %s, Gatt State: %s, Transaction Result Status: %s, Response Status: %s, rssi: %d, mtu: %d, Characteristic UUID: %s, Service UUID: %s, Descriptor UUID: %s, Data: %s, Offset: %d, txPhy: %d, rxPhy: %d, transaction results: %s", this.transactionName, this.resultState, this.resultStatus, GattStatus.getStatusForCode(this.responseStatus), this.rssi, this.mtu, this.characteristicUuid, this.serviceUuid, this.descriptorUuid, Bytes.byteArrayToHexString(this.data), this.offset, this.txPhy, this.rxPhy, this.transactionResults == null ? "[]" : this.transactionResults);
     }
 }
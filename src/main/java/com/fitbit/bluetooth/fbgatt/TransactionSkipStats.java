@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.Locale;
+import androidx.annotation.NonNull;
+
+/**
+ * A snapshot of the transactions the callers gave up on, and how many of them never reached
+ * the radio
+ */
+
+public class TransactionSkipStats {
+    private final long cancelledQueued;
+    private final long expiredQueued;
+    private final long cancelledInFlight;
+
+    TransactionSkipStats(long cancelledQueued, long expiredQueued, long cancelledInFlight) {
+        this.cancelledQueued = cancelledQueued;
+        this.expiredQueued = expiredQueued;
+        this.cancelledInFlight = cancelledInFlight;
+    }
+
+    /**
+     * @return The number of cancelled transactions dropped from the queue before they ran
+     */
+    public long getCancelledQueued() {
+        return cancelledQueued;
+    }
+
+    /**
+     * @return The number of transactions dropped from the queue because their deadline had passed
+     */
+    public long getExpiredQueued() {
+        return expiredQueued;
+    }
+
+    /**
+     * @return The number of transactions cancelled while they were in flight
+     */
+    public long getCancelledInFlight() {
+        return cancelledInFlight;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "[TransactionSkipStats cancelledQueued: %d, expiredQueued: %d, cancelledInFlight: %d]",
+            cancelledQueued, expiredQueued, cancelledInFlight);
+    }
+}
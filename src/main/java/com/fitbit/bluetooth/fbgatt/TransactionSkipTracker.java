@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import androidx.annotation.NonNull;
+
+/**
+ * Counts the transactions that were cancelled or ran past their deadline, see
+ * {@link TransactionHandle#cancel()} and {@link GattTransaction#setDeadline(long)}
+ */
+class TransactionSkipTracker {
+
+    enum Reason {
+        CANCELLED_QUEUED,
+        EXPIRED_QUEUED,
+        CANCELLED_IN_FLIGHT
+    }
+
+    private final AtomicLong cancelledQueued = new AtomicLong();
+    private final AtomicLong expiredQueued = new AtomicLong();
+    private final AtomicLong cancelledInFlight = new AtomicLong();
+
+    void onSkipped(@NonNull Reason reason) {
+        switch (reason) {
+            case CANCELLED_QUEUED:
+                cancelledQueued.incrementAndGet();
+                break;
+            case EXPIRED_QUEUED:
+                expiredQueued.incrementAndGet();
+                break;
+            case CANCELLED_IN_FLIGHT:
+                cancelledInFlight.incrementAndGet();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @NonNull
+    TransactionSkipStats getStats() {
+        return new TransactionSkipStats(cancelledQueued.get(), expiredQueued.get(), cancelledInFlight.get());
+    }
+}
@@ -14,8 +14,6 @@ import com.fitbit.bluetooth.fbgatt.GattConnection;
 import com.fitbit.bluetooth.fbgatt.GattState;
 import com.fitbit.bluetooth.fbgatt.GattTransactionCallback;
 import com.fitbit.bluetooth.fbgatt.TransactionResult;
-import android.os.Handler;
-import android.os.Looper;
 import androidx.annotation.Nullable;
 
 /**
@@ -27,7 +25,6 @@ import androidx.annotation.Nullable;
 public class DelaySubscriptionResultStrategy extends Strategy {
     private static final int NON_GATT_OPERATION_INTERACTION_DELAY_MS = 50;
     private GattClientTransaction tx;
-    private Handler mainThreadHandler;
     private TransactionResult result;
     private GattTransactionCallback gattTransactionCallback;
 
@@ -39,7 +36,13 @@ public class DelaySubscriptionResultStrategy extends Strategy {
 
     public DelaySubscriptionResultStrategy(@Nullable GattConnection connection, AndroidDevice currentAndroidDevice) {
         super(connection, currentAndroidDevice);
-        mainThreadHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * @return How long this phone needs between a subscription and a descriptor write
+     */
+    public long getDelayMillis() {
+        return NON_GATT_OPERATION_INTERACTION_DELAY_MS;
     }
 
     @Override
@@ -52,7 +55,9 @@ public class DelaySubscriptionResultStrategy extends Strategy {
 
     @Override
     public void applyStrategy() {
-        mainThreadHandler.postDelayed(() -> {
+        // delivered where the transaction delivers its results, the main thread unless the caller
+        // gave an executor
+        tx.postToCallbackThread(() -> {
             tx.callCallbackWithTransactionResultAndRelease(gattTransactionCallback, result);
             // this can fail, but we are still idle because we can use the connection
             connection.setState(GattState.IDLE);
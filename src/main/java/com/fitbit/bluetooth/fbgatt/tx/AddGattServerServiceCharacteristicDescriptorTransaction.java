@@ -53,7 +53,7 @@ public class AddGattServerServiceCharacteristicDescriptorTransaction extends Gat
         super.transaction(callback);
         getGattServer().setState(GattState.ADDING_SERVICE_CHARACTERISTIC_DESCRIPTOR);
         if(getGattServer().getServer() == null) {
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 respondWithError("The GATT Server was not started yet, did you start the gatt?", callback);
             });
         } else {
@@ -54,7 +54,7 @@ public class AddGattServerServiceCharacteristicTransaction extends GattServerTra
         super.transaction(callback);
         getGattServer().setState(GattState.ADDING_SERVICE_CHARACTERISTIC);
         if(getGattServer().getServer() == null) {
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 respondWithError("The GATT Server was not started yet, did you start the gatt?", callback);
             });
         } else {
@@ -50,7 +50,7 @@ public class AddGattServerServiceTransaction extends GattServerTransaction {
         super.transaction(callback);
         getGattServer().setState(GattState.ADDING_SERVICE);
         if(getGattServer().getServer() == null) {
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(getName());
                 Timber.w("The GATT Server was not started yet, did you start the gatt?");
                 builder.responseStatus(GattDisconnectReason.getReasonForCode(GattDisconnectReason.GATT_CONN_NO_RESOURCES.getCode()).ordinal());
@@ -39,7 +39,7 @@ public class ClearServerServicesTransaction extends GattServerTransaction {
         TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(getName());
         builder.gattState(getGattServer().getGattState())
                 .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS);
-        mainThreadHandler.post(() -> {
+        postToCallbackThread(() -> {
             callCallbackWithTransactionResultAndRelease(callback, builder.build());
             getGattServer().setState(GattState.IDLE);
         });
@@ -51,7 +51,7 @@ public class CloseGattServerTransaction extends GattServerTransaction {
             getGattServer().setState(GattState.CLOSE_GATT_SERVER_FAILURE);
             builder.gattState(getGattServer().getGattState())
                 .resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getGattServer().setState(GattState.IDLE);
             });
@@ -63,9 +63,10 @@ public class CloseGattServerTransaction extends GattServerTransaction {
             try {
                 server.close();
                 getGattServer().setState(GattState.CLOSE_GATT_SERVER_SUCCESS);
+                getGattServer().clearSubscriptions();
                 builder.gattState(getGattServer().getGattState())
                     .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS);
-                mainThreadHandler.post(() -> {
+                postToCallbackThread(() -> {
                     callCallbackWithTransactionResultAndRelease(callback, builder.build());
                     getGattServer().setState(GattState.IDLE);
                 });
@@ -74,7 +75,7 @@ public class CloseGattServerTransaction extends GattServerTransaction {
                 getGattServer().setState(GattState.CLOSE_GATT_SERVER_FAILURE);
                 builder.gattState(getGattServer().getGattState())
                     .resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
-                mainThreadHandler.post(() -> {
+                postToCallbackThread(() -> {
                     callCallbackWithTransactionResultAndRelease(callback, builder.build());
                     getGattServer().setState(GattState.IDLE);
                 });
@@ -51,7 +51,7 @@ public class CloseGattTransaction extends GattClientTransaction {
         TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(getName());
         builder.resultStatus(TransactionResult.TransactionResultStatus.SUCCESS);
         builder.gattState(getConnection().getGattState());
-        mainThreadHandler.post(() -> {
+        postToCallbackThread(() -> {
             callCallbackWithTransactionResultAndRelease(callback, builder.build());
             getConnection().setState(GattState.DISCONNECTED);
         });
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.tx;
+
+import com.fitbit.bluetooth.fbgatt.GattClientTransaction;
+import com.fitbit.bluetooth.fbgatt.GattConnection;
+import com.fitbit.bluetooth.fbgatt.GattState;
+import com.fitbit.bluetooth.fbgatt.GattTransactionCallback;
+import com.fitbit.bluetooth.fbgatt.Situation;
+import com.fitbit.bluetooth.fbgatt.TransactionResult;
+import com.fitbit.bluetooth.fbgatt.btcopies.BluetoothGattDescriptorCopy;
+import com.fitbit.bluetooth.fbgatt.strategies.DelaySubscriptionResultStrategy;
+import com.fitbit.bluetooth.fbgatt.strategies.Strategy;
+import com.fitbit.bluetooth.fbgatt.util.GattDisconnectReason;
+import com.fitbit.bluetooth.fbgatt.util.GattStatus;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import java.util.Arrays;
+import java.util.UUID;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Will turn notifications on for a characteristic both with the stack and at the peripheral, as
+ * one transaction on the queue.  This is what a {@link SubscribeToCharacteristicNotificationsTransaction}
+ * followed by a {@link WriteGattDescriptorTransaction} to the client characteristic configuration
+ * descriptor does, except that the descriptor is found here, notifications are chosen if the
+ * characteristic supports them and indications otherwise, and the descriptor isn't written again
+ * if this link already has it set to that value.
+ *
+ * The phones that need a pause between the subscription and the descriptor write, see
+ * {@link DelaySubscriptionResultStrategy}, get it before the write, the others write right away.
+ */
+
+public class EnableCharacteristicNotificationsTransaction extends GattClientTransaction {
+    public static final String NAME = "EnableCharacteristicNotificationsTransaction";
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private final BluetoothGattCharacteristic characteristic;
+    @Nullable
+    private BluetoothGattDescriptor descriptor;
+    @Nullable
+    private byte[] configuration;
+
+    public EnableCharacteristicNotificationsTransaction(@Nullable GattConnection connection, GattState successEndState, @NonNull BluetoothGattCharacteristic characteristic) {
+        super(connection, successEndState);
+        this.characteristic = characteristic;
+    }
+
+    public EnableCharacteristicNotificationsTransaction(@Nullable GattConnection connection, GattState successEndState, @NonNull BluetoothGattCharacteristic characteristic, long timeoutMillis) {
+        super(connection, successEndState, timeoutMillis);
+        this.characteristic = characteristic;
+    }
+
+    @Override
+    protected void transaction(GattTransactionCallback callback) {
+        super.transaction(callback);
+        getConnection().setState(GattState.ENABLING_CHARACTERISTIC_NOTIFICATION);
+        BluetoothGatt localGatt = getConnection().getGatt();
+        if (localGatt == null) {
+            Timber.w("Couldn't enable notifications because gatt was null");
+            fail(callback, GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_FAILURE);
+            return;
+        }
+        configuration = getConfigurationFor(characteristic);
+        descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIGURATION);
+        if (configuration == null || descriptor == null) {
+            Timber.w("[%s] %s can't notify or indicate, or has no client characteristic configuration descriptor", getDevice(), characteristic.getUuid());
+            fail(callback, GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_FAILURE);
+            return;
+        }
+        try {
+            if (!localGatt.setCharacteristicNotification(characteristic, true)) {
+                fail(callback, GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_FAILURE);
+                return;
+            }
+        } catch (NullPointerException ex) {
+            Timber.w(ex, "[%s] We are going to fail this tx due to the stack NPE, this is probably poor peripheral behavior, this should become a FW bug.", getDevice());
+            fail(callback, GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_FAILURE);
+            Strategy strategy = strategyProvider.
+                getStrategyForSituation(getConnection(),
+                    Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
+            if (strategy != null) {
+                strategy.applyStrategy();
+            }
+            return;
+        }
+        getConnection().onNotificationsEnabled(characteristic);
+        BluetoothGattService service = characteristic.getService();
+        if (service != null && Arrays.equals(configuration,
+            getConnection().getWrittenClientCharacteristicConfiguration(service.getUuid(), characteristic.getUuid()))) {
+            Timber.v("[%s] The peripheral already has %s configured, skipping the descriptor write", getDevice(), characteristic.getUuid());
+            getConnection().setState(GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS);
+            TransactionResult.Builder builder = getResultBuilder()
+                .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+                .responseStatus(GattStatus.GATT_SUCCESS.ordinal());
+            postToCallbackThread(() -> {
+                callCallbackWithTransactionResultAndRelease(callback, builder.build());
+                getConnection().setState(GattState.IDLE);
+            });
+            return;
+        }
+        Strategy strategy = strategyProvider.
+            getStrategyForSituation(getConnection(),
+                Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT);
+        if (strategy instanceof DelaySubscriptionResultStrategy) {
+            // the descriptor write must not follow the subscription too closely on this phone
+            getConnection().getMainHandler().postDelayed(() -> writeConfiguration(callback),
+                ((DelaySubscriptionResultStrategy) strategy).getDelayMillis());
+        } else {
+            writeConfiguration(callback);
+        }
+    }
+
+    private void writeConfiguration(GattTransactionCallback callback) {
+        if (!isInFlight()) {
+            // timed out while we waited
+            return;
+        }
+        BluetoothGatt localGatt = getConnection().getGatt();
+        BluetoothGattDescriptor localDescriptor = descriptor;
+        getConnection().setState(GattState.WRITING_DESCRIPTOR);
+        boolean success = false;
+        if (localGatt != null && localDescriptor != null) {
+            try {
+                localDescriptor.setValue(configuration);
+                success = localGatt.writeDescriptor(localDescriptor);
+            } catch (NullPointerException ex) {
+                Timber.w(ex, "[%s] We are going to fail this tx due to the stack NPE, this is probably poor peripheral behavior, this should become a FW bug.", getDevice());
+            }
+        } else {
+            Timber.w("Could not write the client characteristic configuration descriptor because gatt was null");
+        }
+        if (!success) {
+            fail(callback, GattState.WRITE_DESCRIPTOR_FAILURE);
+        }
+    }
+
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptorCopy descriptor, int status) {
+        BluetoothGattDescriptor written = this.descriptor;
+        if (written == null || !written.getUuid().equals(descriptor.getUuid())) {
+            return;
+        }
+        TransactionResult.Builder builder = getResultBuilder()
+            .descriptorUuid(descriptor.getUuid())
+            .responseStatus(GattDisconnectReason.getReasonForCode(status).ordinal());
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            getConnection().onDescriptorWritten(written);
+            getConnection().setState(GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS);
+            builder.resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+                .gattState(getConnection().getGattState());
+            callCallbackWithTransactionResultAndRelease(callback, builder.build());
+            getConnection().setState(GattState.IDLE);
+        } else {
+            getConnection().setState(GattState.WRITE_DESCRIPTOR_FAILURE);
+            builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE)
+                .gattState(getConnection().getGattState());
+            callCallbackWithTransactionResultAndRelease(callback, builder.build());
+        }
+    }
+
+    private void fail(GattTransactionCallback callback, GattState failureState) {
+        getConnection().setState(failureState);
+        TransactionResult.Builder builder = getResultBuilder()
+            .responseStatus(GattStatus.GATT_UNKNOWN.ordinal())
+            .resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
+        postToCallbackThread(() -> {
+            callCallbackWithTransactionResultAndRelease(callback, builder.build());
+            // the connection can still be used
+            getConnection().setState(GattState.IDLE);
+        });
+    }
+
+    private TransactionResult.Builder getResultBuilder() {
+        TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(getName())
+            .characteristicUuid(characteristic.getUuid())
+            .gattState(getConnection().getGattState())
+            .data(configuration);
+        BluetoothGattService service = characteristic.getService();
+        if (service != null) {
+            builder.serviceUuid(service.getUuid());
+        }
+        return builder;
+    }
+
+    /**
+     * @return The value that turns notifications on, or indications if the characteristic can't
+     * notify, or null if it can do neither
+     */
+    @Nullable
+    static byte[] getConfigurationFor(@NonNull BluetoothGattCharacteristic characteristic) {
+        int properties = characteristic.getProperties();
+        if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+            return BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        } else if ((properties & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
+            return BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        }
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -45,6 +45,8 @@ public class GattClientDiscoverServicesTransaction extends GattClientTransaction
             Timber.w("The gatt was null during discovery, are you sure the connection wasn't cancelled?  Please make sure to handle the transaction results.");
             success = false;
         } else {
+            // the platform drops its tree when discovery starts, so must we
+            getConnection().invalidateServiceIndex();
             success = localGatt.discoverServices();
         }
         if(!success) {
@@ -52,7 +54,7 @@ public class GattClientDiscoverServicesTransaction extends GattClientTransaction
             TransactionResult.Builder builder = new TransactionResult.Builder();
             builder.gattState(getConnection().getGattState())
                     .resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getConnection().setState(GattState.IDLE);
             });
@@ -31,6 +31,7 @@ public class GattConnectTransaction extends GattClientTransaction {
 
     public static final String NAME = "GattConnectTransaction";
     private static final long CONNECTION_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private int admissionPriority;
 
     public GattConnectTransaction(GattConnection connection, GattState successEndState) {
         super(connection, successEndState);
@@ -41,6 +42,20 @@ public class GattConnectTransaction extends GattClientTransaction {
         super(connection, successEndState, timeoutMillis);
     }
 
+    /**
+     * Will set the priority of this connect when it has to wait for admission, see
+     * {@link com.fitbit.bluetooth.fbgatt.FitbitGatt#setConnectionAdmissionLimits(int, int)}
+     *
+     * @param admissionPriority Higher priority connects are admitted first, the default is zero
+     */
+    public void setAdmissionPriority(int admissionPriority) {
+        this.admissionPriority = admissionPriority;
+    }
+
+    public int getAdmissionPriority() {
+        return admissionPriority;
+    }
+
     @Override
     protected void transaction(GattTransactionCallback callback) {
         super.transaction(callback);
@@ -47,7 +47,7 @@ public class GetGattServerServicesTransaction extends GattServerTransaction {
         builder.serverServices(gattServices)
                 .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
                 .gattState(getGattServer().getGattState());
-        mainThreadHandler.post(() -> {
+        postToCallbackThread(() -> {
             callCallbackWithTransactionResultAndRelease(callback, builder.build());
             getGattServer().setState(GattState.IDLE);
         });
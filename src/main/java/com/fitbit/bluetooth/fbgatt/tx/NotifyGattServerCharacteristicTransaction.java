@@ -21,6 +21,8 @@ import com.fitbit.bluetooth.fbgatt.util.GattStatus;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
+import java.util.Locale;
+import androidx.annotation.RestrictTo;
 import timber.log.Timber;
 
 /**
@@ -31,9 +33,9 @@ import timber.log.Timber;
 
 public class NotifyGattServerCharacteristicTransaction extends GattServerTransaction {
     private static final String NAME = "NotifyGattServerCharacteristicTransaction";
-    protected final BluetoothGattCharacteristic characteristic;
-    private final boolean confirm;
-    private final FitbitBluetoothDevice device;
+    protected BluetoothGattCharacteristic characteristic;
+    private boolean confirm;
+    private FitbitBluetoothDevice device;
 
     public NotifyGattServerCharacteristicTransaction(GattServerConnection connection, FitbitBluetoothDevice device, GattState successEndState, BluetoothGattCharacteristic characteristic, boolean confirm) {
         super(connection, successEndState);
@@ -49,6 +51,26 @@ public class NotifyGattServerCharacteristicTransaction extends GattServerTransac
         this.device = device;
     }
 
+    /**
+     * Will point a pooled transaction at a new characteristic value, this is only for use by the transaction pools
+     *
+     * @param device The central to notify
+     * @param successEndState The state to end in on success
+     * @param characteristic The characteristic holding the value to notify
+     * @param confirm true to indicate, false to notify
+     * @throws IllegalStateException if the transaction has been started and not reset
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void reuse(FitbitBluetoothDevice device, GattState successEndState, BluetoothGattCharacteristic characteristic, boolean confirm) {
+        if (hasStarted()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] The transaction must be reset before it is reused", getDevice()));
+        }
+        setSuccessState(successEndState);
+        this.device = device;
+        this.characteristic = characteristic;
+        this.confirm = confirm;
+    }
+
     @Override
     protected void transaction(GattTransactionCallback callback) {
         super.transaction(callback);
@@ -69,13 +91,11 @@ public class NotifyGattServerCharacteristicTransaction extends GattServerTransac
             getGattServer().setState(GattState.NOTIFY_CHARACTERISTIC_FAILURE);
             builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE)
                     .gattState(getGattServer().getGattState());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getGattServer().setState(GattState.IDLE);
-                // we want to apply this strategy to every phone, so we will provide an empty target android
-                // device
                 Strategy strategy = strategyProvider.
-                        getStrategyForPhoneAndGattConnection(null, null,
+                        getStrategyForSituation(null,
                                 Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                 if(strategy != null) {
                     strategy.applyStrategy();
@@ -70,13 +70,11 @@ public class ReadGattDescriptorTransaction extends GattClientTransaction {
             getConnection().setState(GattState.READ_DESCRIPTOR_FAILURE);
             builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE)
                 .gattState(getConnection().getGattState());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getConnection().setState(GattState.IDLE);
-                // we want to apply this strategy to every phone, so we will provide an empty target android
-                // device
                 Strategy strategy = strategyProvider.
-                    getStrategyForPhoneAndGattConnection(null, getConnection(),
+                    getStrategyForSituation(getConnection(),
                         Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                 if (strategy != null) {
                     strategy.applyStrategy();
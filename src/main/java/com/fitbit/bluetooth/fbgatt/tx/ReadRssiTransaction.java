@@ -49,7 +49,7 @@ public class ReadRssiTransaction extends GattClientTransaction {
             TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(getName());
             builder.gattState(getConnection().getGattState())
                     .resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getConnection().setState(GattState.IDLE);
             });
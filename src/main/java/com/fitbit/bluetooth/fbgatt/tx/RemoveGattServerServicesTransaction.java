@@ -50,7 +50,7 @@ public class RemoveGattServerServicesTransaction extends GattServerTransaction {
             builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE);
         }
         builder.gattState(getGattServer().getGattState());
-        mainThreadHandler.post(() -> {
+        postToCallbackThread(() -> {
             callCallbackWithTransactionResultAndRelease(callback, builder.build());
             getGattServer().setState(GattState.IDLE);
         });
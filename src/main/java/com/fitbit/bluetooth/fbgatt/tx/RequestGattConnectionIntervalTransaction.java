@@ -81,16 +81,17 @@ public class RequestGattConnectionIntervalTransaction extends GattClientTransact
                 getConnection().setState(GattState.REQUEST_CONNECTION_INTERVAL_FAILURE);
                 builder.responseStatus(GattStatus.GATT_NO_RESOURCES.getCode());
                 builder.gattState(getConnection().getGattState());
-                mainThreadHandler.post(() -> {
+                postToCallbackThread(() -> {
                     callCallbackWithTransactionResultAndRelease(callback, builder.build());
                     // even if we can't change the interval, we can still use the connection
                     getConnection().setState(GattState.IDLE);
                 });
             } else {
                 getConnection().setState(GattState.REQUEST_CONNECTION_INTERVAL_SUCCESS);
+                getConnection().setRequestedConnectionSpeed(speed);
                 builder.gattState(getConnection().getGattState());
                 builder.resultStatus(TransactionResult.TransactionResultStatus.SUCCESS);
-                mainThreadHandler.post(() -> {
+                postToCallbackThread(() -> {
                     callCallbackWithTransactionResultAndRelease(callback, builder.build());
                     // we were able to send the request, so we good.
                     getConnection().setState(GattState.IDLE);
@@ -100,7 +101,7 @@ public class RequestGattConnectionIntervalTransaction extends GattClientTransact
             getConnection().setState(GattState.REQUEST_CONNECTION_INTERVAL_FAILURE);
             builder.responseStatus(GattStatus.GATT_NO_RESOURCES.getCode());
             builder.gattState(getConnection().getGattState());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 // even if we can't change the interval, we can still use the connection
                 getConnection().setState(GattState.IDLE);
@@ -17,6 +17,8 @@ import com.fitbit.bluetooth.fbgatt.Situation;
 import com.fitbit.bluetooth.fbgatt.TransactionResult;
 import com.fitbit.bluetooth.fbgatt.strategies.Strategy;
 import com.fitbit.bluetooth.fbgatt.util.GattStatus;
+import java.util.Locale;
+import androidx.annotation.RestrictTo;
 import timber.log.Timber;
 
 /**
@@ -28,11 +30,11 @@ import timber.log.Timber;
 
 public class SendGattServerResponseTransaction extends GattServerTransaction {
     static final String NAME = "SendGattServerResponseTransaction";
-    private final FitbitBluetoothDevice device;
-    protected final int requestId;
-    protected final int offset;
-    protected final byte[] value;
-    final int status;
+    private FitbitBluetoothDevice device;
+    protected int requestId;
+    protected int offset;
+    protected byte[] value;
+    int status;
 
     public SendGattServerResponseTransaction(GattServerConnection server, GattState successEndState,
                                              FitbitBluetoothDevice device, int requestId,
@@ -56,6 +58,31 @@ public class SendGattServerResponseTransaction extends GattServerTransaction {
         this.value = value;
     }
 
+    /**
+     * Will point a pooled transaction at a new request, this is only for use by the transaction pools
+     *
+     * @param successEndState The state to end in on success
+     * @param device The central that made the request
+     * @param requestId The id of the request being answered
+     * @param status The gatt status to respond with
+     * @param offset The offset of the value
+     * @param value The value to respond with
+     * @throws IllegalStateException if the transaction has been started and not reset
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void reuse(GattState successEndState, FitbitBluetoothDevice device, int requestId,
+                      int status, int offset, byte[] value) {
+        if (hasStarted()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] The transaction must be reset before it is reused", getDevice()));
+        }
+        setSuccessState(successEndState);
+        this.device = device;
+        this.requestId = requestId;
+        this.status = status;
+        this.offset = offset;
+        this.value = value;
+    }
+
     @Override
     protected void transaction(GattTransactionCallback callback) {
         super.transaction(callback);
@@ -68,6 +95,10 @@ public class SendGattServerResponseTransaction extends GattServerTransaction {
             Timber.w(ex,"[%s] We are going to fail this tx due to the stack NPE, this is probably poor peripheral behavior, this should become a FW bug.", getDevice());
             success = false;
         }
+        if (device.getBtDevice() != null) {
+            // a client characteristic configuration write only counts once it is accepted
+            getGattServer().onResponseSent(device.getBtDevice(), requestId, success ? status : GattStatus.GATT_ERROR.getCode());
+        }
         if (success) {
             getGattServer().setState(GattState.SEND_SERVER_RESPONSE_SUCCESS);
             builder.gattState(getGattServer().getGattState());
@@ -76,7 +107,7 @@ public class SendGattServerResponseTransaction extends GattServerTransaction {
             builder.data(value).
                     requestId(requestId).
                     offset(offset);
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getGattServer().setState(GattState.IDLE);
             });
@@ -88,13 +119,11 @@ public class SendGattServerResponseTransaction extends GattServerTransaction {
             builder.data(value).
                     requestId(requestId).
                     offset(offset);
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getGattServer().setState(GattState.IDLE);
-                // we want to apply this strategy to every phone, so we will provide an empty target android
-                // device
                 Strategy strategy = strategyProvider.
-                        getStrategyForPhoneAndGattConnection(null, null,
+                        getStrategyForSituation(null,
                                 Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                 if(strategy != null) {
                     strategy.applyStrategy();
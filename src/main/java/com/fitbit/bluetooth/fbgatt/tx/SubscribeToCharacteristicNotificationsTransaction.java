@@ -8,7 +8,6 @@
 
 package com.fitbit.bluetooth.fbgatt.tx;
 
-import com.fitbit.bluetooth.fbgatt.AndroidDevice;
 import com.fitbit.bluetooth.fbgatt.GattClientTransaction;
 import com.fitbit.bluetooth.fbgatt.GattConnection;
 import com.fitbit.bluetooth.fbgatt.GattState;
@@ -62,6 +61,7 @@ public class SubscribeToCharacteristicNotificationsTransaction extends GattClien
         }
         try {
             if (localGatt.setCharacteristicNotification(this.characteristic, true)) {
+                getConnection().onNotificationsEnabled(this.characteristic);
                 getConnection().setState(GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS);
                 Timber.v("[%s] Notification success on %s", getDevice(), this.characteristic.getUuid());
                 builder.characteristicUuid(characteristic.getUuid())
@@ -85,16 +85,15 @@ public class SubscribeToCharacteristicNotificationsTransaction extends GattClien
              * which is likely some sort of Android bug as the descriptor write should be entirely
              * unrelated to the subscription.
              *
-             * For now we are going to leave this as an un-matching device so that we can test further
-             * but I.O. believes that we will inevitably require a delay, and the strategyDevice will
-             * need to be null to match all phones.
+             * For now no phone is listed for this situation in the bundled strategy rules so that
+             * we can test further but I.O. believes that we will inevitably require a delay, and a
+             * rule matching all phones will need to be added.
              */
-            AndroidDevice strategyDevice = strategyProvider.getUnmatchableDevice();
             Strategy strategy = strategyProvider.
-                    getStrategyForPhoneAndGattConnection(strategyDevice, getConnection(),
+                    getStrategyForSituation(getConnection(),
                             Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT);
             if (strategy == null) {
-                mainThreadHandler.post(() -> {
+                postToCallbackThread(() -> {
                     callCallbackWithTransactionResultAndRelease(callback, builder.build());
                     // this can fail, but we are still idle because we can use the connection
                     getConnection().setState(GattState.IDLE);
@@ -104,8 +103,6 @@ public class SubscribeToCharacteristicNotificationsTransaction extends GattClien
             }
         } catch (NullPointerException ex) {
             Timber.w(ex, "[%s] We are going to fail this tx due to the stack NPE, this is probably poor peripheral behavior, this should become a FW bug.", getDevice());
-            // we want to apply this strategy to every phone, so we will provide an empty target android
-            // device
             getConnection().setState(GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_FAILURE);
             builder.responseStatus(GattDisconnectReason.getReasonForCode(GattStatus.GATT_UNKNOWN.getCode()).ordinal())
                     .characteristicUuid(characteristic.getUuid())
@@ -114,11 +111,11 @@ public class SubscribeToCharacteristicNotificationsTransaction extends GattClien
                     .responseStatus(GattStatus.GATT_UNKNOWN.ordinal())
                     .data(characteristic.getValue())
                     .serviceUuid(characteristic.getService().getUuid());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
             });
             Strategy strategy = strategyProvider.
-                    getStrategyForPhoneAndGattConnection(null, getConnection(),
+                    getStrategyForSituation(getConnection(),
                             Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
             if (strategy != null) {
                 strategy.applyStrategy();
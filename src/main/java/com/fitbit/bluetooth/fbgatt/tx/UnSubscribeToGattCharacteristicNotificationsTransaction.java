@@ -8,7 +8,6 @@
 
 package com.fitbit.bluetooth.fbgatt.tx;
 
-import com.fitbit.bluetooth.fbgatt.AndroidDevice;
 import com.fitbit.bluetooth.fbgatt.GattClientTransaction;
 import com.fitbit.bluetooth.fbgatt.GattConnection;
 import com.fitbit.bluetooth.fbgatt.GattState;
@@ -55,10 +54,8 @@ public class UnSubscribeToGattCharacteristicNotificationsTransaction extends Gat
                 success = localGatt.setCharacteristicNotification(characteristic, false);
             } catch (NullPointerException ex) {
                 Timber.w(ex, "[%s] We are going to fail this tx due to the stack NPE, this is probably poor peripheral behavior, this should become a FW bug.", getDevice());
-                // we want to apply this strategy to every phone, so we will provide an empty target android
-                // device
                 Strategy strategy = strategyProvider.
-                    getStrategyForPhoneAndGattConnection(null, getConnection(),
+                    getStrategyForSituation(getConnection(),
                         Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                 if (strategy != null) {
                     strategy.applyStrategy();
@@ -68,22 +65,22 @@ public class UnSubscribeToGattCharacteristicNotificationsTransaction extends Gat
             Timber.w("Could not unsubscribe, the gatt was null");
         }
         if (success) {
+            getConnection().onNotificationsDisabled(characteristic);
             /*
              * this will need to be delayed in its response because if a developer chains a descriptor
              * write to this operation at least on the Pixel 3 with Antares, it can lead to a 133
              * which is likely some sort of Android bug as the descriptor write should be entirely
              * unrelated to the subscription.
              *
-             * For now we are going to leave this as an un-matching device so that we can test further
-             * but I.O. believes that we will inevitably require a delay, and the strategyDevice will
-             * need to be null to match all phones.
+             * For now no phone is listed for this situation in the bundled strategy rules so that
+             * we can test further but I.O. believes that we will inevitably require a delay, and a
+             * rule matching all phones will need to be added.
              */
-            AndroidDevice strategyDevice = strategyProvider.getUnmatchableDevice();
             Strategy strategy = strategyProvider.
-                    getStrategyForPhoneAndGattConnection(strategyDevice, getConnection(),
+                    getStrategyForSituation(getConnection(),
                             Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT);
             if(strategy == null) {
-                mainThreadHandler.post(() -> {
+                postToCallbackThread(() -> {
                     if(characteristic.getUuid().equals(this.characteristic.getUuid())) {
                         getConnection().setState(GattState.DISABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS);
                         Timber.v("[%s] Your characteristic had notifications disabled", getDevice());
@@ -112,7 +109,7 @@ public class UnSubscribeToGattCharacteristicNotificationsTransaction extends Gat
                     .responseStatus(GattStatus.GATT_UNKNOWN.ordinal())
                     .data(characteristic.getValue())
                     .serviceUuid(characteristic.getService().getUuid());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
             });
         }
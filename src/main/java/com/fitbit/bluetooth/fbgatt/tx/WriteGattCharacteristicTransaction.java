@@ -19,7 +19,9 @@ import com.fitbit.bluetooth.fbgatt.strategies.Strategy;
 import com.fitbit.bluetooth.fbgatt.util.GattDisconnectReason;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
+import java.util.Locale;
 import androidx.annotation.Nullable;
+import androidx.annotation.RestrictTo;
 import timber.log.Timber;
 
 /**
@@ -45,6 +47,22 @@ public class WriteGattCharacteristicTransaction extends GattClientTransaction {
         this.characteristic = characteristic;
     }
 
+    /**
+     * Will point a pooled transaction at a new characteristic, this is only for use by the transaction pools
+     *
+     * @param successEndState The state to end in on success
+     * @param characteristic The characteristic to write, holding the value to write
+     * @throws IllegalStateException if the transaction has been started and not reset
+     */
+    @RestrictTo(RestrictTo.Scope.LIBRARY)
+    public void reuse(GattState successEndState, BluetoothGattCharacteristic characteristic) {
+        if (hasStarted()) {
+            throw new IllegalStateException(String.format(Locale.ENGLISH, "[%s] The transaction must be reset before it is reused", getDevice()));
+        }
+        setSuccessState(successEndState);
+        this.characteristic = characteristic;
+    }
+
     @Override
     protected void transaction(GattTransactionCallback callback) {
         super.transaction(callback);
@@ -72,13 +90,11 @@ public class WriteGattCharacteristicTransaction extends GattClientTransaction {
             getConnection().setState(GattState.WRITE_CHARACTERISTIC_FAILURE);
             builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE)
                     .gattState(getConnection().getGattState());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getConnection().setState(GattState.IDLE);
-                // we want to apply this strategy to every phone, so we will provide an empty target android
-                // device
                 Strategy strategy = strategyProvider.
-                        getStrategyForPhoneAndGattConnection(null, getConnection(),
+                        getStrategyForSituation(getConnection(),
                                 Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                 if(strategy != null) {
                     strategy.applyStrategy();
@@ -71,13 +71,11 @@ public class WriteGattDescriptorTransaction extends GattClientTransaction {
             getConnection().setState(GattState.WRITE_DESCRIPTOR_FAILURE);
             builder.resultStatus(TransactionResult.TransactionResultStatus.FAILURE)
                     .gattState(getConnection().getGattState());
-            mainThreadHandler.post(() -> {
+            postToCallbackThread(() -> {
                 callCallbackWithTransactionResultAndRelease(callback, builder.build());
                 getConnection().setState(GattState.IDLE);
-                // we want to apply this strategy to every phone, so we will provide an empty target android
-                // device
                 Strategy strategy = strategyProvider.
-                        getStrategyForPhoneAndGattConnection(null, getConnection(),
+                        getStrategyForSituation(getConnection(),
                                 Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
                 if(strategy != null) {
                     strategy.applyStrategy();
@@ -92,6 +90,7 @@ public class WriteGattDescriptorTransaction extends GattClientTransaction {
         builder.responseStatus(GattDisconnectReason.getReasonForCode(status).ordinal());
         if (status == BluetoothGatt.GATT_SUCCESS) {
             getConnection().setState(GattState.WRITE_DESCRIPTOR_SUCCESS);
+            getConnection().onDescriptorWritten(this.descriptor);
             builder.descriptorUuid(descriptor.getUuid())
                     .rssi(getConnection().getDevice().getRssi())
                     .data(descriptor.getValue())
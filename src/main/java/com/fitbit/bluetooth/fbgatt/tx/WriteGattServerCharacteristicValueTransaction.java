@@ -80,7 +80,7 @@ public class WriteGattServerCharacteristicValueTransaction extends GattServerTra
             Timber.w(ex,"[%s] We are going to fail this tx due to the stack NPE, this is probably poor peripheral behavior, this should become a FW bug.", getDevice());
             respondWithError(localCharacteristic, callback);
             Strategy strategy = strategyProvider.
-                    getStrategyForPhoneAndGattConnection(null, null,
+                    getStrategyForSituation(null,
                             Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION);
             if (strategy != null) {
                 strategy.applyStrategy();
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.HandlerThread;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallbackDispatcherTest {
+
+    private static final String[] ADDRESSES = new String[]{
+        "02:00:00:00:00:01", "02:00:00:00:00:02", "02:00:00:00:00:03", "02:00:00:00:00:04",
+        "02:00:00:00:00:05", "02:00:00:00:00:06", "02:00:00:00:00:07", "02:00:00:00:00:08"};
+
+    private HandlerThread defaultThread;
+    private CallbackDispatcher dispatcher;
+
+    @Before
+    public void before() {
+        defaultThread = new HandlerThread("Test Default Callback Thread");
+        defaultThread.start();
+    }
+
+    @After
+    public void after() {
+        if (dispatcher != null) {
+            dispatcher.quit();
+        }
+        defaultThread.quitSafely();
+    }
+
+    @Test
+    public void singleShardUsesTheDefaultThread() {
+        dispatcher = new CallbackDispatcher(defaultThread, 1);
+        for (String address : ADDRESSES) {
+            assertSame(defaultThread.getLooper(), dispatcher.getHandler(address).getLooper());
+        }
+        assertSame(dispatcher.getDefaultHandler(), dispatcher.getHandler((String) null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroShardsIsRejected() {
+        dispatcher = new CallbackDispatcher(defaultThread, 0);
+    }
+
+    @Test
+    public void deviceAlwaysMapsToTheSameShard() {
+        dispatcher = new CallbackDispatcher(defaultThread, 4);
+        for (String address : ADDRESSES) {
+            int shard = dispatcher.shardFor(address);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, dispatcher.shardFor(new String(address.toCharArray())));
+            assertSame(dispatcher.getHandler(address), dispatcher.getHandler(address));
+        }
+    }
+
+    @Test
+    public void callbacksStayOrderedPerDevice() throws InterruptedException {
+        dispatcher = new CallbackDispatcher(defaultThread, 4);
+        int perDevice = 200;
+        List<List<Integer>> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(ADDRESSES.length * perDevice);
+        for (int i = 0; i < ADDRESSES.length; i++) {
+            received.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        // interleave the posts the way the stack would for several devices at once
+        for (int sequence = 0; sequence < perDevice; sequence++) {
+            for (int device = 0; device < ADDRESSES.length; device++) {
+                final int value = sequence;
+                final List<Integer> sink = received.get(device);
+                dispatcher.getHandler(ADDRESSES[device]).post(() -> {
+                    sink.add(value);
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (List<Integer> sink : received) {
+            assertEquals(perDevice, sink.size());
+            for (int i = 0; i < perDevice; i++) {
+                assertEquals(i, sink.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void slowDeviceDoesNotDelayDeviceOnAnotherShard() throws InterruptedException {
+        dispatcher = new CallbackDispatcher(defaultThread, 4);
+        String slowDevice = ADDRESSES[0];
+        String fastDevice = null;
+        for (String address : ADDRESSES) {
+            if (dispatcher.shardFor(address) != dispatcher.shardFor(slowDevice)) {
+                fastDevice = address;
+                break;
+            }
+        }
+        assertNotEquals(null, fastDevice);
+        assertNotSame(dispatcher.getHandler(slowDevice), dispatcher.getHandler(fastDevice));
+        long slowListenerMillis = 1000;
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch fastDelivered = new CountDownLatch(1);
+        dispatcher.getHandler(slowDevice).post(() -> {
+            slowStarted.countDown();
+            try {
+                Thread.sleep(slowListenerMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(slowStarted.await(1, TimeUnit.SECONDS));
+        long postedAt = System.nanoTime();
+        long[] latency = new long[1];
+        dispatcher.getHandler(fastDevice).post(() -> {
+            latency[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - postedAt);
+            fastDelivered.countDown();
+        });
+        // on a single shared thread this would only be delivered after the slow listener returned
+        assertTrue(fastDelivered.await(slowListenerMillis / 2, TimeUnit.MILLISECONDS));
+        assertTrue("fast device waited " + latency[0] + "ms", latency[0] < slowListenerMillis / 2);
+    }
+
+    @Test
+    public void shutdownStopsTheShardThreads() throws InterruptedException {
+        FitbitGatt.setInstance(null);
+        FitbitGatt gatt = FitbitGatt.getInstance();
+        gatt.setCallbackDispatchShardCount(4);
+        List<Thread> shardThreads = new ArrayList<>();
+        for (String address : ADDRESSES) {
+            Thread thread = gatt.getCallbackDispatcher().getHandler(address).getLooper().getThread();
+            if (thread != gatt.getFitbitGattAsyncOperationThread() && !shardThreads.contains(thread)) {
+                shardThreads.add(thread);
+            }
+        }
+        assertTrue(shardThreads.size() > 0);
+        gatt.shutdown();
+        for (Thread thread : shardThreads) {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+            assertTrue(thread.getName(), !thread.isAlive());
+        }
+        assertEquals(1, gatt.getCallbackDispatcher().getShardCount());
+        assertTrue(gatt.getFitbitGattAsyncOperationThread().isAlive());
+        FitbitGatt.setInstance(null);
+    }
+}
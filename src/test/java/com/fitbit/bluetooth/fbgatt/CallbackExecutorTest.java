@@ -0,0 +1,109 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction;
+import android.content.Context;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class CallbackExecutorTest {
+
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+    private final ExecutorService callerExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "caller"));
+    private GattConnection connection;
+
+    @Before
+    public void before() {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        connection = new GattConnection(device, context.getMainLooper());
+        connection.setState(GattState.IDLE);
+        FitbitGatt.getInstance().putConnectionIntoDevices(device, connection);
+    }
+
+    @After
+    public void after() {
+        callerExecutor.shutdownNow();
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void failureIsDeliveredOnTheCallersExecutor() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicReference<String> thread = new AtomicReference<>();
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        // there is no gatt, so the read fails before it reaches the stack
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), callerExecutor, transactionResult -> {
+            thread.set(Thread.currentThread().getName());
+            result.set(transactionResult);
+            delivered.countDown();
+        });
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+        assertEquals("caller", thread.get());
+        assertEquals(TransactionResult.TransactionResultStatus.FAILURE, result.get().getResultStatus());
+        CallbackLatencyStats stats = FitbitGatt.getInstance().getCallbackLatencyStats();
+        assertEquals(1, stats.getExecutorHops());
+        assertEquals(0, stats.getMainThreadHops());
+    }
+
+    @Test
+    public void connectionDefaultAppliesUnlessTheTransactionHasItsOwn() {
+        Executor connectionDefault = Runnable::run;
+        Executor own = Runnable::run;
+        connection.setCallbackExecutor(connectionDefault);
+        ReadRssiTransaction defaulted = new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS);
+        connection.runTx(defaulted, result -> { });
+        assertSame(connectionDefault, defaulted.getCallbackExecutor());
+
+        ReadRssiTransaction withItsOwn = new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS);
+        withItsOwn.setCallbackExecutor(own);
+        connection.runTx(withItsOwn, result -> { });
+        assertSame(own, withItsOwn.getCallbackExecutor());
+    }
+
+    @Test
+    public void withoutAnExecutorTheMainThreadHopIsCounted() throws InterruptedException {
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        ReadRssiTransaction tx = new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS);
+        connection.runTx(tx, result::set);
+        assertNull(tx.getCallbackExecutor());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (result.get() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertNotNull(result.get());
+        assertEquals(1, FitbitGatt.getInstance().getCallbackLatencyStats().getMainThreadHops());
+        assertEquals(0, FitbitGatt.getInstance().getCallbackLatencyStats().getExecutorHops());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
+import android.os.Looper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConnectionAdmissionControllerTest {
+
+    private ConnectionAdmissionController controller;
+    private List<String> connected;
+    private List<String> refused;
+
+    @Before
+    public void before() {
+        controller = new ConnectionAdmissionController();
+        connected = new ArrayList<>();
+        refused = new ArrayList<>();
+    }
+
+    @Test
+    public void unlimitedAdmitsEverythingImmediately() {
+        for (int i = 0; i < 10; i++) {
+            request(connection("device" + i, -60), 0);
+        }
+        assertEquals(10, connected.size());
+        ConnectionAdmissionStats stats = controller.getStats();
+        assertEquals(0, stats.getQueuedConnects());
+        assertEquals(10, stats.getInFlightConnects());
+        assertEquals(0, stats.getMaxWaitMillis());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroLimitIsRejected() {
+        controller.setLimits(0, 4);
+    }
+
+    @Test
+    public void inFlightLimitIsRespected() {
+        controller.setLimits(2, ConnectionAdmissionController.UNLIMITED);
+        GattConnection first = connection("first", -60);
+        GattConnection second = connection("second", -60);
+        request(first, 0);
+        request(second, 0);
+        request(connection("third", -60), 0);
+        assertEquals(Arrays.asList("first", "second"), connected);
+        assertEquals(1, controller.getStats().getQueuedConnects());
+        controller.onConnectFinished(first, true);
+        assertEquals(Arrays.asList("first", "second", "third"), connected);
+        assertEquals(1, controller.getStats().getActiveLinks());
+    }
+
+    @Test
+    public void activeLinkLimitCountsEstablishedLinks() {
+        controller.setLimits(2, 2);
+        GattConnection first = connection("first", -60);
+        GattConnection second = connection("second", -60);
+        request(first, 0);
+        request(second, 0);
+        controller.onConnectFinished(first, true);
+        controller.onConnectFinished(second, true);
+        request(connection("third", -60), 0);
+        assertEquals(Arrays.asList("first", "second"), connected);
+        // a failed connect never held a link so releasing it changes nothing
+        controller.onLinkReleased(connection("stranger", -60));
+        assertEquals(2, connected.size());
+        controller.onLinkReleased(second);
+        assertEquals(Arrays.asList("first", "second", "third"), connected);
+    }
+
+    @Test
+    public void failedConnectFreesItsSlot() {
+        controller.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+        GattConnection first = connection("first", -60);
+        request(first, 0);
+        request(connection("second", -60), 0);
+        controller.onConnectFinished(first, false);
+        assertEquals(Arrays.asList("first", "second"), connected);
+        assertEquals(0, controller.getStats().getActiveLinks());
+    }
+
+    @Test
+    public void waitingConnectsAreOrderedByPriorityThenRssiThenArrival() {
+        controller.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+        GattConnection blocker = connection("blocker", -60);
+        request(blocker, 0);
+        request(connection("weak", -90), 0);
+        request(connection("strongLate", -40), 0);
+        request(connection("unheard", 0), 0);
+        request(connection("urgent", -95), 5);
+        request(connection("strongLater", -40), 0);
+        connected.clear();
+        controller.setLimits(ConnectionAdmissionController.UNLIMITED, ConnectionAdmissionController.UNLIMITED);
+        assertEquals(Arrays.asList("urgent", "strongLate", "strongLater", "weak", "unheard"), connected);
+    }
+
+    @Test
+    public void starvedConnectIsServedAheadOfHigherPriority() {
+        controller.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+        GattConnection blocker = connection("blocker", -60);
+        request(blocker, 0);
+        request(connection("starving", -99), 0);
+        shadowOf(Looper.getMainLooper()).idleFor(ConnectionAdmissionController.STARVATION_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
+        request(connection("important", -30), 10);
+        controller.onConnectFinished(blocker, false);
+        assertEquals(Arrays.asList("blocker", "starving"), connected);
+    }
+
+    @Test
+    public void waitTimesAreReported() {
+        controller.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+        GattConnection first = connection("first", -60);
+        request(first, 0);
+        request(connection("second", -60), 0);
+        shadowOf(Looper.getMainLooper()).idleFor(400, TimeUnit.MILLISECONDS);
+        controller.onConnectFinished(first, true);
+        ConnectionAdmissionStats stats = controller.getStats();
+        assertEquals(2, stats.getAdmittedConnects());
+        assertEquals(400, stats.getMaxWaitMillis());
+        assertEquals(200, stats.getMeanWaitMillis());
+        assertEquals(1, stats.getInFlightConnects());
+    }
+
+    @Test
+    public void waitingConnectsAreRefusedWhenTheirConnectionGoesAway() {
+        controller.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+        GattConnection blocker = connection("blocker", -60);
+        GattConnection closed = connection("closed", -60);
+        request(blocker, 0);
+        request(closed, 0);
+        request(connection("other", -60), 0);
+        controller.refuseWaiting(closed);
+        assertEquals(Arrays.asList("closed"), refused);
+        assertEquals(1, controller.getStats().getQueuedConnects());
+        // bluetooth going off refuses the rest, the slot of the refused connects was never taken
+        controller.refuseAllWaiting();
+        assertEquals(Arrays.asList("closed", "other"), refused);
+        controller.onConnectFinished(blocker, false);
+        assertEquals(Arrays.asList("blocker"), connected);
+        assertEquals(0, controller.getStats().getInFlightConnects());
+    }
+
+    @Test
+    public void withdrawnConnectIsNeitherRunNorRefused() {
+        controller.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+        GattConnection blocker = connection("blocker", -60);
+        request(blocker, 0);
+        ConnectionAdmissionController.AdmissionRequest waiting = request(connection("withdrawn", -60), 0);
+        assertTrue(controller.withdraw(waiting));
+        assertFalse(controller.withdraw(waiting));
+        controller.onConnectFinished(blocker, false);
+        assertEquals(Arrays.asList("blocker"), connected);
+        assertTrue(refused.isEmpty());
+    }
+
+    @Test
+    public void closingConnectionsFailsTheirWaitingConnectsAlsoInsideComposites() throws InterruptedException {
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(ApplicationProvider.getApplicationContext());
+        try {
+            ConnectionAdmissionController admission = FitbitGatt.getInstance().getConnectionAdmissionController();
+            admission.setLimits(1, ConnectionAdmissionController.UNLIMITED);
+            admission.requestAdmission(connection("blocker", -60), 0, () -> connected.add("blocker"), null);
+            GattConnection direct = realConnection("02:00:00:00:00:01");
+            GattConnection composed = realConnection("02:00:00:00:00:02");
+            List<TransactionResult> results = Collections.synchronizedList(new ArrayList<>());
+            direct.runTx(new GattConnectTransaction(direct, GattState.CONNECTED), results::add);
+            composed.runTx(new CompositeClientTransaction(composed,
+                Collections.singletonList(new GattConnectTransaction(composed, GattState.CONNECTED))), results::add);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (admission.getStats().getQueuedConnects() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, admission.getStats().getQueuedConnects());
+
+            direct.close();
+            composed.close();
+            deadline = System.currentTimeMillis() + 2000;
+            while (results.size() < 2 && System.currentTimeMillis() < deadline) {
+                shadowOf(Looper.getMainLooper()).idleFor(10, TimeUnit.MILLISECONDS);
+                Thread.sleep(10);
+            }
+            assertEquals(2, results.size());
+            for (TransactionResult result : results) {
+                assertEquals(TransactionResult.TransactionResultStatus.FAILURE, result.getResultStatus());
+            }
+            assertEquals(0, admission.getStats().getQueuedConnects());
+            assertEquals(1, admission.getStats().getInFlightConnects());
+        } finally {
+            FitbitGatt.getInstance().shutdown();
+            FitbitGatt.setInstance(null);
+        }
+    }
+
+    private static GattConnection realConnection(String address) {
+        GattConnection connection = new GattConnection(new FitbitBluetoothDevice(ShadowBluetoothDevice.newInstance(address)),
+            Looper.getMainLooper());
+        connection.setState(GattState.IDLE);
+        return connection;
+    }
+
+    private ConnectionAdmissionController.AdmissionRequest request(GattConnection connection, int priority) {
+        String name = connection.getDevice().getName();
+        return controller.requestAdmission(connection, priority, () -> connected.add(name), () -> refused.add(name));
+    }
+
+    private static GattConnection connection(String name, int rssi) {
+        FitbitBluetoothDevice device = mock(FitbitBluetoothDevice.class);
+        when(device.getName()).thenReturn(name);
+        when(device.getRssi()).thenReturn(rssi);
+        GattConnection connection = mock(GattConnection.class);
+        when(connection.getDevice()).thenReturn(device);
+        return connection;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConnectionEvictionQueueTest {
+
+    private ConnectionEvictionQueue queue;
+    private List<GattConnection> evicted;
+
+    @Before
+    public void before() {
+        evicted = new ArrayList<>();
+        queue = new ConnectionEvictionQueue(new Handler(Looper.getMainLooper()), evicted::add);
+    }
+
+    @Test
+    public void connectionsAreEvictedExactlyWhenTheirDeadlinePasses() {
+        GattConnection early = mock(GattConnection.class);
+        GattConnection late = mock(GattConnection.class);
+        long now = SystemClock.elapsedRealtime();
+        queue.schedule(late, now + 2000);
+        queue.schedule(early, now + 1000);
+        assertEquals(2, queue.getPendingEvictions());
+        idleFor(999);
+        assertTrue(evicted.isEmpty());
+        idleFor(1);
+        assertEquals(Collections.singletonList(early), evicted);
+        idleFor(1000);
+        assertEquals(Arrays.asList(early, late), evicted);
+        idleFor(10000);
+        assertEquals(2, evicted.size());
+        assertEquals(0, queue.getPendingEvictions());
+    }
+
+    @Test
+    public void reschedulingMovesTheDeadline() {
+        GattConnection connection = mock(GattConnection.class);
+        long now = SystemClock.elapsedRealtime();
+        queue.schedule(connection, now + 1000);
+        idleFor(500);
+        queue.schedule(connection, now + 3000);
+        idleFor(1000);
+        assertTrue(evicted.isEmpty());
+        idleFor(1500);
+        assertEquals(Collections.singletonList(connection), evicted);
+    }
+
+    @Test
+    public void cancelledConnectionsAreNeverEvicted() {
+        GattConnection connection = mock(GattConnection.class);
+        queue.schedule(connection, SystemClock.elapsedRealtime() + 1000);
+        queue.cancel(connection);
+        idleFor(2000);
+        assertTrue(evicted.isEmpty());
+        assertEquals(0, queue.getPendingEvictions());
+    }
+
+    @Test
+    public void frequentReschedulesLeaveASingleDeadline() {
+        GattConnection connection = mock(GattConnection.class);
+        for (int i = 0; i < 10000; i++) {
+            queue.schedule(connection, SystemClock.elapsedRealtime() + 1000 + i);
+        }
+        assertEquals(1, queue.getPendingEvictions());
+        idleFor(20000);
+        assertEquals(Collections.singletonList(connection), evicted);
+    }
+
+    @Test
+    public void mapSizeIsSampledOverTime() {
+        queue.recordMapSize(1);
+        queue.recordMapSize(5);
+        idleFor(ConnectionEvictionQueue.SIZE_SAMPLE_INTERVAL_MILLIS);
+        queue.recordMapSize(3);
+        ConnectionMapStats stats = queue.getStats(3);
+        assertEquals(3, stats.getMapSize());
+        assertEquals(5, stats.getPeakMapSize());
+        assertEquals(2, stats.getSizeHistory().size());
+        assertEquals(5, stats.getSizeHistory().get(0).getSize());
+        assertEquals(3, stats.getSizeHistory().get(1).getSize());
+        for (int i = 0; i < ConnectionEvictionQueue.MAX_SIZE_SAMPLES * 2; i++) {
+            idleFor(ConnectionEvictionQueue.SIZE_SAMPLE_INTERVAL_MILLIS);
+            queue.recordMapSize(i);
+        }
+        assertEquals(ConnectionEvictionQueue.MAX_SIZE_SAMPLES, queue.getStats(0).getSizeHistory().size());
+    }
+
+    private static void idleFor(long millis) {
+        shadowOf(Looper.getMainLooper()).idleFor(millis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class DisconnectSettlePolicyTest {
+
+    private static final int PEER_TERMINATED = GattDisconnectReason.GATT_CONN_TERMINATE_PEER_USER.getCode();
+    private static final int LINK_TIMEOUT = GattDisconnectReason.GATT_CONN_TIMEOUT.getCode();
+    private static final int FAILED_TO_ESTABLISH = GattDisconnectReason.GATT_CONN_FAIL_ESTABLISH.getCode();
+    private static final int GATT_ERROR = 133;
+
+    private DisconnectSettlePolicy policy;
+
+    @Before
+    public void before() {
+        policy = new DisconnectSettlePolicy();
+    }
+
+    @Test
+    public void cleanDisconnectsAreRecognized() {
+        assertTrue(DisconnectSettlePolicy.isCleanDisconnect(0));
+        assertTrue(DisconnectSettlePolicy.isCleanDisconnect(PEER_TERMINATED));
+        assertTrue(DisconnectSettlePolicy.isCleanDisconnect(GattDisconnectReason.GATT_CONN_TERMINATE_LOCAL_HOST.getCode()));
+        assertFalse(DisconnectSettlePolicy.isCleanDisconnect(LINK_TIMEOUT));
+        assertFalse(DisconnectSettlePolicy.isCleanDisconnect(GATT_ERROR));
+    }
+
+    @Test
+    public void cleanDisconnectSettlesImmediately() {
+        assertEquals(0, policy.onDisconnected(PEER_TERMINATED, 4000));
+    }
+
+    @Test
+    public void linkHeldByThePeerWaitsForTheSupervisionTimeout() {
+        assertEquals(4000, policy.onDisconnected(FAILED_TO_ESTABLISH, 4000));
+        assertEquals(DisconnectSettlePolicy.DEFAULT_ERROR_SETTLE_MILLIS,
+            policy.onDisconnected(FAILED_TO_ESTABLISH, DisconnectSettlePolicy.UNKNOWN));
+        assertEquals(DisconnectSettlePolicy.MAX_SETTLE_MILLIS, policy.onDisconnected(FAILED_TO_ESTABLISH, 60000));
+    }
+
+    @Test
+    public void otherErrorsKeepTheDefaultSettle() {
+        assertEquals(DisconnectSettlePolicy.DEFAULT_ERROR_SETTLE_MILLIS, policy.onDisconnected(LINK_TIMEOUT, 4000));
+        assertEquals(DisconnectSettlePolicy.DEFAULT_ERROR_SETTLE_MILLIS, policy.onDisconnected(GATT_ERROR, 20000));
+        for (int i = 0; i < 100; i++) {
+            policy.onConnectAttemptFinished(false, 0);
+        }
+        assertEquals(DisconnectSettlePolicy.MAX_LEARNED_MARGIN_MILLIS, policy.onDisconnected(LINK_TIMEOUT, 20000));
+    }
+
+    @Test
+    public void failedQuickReconnectsTeachAMarginThatDecays() {
+        policy.onConnectAttemptFinished(false, 100);
+        policy.onConnectAttemptFinished(false, 100);
+        long margin = 2 * DisconnectSettlePolicy.LEARNING_STEP_MILLIS;
+        assertEquals(margin, policy.getLearnedMarginMillis());
+        assertEquals(margin, policy.onDisconnected(PEER_TERMINATED, DisconnectSettlePolicy.UNKNOWN));
+        assertEquals(1000 + margin, policy.onDisconnected(FAILED_TO_ESTABLISH, 1000));
+        policy.onConnectAttemptFinished(true, 100);
+        assertTrue(policy.getLearnedMarginMillis() < margin);
+    }
+
+    @Test
+    public void marginIsBounded() {
+        for (int i = 0; i < 100; i++) {
+            policy.onConnectAttemptFinished(false, 0);
+        }
+        assertEquals(DisconnectSettlePolicy.MAX_LEARNED_MARGIN_MILLIS, policy.getLearnedMarginMillis());
+        for (int i = 0; i < 1000; i++) {
+            policy.onConnectAttemptFinished(true, 0);
+        }
+        assertEquals(0, policy.getLearnedMarginMillis());
+    }
+
+    @Test
+    public void lateReconnectsTeachNothing() {
+        policy.onConnectAttemptFinished(false, DisconnectSettlePolicy.RECONNECT_WINDOW_MILLIS + 1);
+        policy.onConnectAttemptFinished(false, DisconnectSettlePolicy.UNKNOWN);
+        assertEquals(0, policy.getLearnedMarginMillis());
+    }
+
+    @Test
+    public void statsReportSettleTimes() {
+        policy.onDisconnected(PEER_TERMINATED, 2000);
+        policy.onDisconnected(GATT_ERROR, 2000);
+        DisconnectSettleStats stats = policy.getStats();
+        assertEquals(2, stats.getSettleCount());
+        assertEquals(1, stats.getCleanSettleCount());
+        assertEquals(DisconnectSettlePolicy.DEFAULT_ERROR_SETTLE_MILLIS / 2, stats.getMeanSettleMillis());
+        assertEquals(DisconnectSettlePolicy.DEFAULT_ERROR_SETTLE_MILLIS, stats.getLastSettleMillis());
+    }
+}
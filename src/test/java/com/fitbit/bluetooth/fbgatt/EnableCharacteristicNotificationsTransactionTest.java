@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.btcopies.BluetoothGattDescriptorCopy;
+import com.fitbit.bluetooth.fbgatt.tx.EnableCharacteristicNotificationsTransaction;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class EnableCharacteristicNotificationsTransactionTest {
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+    private static final UUID SERVICE_UUID = UUID.fromString("adabfb00-6e7d-4601-bda2-bffaa68956ba");
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("adabfb01-6e7d-4601-bda2-bffaa68956ba");
+
+    private final AtomicReference<EnableCharacteristicNotificationsTransaction> running = new AtomicReference<>();
+    private GattConnection connection;
+    private BluetoothGatt gatt;
+
+    @Before
+    public void before() {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        gatt = mock(BluetoothGatt.class);
+        connection = spy(new GattConnection(device, context.getMainLooper()));
+        doReturn(gatt).when(connection).getGatt();
+        connection.setState(GattState.IDLE);
+        FitbitGatt.getInstance().putConnectionIntoDevices(device, connection);
+        doReturn(true).when(gatt).setCharacteristicNotification(any(BluetoothGattCharacteristic.class), anyBoolean());
+        Handler stack = new Handler(Looper.getMainLooper());
+        doAnswer(invocation -> {
+            BluetoothGattDescriptor descriptor = invocation.getArgument(0);
+            stack.post(() -> running.get().onDescriptorWrite(gatt,
+                new BluetoothGattDescriptorCopy(descriptor.getUuid(), descriptor.getPermissions()), BluetoothGatt.GATT_SUCCESS));
+            return true;
+        }).when(gatt).writeDescriptor(any(BluetoothGattDescriptor.class));
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void notificationsArePreferredAndTheCachedConfigurationSkipsTheWrite() throws InterruptedException {
+        BluetoothGattCharacteristic characteristic = characteristic(
+            BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE, true);
+        TransactionResult first = run(characteristic);
+        assertEquals(TransactionResult.TransactionResultStatus.SUCCESS, first.getResultStatus());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, first.getData());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE,
+            connection.getWrittenClientCharacteristicConfiguration(SERVICE_UUID, CHARACTERISTIC_UUID));
+
+        TransactionResult second = run(characteristic);
+        assertEquals(TransactionResult.TransactionResultStatus.SUCCESS, second.getResultStatus());
+        verify(gatt, times(2)).setCharacteristicNotification(characteristic, true);
+        verify(gatt, times(1)).writeDescriptor(any(BluetoothGattDescriptor.class));
+        assertEquals(GattState.IDLE, connection.getGattState());
+    }
+
+    @Test
+    public void indicationsAreUsedWhenTheCharacteristicCannotNotify() throws InterruptedException {
+        BluetoothGattCharacteristic characteristic = characteristic(BluetoothGattCharacteristic.PROPERTY_INDICATE, true);
+        TransactionResult result = run(characteristic);
+        assertEquals(TransactionResult.TransactionResultStatus.SUCCESS, result.getResultStatus());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE,
+            characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION).getValue());
+    }
+
+    @Test
+    public void characteristicWithoutConfigurationDescriptorFailsWithoutSubscribing() throws InterruptedException {
+        BluetoothGattCharacteristic characteristic = characteristic(BluetoothGattCharacteristic.PROPERTY_NOTIFY, false);
+        TransactionResult result = run(characteristic);
+        assertEquals(TransactionResult.TransactionResultStatus.FAILURE, result.getResultStatus());
+        verify(gatt, never()).setCharacteristicNotification(any(BluetoothGattCharacteristic.class), anyBoolean());
+        verify(gatt, never()).writeDescriptor(any(BluetoothGattDescriptor.class));
+    }
+
+    private TransactionResult run(BluetoothGattCharacteristic characteristic) throws InterruptedException {
+        EnableCharacteristicNotificationsTransaction tx = new EnableCharacteristicNotificationsTransaction(connection,
+            GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS, characteristic);
+        running.set(tx);
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        connection.runTx(tx, result::set);
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((result.get() == null || connection.getGattState() != GattState.IDLE) && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idleFor(10, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+        assertNotNull(result.get());
+        return result.get();
+    }
+
+    private static BluetoothGattCharacteristic characteristic(int properties, boolean withConfiguration) {
+        BluetoothGattService service = new BluetoothGattService(SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(CHARACTERISTIC_UUID,
+            properties, BluetoothGattCharacteristic.PERMISSION_READ);
+        if (withConfiguration) {
+            characteristic.addDescriptor(new BluetoothGattDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION,
+                BluetoothGattDescriptor.PERMISSION_WRITE));
+        }
+        service.addCharacteristic(characteristic);
+        return characteristic;
+    }
+}
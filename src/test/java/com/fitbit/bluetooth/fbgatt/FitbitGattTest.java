@@ -11,7 +11,11 @@ package com.fitbit.bluetooth.fbgatt;
 import androidx.test.core.app.ApplicationProvider;
 import com.fitbit.bluetooth.fbgatt.exception.BluetoothNotEnabledException;
 import com.fitbit.bluetooth.fbgatt.exception.MissingGattServerErrorException;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattServer;
 import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
 import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
@@ -24,17 +28,27 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import androidx.annotation.NonNull;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBluetoothDevice;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -91,6 +105,39 @@ public class FitbitGattTest {
         verify(scannerMock).setScanSettings(mock);
     }
 
+    @Test
+    public void testSetBatchedScanReportDelay() {
+        fitbitGatt.setPeripheralScanner(scannerMock);
+
+        fitbitGatt.setBatchedScanReportDelay(5000);
+
+        verify(scannerMock).setBatchReportDelay(5000);
+    }
+
+    @Test
+    public void addingABatchOfScannedDevicesAnnouncesEachConnectionOnce() {
+        FitbitGatt.FitbitGattCallback cb = mock(FitbitGatt.FitbitGattCallback.class);
+        fitbitGatt.registerGattEventListener(cb);
+        fitbitGatt.setAppContext(context);
+        fitbitGatt.setConnectionMap(new ConcurrentHashMap<>());
+        FitbitBluetoothDevice first = new FitbitBluetoothDevice("02:00:00:00:00:01", "first");
+        FitbitBluetoothDevice second = new FitbitBluetoothDevice("02:00:00:00:00:02", "second");
+        FitbitBluetoothDevice firstAgain = new FitbitBluetoothDevice("02:00:00:00:00:01", "first");
+        firstAgain.setRssi(-40);
+
+        fitbitGatt.addScannedDevices(Arrays.asList(first, second, firstAgain));
+
+        GattConnection firstConnection = fitbitGatt.getConnection(first);
+        GattConnection secondConnection = fitbitGatt.getConnection(second);
+        assertNotNull(firstConnection);
+        assertNotNull(secondConnection);
+        assertEquals(-40, firstConnection.getDevice().getRssi());
+        InOrder inOrder = inOrder(cb);
+        inOrder.verify(cb).onBluetoothPeripheralDiscovered(firstConnection);
+        inOrder.verify(cb).onBluetoothPeripheralDiscovered(secondConnection);
+        verifyNoMoreInteractions(cb);
+    }
+
     @Test
     public void testGattClientStartWithBluetoothOff() {
 
@@ -156,6 +203,30 @@ public class FitbitGattTest {
         verifyNoMoreInteractions(cb);
     }
 
+    @Test
+    public void openServerGattCallbackKeepsServicesAlreadyHosted() {
+        UUID uuid = UUID.randomUUID();
+        BluetoothGattServer server = mock(BluetoothGattServer.class);
+        doReturn(Collections.singletonList(new BluetoothGattService(uuid, BluetoothGattService.SERVICE_TYPE_PRIMARY))).when(server).getServices();
+        GattServerConnection serverConnection = mock(GattServerConnection.class);
+        doReturn(server).when(serverConnection).getServer();
+        GattServerReconcileListener listener = mock(GattServerReconcileListener.class);
+        fitbitGatt.setAppContext(context);
+        fitbitGatt.setGattServerConnection(serverConnection);
+        fitbitGatt.setGattServerReconcileListener(listener);
+
+        fitbitGatt.getOpenGattServerCallback(Collections.singletonList(new BluetoothGattService(uuid, BluetoothGattService.SERVICE_TYPE_PRIMARY)))
+            .onGattServerStatus(true);
+
+        verify(serverConnection, never()).runTx(any(), any());
+        GattServerReconcileResult result = fitbitGatt.getLastGattServerReconcileResult();
+        assertNotNull(result);
+        assertTrue(result.isReady());
+        assertEquals(Collections.singletonList(uuid), result.getKept());
+        verify(listener).onGattServerServicesReconciled(result);
+        fitbitGatt.setGattServerReconcileListener(null);
+    }
+
     @Test
     @Ignore
     public void startingTheGattServerOpenGattIsNull() {
@@ -553,4 +624,96 @@ public class FitbitGattTest {
         verify(scannerMock).isPeriodicalScanEnabled();
         verifyNoMoreInteractions(scannerMock);
     }
+
+    @Test
+    public void concurrentStartWithBluetoothOffSkipsTheRadioPhases() {
+        StartupTraceListener listener = mock(StartupTraceListener.class);
+
+        fitbitGatt.startConcurrently(context, listener);
+
+        StartupTrace trace = fitbitGatt.getStartupTrace();
+        assertNotNull(trace);
+        assertTrue(trace.isConcurrent());
+        assertTrue(trace.isComplete());
+        assertTrue(trace.getTiming(StartupPhase.INITIALIZE).isSuccessful());
+        assertTrue(trace.getTiming(StartupPhase.GATT_SERVER_OPEN).isSkipped());
+        assertTrue(trace.getTiming(StartupPhase.ACL_LISTENER).isSkipped());
+        assertFalse(trace.getTiming(StartupPhase.SCANNER).isSuccessful());
+        verify(listener, times(StartupPhase.values().length)).onStartupPhaseFinished(any());
+        verify(listener).onStartupFinished(any());
+    }
+
+    @Test
+    public void concurrentStartReportsEveryPhase() throws InterruptedException {
+        BluetoothUtils bluetoothUtilsMock = mock(BluetoothUtils.class);
+        doReturn(true).when(bluetoothUtilsMock).isBluetoothEnabled(context);
+        doReturn(bluetoothUtilsMock).when(dependencyProviderMock).getBluetoothUtils();
+        doReturn(mock(LowEnergyAclListener.class)).when(dependencyProviderMock).getNewLowEnergyAclListener();
+        fitbitGatt.setDependencyProvider(dependencyProviderMock);
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<StartupTrace> reported = new AtomicReference<>();
+
+        fitbitGatt.startConcurrently(context, new StartupTraceListener() {
+            @Override
+            public void onStartupPhaseFinished(@NonNull StartupPhaseTiming timing) {
+                // nothing to do
+            }
+
+            @Override
+            public void onStartupFinished(@NonNull StartupTrace trace) {
+                reported.set(trace);
+                finished.countDown();
+            }
+        });
+
+        assertTrue(finished.await(2, TimeUnit.SECONDS));
+        StartupTrace trace = reported.get();
+        assertEquals(StartupPhase.values().length, trace.getPhases().size());
+        assertTrue(trace.getTiming(StartupPhase.ACL_LISTENER).isSuccessful());
+        // the known peripherals are added off of the calling thread
+        assertEquals("FitbitGatt Startup Thread", trace.getTiming(StartupPhase.KNOWN_DEVICES).getThreadName());
+        // there is no bluetooth manager to open the gatt server with
+        assertFalse(trace.getTiming(StartupPhase.GATT_SERVER_OPEN).isSuccessful());
+        assertTrue(trace.getTiming(StartupPhase.GATT_SERVER_SERVICES).isSkipped());
+    }
+
+    @Test
+    public void concurrentStartAnnouncesKnownDevicesWhileTheServerOpenHangs() throws InterruptedException {
+        BluetoothUtils bluetoothUtilsMock = mock(BluetoothUtils.class);
+        doReturn(true).when(bluetoothUtilsMock).isBluetoothEnabled(context);
+        doReturn(bluetoothUtilsMock).when(dependencyProviderMock).getBluetoothUtils();
+        doReturn(mock(LowEnergyAclListener.class)).when(dependencyProviderMock).getNewLowEnergyAclListener();
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        BluetoothDevice bonded = ShadowBluetoothDevice.newInstance("02:00:00:00:00:01");
+        shadowOf(adapter).setBondedDevices(Collections.singleton(bonded));
+        BluetoothManagerFacade managerMock = mock(BluetoothManagerFacade.class);
+        doReturn(adapter).when(managerMock).getAdapter();
+        doReturn(Collections.emptyList()).when(managerMock).getConnectedDevices(BluetoothProfile.GATT);
+        doReturn(managerMock).when(dependencyProviderMock).getBluetoothManagerFacade(any());
+        // like the stack hanging while it registers the gatt server
+        CountDownLatch serverOpenHangs = new CountDownLatch(1);
+        CountDownLatch serverOpening = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            serverOpening.countDown();
+            serverOpenHangs.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(managerMock).openGattServer(any(), any());
+        fitbitGatt.setDependencyProvider(dependencyProviderMock);
+        FitbitGatt.FitbitGattCallback callback = mock(FitbitGatt.FitbitGattCallback.class);
+        CountDownLatch discovered = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            discovered.countDown();
+            return null;
+        }).when(callback).onBluetoothPeripheralDiscovered(any());
+        fitbitGatt.registerGattEventListener(callback);
+
+        try {
+            fitbitGatt.startConcurrently(context, null);
+            assertTrue(serverOpening.await(2, TimeUnit.SECONDS));
+            assertTrue(discovered.await(2, TimeUnit.SECONDS));
+            assertNotNull(fitbitGatt.getConnectionMap().get(new FitbitBluetoothDevice(bonded)));
+        } finally {
+            serverOpenHangs.countDown();
+        }
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.bluetooth.BluetoothGattService;
+import android.os.Looper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattConnectionMaterializationTest {
+
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+
+    private GattConnection conn;
+
+    @Before
+    public void before() {
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        conn = new GattConnection(device, Looper.getMainLooper());
+    }
+
+    @Test
+    public void scannedConnectionIsNotMaterialized() {
+        assertFalse(conn.isMaterialized());
+        assertTrue(conn.getConnectionEventListeners().isEmpty());
+        assertEquals(0, conn.numberOfEventListeners());
+        assertNull(conn.getNotificationDeliveryQueue(mock(ConnectionEventListener.class)));
+        conn.setMockMode(true);
+        assertNull(conn.getRemoteGattService(UUID.randomUUID()));
+        assertFalse(conn.isMaterialized());
+    }
+
+    @Test
+    public void unregisteringFromAnUnusedConnectionIsHarmless() {
+        conn.unregisterConnectionEventListener(mock(ConnectionEventListener.class));
+        assertFalse(conn.isMaterialized());
+    }
+
+    @Test
+    public void queueIsCreatedOnceOnFirstUse() {
+        TransactionQueueController queue = conn.getClientTransactionQueueController();
+        assertNotNull(queue);
+        assertTrue(conn.isMaterialized());
+        assertSame(queue, conn.getClientTransactionQueueController());
+        assertSame(conn.getMainHandler(), conn.getMainHandler());
+        assertSame(Looper.getMainLooper(), conn.getMainHandler().getLooper());
+    }
+
+    @Test
+    public void listenersAndMockServicesWorkOnceCreated() {
+        ConnectionEventListener listener = mock(ConnectionEventListener.class);
+        conn.registerConnectionEventListener(listener);
+        assertEquals(1, conn.numberOfEventListeners());
+        assertSame(listener, conn.getConnectionEventListeners().get(0));
+        conn.unregisterConnectionEventListener(listener);
+        assertEquals(0, conn.numberOfEventListeners());
+        UUID serviceUuid = UUID.randomUUID();
+        conn.setMockMode(true);
+        conn.addService(new BluetoothGattService(serviceUuid, BluetoothGattService.SERVICE_TYPE_PRIMARY));
+        assertTrue(conn.connectedDeviceHostsService(serviceUuid));
+        assertNotNull(conn.getRemoteGattService(serviceUuid));
+    }
+
+    @Test
+    public void finishingAnUnusedConnectionIsHarmless() {
+        conn.finish();
+        conn.cleanUpConnection();
+        assertFalse(conn.isMaterialized());
+    }
+}
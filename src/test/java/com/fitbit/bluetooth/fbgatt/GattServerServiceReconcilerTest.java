@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.tx.AddGattServerServiceTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.RemoveGattServerServicesTransaction;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import androidx.test.core.app.ApplicationProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattServerServiceReconcilerTest {
+
+    private static final UUID SERVICE_A = UUID.randomUUID();
+    private static final UUID SERVICE_B = UUID.randomUUID();
+    private static final UUID CHARACTERISTIC = UUID.randomUUID();
+    private static final UUID DESCRIPTOR = UUID.randomUUID();
+    private static final Set<UUID> NOTHING_OWNED = Collections.emptySet();
+
+    @Before
+    public void before() {
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(ApplicationProvider.getApplicationContext());
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void identicalServicesAreKept() {
+        GattServerServiceReconciler reconciler = GattServerServiceReconciler.plan(
+            Arrays.asList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ), service(SERVICE_B, BluetoothGattCharacteristic.PROPERTY_READ)),
+            Arrays.asList(service(SERVICE_B, BluetoothGattCharacteristic.PROPERTY_READ), service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ)),
+            NOTHING_OWNED, 100);
+        assertTrue(reconciler.isEmpty());
+        GattServerReconcileResult result = reconciler.toResult(null, 130);
+        assertTrue(result.isReady());
+        assertEquals(Arrays.asList(SERVICE_A, SERVICE_B), result.getKept());
+        assertEquals(30, result.getTimeToReadyMillis());
+    }
+
+    @Test
+    public void changedServiceIsRemovedBeforeItIsAddedAgain() {
+        GattServerServiceReconciler reconciler = GattServerServiceReconciler.plan(
+            Arrays.asList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ), service(SERVICE_B, BluetoothGattCharacteristic.PROPERTY_NOTIFY)),
+            Arrays.asList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ), service(SERVICE_B, BluetoothGattCharacteristic.PROPERTY_READ)),
+            NOTHING_OWNED, 0);
+        List<GattServerTransaction> transactions = reconciler.getTransactions(mock(GattServerConnection.class));
+        assertEquals(2, transactions.size());
+        assertTrue(transactions.get(0) instanceof RemoveGattServerServicesTransaction);
+        assertTrue(transactions.get(1) instanceof AddGattServerServiceTransaction);
+
+        GattServerReconcileResult result = reconciler.toResult(composite(true, true), 10);
+        assertTrue(result.isReady());
+        assertEquals(Collections.singletonList(SERVICE_A), result.getKept());
+        assertEquals(Collections.singletonList(SERVICE_B), result.getRemoved());
+        assertEquals(Collections.singletonList(SERVICE_B), result.getAdded());
+        assertEquals(Collections.singletonList(SERVICE_B), result.getReplaced());
+    }
+
+    @Test
+    public void servicesNoLongerDesiredAreOnlyRemoved() {
+        GattServerServiceReconciler reconciler = GattServerServiceReconciler.plan(
+            Collections.<BluetoothGattService>emptyList(),
+            Collections.singletonList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ)),
+            Collections.singleton(SERVICE_A), 0);
+        GattServerReconcileResult result = reconciler.toResult(composite(true), 0);
+        assertEquals(Collections.singletonList(SERVICE_A), result.getRemoved());
+        assertTrue(result.getAdded().isEmpty());
+        assertTrue(result.getReplaced().isEmpty());
+        assertTrue(reconciler.getOwned(result).isEmpty());
+    }
+
+    @Test
+    public void servicesTheAppAddedAreLeftAlone() {
+        GattServerServiceReconciler reconciler = GattServerServiceReconciler.plan(
+            Collections.singletonList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ)),
+            Arrays.asList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ), service(SERVICE_B, BluetoothGattCharacteristic.PROPERTY_READ)),
+            Collections.singleton(SERVICE_A), 0);
+        assertTrue(reconciler.isEmpty());
+        GattServerReconcileResult result = reconciler.toResult(null, 0);
+        assertEquals(Collections.singletonList(SERVICE_A), result.getKept());
+        assertEquals(Collections.singleton(SERVICE_A), reconciler.getOwned(result));
+    }
+
+    @Test
+    public void changesAfterAFailureWereNeverTriedAndHaveFailed() {
+        GattServerServiceReconciler reconciler = GattServerServiceReconciler.plan(
+            Arrays.asList(service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ), service(SERVICE_B, BluetoothGattCharacteristic.PROPERTY_READ)),
+            Collections.<BluetoothGattService>emptyList(),
+            NOTHING_OWNED, 0);
+        GattServerReconcileResult result = reconciler.toResult(composite(false), 0);
+        assertFalse(result.isReady());
+        assertEquals(Arrays.asList(SERVICE_A, SERVICE_B), result.getFailed());
+        assertTrue(result.getAdded().isEmpty());
+    }
+
+    @Test
+    public void layoutComparesDescriptorsAndTypeButNotValues() {
+        BluetoothGattService hosted = service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ);
+        BluetoothGattService desired = service(SERVICE_A, BluetoothGattCharacteristic.PROPERTY_READ);
+        desired.getCharacteristic(CHARACTERISTIC).setValue(new byte[]{1, 2, 3});
+        assertTrue(GattServerServiceReconciler.hasSameLayout(desired, hosted));
+
+        desired.getCharacteristic(CHARACTERISTIC).addDescriptor(new BluetoothGattDescriptor(UUID.randomUUID(), BluetoothGattDescriptor.PERMISSION_READ));
+        assertFalse(GattServerServiceReconciler.hasSameLayout(desired, hosted));
+
+        assertFalse(GattServerServiceReconciler.hasSameLayout(
+            new BluetoothGattService(SERVICE_A, BluetoothGattService.SERVICE_TYPE_PRIMARY),
+            new BluetoothGattService(SERVICE_A, BluetoothGattService.SERVICE_TYPE_SECONDARY)));
+    }
+
+    private static BluetoothGattService service(UUID uuid, int properties) {
+        BluetoothGattService service = new BluetoothGattService(uuid, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(CHARACTERISTIC, properties, BluetoothGattCharacteristic.PERMISSION_READ);
+        characteristic.addDescriptor(new BluetoothGattDescriptor(DESCRIPTOR, BluetoothGattDescriptor.PERMISSION_WRITE));
+        service.addCharacteristic(characteristic);
+        return service;
+    }
+
+    private static TransactionResult composite(boolean... children) {
+        TransactionResult.Builder builder = new TransactionResult.Builder().transactionName(CompositeServerTransaction.NAME);
+        boolean allPassed = true;
+        for (boolean child : children) {
+            allPassed &= child;
+            builder.addTransactionResults(Collections.singletonList(new TransactionResult.Builder()
+                .resultStatus(child ? TransactionResult.TransactionResultStatus.SUCCESS : TransactionResult.TransactionResultStatus.FAILURE)
+                .build()));
+        }
+        return builder.resultStatus(allPassed ? TransactionResult.TransactionResultStatus.SUCCESS : TransactionResult.TransactionResultStatus.FAILURE).build();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.descriptors.CharacteristicNotificationDescriptor;
+import com.fitbit.bluetooth.fbgatt.tx.NotifyGattServerCharacteristicTransaction;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattServerSubscriptionsTest {
+
+    private static final String FIRST_ADDRESS = "02:00:00:00:00:01";
+    private static final String SECOND_ADDRESS = "02:00:00:00:00:02";
+    private static final byte[] ENABLE_NOTIFICATION = BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+    private static final byte[] ENABLE_INDICATION = BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+    private static final byte[] DISABLE = BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+
+    private final BluetoothDevice first = ShadowBluetoothDevice.newInstance(FIRST_ADDRESS);
+    private final BluetoothDevice second = ShadowBluetoothDevice.newInstance(SECOND_ADDRESS);
+    private BluetoothGattCharacteristic characteristic;
+    private BluetoothGattDescriptor cccd;
+    private GattServerConnection serverConnection;
+    private BluetoothGattServer server;
+
+    @Before
+    public void before() {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+        BluetoothGattService service = new BluetoothGattService(UUID.randomUUID(), BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        characteristic = new BluetoothGattCharacteristic(UUID.randomUUID(),
+            BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE, BluetoothGattCharacteristic.PERMISSION_READ);
+        cccd = new CharacteristicNotificationDescriptor();
+        characteristic.addDescriptor(cccd);
+        service.addCharacteristic(characteristic);
+        server = mock(BluetoothGattServer.class);
+        doReturn(service).when(server).getService(service.getUuid());
+        serverConnection = new GattServerConnection(server, context.getMainLooper());
+        serverConnection.setState(GattState.IDLE);
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void closingTheServerForgetsEverySubscriber() {
+        serverConnection.getSubscriptions().onConfigurationWritten(first, characteristic, ENABLE_NOTIFICATION);
+        serverConnection.close();
+        assertTrue(serverConnection.getSubscribers(characteristic).isEmpty());
+        assertEquals(GattServerSubscriptions.NONE, serverConnection.getSubscriptions().getConfiguration(FIRST_ADDRESS, characteristic));
+    }
+
+    @Test
+    public void subscribersAreTrackedPerCentral() {
+        GattServerSubscriptions subscriptions = serverConnection.getSubscriptions();
+        assertTrue(subscriptions.onConfigurationWritten(first, characteristic, ENABLE_NOTIFICATION));
+        assertTrue(subscriptions.onConfigurationWritten(second, characteristic, ENABLE_INDICATION));
+        assertEquals(2, serverConnection.getSubscribers(characteristic).size());
+        assertArrayEquals(ENABLE_INDICATION, subscriptions.getConfigurationValue(second, characteristic));
+
+        assertTrue(subscriptions.onConfigurationWritten(second, characteristic, DISABLE));
+        List<FitbitBluetoothDevice> subscribers = serverConnection.getSubscribers(characteristic);
+        assertEquals(1, subscribers.size());
+        assertEquals(FIRST_ADDRESS, subscribers.get(0).getAddress());
+        assertFalse(serverConnection.isSubscribed(new FitbitBluetoothDevice(second), characteristic));
+        assertArrayEquals(DISABLE, subscriptions.getConfigurationValue(second, characteristic));
+    }
+
+    @Test
+    public void malformedConfigurationIsIgnored() {
+        GattServerSubscriptions subscriptions = serverConnection.getSubscriptions();
+        assertFalse(subscriptions.onConfigurationWritten(first, characteristic, new byte[]{1}));
+        assertFalse(subscriptions.onConfigurationWritten(first, characteristic, null));
+        assertTrue(serverConnection.getSubscribers(characteristic).isEmpty());
+    }
+
+    @Test
+    public void onlyBondedCentralsKeepTheirConfigurationAcrossDisconnections() {
+        GattServerSubscriptions subscriptions = serverConnection.getSubscriptions();
+        shadowOf(second).setBondState(BluetoothDevice.BOND_BONDED);
+        subscriptions.onConfigurationWritten(first, characteristic, ENABLE_NOTIFICATION);
+        subscriptions.onConfigurationWritten(second, characteristic, ENABLE_NOTIFICATION);
+        subscriptions.onDisconnected(first);
+        subscriptions.onDisconnected(second);
+        assertFalse(serverConnection.isSubscribed(new FitbitBluetoothDevice(first), characteristic));
+        assertTrue(serverConnection.isSubscribed(new FitbitBluetoothDevice(second), characteristic));
+
+        subscriptions.onServiceRemoved(characteristic.getService().getUuid());
+        assertTrue(serverConnection.getSubscribers(characteristic).isEmpty());
+    }
+
+    @Test
+    public void onlySubscribersAreNotified() {
+        assertTrue(serverConnection.obtainNotifySubscribersTransactions(GattState.NOTIFY_CHARACTERISTIC_SUCCESS, characteristic).isEmpty());
+        serverConnection.getSubscriptions().onConfigurationWritten(second, characteristic, ENABLE_INDICATION);
+        List<NotifyGattServerCharacteristicTransaction> transactions =
+            serverConnection.obtainNotifySubscribersTransactions(GattState.NOTIFY_CHARACTERISTIC_SUCCESS, characteristic);
+        assertEquals(1, transactions.size());
+    }
+
+    @Test
+    public void radioOffOnlyDropsCentralsThatAreNotBonded() {
+        GattServerSubscriptions subscriptions = serverConnection.getSubscriptions();
+        shadowOf(second).setBondState(BluetoothDevice.BOND_BONDED);
+        subscriptions.onConfigurationWritten(first, characteristic, ENABLE_NOTIFICATION);
+        subscriptions.onConfigurationWritten(second, characteristic, ENABLE_INDICATION);
+        serverConnection.dropUnbondedSubscriptions();
+        assertEquals(Collections.singletonList(new FitbitBluetoothDevice(second)), serverConnection.getSubscribers(characteristic));
+        assertArrayEquals(ENABLE_INDICATION, subscriptions.getConfigurationValue(second, characteristic));
+    }
+
+    @Test
+    public void writesOnlyCountOnceTheAppAcceptsThem() {
+        FitbitGatt.getInstance().setGattServerConnection(serverConnection);
+        serverConnection.registerConnectionEventListener(mock(ServerConnectionEventListener.class));
+        GattServerCallback callback = new GattServerCallback();
+
+        callback.onDescriptorWriteRequest(first, 1, cccd, false, true, 0, ENABLE_NOTIFICATION);
+        callback.onDescriptorWriteRequest(second, 2, cccd, false, true, 0, ENABLE_NOTIFICATION);
+        assertTrue(serverConnection.getSubscribers(characteristic).isEmpty());
+
+        serverConnection.onResponseSent(first, 1, BluetoothGatt.GATT_SUCCESS);
+        serverConnection.onResponseSent(second, 2, BluetoothGatt.GATT_WRITE_NOT_PERMITTED);
+        assertEquals(Collections.singletonList(new FitbitBluetoothDevice(first)), serverConnection.getSubscribers(characteristic));
+        // the refused write is forgotten rather than held for a later answer
+        serverConnection.onResponseSent(second, 2, BluetoothGatt.GATT_SUCCESS);
+        assertFalse(serverConnection.isSubscribed(new FitbitBluetoothDevice(second), characteristic));
+    }
+
+    @Test
+    public void readsReachTheAppUnlessBitgattAnswersThem() {
+        FitbitGatt.getInstance().setGattServerConnection(serverConnection);
+        ServerConnectionEventListener listener = mock(ServerConnectionEventListener.class);
+        serverConnection.registerConnectionEventListener(listener);
+        GattServerCallback callback = new GattServerCallback();
+        callback.onDescriptorWriteRequest(first, 1, cccd, false, true, 0, ENABLE_NOTIFICATION);
+        serverConnection.onResponseSent(first, 1, BluetoothGatt.GATT_SUCCESS);
+
+        callback.onDescriptorReadRequest(first, 2, 0, cccd);
+        verify(listener, timeout(2000)).onServerDescriptorReadRequest(any(), any(), eq(serverConnection));
+        verify(server, never()).sendResponse(any(), eq(2), any(Integer.class), any(Integer.class), any());
+
+        FitbitGatt.getInstance().setAnswerSubscriptionReads(true);
+        callback.onDescriptorReadRequest(second, 3, 0, cccd);
+        verify(server, timeout(2000)).sendResponse(eq(second), eq(3), eq(BluetoothGatt.GATT_SUCCESS), eq(0), eq(DISABLE));
+        callback.onDescriptorReadRequest(first, 4, 0, cccd);
+        verify(server, timeout(2000)).sendResponse(eq(first), eq(4), eq(BluetoothGatt.GATT_SUCCESS), eq(0), eq(ENABLE_NOTIFICATION));
+
+        callback.onConnectionStateChange(first, BluetoothGatt.GATT_SUCCESS, BluetoothProfile.STATE_DISCONNECTED);
+        assertTrue(serverConnection.getSubscribers(characteristic).isEmpty());
+        verify(server, never()).sendResponse(any(), eq(1), any(Integer.class), any(Integer.class), any());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattServiceIndexTest {
+
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+    private static final UUID HEART_RATE_SERVICE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE_MEASUREMENT = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID VENDOR_SERVICE = UUID.fromString("adabfb00-6e7d-4601-bda2-bffaa68956ba");
+    private static final UUID VENDOR_CHARACTERISTIC = UUID.fromString("adabfb01-6e7d-4601-bda2-bffaa68956ba");
+
+    @Before
+    public void before() {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void shortAliasOnlyForBaseUuids() {
+        assertEquals(0x180d, GattServiceIndex.shortAlias(HEART_RATE_SERVICE.getMostSignificantBits(), HEART_RATE_SERVICE.getLeastSignificantBits()));
+        assertEquals(-1, GattServiceIndex.shortAlias(VENDOR_SERVICE.getMostSignificantBits(), VENDOR_SERVICE.getLeastSignificantBits()));
+        UUID thirtyTwoBit = UUID.fromString("1234180d-0000-1000-8000-00805f9b34fb");
+        assertEquals(-1, GattServiceIndex.shortAlias(thirtyTwoBit.getMostSignificantBits(), thirtyTwoBit.getLeastSignificantBits()));
+    }
+
+    @Test
+    public void findsServicesCharacteristicsAndConfiguration() {
+        BluetoothGattService heartRate = new BluetoothGattService(HEART_RATE_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic measurement = new BluetoothGattCharacteristic(HEART_RATE_MEASUREMENT,
+            BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
+        BluetoothGattDescriptor configuration = new BluetoothGattDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION,
+            BluetoothGattDescriptor.PERMISSION_WRITE);
+        measurement.addDescriptor(configuration);
+        heartRate.addCharacteristic(measurement);
+        BluetoothGattService vendor = new BluetoothGattService(VENDOR_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic vendorCharacteristic = new BluetoothGattCharacteristic(VENDOR_CHARACTERISTIC,
+            BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+        vendor.addCharacteristic(vendorCharacteristic);
+        GattServiceIndex index = GattServiceIndex.build(null, Arrays.asList(heartRate, vendor));
+        assertEquals(2, index.getServiceCount());
+        assertEquals(2, index.getCharacteristicCount());
+        assertSame(heartRate, index.getService(HEART_RATE_SERVICE));
+        assertSame(vendor, index.getService(VENDOR_SERVICE));
+        assertSame(measurement, index.getCharacteristic(HEART_RATE_SERVICE, HEART_RATE_MEASUREMENT));
+        assertSame(vendorCharacteristic, index.getCharacteristic(VENDOR_SERVICE, VENDOR_CHARACTERISTIC));
+        assertSame(configuration, index.getClientCharacteristicConfiguration(HEART_RATE_SERVICE, HEART_RATE_MEASUREMENT));
+        assertNull(index.getClientCharacteristicConfiguration(VENDOR_SERVICE, VENDOR_CHARACTERISTIC));
+        // a characteristic is only found under the service that hosts it
+        assertNull(index.getCharacteristic(VENDOR_SERVICE, HEART_RATE_MEASUREMENT));
+        assertNull(index.getService(UUID.randomUUID()));
+    }
+
+    @Test
+    public void firstDuplicateWinsLikeThePlatform() {
+        BluetoothGattService first = new BluetoothGattService(VENDOR_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattService second = new BluetoothGattService(VENDOR_SERVICE, BluetoothGattService.SERVICE_TYPE_SECONDARY);
+        GattServiceIndex index = GattServiceIndex.build(null, Arrays.asList(first, second));
+        assertEquals(1, index.getServiceCount());
+        assertSame(first, index.getService(VENDOR_SERVICE));
+    }
+
+    @Test
+    public void manyServicesAreAllFound() {
+        List<BluetoothGattService> services = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            UUID uuid = i % 2 == 0 ? new UUID(((long) (0x1800 + i) << 32) | 0x1000L, 0x800000805F9B34FBL) : UUID.randomUUID();
+            services.add(new BluetoothGattService(uuid, BluetoothGattService.SERVICE_TYPE_PRIMARY));
+        }
+        GattServiceIndex index = GattServiceIndex.build(null, services);
+        assertEquals(200, index.getServiceCount());
+        for (BluetoothGattService service : services) {
+            assertSame(service, index.getService(service.getUuid()));
+        }
+    }
+
+    @Test
+    public void mockConnectionSeesTreeChangesAfterAddingAService() {
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        GattConnection connection = new GattConnection(device, ApplicationProvider.getApplicationContext().getMainLooper());
+        connection.setMockMode(true);
+        assertFalse(connection.connectedDeviceHostsService(VENDOR_SERVICE));
+        BluetoothGattService vendor = new BluetoothGattService(VENDOR_SERVICE, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic vendorCharacteristic = new BluetoothGattCharacteristic(VENDOR_CHARACTERISTIC,
+            BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
+        BluetoothGattDescriptor configuration = new BluetoothGattDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION,
+            BluetoothGattDescriptor.PERMISSION_WRITE);
+        connection.addService(vendor);
+        assertNull(connection.getRemoteGattServiceCharacteristic(VENDOR_SERVICE, VENDOR_CHARACTERISTIC));
+        // tests build the tree after handing the service over
+        vendor.addCharacteristic(vendorCharacteristic);
+        vendorCharacteristic.addDescriptor(configuration);
+        assertTrue(connection.connectedDeviceHostsService(VENDOR_SERVICE));
+        assertSame(vendor, connection.getRemoteGattService(VENDOR_SERVICE));
+        assertSame(vendorCharacteristic, connection.getRemoteGattServiceCharacteristic(VENDOR_SERVICE, VENDOR_CHARACTERISTIC));
+        assertSame(configuration, connection.getRemoteClientCharacteristicConfiguration(VENDOR_SERVICE, VENDOR_CHARACTERISTIC));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.tx.EnableCharacteristicNotificationsTransaction;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Looper;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattTimelineTracerTest {
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+
+    @Before
+    public void before() {
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(ApplicationProvider.getApplicationContext());
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void spansAreWrittenAsChromeTraceEventsAndTheOldestAreDropped() throws IOException, JSONException {
+        GattTimelineTracer tracer = new GattTimelineTracer();
+        assertEquals(GattTimelineTracer.NOT_RECORDING, tracer.beginSection(GattTimelineTracer.CATEGORY_STACK, "ignored"));
+        tracer.start(3);
+        tracer.instant(GattTimelineTracer.CATEGORY_CALLBACK, "dropped", null);
+        int id = tracer.nextId();
+        tracer.beginAsync(GattTimelineTracer.CATEGORY_QUEUE, "tx \"one\"", id, MOCK_ADDRESS);
+        long startedAt = tracer.beginSection(GattTimelineTracer.CATEGORY_STACK, "tx \"one\"");
+        tracer.endSection(startedAt, GattTimelineTracer.CATEGORY_STACK, "tx \"one\"", MOCK_ADDRESS);
+        tracer.stop();
+        // spans that were open when the recording stopped are still closed
+        tracer.endAsync(GattTimelineTracer.CATEGORY_QUEUE, "tx \"one\"", id, MOCK_ADDRESS);
+        tracer.instant(GattTimelineTracer.CATEGORY_CALLBACK, "not recorded", null);
+
+        JSONObject trace = write(tracer);
+        assertEquals(1, trace.getJSONObject("otherData").getInt("droppedEvents"));
+        List<JSONObject> events = events(trace, null);
+        assertEquals("M", events.get(0).getString("ph"));
+        assertEquals(Thread.currentThread().getName(), events.get(0).getJSONObject("args").getString("name"));
+        assertEquals(4, events.size());
+        assertEquals("b", events.get(1).getString("ph"));
+        assertEquals("tx \"one\"", events.get(1).getString("name"));
+        assertEquals(MOCK_ADDRESS, events.get(1).getJSONObject("args").getString("device"));
+        assertEquals("X", events.get(2).getString("ph"));
+        assertTrue(events.get(2).getDouble("dur") >= 0);
+        assertEquals("e", events.get(3).getString("ph"));
+        assertEquals(events.get(1).getString("id"), events.get(3).getString("id"));
+        assertEquals(events.get(0).getInt("tid"), events.get(2).getInt("tid"));
+    }
+
+    @Test
+    public void transactionRunIsTracedFromQueueToDelivery() throws InterruptedException, IOException, JSONException {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        GattConnection connection = spy(new GattConnection(device, context.getMainLooper()));
+        doReturn(mock(BluetoothGatt.class)).when(connection).getGatt();
+        connection.setState(GattState.IDLE);
+        FitbitGatt.getInstance().putConnectionIntoDevices(device, connection);
+        BluetoothGattService service = new BluetoothGattService(UUID.randomUUID(), BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        // no configuration descriptor, so the transaction fails without waiting on the stack
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(UUID.randomUUID(),
+            BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
+        service.addCharacteristic(characteristic);
+
+        FitbitGatt.getInstance().startTimelineTrace(GattTimelineTracer.DEFAULT_MAX_EVENTS);
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        connection.runTx(new EnableCharacteristicNotificationsTransaction(connection,
+            GattState.ENABLE_CHARACTERISTIC_NOTIFICATION_SUCCESS, characteristic), result::set);
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((result.get() == null || connection.getGattState() != GattState.IDLE) && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idleFor(10, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+        assertNotNull(result.get());
+        FitbitGatt.getInstance().stopTimelineTrace();
+
+        StringWriter writer = new StringWriter();
+        FitbitGatt.getInstance().writeTimelineTrace(writer);
+        JSONObject trace = new JSONObject(writer.toString());
+        for (String category : new String[]{GattTimelineTracer.CATEGORY_QUEUE, GattTimelineTracer.CATEGORY_TRANSACTION}) {
+            List<JSONObject> span = events(trace, category);
+            assertEquals(category, 2, span.size());
+            assertEquals("b", span.get(0).getString("ph"));
+            assertEquals("e", span.get(1).getString("ph"));
+            assertEquals(EnableCharacteristicNotificationsTransaction.NAME, span.get(0).getString("name"));
+            assertEquals(MOCK_ADDRESS, span.get(0).getJSONObject("args").getString("device"));
+        }
+        assertEquals(1, events(trace, GattTimelineTracer.CATEGORY_STACK).size());
+        List<JSONObject> delivery = events(trace, GattTimelineTracer.CATEGORY_DELIVERY);
+        assertEquals(1, delivery.size());
+        assertEquals("X", delivery.get(0).getString("ph"));
+    }
+
+    @Test
+    public void connectionCallbacksAreTracedFromArrivalToDispatch() throws IOException, JSONException {
+        BluetoothDevice bluetoothDevice = ShadowBluetoothDevice.newInstance(MOCK_ADDRESS);
+        BluetoothGatt gatt = mock(BluetoothGatt.class);
+        doReturn(bluetoothDevice).when(gatt).getDevice();
+        doReturn(new ArrayList<BluetoothGattService>()).when(gatt).getServices();
+        GattClientListener listener = mock(GattClientListener.class);
+        doReturn(new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", bluetoothDevice)).when(listener).getDevice();
+        GattClientCallback callback = new GattClientCallback();
+        callback.addListener(listener);
+
+        FitbitGatt.getInstance().startTimelineTrace(GattTimelineTracer.DEFAULT_MAX_EVENTS);
+        callback.onServicesDiscovered(gatt, BluetoothGatt.GATT_SUCCESS);
+        callback.onPhyRead(gatt, BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_1M, BluetoothGatt.GATT_SUCCESS);
+        shadowOf(callback.getClientCallbackHandler().getLooper()).idle();
+        FitbitGatt.getInstance().stopTimelineTrace();
+
+        verify(listener).onServicesDiscovered(gatt, BluetoothGatt.GATT_SUCCESS);
+        verify(listener).onPhyRead(gatt, BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_1M, BluetoothGatt.GATT_SUCCESS);
+        StringWriter writer = new StringWriter();
+        FitbitGatt.getInstance().writeTimelineTrace(writer);
+        List<JSONObject> callbacks = events(new JSONObject(writer.toString()), GattTimelineTracer.CATEGORY_CALLBACK);
+        assertEquals(4, callbacks.size());
+        for (String name : new String[]{"onServicesDiscovered", "onPhyRead"}) {
+            String phases = "";
+            for (JSONObject event : callbacks) {
+                if (name.equals(event.getString("name"))) {
+                    phases += event.getString("ph");
+                    assertEquals(MOCK_ADDRESS, event.getJSONObject("args").getString("device"));
+                }
+            }
+            assertEquals(name, "iX", phases);
+        }
+    }
+
+    private static JSONObject write(GattTimelineTracer tracer) throws IOException, JSONException {
+        StringWriter writer = new StringWriter();
+        tracer.writeTo(writer);
+        JSONObject trace = new JSONObject(writer.toString());
+        assertEquals("ms", trace.getString("displayTimeUnit"));
+        return trace;
+    }
+
+    private static List<JSONObject> events(JSONObject trace, String category) throws JSONException {
+        JSONArray array = trace.getJSONArray("traceEvents");
+        List<JSONObject> events = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject event = array.getJSONObject(i);
+            if (category == null || category.equals(event.optString("cat"))) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class NotificationDeliveryQueueTest {
+
+    private static final UUID CHAR_A = UUID.fromString("adabfb00-6e7d-4601-bda2-bffaa68956ba");
+    private static final UUID CHAR_B = UUID.fromString("adabfb01-6e7d-4601-bda2-bffaa68956ba");
+
+    private GattConnection conn;
+    private RecordingListener listener;
+    private Handler handler;
+
+    @Before
+    public void before() {
+        conn = new GattConnection(mock(FitbitBluetoothDevice.class), Looper.getMainLooper());
+        listener = new RecordingListener();
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void dropOldestKeepsNewestNotifications() {
+        NotificationDeliveryQueue queue = new NotificationDeliveryQueue(conn, listener,
+            new NotificationDeliveryPolicy.Builder().capacity(2).build(), handler);
+        queue.offer(result(CHAR_A, 1));
+        queue.offer(result(CHAR_A, 2));
+        queue.offer(result(CHAR_A, 3));
+        assertEquals(2, queue.getStats().getQueueDepth());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, listener.single.size());
+        assertArrayEquals(new byte[]{2}, listener.single.get(0).getData());
+        assertArrayEquals(new byte[]{3}, listener.single.get(1).getData());
+        NotificationDeliveryStats stats = queue.getStats();
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(2, stats.getHighWaterMark());
+        assertEquals(1, stats.getDroppedCount());
+        assertEquals(2, stats.getDeliveredCount());
+    }
+
+    @Test
+    public void conflateKeepsLatestPerCharacteristic() {
+        NotificationDeliveryQueue queue = new NotificationDeliveryQueue(conn, listener,
+            new NotificationDeliveryPolicy.Builder()
+                .overflowStrategy(NotificationDeliveryPolicy.OverflowStrategy.CONFLATE_LATEST)
+                .build(), handler);
+        queue.offer(result(CHAR_A, 1));
+        queue.offer(result(CHAR_B, 2));
+        queue.offer(result(CHAR_A, 3));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, listener.single.size());
+        assertEquals(CHAR_A, listener.single.get(0).getCharacteristicUuid());
+        assertArrayEquals(new byte[]{3}, listener.single.get(0).getData());
+        assertEquals(CHAR_B, listener.single.get(1).getCharacteristicUuid());
+        assertEquals(1, queue.getStats().getConflatedCount());
+        assertEquals(0, queue.getStats().getDroppedCount());
+    }
+
+    @Test
+    public void batchedListenerReceivesGroups() {
+        NotificationDeliveryQueue queue = new NotificationDeliveryQueue(conn, listener,
+            new NotificationDeliveryPolicy.Builder().capacity(10).batchSize(4).build(), handler);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(result(CHAR_A, i));
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, listener.batches.size());
+        assertEquals(4, listener.batches.get(0).size());
+        assertEquals(2, listener.batches.get(1).size());
+        assertEquals(6, queue.getStats().getDeliveredCount());
+    }
+
+    @Test
+    public void blockingProducerOnDeliveryThreadFallsBackToDropOldest() {
+        NotificationDeliveryQueue queue = new NotificationDeliveryQueue(conn, listener,
+            new NotificationDeliveryPolicy.Builder()
+                .capacity(1)
+                .overflowStrategy(NotificationDeliveryPolicy.OverflowStrategy.BLOCK_PRODUCER)
+                .build(), handler);
+        queue.offer(result(CHAR_A, 1));
+        queue.offer(result(CHAR_A, 2));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, listener.single.size());
+        assertArrayEquals(new byte[]{2}, listener.single.get(0).getData());
+        assertEquals(1, queue.getStats().getDroppedCount());
+    }
+
+    @Test
+    public void closedQueueDeliversNothing() {
+        NotificationDeliveryQueue queue = new NotificationDeliveryQueue(conn, listener,
+            new NotificationDeliveryPolicy.Builder().build(), handler);
+        queue.offer(result(CHAR_A, 1));
+        queue.close();
+        queue.offer(result(CHAR_A, 2));
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, listener.single.size());
+        assertEquals(0, queue.getStats().getQueueDepth());
+    }
+
+    private TransactionResult result(UUID characteristic, int value) {
+        return new TransactionResult.Builder()
+            .characteristicUuid(characteristic)
+            .data(new byte[]{(byte) value})
+            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS).build();
+    }
+
+    private static class RecordingListener implements BatchedConnectionEventListener {
+        private final List<TransactionResult> single = new ArrayList<>();
+        private final List<List<TransactionResult>> batches = new ArrayList<>();
+
+        @Override
+        public void onClientCharacteristicsChanged(@NonNull List<TransactionResult> results, @NonNull GattConnection connection) {
+            batches.add(new ArrayList<>(results));
+        }
+
+        @Override
+        public void onClientCharacteristicChanged(@NonNull TransactionResult result, @NonNull GattConnection connection) {
+            single.add(result);
+        }
+
+        @Override
+        public void onClientConnectionStateChanged(@NonNull TransactionResult result, @NonNull GattConnection connection) {
+        }
+
+        @Override
+        public void onServicesDiscovered(@NonNull TransactionResult result, @NonNull GattConnection connection) {
+        }
+
+        @Override
+        public void onMtuChanged(@NonNull TransactionResult result, @NonNull GattConnection connection) {
+        }
+
+        @Override
+        public void onPhyChanged(@NonNull TransactionResult result, @NonNull GattConnection connection) {
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import android.bluetooth.le.ScanResult;
+import android.os.HandlerThread;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class PendingIntentScanBatcherTest {
+
+    private final FitbitGatt fitbitGattMock = mock(FitbitGatt.class);
+    private HandlerThread worker;
+    private PendingIntentScanBatcher batcher;
+
+    @Before
+    public void before() {
+        worker = new HandlerThread("PendingIntentScanBatcherTest");
+        worker.start();
+        doReturn(worker).when(fitbitGattMock).getFitbitGattAsyncOperationThread();
+        doReturn(true).when(fitbitGattMock).isPendingIntentScanning();
+        batcher = new PendingIntentScanBatcher(fitbitGattMock);
+    }
+
+    @After
+    public void after() {
+        worker.quit();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void broadcastsWithinTheWindowAreAppliedInOneBatch() throws InterruptedException {
+        startClient();
+        batcher.setDeduplicationWindowMillis(100);
+        batcher.submit(Arrays.asList(scanResult(1, -70), scanResult(2, -80)), null);
+        batcher.submit(Collections.singletonList(scanResult(1, -60)), null);
+        awaitBatches(1);
+        ArgumentCaptor<List<FitbitBluetoothDevice>> batch = ArgumentCaptor.forClass(List.class);
+        verify(fitbitGattMock, timeout(2000)).addScannedDevices(batch.capture());
+        assertEquals(2, batch.getValue().size());
+        assertEquals(address(1), batch.getValue().get(0).getAddress());
+        // the newest result for the peripheral wins
+        assertEquals(-60, batch.getValue().get(0).getRssi());
+        PendingIntentScanStats stats = batcher.getStats();
+        assertEquals(3, stats.getReceived());
+        assertEquals(1, stats.getDeduplicated());
+        assertEquals(2, stats.getApplied());
+        assertEquals(1, stats.getBatches());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void resultsBeforeStartAreBoundedAndAppliedAtStart() {
+        List<ScanResult> results = new ArrayList<>();
+        for (int i = 0; i < PendingIntentScanBatcher.MAX_BUFFERED_BEFORE_START + 4; i++) {
+            results.add(scanResult(i, -50));
+        }
+        batcher.submit(results, null);
+        ArgumentCaptor<FitbitGatt.FitbitGattCallback> listener = ArgumentCaptor.forClass(FitbitGatt.FitbitGattCallback.class);
+        verify(fitbitGattMock, timeout(2000)).registerGattEventListener(listener.capture());
+        verify(fitbitGattMock, never()).addScannedDevices(any());
+        startClient();
+        listener.getValue().onGattClientStarted();
+        ArgumentCaptor<List<FitbitBluetoothDevice>> batch = ArgumentCaptor.forClass(List.class);
+        verify(fitbitGattMock, timeout(2000)).addScannedDevices(batch.capture());
+        verify(fitbitGattMock, timeout(2000)).unregisterGattEventListener(listener.getValue());
+        assertEquals(PendingIntentScanBatcher.MAX_BUFFERED_BEFORE_START, batch.getValue().size());
+        // the oldest were dropped
+        assertEquals(address(4), batch.getValue().get(0).getAddress());
+        assertEquals(4, batcher.getStats().getDropped());
+    }
+
+    private void awaitBatches(int batches) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (batcher.getStats().getBatches() < batches && System.currentTimeMillis() < deadline) {
+            // the window is measured on the clock robolectric keeps
+            shadowOf(Looper.getMainLooper()).idleFor(20, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+    }
+
+    private void startClient() {
+        doReturn(true).when(fitbitGattMock).isInitialized();
+        doReturn(mock(GattClientCallback.class)).when(fitbitGattMock).getClientCallback();
+    }
+
+    private static ScanResult scanResult(int index, int rssi) {
+        return new ScanResult(ShadowBluetoothDevice.newInstance(address(index)), null, rssi, 0);
+    }
+
+    private static String address(int index) {
+        return String.format(Locale.ENGLISH, "02:00:00:00:%02X:%02X", index >> 8, index & 0xFF);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests the scan start limiting and duty cycle adaptation in the {@link PeripheralScanner}
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PeripheralScannerSchedulingTest {
+
+    private Context context;
+    private ScannerInterface scannerMock;
+    private PeripheralScanner.TrackerScannerListener listenerMock;
+    private PeripheralScanner peripheralScanner;
+
+    @Before
+    public void before() {
+        context = ApplicationProvider.getApplicationContext();
+        FitbitGatt gattMock = mock(FitbitGatt.class);
+        doReturn(context).when(gattMock).getAppContext();
+        scannerMock = mock(ScannerInterface.class);
+        doReturn(true).when(scannerMock).isBluetoothEnabled();
+        listenerMock = mock(PeripheralScanner.TrackerScannerListener.class);
+        peripheralScanner = new PeripheralScanner(listenerMock, gattMock);
+        peripheralScanner.injectMockScanner(scannerMock);
+        peripheralScanner.setScanFilters(Collections.singletonList(new ScanFilter.Builder().setDeviceName("Charge").build()));
+    }
+
+    @After
+    public void after() {
+        peripheralScanner.onDestroy(context);
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void scanOverTheStartLimitIsDeferredNotRejected() {
+        for (int i = 0; i < PeripheralScanner.MAX_SCANS_ALLOWED_PER_30_SECONDS; i++) {
+            assertTrue(peripheralScanner.startHighPriorityScan(context));
+            peripheralScanner.cancelScan(context);
+        }
+        // one more start in thirty seconds would leave nothing for the other scanners in the app
+        assertTrue(peripheralScanner.startHighPriorityScan(context));
+        verify(scannerMock, times(PeripheralScanner.MAX_SCANS_ALLOWED_PER_30_SECONDS)).startScan(anyList(), any(), any(ScanCallback.class));
+        assertEquals(1, peripheralScanner.getScanSchedulerStats().getDeferredStarts());
+        shadowOf(Looper.getMainLooper()).idleFor(PeripheralScanner.SCAN_TOO_MUCH_WARN_INTERVAL, TimeUnit.MILLISECONDS);
+        verify(scannerMock, times(PeripheralScanner.MAX_SCANS_ALLOWED_PER_30_SECONDS + 1)).startScan(anyList(), any(), any(ScanCallback.class));
+        assertTrue(peripheralScanner.isScanning());
+        assertEquals(PeripheralScanner.MAX_SCANS_ALLOWED_PER_30_SECONDS + 1, peripheralScanner.getScanSchedulerStats().getScanStarts());
+    }
+
+    @Test
+    public void cancelDropsTheDeferredScan() {
+        for (int i = 0; i < PeripheralScanner.MAX_SCANS_ALLOWED_PER_30_SECONDS; i++) {
+            peripheralScanner.startHighPriorityScan(context);
+            peripheralScanner.cancelScan(context);
+        }
+        assertTrue(peripheralScanner.startHighPriorityScan(context));
+        peripheralScanner.cancelScan(context);
+        shadowOf(Looper.getMainLooper()).idleFor(PeripheralScanner.SCAN_TOO_MUCH_WARN_INTERVAL, TimeUnit.MILLISECONDS);
+        verify(scannerMock, times(PeripheralScanner.MAX_SCANS_ALLOWED_PER_30_SECONDS)).startScan(anyList(), any(), any(ScanCallback.class));
+    }
+
+    @Test
+    public void batchingKeepsTheCallersScanSettings() {
+        peripheralScanner.setBatchReportDelay(5000);
+        ScanSettings settings = new ScanSettings.Builder()
+            .setScanMode(ScanSettings.SCAN_MODE_LOW_POWER)
+            .setLegacy(false)
+            .setPhy(BluetoothDevice.PHY_LE_CODED)
+            .build();
+        ScanSettings batched = peripheralScanner.applyBatchReportDelay(batchingAdapter(), settings);
+        assertEquals(5000, batched.getReportDelayMillis());
+        assertEquals(ScanSettings.SCAN_MODE_LOW_POWER, batched.getScanMode());
+        assertEquals(BluetoothDevice.PHY_LE_CODED, batched.getPhy());
+        assertFalse(batched.getLegacy());
+    }
+
+    @Test
+    public void settingsThatCanNotBeCopiedAreNotBatched() {
+        peripheralScanner.setBatchReportDelay(5000);
+        ScanSettings settings = new ScanSettings.Builder()
+            .setMatchMode(ScanSettings.MATCH_MODE_STICKY)
+            .setNumOfMatches(ScanSettings.MATCH_NUM_ONE_ADVERTISEMENT)
+            .build();
+        assertSame(settings, peripheralScanner.applyBatchReportDelay(batchingAdapter(), settings));
+    }
+
+    @Test
+    public void emptyPeriodicWindowsGetShorter() {
+        assertTrue(peripheralScanner.startPeriodicScan(context));
+        long fullWindow = peripheralScanner.getPeriodicScanDuration();
+        assertEquals(PeripheralScanner.SCAN_DURATION, fullWindow);
+        // let the window elapse without finding anything
+        shadowOf(Looper.getMainLooper()).idleFor(fullWindow, TimeUnit.MILLISECONDS);
+        assertEquals(fullWindow / 2, peripheralScanner.getPeriodicScanDuration());
+        ScanSchedulerStats stats = peripheralScanner.getScanSchedulerStats();
+        assertEquals(fullWindow, stats.getScanningMillis());
+        assertEquals(0, stats.getDevicesDiscovered());
+    }
+
+    private static BluetoothAdapter batchingAdapter() {
+        BluetoothAdapter adapter = mock(BluetoothAdapter.class);
+        doReturn(true).when(adapter).isOffloadedScanBatchingSupported();
+        return adapter;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.tx.GattClientDiscoverServicesTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.GattConnectTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.RequestMtuGattTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.SubscribeToCharacteristicNotificationsTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.WriteGattDescriptorTransaction;
+import androidx.test.core.app.ApplicationProvider;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Handler;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class RadioToggleRestorerTest {
+    private static final UUID SERVICE_UUID = UUID.fromString("adabfb00-6e7d-4601-bda2-bffaa68956ba");
+    private static final UUID CHARACTERISTIC_UUID = UUID.fromString("adabfb01-6e7d-4601-bda2-bffaa68956ba");
+
+    private final List<RadioRestoreResult> results = new ArrayList<>();
+    private final List<String> started = new ArrayList<>();
+    private RadioToggleRestorer restorer;
+
+    @Before
+    public void before() {
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(ApplicationProvider.getApplicationContext());
+        restorer = new RadioToggleRestorer();
+        restorer.enable(new Handler(Looper.getMainLooper()), 100);
+        restorer.addListener(results::add);
+    }
+
+    @After
+    public void after() {
+        restorer.disable();
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void connectionsAreRestoredByPriorityAndPacedAndReportedOnce() {
+        AtomicBoolean linksUp = new AtomicBoolean(true);
+        GattConnection low = connection("02:00:00:00:00:01", linksUp, 0, true);
+        GattConnection high = connection("02:00:00:00:00:02", linksUp, 5, true);
+        BluetoothGattCharacteristic characteristic = characteristic();
+        doReturn(185).when(high).getMtu();
+        doReturn(Collections.singletonList(new NotificationSubscription(SERVICE_UUID, CHARACTERISTIC_UUID, true,
+            BluetoothGattDescriptor.ENABLE_INDICATION_VALUE))).when(high).getNotificationSubscriptions();
+        doReturn(characteristic).when(high).getRemoteGattServiceCharacteristic(SERVICE_UUID, CHARACTERISTIC_UUID);
+        doReturn(characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION))
+            .when(high).getRemoteClientCharacteristicConfiguration(SERVICE_UUID, CHARACTERISTIC_UUID);
+
+        restorer.snapshot(Arrays.asList(low, high));
+        linksUp.set(false);
+        restorer.restore();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(Arrays.asList("02:00:00:00:00:02"), started);
+        assertTrue(results.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        assertEquals(Arrays.asList("02:00:00:00:00:02", "02:00:00:00:00:01"), started);
+        verify(high).runTx(any(RequestMtuGattTransaction.class), any(GattTransactionCallback.class));
+        verify(high).runTx(any(SubscribeToCharacteristicNotificationsTransaction.class), any(GattTransactionCallback.class));
+        verify(high).runTx(any(WriteGattDescriptorTransaction.class), any(GattTransactionCallback.class));
+        verify(low, never()).runTx(any(RequestMtuGattTransaction.class), any(GattTransactionCallback.class));
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE,
+            characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION).getValue());
+
+        assertEquals(1, results.size());
+        RadioRestoreResult result = results.get(0);
+        assertEquals(2, result.getConnections());
+        assertEquals(2, result.getRestored());
+        assertEquals(1, result.getSubscriptionsRestored());
+        assertEquals(0, result.getSubscriptionsFailed());
+        assertEquals(result, restorer.getLastResult());
+    }
+
+    @Test
+    public void failedReconnectsAreReportedAndAnotherToggleAbandonsTheRestore() {
+        AtomicBoolean linksUp = new AtomicBoolean(true);
+        GattConnection failing = connection("02:00:00:00:00:03", linksUp, 0, false);
+        restorer.snapshot(Collections.singletonList(failing));
+        linksUp.set(false);
+        restorer.restore();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).getFailed());
+        assertEquals(failing.getDevice(), results.get(0).getFailedDevices().get(0));
+        verify(failing, never()).runTx(any(GattClientDiscoverServicesTransaction.class), any(GattTransactionCallback.class));
+
+        GattConnection first = connection("02:00:00:00:00:04", linksUp, 0, true);
+        GattConnection second = connection("02:00:00:00:00:05", linksUp, 0, true);
+        linksUp.set(true);
+        restorer.snapshot(Arrays.asList(first, second));
+        linksUp.set(false);
+        restorer.restore();
+        shadowOf(Looper.getMainLooper()).idle();
+        // the radio goes down again before the second connection's turn
+        restorer.snapshot(Collections.emptyList());
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(200));
+        assertEquals(Arrays.asList("02:00:00:00:00:03", "02:00:00:00:00:04"), started);
+        assertEquals(1, results.size());
+
+        restorer.restore();
+        assertEquals(2, results.size());
+        assertEquals(0, results.get(1).getConnections());
+    }
+
+    @Test
+    public void connectionRemembersSubscriptionsUntilTheLinkIsReset() {
+        GattConnection connection = new GattConnection(new FitbitBluetoothDevice(
+            ShadowBluetoothDevice.newInstance("02:00:00:00:00:06")), Looper.getMainLooper());
+        BluetoothGattCharacteristic characteristic = characteristic();
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION);
+
+        connection.onNotificationsEnabled(characteristic);
+        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        connection.onDescriptorWritten(descriptor);
+        assertEquals(1, connection.getNotificationSubscriptions().size());
+        NotificationSubscription subscription = connection.getNotificationSubscriptions().get(0);
+        assertTrue(subscription.isEnabled());
+        assertArrayEquals(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE, subscription.getConfiguration());
+
+        connection.onNotificationsDisabled(characteristic);
+        assertFalse(connection.getNotificationSubscriptions().get(0).isEnabled());
+        descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+        connection.onDescriptorWritten(descriptor);
+        assertTrue(connection.getNotificationSubscriptions().isEmpty());
+
+        connection.onNotificationsEnabled(characteristic);
+        connection.resetLinkParameters();
+        assertTrue(connection.getNotificationSubscriptions().isEmpty());
+    }
+
+    private BluetoothGattCharacteristic characteristic() {
+        BluetoothGattService service = new BluetoothGattService(SERVICE_UUID, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(CHARACTERISTIC_UUID,
+            BluetoothGattCharacteristic.PROPERTY_INDICATE, BluetoothGattCharacteristic.PERMISSION_READ);
+        characteristic.addDescriptor(new BluetoothGattDescriptor(GattServerSubscriptions.CLIENT_CHARACTERISTIC_CONFIGURATION,
+            BluetoothGattDescriptor.PERMISSION_WRITE));
+        service.addCharacteristic(characteristic);
+        return characteristic;
+    }
+
+    private GattConnection connection(String address, AtomicBoolean linksUp, int priority, boolean connects) {
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(ShadowBluetoothDevice.newInstance(address));
+        GattConnection connection = mock(GattConnection.class);
+        doReturn(device).when(connection).getDevice();
+        doReturn(priority).when(connection).getLastAdmissionPriority();
+        doReturn(GattConnection.DEFAULT_MTU).when(connection).getMtu();
+        doReturn(Collections.emptyList()).when(connection).getNotificationSubscriptions();
+        doAnswer(invocation -> linksUp.get()).when(connection).isConnected();
+        doAnswer(invocation -> {
+            GattClientTransaction transaction = invocation.getArgument(0);
+            GattTransactionCallback callback = invocation.getArgument(1);
+            boolean success = true;
+            if (transaction instanceof GattConnectTransaction) {
+                started.add(address);
+                assertEquals(priority, ((GattConnectTransaction) transaction).getAdmissionPriority());
+                success = connects;
+            }
+            callback.onTransactionComplete(new TransactionResult.Builder()
+                .resultStatus(success ? TransactionResult.TransactionResultStatus.SUCCESS : TransactionResult.TransactionResultStatus.FAILURE)
+                .build());
+            return null;
+        }).when(connection).runTx(any(GattClientTransaction.class), any(GattTransactionCallback.class));
+        return connection;
+    }
+}
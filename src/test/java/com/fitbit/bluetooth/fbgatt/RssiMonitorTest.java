@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction;
+import androidx.test.core.app.ApplicationProvider;
+import android.os.Handler;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class RssiMonitorTest {
+
+    private final Map<FitbitBluetoothDevice, GattConnection> connections = new LinkedHashMap<>();
+    private final List<Integer> announced = new ArrayList<>();
+    private RssiMonitor monitor;
+    private FitbitBluetoothDevice device;
+
+    @Before
+    public void before() {
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(ApplicationProvider.getApplicationContext());
+        monitor = new RssiMonitor(connections);
+        device = new FitbitBluetoothDevice(ShadowBluetoothDevice.newInstance("02:00:00:00:00:01"));
+        device.addDevicePropertiesChangedListener(changed -> announced.add(changed.getSmoothedRssi()));
+        monitor.start(new Handler(Looper.getMainLooper()), 4, 0.5f, 3);
+    }
+
+    @After
+    public void after() {
+        monitor.stop();
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void smoothedRssiIsOnlyAnnouncedOutsideTheHysteresis() {
+        assertTrue(monitor.onSample(device, -60));
+        monitor.onSample(device, -62);
+        monitor.onSample(device, -64);
+        monitor.onSample(device, -70);
+        assertEquals(2, announced.size());
+        assertEquals(-60, (int) announced.get(0));
+        assertEquals(-66, (int) announced.get(1));
+        assertEquals(-66, device.getSmoothedRssi());
+
+        device.setRssi(-90);
+        assertEquals(2, announced.size());
+        assertEquals(250, monitor.getStats().getReadIntervalMillis());
+    }
+
+    @Test
+    public void readsSkipConnectionsWithPendingTraffic() {
+        GattConnection busy = connection("02:00:00:00:00:02", true, -50);
+        GattConnection idle = connection("02:00:00:00:00:03", false, -55);
+        monitor.tick();
+        monitor.tick();
+        verify(busy, never()).runTx(any(ReadRssiTransaction.class), any(GattTransactionCallback.class));
+        verify(idle, times(2)).runTx(any(ReadRssiTransaction.class), any(GattTransactionCallback.class));
+        RssiMonitorStats stats = monitor.getStats();
+        assertEquals(2, stats.getReads());
+        assertEquals(1, stats.getYieldedReads());
+        assertEquals(-55, idle.getDevice().getSmoothedRssi());
+    }
+
+    @Test
+    public void unknownScanRssiIsIgnoredAndStopHandsBackRawRssi() {
+        monitor.onScanRssi(device, 127);
+        monitor.onScanRssi(device, -70);
+        assertEquals(1, monitor.getStats().getScanSamples());
+        assertEquals(1, monitor.getStats().getMonitoredDevices());
+
+        monitor.stop();
+        assertFalse(monitor.isRunning());
+        monitor.onScanRssi(device, -40);
+        assertEquals(1, monitor.getStats().getScanSamples());
+        device.setRssi(-45);
+        assertEquals(-45, device.getSmoothedRssi());
+        assertEquals(-45, (int) announced.get(announced.size() - 1));
+    }
+
+    @Test
+    public void readFinishingAfterStopIsDropped() {
+        FitbitBluetoothDevice fitbitDevice = new FitbitBluetoothDevice(ShadowBluetoothDevice.newInstance("02:00:00:00:00:04"));
+        GattConnection connection = mock(GattConnection.class);
+        doReturn(fitbitDevice).when(connection).getDevice();
+        doReturn(true).when(connection).isConnected();
+        List<GattTransactionCallback> outstanding = new ArrayList<>();
+        doAnswer(invocation -> {
+            outstanding.add(invocation.getArgument(1));
+            return null;
+        }).when(connection).runTx(any(ReadRssiTransaction.class), any(GattTransactionCallback.class));
+        connections.put(fitbitDevice, connection);
+        monitor.tick();
+        assertEquals(1, outstanding.size());
+
+        monitor.stop();
+        outstanding.get(0).onTransactionComplete(new TransactionResult.Builder()
+            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+            .rssi(-50)
+            .build());
+        assertEquals(0, monitor.getStats().getMonitoredDevices());
+    }
+
+    private GattConnection connection(String address, boolean pending, int rssi) {
+        FitbitBluetoothDevice fitbitDevice = new FitbitBluetoothDevice(ShadowBluetoothDevice.newInstance(address));
+        GattConnection connection = mock(GattConnection.class);
+        doReturn(fitbitDevice).when(connection).getDevice();
+        doReturn(true).when(connection).isConnected();
+        doReturn(pending).when(connection).hasPendingTransactions();
+        doAnswer(invocation -> {
+            GattTransactionCallback callback = invocation.getArgument(1);
+            callback.onTransactionComplete(new TransactionResult.Builder()
+                .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+                .rssi(rssi)
+                .build());
+            return null;
+        }).when(connection).runTx(any(ReadRssiTransaction.class), any(GattTransactionCallback.class));
+        connections.put(fitbitDevice, connection);
+        return connection;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ScanStartTokenBucketTest {
+
+    @Test
+    public void allowsCapacityStartsWithinTheWindow() {
+        ScanStartTokenBucket bucket = new ScanStartTokenBucket(5, 30000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(i * 1000));
+        }
+        assertFalse(bucket.tryAcquire(5000));
+        assertEquals(0, bucket.availableTokens(5000));
+    }
+
+    @Test
+    public void tokenReturnsOneWindowAfterItWasSpent() {
+        ScanStartTokenBucket bucket = new ScanStartTokenBucket(5, 30000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire(i * 1000));
+        }
+        // the first token was spent at 0 so it is back at 30000
+        assertEquals(25000, bucket.millisUntilNextToken(5000));
+        assertFalse(bucket.tryAcquire(29999));
+        assertTrue(bucket.tryAcquire(30000));
+        // the second came back at 31000
+        assertEquals(1000, bucket.millisUntilNextToken(30000));
+    }
+
+    @Test
+    public void neverAllowsMoreThanCapacityInAnySlidingWindow() {
+        ScanStartTokenBucket bucket = new ScanStartTokenBucket(5, 30000);
+        long[] starts = new long[200];
+        int count = 0;
+        for (long now = 0; now < 300000 && count < starts.length; now += 700) {
+            if (bucket.tryAcquire(now)) {
+                starts[count++] = now;
+            }
+        }
+        for (int i = 5; i < count; i++) {
+            assertTrue(starts[i] - starts[i - 5] >= 30000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBucket() {
+        new ScanStartTokenBucket(0, 30000);
+    }
+}
@@ -83,7 +83,7 @@ public class ScannedDevicesInvalidationTest {
     public void testDisconnectedScannedDevicesRemoval() {
         conn.setState(GattState.DISCONNECTED);
         conn.setDisconnectedTTL(0);
-        gatt.doDecrementAndInvalidateClosedConnections();
+        gatt.evictExpiredConnections();
         assertFalse("There are no remaining connections", gatt.getConnectionMap().containsKey(device));
     }
 
@@ -91,7 +91,7 @@ public class ScannedDevicesInvalidationTest {
     public void testDisconnectedScannedDevicesNonRemoval(){
         conn.setState(GattState.DISCONNECTED);
         conn.setDisconnectedTTL(500);
-        gatt.doDecrementAndInvalidateClosedConnections();
+        gatt.evictExpiredConnections();
         assertTrue("The connection remains", gatt.getConnectionMap().containsKey(device));
     }
 
@@ -99,7 +99,7 @@ public class ScannedDevicesInvalidationTest {
     public void testConnectedDevicesAtZeroTtlNonRemoval(){
         conn.setState(GattState.CONNECTED);
         conn.setDisconnectedTTL(0);
-        gatt.doDecrementAndInvalidateClosedConnections();
+        gatt.evictExpiredConnections();
         assertTrue("The connection remains", gatt.getConnectionMap().containsKey(device));
     }
 
@@ -107,7 +107,7 @@ public class ScannedDevicesInvalidationTest {
     public void testConnectedDevicesNonRemoval(){
         conn.setState(GattState.CONNECTED);
         conn.setDisconnectedTTL(800);
-        gatt.doDecrementAndInvalidateClosedConnections();
+        gatt.evictExpiredConnections();
         assertTrue("The connection remains", gatt.getConnectionMap().containsKey(device));
     }
 
@@ -119,7 +119,7 @@ public class ScannedDevicesInvalidationTest {
         BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED);
         ReadGattCharacteristicMockTransaction readChar = new ReadGattCharacteristicMockTransaction(conn, GattState.READ_CHARACTERISTIC_SUCCESS, characteristic, fakeData, false);
         conn.runTx(readChar, result -> assertEquals("Tx result was successful", result.resultState, GattState.READ_CHARACTERISTIC_SUCCESS));
-        gatt.doDecrementAndInvalidateClosedConnections();
+        gatt.evictExpiredConnections();
         assertEquals(FitbitGatt.MAX_TTL, conn.getDisconnectedTTL());
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowSystemClock;
+import java.time.Duration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class StartupTracerTest {
+
+    private final StartupTracer tracer = new StartupTracer();
+
+    @Test
+    public void nothingIsTracedBeforeAStart() {
+        tracer.phaseStarted(StartupPhase.GATT_SERVER_OPEN);
+        tracer.phaseFinished(StartupPhase.GATT_SERVER_OPEN, true);
+        assertNull(tracer.getTrace());
+    }
+
+    @Test
+    public void phasesAreTimedFromTheStart() {
+        tracer.begin(false, null);
+        ShadowSystemClock.advanceBy(Duration.ofMillis(10));
+        tracer.phaseStarted(StartupPhase.GATT_SERVER_OPEN);
+        ShadowSystemClock.advanceBy(Duration.ofMillis(30));
+        tracer.phaseFinished(StartupPhase.GATT_SERVER_OPEN, true);
+        StartupTrace trace = tracer.getTrace();
+        StartupPhaseTiming open = trace.getTiming(StartupPhase.GATT_SERVER_OPEN);
+        assertEquals(10, open.getStartOffsetMillis());
+        assertEquals(30, open.getDurationMillis());
+        assertEquals(Thread.currentThread().getName(), open.getThreadName());
+        assertEquals(40, trace.getTotalMillis());
+        assertFalse(trace.isComplete());
+        assertNull(trace.getTiming(StartupPhase.SCANNER));
+    }
+
+    @Test
+    public void listenerIsToldOnceEveryPhaseIsDone() {
+        StartupTraceListener listener = mock(StartupTraceListener.class);
+        tracer.begin(true, listener);
+        for (StartupPhase phase : StartupPhase.values()) {
+            if (phase != StartupPhase.SCANNER) {
+                tracer.phaseSkipped(phase);
+            }
+        }
+        verify(listener, never()).onStartupFinished(any());
+        tracer.phaseFinished(StartupPhase.SCANNER, true);
+        // a phase only counts once
+        tracer.phaseFinished(StartupPhase.SCANNER, false);
+        StartupTrace trace = tracer.getTrace();
+        assertTrue(trace.isComplete());
+        assertTrue(trace.isConcurrent());
+        assertTrue(trace.getTiming(StartupPhase.SCANNER).isSuccessful());
+        verify(listener).onStartupFinished(any());
+    }
+}
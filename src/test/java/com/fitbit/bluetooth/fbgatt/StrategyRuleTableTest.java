@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import com.fitbit.bluetooth.fbgatt.strategies.HandleTrackerVanishingUnderGattOperationStrategy;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class StrategyRuleTableTest {
+
+    private static final AndroidDevice SAMSUNG = new AndroidDevice.Builder()
+        .manufacturerName("samsung")
+        .deviceModel("SM-G960U")
+        .apiLevel(28)
+        .build();
+
+    @After
+    public void after() {
+        StrategyProvider.resetStrategyRules();
+    }
+
+    @Test
+    public void bundledRulesKeepTheBuiltInStrategies() {
+        StrategyRuleTable table = StrategyRuleTable.compileBundled(SAMSUNG);
+        assertEquals(StrategyRuleTable.TRACKER_VANISHING, table.getStrategy(Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION));
+        assertEquals(StrategyRuleTable.CLEAR_GATT_SERVER_SERVICES, table.getStrategy(Situation.CLEAR_GATT_SERVER_SERVICES_DEVICE_FUNKY_BT_IMPL));
+        assertNull(table.getStrategy(Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT));
+
+        StrategyRuleTable pixel = StrategyRuleTable.compileBundled(new AndroidDevice.Builder().manufacturerName("Google").build());
+        assertNull(pixel.getStrategy(Situation.CLEAR_GATT_SERVER_SERVICES_DEVICE_FUNKY_BT_IMPL));
+    }
+
+    @Test
+    public void everyDevicePropertyMustMatch() throws JSONException {
+        String json = "{\"rules\": [{\"situation\": \"DELAY_ANDROID_SUBSCRIPTION_EVENT\", \"strategy\": \"DelaySubscriptionResultStrategy\","
+            + " \"device\": {\"manufacturerName\": \"SAMSUNG\", \"apiLevel\": 27}}]}";
+        assertNull(StrategyRuleTable.compile(json, SAMSUNG).getStrategy(Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT));
+        assertEquals(StrategyRuleTable.DELAY_SUBSCRIPTION_RESULT,
+            StrategyRuleTable.compile(json.replace("27", "28"), SAMSUNG).getStrategy(Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT));
+    }
+
+    @Test
+    public void apiLevelRangesAreInclusive() throws JSONException {
+        String json = "{\"rules\": [{\"situation\": \"DELAY_ANDROID_SUBSCRIPTION_EVENT\", \"strategy\": \"DelaySubscriptionResultStrategy\","
+            + " \"device\": {\"minApiLevel\": 26, \"maxApiLevel\": 28}}]}";
+        assertEquals(StrategyRuleTable.DELAY_SUBSCRIPTION_RESULT, StrategyRuleTable.compile(json, SAMSUNG).getStrategy(Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT));
+        assertNull(StrategyRuleTable.compile(json.replace("28}", "27}"), SAMSUNG).getStrategy(Situation.DELAY_ANDROID_SUBSCRIPTION_EVENT));
+    }
+
+    @Test
+    public void firstMatchingRuleWinsAndBadRulesAreSkipped() throws JSONException {
+        String json = "{\"rules\": ["
+            + "{\"situation\": \"NOT_A_SITUATION\", \"strategy\": \"DelaySubscriptionResultStrategy\"},"
+            + "{\"situation\": \"DEFAULT\", \"strategy\": \"NotAStrategy\"},"
+            + "{\"situation\": \"DEFAULT\"},"
+            + "{\"situation\": \"DEFAULT\", \"strategy\": \"DelaySubscriptionResultStrategy\", \"device\": {\"minApiLevel\": \"many\"}},"
+            + "{\"situation\": \"DEFAULT\", \"strategy\": \"DelaySubscriptionResultStrategy\", \"device\": {\"notAProperty\": \"x\"}},"
+            + "{\"situation\": \"DEFAULT\", \"strategy\": \"HandleTrackerVanishingUnderGattOperationStrategy\", \"device\": {\"deviceModel\": \"sm-g960u\"}},"
+            + "{\"situation\": \"DEFAULT\", \"strategy\": \"DelaySubscriptionResultStrategy\"}"
+            + "]}";
+        StrategyRuleTable table = StrategyRuleTable.compile(json, SAMSUNG);
+        assertEquals(7, table.getRuleCount());
+        assertEquals(StrategyRuleTable.TRACKER_VANISHING, table.getStrategy(Situation.DEFAULT));
+    }
+
+    @Test
+    public void loadedRulesReplaceTheBundledOnes() {
+        StrategyProvider provider = new StrategyProvider();
+        assertTrue(provider.getStrategyForSituation(null, Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION)
+            instanceof HandleTrackerVanishingUnderGattOperationStrategy);
+        StrategyProvider.loadStrategyRules("{\"rules\": []}");
+        assertNull(provider.getStrategyForSituation(null, Situation.TRACKER_WENT_AWAY_DURING_GATT_OPERATION));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedRulesAreRejected() {
+        StrategyProvider.loadStrategyRules("{\"rule\": []}");
+    }
+
+    @Test
+    public void currentDeviceIsOnlyBuiltOnce() {
+        assertSame(StrategyProvider.getCurrentDevice(), StrategyProvider.getCurrentDevice());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction;
+import android.content.Context;
+import android.os.Looper;
+import android.os.SystemClock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class TransactionCancellationTest {
+
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+    private GattConnection connection;
+
+    @Before
+    public void before() {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        connection = new GattConnection(device, context.getMainLooper());
+        connection.setState(GattState.IDLE);
+        FitbitGatt.getInstance().putConnectionIntoDevices(device, connection);
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void queuedTransactionIsDroppedOnceCancelled() throws InterruptedException {
+        // the delay holds the transaction on the main looper until we idle it
+        connection.setIntraTransactionDelay(10);
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        TransactionHandle handle = connection.runTxWithHandle(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), result::set);
+        assertTrue(handle.cancel());
+        assertFalse(handle.cancel());
+        awaitResult(result);
+        assertEquals(TransactionResult.TransactionResultStatus.CANCELLED, result.get().getResultStatus());
+        assertEquals(GattState.IDLE, connection.getGattState());
+        assertEquals(1, FitbitGatt.getInstance().getTransactionSkipStats().getCancelledQueued());
+    }
+
+    @Test
+    public void cancelBeforeCommitStartsTheRunWins() throws InterruptedException {
+        StalledTransaction stalled = new StalledTransaction(connection);
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        TransactionHandle handle = stalled.newHandle();
+        assertTrue(handle.cancel());
+        new Thread(() -> stalled.commit(result::set)).start();
+        awaitResult(result);
+        assertEquals(TransactionResult.TransactionResultStatus.CANCELLED, result.get().getResultStatus());
+        assertFalse(stalled.running);
+        assertFalse(handle.cancel());
+    }
+
+    @Test
+    public void expiredTransactionIsDroppedBeforeItRuns() throws InterruptedException {
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), SystemClock.elapsedRealtime() - 1, result::set);
+        awaitResult(result);
+        assertEquals(TransactionResult.TransactionResultStatus.TIMEOUT, result.get().getResultStatus());
+        assertEquals(GattState.IDLE, connection.getGattState());
+        assertEquals(1, FitbitGatt.getInstance().getTransactionSkipStats().getExpiredQueued());
+    }
+
+    @Test
+    public void inFlightTransactionIsEndedThroughTheTimeout() throws InterruptedException {
+        StalledTransaction stalled = new StalledTransaction(connection);
+        AtomicReference<TransactionResult> result = new AtomicReference<>();
+        TransactionHandle handle = connection.runTxWithHandle(stalled, result::set);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!stalled.running && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(handle.cancel());
+        awaitResult(result);
+        assertEquals(TransactionResult.TransactionResultStatus.TIMEOUT, result.get().getResultStatus());
+        assertEquals(1, FitbitGatt.getInstance().getTransactionSkipStats().getCancelledInFlight());
+        assertFalse(handle.cancel());
+    }
+
+    private static void awaitResult(AtomicReference<TransactionResult> result) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (result.get() == null && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idleFor(10, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+        assertNotNull(result.get());
+    }
+
+    private static class StalledTransaction extends GattClientTransaction {
+        private volatile boolean running;
+
+        StalledTransaction(GattConnection connection) {
+            super(connection, GattState.IDLE);
+        }
+
+        @Override
+        protected void transaction(GattTransactionCallback callback) {
+            super.transaction(callback);
+            running = true;
+            // never answers, as if the peripheral went quiet
+        }
+
+        @Override
+        public String getName() {
+            return "StalledTransaction";
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.tx.ReadGattCharacteristicTransaction;
+import com.fitbit.bluetooth.fbgatt.tx.WriteGattCharacteristicTransaction;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.content.Context;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class TransactionPoolTest {
+
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+    private static final int ALLOCATION_SAMPLES = 100;
+
+    private GattConnection conn;
+    private BluetoothGattCharacteristic characteristic;
+
+    @Before
+    public void before() {
+        Context context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(MOCK_ADDRESS, "fooDevice", ShadowBluetoothDevice.newInstance(MOCK_ADDRESS));
+        conn = new GattConnection(device, context.getMainLooper());
+        conn.setState(GattState.IDLE);
+        characteristic = new BluetoothGattCharacteristic(UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_READ, BluetoothGattCharacteristic.PERMISSION_READ);
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void recycledTransactionIsHandedOutAgain() {
+        ReadGattCharacteristicTransaction first = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+        first.recycle();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, conn.getReadPool().size());
+        ReadGattCharacteristicTransaction second = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+        assertSame(first, second);
+        assertEquals(1, conn.getReadPool().getCreated());
+        assertEquals(1, conn.getReadPool().getReused());
+        assertNotSame(second, conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic));
+    }
+
+    @Test
+    public void recycleFromTheCallbackWaitsForRelease() throws InterruptedException {
+        ReadGattCharacteristicTransaction tx = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+        // delivered on the committing thread, so the whole run happens within commit
+        tx.setCallbackExecutor(Runnable::run);
+        AtomicReference<TransactionResult> delivered = new AtomicReference<>();
+        AtomicBoolean inFlightWhenDelivered = new AtomicBoolean();
+        Thread committer = new Thread(() -> tx.commit(result -> {
+            inFlightWhenDelivered.set(tx.isInFlight());
+            tx.recycle();
+            delivered.set(result);
+        }));
+        committer.start();
+        committer.join(5000);
+        assertNotNull(delivered.get());
+        assertEquals(TransactionResult.TransactionResultStatus.FAILURE, delivered.get().getResultStatus());
+        // still in flight when recycled, the pool must not get it until the transaction has released
+        assertTrue(inFlightWhenDelivered.get());
+        assertEquals(0, conn.getReadPool().size());
+        shadowOf(Looper.getMainLooper()).idle();
+        assertFalse(tx.isInFlight());
+        assertFalse(tx.hasStarted());
+        assertSame(tx, conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recyclingTwiceThrows() {
+        WriteGattCharacteristicTransaction tx = conn.obtainWriteCharacteristicTransaction(GattState.WRITE_CHARACTERISTIC_SUCCESS, characteristic);
+        tx.recycle();
+        tx.recycle();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recyclingAnUnpooledTransactionThrows() {
+        new ReadGattCharacteristicTransaction(conn, GattState.READ_CHARACTERISTIC_SUCCESS, characteristic).recycle();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void committingARecycledTransactionThrows() {
+        ReadGattCharacteristicTransaction tx = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+        tx.recycle();
+        tx.commit(result -> fail());
+    }
+
+    @Test
+    public void poolIsBounded() {
+        for (int i = 0; i < TransactionPool.DEFAULT_CAPACITY * 2; i++) {
+            conn.obtainWriteCharacteristicTransaction(GattState.WRITE_CHARACTERISTIC_SUCCESS, characteristic).recycle();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(TransactionPool.DEFAULT_CAPACITY, conn.getWritePool().size());
+    }
+
+    @Test
+    public void recycleWhileQueuedWaitsForRelease() {
+        ReadGattCharacteristicTransaction tx = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+        GattClientTransaction queued = tx;
+        // handed to the connection but not committed yet
+        queued.markQueued();
+        tx.recycle();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(0, conn.getReadPool().size());
+        queued.rejectWithoutRunning(null);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, conn.getReadPool().size());
+        assertSame(tx, conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic));
+    }
+
+    @Test
+    public void steadyUseOfThePoolCreatesOneTransaction() {
+        ReadGattCharacteristicTransaction first = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+        first.recycle();
+        shadowOf(Looper.getMainLooper()).idle();
+        for (int i = 0; i < TransactionPool.DEFAULT_CAPACITY * 2; i++) {
+            ReadGattCharacteristicTransaction tx = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+            assertSame(first, tx);
+            tx.recycle();
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(1, conn.getReadPool().getCreated());
+        assertEquals(TransactionPool.DEFAULT_CAPACITY * 2, conn.getReadPool().getReused());
+    }
+
+    @Test
+    public void obtainingAPooledTransactionAllocatesLessThanANewOne() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+        // warm up both paths
+        conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic).recycle();
+        shadowOf(Looper.getMainLooper()).idle();
+        assertNotNull(new ReadGattCharacteristicTransaction(conn, GattState.READ_CHARACTERISTIC_SUCCESS, characteristic));
+        long fresh = 0;
+        long pooled = 0;
+        for (int i = 0; i < ALLOCATION_SAMPLES; i++) {
+            long start = bean.getThreadAllocatedBytes(thread);
+            ReadGattCharacteristicTransaction tx = new ReadGattCharacteristicTransaction(conn, GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+            fresh += bean.getThreadAllocatedBytes(thread) - start;
+            assertNotNull(tx);
+        }
+        for (int i = 0; i < ALLOCATION_SAMPLES; i++) {
+            long start = bean.getThreadAllocatedBytes(thread);
+            ReadGattCharacteristicTransaction tx = conn.obtainReadCharacteristicTransaction(GattState.READ_CHARACTERISTIC_SUCCESS, characteristic);
+            pooled += bean.getThreadAllocatedBytes(thread) - start;
+            tx.recycle();
+            // the reset is posted, it is not part of what the caller pays for the obtain
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        // coarse on purpose, the transaction and its handlers should dwarf the pool bookkeeping
+        assertTrue(String.format(Locale.ENGLISH, "new: %d bytes, pooled: %d bytes", fresh, pooled), pooled * 2 < fresh);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import androidx.test.core.app.ApplicationProvider;
+import com.fitbit.bluetooth.fbgatt.tx.ReadRssiTransaction;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBluetoothDevice;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class TransactionQueueLimitTest {
+
+    private static final String MOCK_ADDRESS = "02:00:00:00:00:00";
+    private static final String OTHER_MOCK_ADDRESS = "02:00:00:00:00:01";
+    private Context context;
+    private GattConnection connection;
+
+    @Before
+    public void before() {
+        context = ApplicationProvider.getApplicationContext();
+        FitbitGatt.setInstance(null);
+        FitbitGatt.getInstance().setStarted();
+        FitbitGatt.getInstance().setAppContext(context);
+        connection = newConnection(MOCK_ADDRESS, "fooDevice");
+    }
+
+    @After
+    public void after() {
+        FitbitGatt.getInstance().shutdown();
+        FitbitGatt.setInstance(null);
+    }
+
+    @Test
+    public void fullQueueRejectsAndTellsTheListener() throws InterruptedException {
+        FitbitGatt.getInstance().setTransactionQueueLimits(1, Integer.MAX_VALUE, QueueOverloadPolicy.REJECT, 0);
+        AtomicReference<QueueOverloadPolicy> overloaded = new AtomicReference<>();
+        AtomicInteger overloads = new AtomicInteger();
+        FitbitGatt.getInstance().addTransactionQueueOverloadListener((device, policy, stats) -> {
+            overloaded.set(policy);
+            overloads.incrementAndGet();
+        });
+        stallQueue(connection);
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), result -> { });
+        AtomicReference<TransactionResult> rejected = new AtomicReference<>();
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), rejected::set);
+        awaitResult(rejected);
+        assertEquals(TransactionResult.TransactionResultStatus.REJECTED, rejected.get().getResultStatus());
+        assertSame(QueueOverloadPolicy.REJECT, overloaded.get());
+        assertEquals(1, overloads.get());
+        TransactionQueueStats stats = connection.getTransactionQueueStats();
+        assertEquals(1, stats.getDepth());
+        assertEquals(1, stats.getHighWaterMark());
+        assertEquals(1, stats.getCapacity());
+        assertEquals(1, stats.getRejected());
+        assertEquals(1, FitbitGatt.getInstance().getTransactionQueueStats().getRejected());
+    }
+
+    @Test
+    public void blockedProducerResumesOnceTheQueueDrains() throws InterruptedException {
+        FitbitGatt.getInstance().setTransactionQueueLimits(1, Integer.MAX_VALUE, QueueOverloadPolicy.BLOCK, TimeUnit.MINUTES.toMillis(1));
+        StalledTransaction running = stallQueue(connection);
+        // takes the only slot, then the queue thread stalls on it too once the first is answered
+        StalledTransaction waiting = new StalledTransaction(connection);
+        connection.runTx(waiting, result -> { });
+        AtomicReference<TransactionResult> refused = new AtomicReference<>();
+        CountDownLatch queued = new CountDownLatch(1);
+        // a producer without a looper, like a worker thread, may wait for room
+        Thread producer = new Thread(() -> {
+            connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), refused::set);
+            queued.countDown();
+        }, "Blocked Producer");
+        producer.start();
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, connection.getTransactionQueueStats().getBlocked());
+        running.answer();
+        assertTrue(waiting.awaitInFlight());
+        assertTrue(queued.await(2, TimeUnit.SECONDS));
+        assertNull(refused.get());
+        TransactionQueueStats stats = connection.getTransactionQueueStats();
+        assertEquals(1, stats.getDepth());
+        assertEquals(0, stats.getRejected());
+    }
+
+    @Test
+    public void blockPolicyRefusesInsteadOfBlockingALooperThread() throws InterruptedException {
+        FitbitGatt.getInstance().setTransactionQueueLimits(1, Integer.MAX_VALUE, QueueOverloadPolicy.BLOCK, TimeUnit.MINUTES.toMillis(1));
+        stallQueue(connection);
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), result -> { });
+        AtomicReference<TransactionResult> rejected = new AtomicReference<>();
+        // like the async operation thread or a callback dispatcher thread
+        HandlerThread looperThread = new HandlerThread("Looper Producer");
+        looperThread.start();
+        try {
+            new Handler(looperThread.getLooper()).post(() ->
+                connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), rejected::set));
+            awaitResult(rejected);
+        } finally {
+            looperThread.quit();
+        }
+        assertEquals(TransactionResult.TransactionResultStatus.REJECTED, rejected.get().getResultStatus());
+        assertEquals(0, connection.getTransactionQueueStats().getBlocked());
+    }
+
+    @Test
+    public void lowestPriorityTransactionIsEvicted() throws InterruptedException {
+        FitbitGatt.getInstance().setTransactionQueueLimits(1, Integer.MAX_VALUE, QueueOverloadPolicy.EVICT_LOWEST_PRIORITY, 0);
+        stallQueue(connection);
+        AtomicReference<TransactionResult> evicted = new AtomicReference<>();
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), evicted::set);
+        ReadRssiTransaction important = new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS);
+        important.setQueuePriority(5);
+        AtomicReference<TransactionResult> kept = new AtomicReference<>();
+        connection.runTx(important, kept::set);
+        awaitResult(evicted);
+        assertEquals(TransactionResult.TransactionResultStatus.REJECTED, evicted.get().getResultStatus());
+        ReadRssiTransaction unimportant = new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS);
+        unimportant.setQueuePriority(1);
+        AtomicReference<TransactionResult> refused = new AtomicReference<>();
+        connection.runTx(unimportant, refused::set);
+        awaitResult(refused);
+        assertEquals(TransactionResult.TransactionResultStatus.REJECTED, refused.get().getResultStatus());
+        assertNull(kept.get());
+        TransactionQueueStats stats = connection.getTransactionQueueStats();
+        assertEquals(1, stats.getDepth());
+        assertEquals(1, stats.getEvicted());
+        assertEquals(1, stats.getRejected());
+    }
+
+    @Test
+    public void globalCapacityIsSharedByAllConnections() throws InterruptedException {
+        FitbitGatt.getInstance().setTransactionQueueLimits(Integer.MAX_VALUE, 1, QueueOverloadPolicy.REJECT, 0);
+        stallQueue(connection);
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), result -> { });
+        GattConnection other = newConnection(OTHER_MOCK_ADDRESS, "barDevice");
+        AtomicReference<TransactionResult> rejected = new AtomicReference<>();
+        other.runTx(new ReadRssiTransaction(other, GattState.READ_RSSI_SUCCESS), rejected::set);
+        awaitResult(rejected);
+        assertEquals(TransactionResult.TransactionResultStatus.REJECTED, rejected.get().getResultStatus());
+        TransactionQueueStats global = FitbitGatt.getInstance().getTransactionQueueStats();
+        assertEquals(1, global.getDepth());
+        assertEquals(1, global.getHighWaterMark());
+        assertEquals(1, global.getRejected());
+    }
+
+    @Test
+    public void clearedTransactionsFailAndFreeTheirSlot() throws InterruptedException {
+        FitbitGatt.getInstance().setTransactionQueueLimits(Integer.MAX_VALUE, 1, QueueOverloadPolicy.REJECT, 0);
+        stallQueue(connection);
+        AtomicReference<TransactionResult> cleared = new AtomicReference<>();
+        connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), cleared::set);
+        connection.cleanUpConnection();
+        awaitResult(cleared);
+        assertEquals(TransactionResult.TransactionResultStatus.FAILURE, cleared.get().getResultStatus());
+        assertEquals(0, FitbitGatt.getInstance().getTransactionQueueStats().getDepth());
+    }
+
+    @Test
+    public void unlimitedQueuesNeverReject() {
+        stallQueue(connection);
+        for (int i = 0; i < 5; i++) {
+            connection.runTx(new ReadRssiTransaction(connection, GattState.READ_RSSI_SUCCESS), result -> { });
+        }
+        TransactionQueueStats stats = connection.getTransactionQueueStats();
+        assertEquals(5, stats.getDepth());
+        assertEquals(5, stats.getHighWaterMark());
+        assertEquals(Integer.MAX_VALUE, stats.getCapacity());
+        assertEquals(0, stats.getRejected());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        FitbitGatt.getInstance().setTransactionQueueLimits(0, 1, QueueOverloadPolicy.REJECT, 0);
+    }
+
+    private GattConnection newConnection(String address, String name) {
+        FitbitBluetoothDevice device = new FitbitBluetoothDevice(address, name, ShadowBluetoothDevice.newInstance(address));
+        GattConnection newConnection = new GattConnection(device, context.getMainLooper());
+        newConnection.setState(GattState.IDLE);
+        FitbitGatt.getInstance().putConnectionIntoDevices(device, newConnection);
+        return newConnection;
+    }
+
+    private static StalledTransaction stallQueue(GattConnection connection) {
+        StalledTransaction stalled = new StalledTransaction(connection);
+        connection.runTx(stalled, result -> { });
+        try {
+            assertTrue(stalled.awaitInFlight());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return stalled;
+    }
+
+    private static void awaitResult(AtomicReference<TransactionResult> result) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (result.get() == null && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idleFor(10, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+        assertNotNull(result.get());
+    }
+
+    private static class StalledTransaction extends GattClientTransaction {
+        private final CountDownLatch inFlight = new CountDownLatch(1);
+
+        StalledTransaction(GattConnection connection) {
+            super(connection, GattState.IDLE);
+        }
+
+        @Override
+        protected void transaction(GattTransactionCallback callback) {
+            super.transaction(callback);
+            inFlight.countDown();
+            // never answers, so everything behind it stays queued
+        }
+
+        boolean awaitInFlight() throws InterruptedException {
+            return inFlight.await(2, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Lets the queue thread move on to the next transaction
+         */
+        void answer() {
+            release();
+        }
+
+        @Override
+        public String getName() {
+            return "StalledTransaction";
+        }
+    }
+}
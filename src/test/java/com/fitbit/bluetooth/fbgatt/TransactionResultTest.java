@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import android.bluetooth.BluetoothGattService;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Locale;
+import java.util.UUID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class TransactionResultTest {
+
+    private static final UUID CHARACTERISTIC = UUID.randomUUID();
+    private static final int ALLOCATION_SAMPLES = 100;
+
+    @Test
+    public void emptyListsCanStillBeChanged() {
+        TransactionResult result = readResult(new byte[]{1});
+        assertTrue(result.getServices().isEmpty());
+        assertTrue(result.getTransactionResults().isEmpty());
+        result.getTransactionResults().add(readResult(new byte[]{2}));
+        result.getServices().add(new BluetoothGattService(UUID.randomUUID(), BluetoothGattService.SERVICE_TYPE_PRIMARY));
+        assertEquals(1, result.getTransactionResults().size());
+        assertEquals(1, result.getServices().size());
+        assertTrue(readResult(new byte[]{3}).getTransactionResults().isEmpty());
+    }
+
+    @Test
+    public void childResultsAreKept() {
+        TransactionResult child = readResult(new byte[]{1});
+        TransactionResult.Builder builder = new TransactionResult.Builder()
+            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+            .addTransactionResult(child);
+        TransactionResult parent = builder.build();
+        builder.addTransactionResult(child);
+        assertEquals(1, parent.getTransactionResults().size());
+        assertSame(child, parent.getTransactionResults().get(0));
+        assertEquals(2, builder.build().getTransactionResults().size());
+    }
+
+    @Test
+    public void payloadIsHeldNotCopied() {
+        byte[] value = new byte[]{1, 2, 3};
+        TransactionResult result = readResult(value);
+        assertSame(value, result.getData());
+        ByteBuffer view = result.getDataView();
+        assertNotNull(view);
+        assertTrue(view.isReadOnly());
+        assertEquals(3, view.remaining());
+        assertEquals(2, view.get(1));
+        try {
+            view.put(0, (byte) 9);
+            fail("The view must be read only");
+        } catch (ReadOnlyBufferException e) {
+            assertEquals(1, value[0]);
+        }
+    }
+
+    @Test
+    public void resultWithoutDataHasNoView() {
+        assertNull(new TransactionResult.Builder().build().getDataView());
+    }
+
+    @Test
+    public void resultWithoutDataHoldsNoPayload() {
+        TransactionResult result = new TransactionResult.Builder()
+            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+            .build();
+        assertNull(result.getData());
+    }
+
+    @Test
+    public void listsThatAreNeverAskedForAreNeverAllocated() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long thread = Thread.currentThread().getId();
+        byte[] value = new byte[]{1};
+        // warm up both paths
+        readResult(value).getServices();
+        readResult(value).getTransactionResults();
+        long built = 0;
+        long listed = 0;
+        for (int i = 0; i < ALLOCATION_SAMPLES; i++) {
+            long start = bean.getThreadAllocatedBytes(thread);
+            TransactionResult result = readResult(value);
+            built += bean.getThreadAllocatedBytes(thread) - start;
+            start = bean.getThreadAllocatedBytes(thread);
+            result.getServices();
+            result.getTransactionResults();
+            listed += bean.getThreadAllocatedBytes(thread) - start;
+        }
+        // a read result that is delivered and dropped pays only for what was built, the lists
+        // come to about a third of that again on the test jvm
+        assertTrue(String.format(Locale.ENGLISH, "built: %d bytes, lists: %d bytes", built, listed), listed > 0);
+    }
+
+    private static TransactionResult readResult(byte[] value) {
+        return new TransactionResult.Builder()
+            .transactionName("ReadGattCharacteristicTransaction")
+            .gattState(GattState.READ_CHARACTERISTIC_SUCCESS)
+            .characteristicUuid(CHARACTERISTIC)
+            .data(value)
+            .resultStatus(TransactionResult.TransactionResultStatus.SUCCESS)
+            .build();
+    }
+}
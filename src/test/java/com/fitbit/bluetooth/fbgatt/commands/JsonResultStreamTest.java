@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands;
+
+import com.fitbit.bluetooth.fbgatt.GattServerConnection;
+import com.fitbit.bluetooth.fbgatt.commands.server.ShowGattServerServicesCommand;
+import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
+import com.fitbit.bluetooth.fbgatt.tools.ConsumerInterface;
+import com.fitbit.bluetooth.fbgatt.utils.JsonBuilder;
+import com.fitbit.bluetooth.fbgatt.utils.JsonStreamWriter;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattService;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import static com.fitbit.bluetooth.fbgatt.tools.GattServerConnectionConsts.PASS_STATUS;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class JsonResultStreamTest {
+
+    private final PluginLoggerInterface logger = mock(PluginLoggerInterface.class);
+    private final JsonBuilder jsonBuilder = new JsonBuilder(logger);
+    private final List<StringWriter> streams = new ArrayList<>();
+    private PluginCommandConfig config;
+    private ConsumerInterface consumer;
+
+    @Before
+    public void before() {
+        config = mock(PluginCommandConfig.class);
+        consumer = mock(ConsumerInterface.class);
+        doReturn(consumer).when(config).getConsumer();
+        doReturn(true).when(config).isJsonFormat();
+        streams.clear();
+        doAnswer(invocation -> {
+            StringWriter out = new StringWriter();
+            streams.add(out);
+            return new JsonStreamWriter(out);
+        }).when(consumer).consumeJsonStream();
+    }
+
+    @Test
+    public void streamedResultMatchesTheBuiltResult() throws JSONException {
+        List<Map<String, Object>> entries = Arrays.asList(entry("a/b \"quoted\"\n", 1), entry("\u2028 \u0001", 2.5), entry(null, Long.MAX_VALUE));
+        JsonResultStream stream = new ResponseHandler("cmd", logger).onJsonResultStream(config, "cmd");
+        JSONArray array = new JSONArray();
+        for (Map<String, Object> entry : entries) {
+            stream.add(entry);
+            array.put(jsonBuilder.buildJsonResult(entry));
+        }
+        stream.close();
+        assertEquals(jsonBuilder.makeJsonResult("cmd", PASS_STATUS, "", array).toString(), streams.get(0).toString());
+        verify(consumer, never()).consumeJson(any());
+    }
+
+    @Test
+    public void emptyResultMatchesTheBuiltResult() {
+        new ResponseHandler("cmd", logger).onJsonResultStream(config, "cmd").close();
+        assertEquals(jsonBuilder.makeJsonResult("cmd", PASS_STATUS, "", new JSONArray()).toString(), streams.get(0).toString());
+    }
+
+    @Test
+    public void errorIsAddedAfterTheEntriesAlreadyWritten() throws JSONException {
+        JsonResultStream stream = new ResponseHandler("cmd", logger).onJsonResultStream(config, "cmd");
+        stream.add(entry("first", 1));
+        stream.close("broken");
+        JSONObject json = new JSONObject(streams.get(0).toString());
+        assertEquals(1, json.getJSONArray("result").length());
+        assertEquals("broken", json.getString("error"));
+    }
+
+    @Test
+    public void nestedValuesAreWrittenWhole() throws Exception {
+        StringWriter out = new StringWriter();
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("p50", 1.0);
+        nested.put("list", new JSONArray(Arrays.asList(1, "two")));
+        new JsonStreamWriter(out).beginArray()
+            .value(new JSONObject(nested))
+            .value(true)
+            .beginArray().endArray()
+            .object(Collections.singletonMap("k", "v"))
+            .endArray()
+            .close();
+        JSONArray expected = new JSONArray();
+        expected.put(new JSONObject(nested));
+        expected.put(true);
+        expected.put(new JSONArray());
+        expected.put(new JSONObject(Collections.singletonMap("k", "v")));
+        assertEquals(expected.toString(), out.toString());
+    }
+
+    @Test
+    public void serverServicesAreStreamedInTheSameFormat() throws JSONException {
+        BluetoothGattService primary = new BluetoothGattService(UUID.randomUUID(), BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        BluetoothGattService secondary = new BluetoothGattService(UUID.randomUUID(), BluetoothGattService.SERVICE_TYPE_SECONDARY);
+        BluetoothGattServer server = mock(BluetoothGattServer.class);
+        doReturn(Arrays.asList(primary, secondary)).when(server).getServices();
+        GattServerConnection serverConnection = mock(GattServerConnection.class);
+        doReturn(server).when(serverConnection).getServer();
+        doReturn(serverConnection).when(config).getServerConnection();
+
+        ShowGattServerServicesCommand command = new ShowGattServerServicesCommand(logger);
+        command.run(config);
+
+        JSONObject json = new JSONObject(streams.get(0).toString());
+        assertEquals(command.getShortName(), json.getString("command"));
+        assertEquals(PASS_STATUS, json.getString("status"));
+        JSONArray result = json.getJSONArray("result");
+        assertEquals(2, result.length());
+        assertEquals(primary.getUuid().toString(), result.getJSONObject(0).getString("service_uuid"));
+        assertEquals("secondary", result.getJSONObject(1).getString("type"));
+    }
+
+    private static Map<String, Object> entry(String name, Number number) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("number", number);
+        map.put("flag", false);
+        return map;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class GattTimelineTraceCommandTest {
+
+    @Test
+    public void actionsTakeTheirOptionalValue() {
+        GattTimelineTraceCommand.Arguments start = GattTimelineTraceCommand.Arguments.parse(Collections.singletonList("start").iterator());
+        assertEquals(GattTimelineTraceCommand.ACTION_START, start.action);
+        assertEquals(GattTimelineTraceCommand.DEFAULT_MAX_EVENTS, start.maxEvents);
+        assertEquals(100, GattTimelineTraceCommand.Arguments.parse(Arrays.asList("start", "100").iterator()).maxEvents);
+        assertNull(GattTimelineTraceCommand.Arguments.parse(Collections.singletonList("dump").iterator()).path);
+        assertEquals("/sdcard/gatt.json", GattTimelineTraceCommand.Arguments.parse(Arrays.asList("dump", "/sdcard/gatt.json").iterator()).path);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxEventsMustBePositive() {
+        GattTimelineTraceCommand.Arguments.parse(Arrays.asList("start", "0").iterator());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownActionIsRefused() {
+        GattTimelineTraceCommand.Arguments.parse(Collections.singletonList("pause").iterator());
+    }
+}
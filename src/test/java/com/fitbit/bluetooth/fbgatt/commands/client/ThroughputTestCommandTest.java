@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 Fitbit, Inc. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+package com.fitbit.bluetooth.fbgatt.commands.client;
+
+import com.fitbit.bluetooth.fbgatt.GattConnection;
+import com.fitbit.bluetooth.fbgatt.commands.PluginCommandConfig;
+import com.fitbit.bluetooth.fbgatt.logger.PluginLoggerInterface;
+import com.fitbit.bluetooth.fbgatt.tools.ConsumerInterface;
+import com.fitbit.bluetooth.fbgatt.utils.GattConnectionUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+public class ThroughputTestCommandTest {
+
+    private static final String MAC = "02:00:00:00:00:00";
+    private static final String SERVICE = UUID.randomUUID().toString();
+    private static final String CHARACTERISTIC = UUID.randomUUID().toString();
+
+    @Test
+    public void argumentsDefaultToMtuSizedWrites() {
+        ThroughputTestCommand.Arguments args = ThroughputTestCommand.Arguments.parse(Arrays.asList(MAC, SERVICE, CHARACTERISTIC).iterator());
+        assertEquals(MAC, args.mac);
+        assertEquals(UUID.fromString(SERVICE), args.serviceUuid);
+        assertEquals(UUID.fromString(CHARACTERISTIC), args.characteristicUuid);
+        assertEquals(ThroughputTestCommand.DEFAULT_BYTES, args.bytes);
+        assertEquals(ThroughputTestCommand.MODE_WRITE, args.mode);
+        assertNull(args.chunk);
+    }
+
+    @Test
+    public void flagsCanComeAnywhere() {
+        ThroughputTestCommand.Arguments args = ThroughputTestCommand.Arguments.parse(
+            Arrays.asList("--mode", "notify", MAC, SERVICE, "--chunk", "20", CHARACTERISTIC, "--bytes", "100").iterator());
+        assertEquals(MAC, args.mac);
+        assertEquals(ThroughputTestCommand.MODE_NOTIFY, args.mode);
+        assertEquals(Integer.valueOf(20), args.chunk);
+        assertEquals(100, args.bytes);
+        assertNull(ThroughputTestCommand.Arguments.parse(Arrays.asList(MAC, SERVICE, CHARACTERISTIC, "--chunk", "mtu").iterator()).chunk);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownModeIsRejected() {
+        ThroughputTestCommand.Arguments.parse(Arrays.asList(MAC, SERVICE, CHARACTERISTIC, "--mode", "read").iterator());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingCharacteristicIsRejected() {
+        ThroughputTestCommand.Arguments.parse(Arrays.asList(MAC, SERVICE, "--bytes", "10").iterator());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void flagWithoutValueIsRejected() {
+        ThroughputTestCommand.Arguments.parse(Arrays.asList(MAC, SERVICE, CHARACTERISTIC, "--bytes").iterator());
+    }
+
+    @Test
+    public void reportComputesThroughputAndPercentiles() {
+        long[] latencies = new long[100];
+        for (int i = 0; i < latencies.length; i++) {
+            // 100 down to 1ms, the report must sort them
+            latencies[i] = TimeUnit.MILLISECONDS.toNanos(latencies.length - i);
+        }
+        ThroughputReport report = new ThroughputReport(ThroughputTestCommand.MODE_WRITE, 2000, 20, 0, 2000,
+            TimeUnit.SECONDS.toNanos(2), latencies, 23, 2, 2, 6, false);
+        assertEquals(1000, report.getThroughputBytesPerSecond(), 0.001);
+        assertEquals(1, report.getLatencyPercentileMillis(0), 0.001);
+        assertEquals(50, report.getLatencyPercentileMillis(50), 0.001);
+        assertEquals(90, report.getLatencyPercentileMillis(90), 0.001);
+        assertEquals(99, report.getLatencyPercentileMillis(99), 0.001);
+        assertEquals(100, report.getLatencyPercentileMillis(100), 0.001);
+        assertEquals(50.5, report.getMeanLatencyMillis(), 0.001);
+        assertTrue(report.isSuccessful());
+        assertTrue(report.toString().contains("connection interval: 7.50ms"));
+    }
+
+    @Test
+    public void abortedOrAllFailedRunIsAFailure() {
+        long[] latencies = {1, 2};
+        assertFalse(new ThroughputReport(ThroughputTestCommand.MODE_WRITE, 40, 20, 2, 0, 10, latencies, 23, 1, 1, 6, false).isSuccessful());
+        assertFalse(new ThroughputReport(ThroughputTestCommand.MODE_WRITE, 40, 20, 1, 20, 10, latencies, 23, 1, 1, 6, true).isSuccessful());
+        assertTrue(new ThroughputReport(ThroughputTestCommand.MODE_WRITE, 40, 20, 1, 20, 10, latencies, 23, 1, 1, 6, false).isSuccessful());
+    }
+
+    @Test
+    public void reportMapIsValidJson() throws JSONException {
+        ThroughputReport report = new ThroughputReport(ThroughputTestCommand.MODE_WRITE_NO_RESPONSE, 20, 20, 0, 20,
+            TimeUnit.MILLISECONDS.toNanos(10), new long[]{TimeUnit.MILLISECONDS.toNanos(10)}, 247, 2, 2,
+            GattConnection.UNKNOWN_CONNECTION_INTERVAL, false);
+        Map<String, Object> map = report.toMap();
+        JSONObject json = new JSONObject(new JSONObject(map).toString());
+        assertEquals("write-nr", json.getString("mode"));
+        assertEquals(247, json.getInt("mtu"));
+        assertEquals(10, json.getJSONObject("latency_ms").getDouble("p99"), 0.001);
+        assertEquals(-1, json.getDouble("connection_interval_ms"), 0.001);
+    }
+
+    @Test
+    public void unknownMacIsReportedAsAnError() {
+        PluginCommandConfig config = mock(PluginCommandConfig.class);
+        ConsumerInterface consumer = mock(ConsumerInterface.class);
+        doReturn(Arrays.asList(MAC, SERVICE, CHARACTERISTIC).iterator()).when(config).getArgs();
+        doReturn(new GattConnectionUtils()).when(config).getConnectionUtils();
+        doReturn(consumer).when(config).getConsumer();
+        new ThroughputTestCommand(mock(PluginLoggerInterface.class)).run(config);
+        ArgumentCaptor<Exception> error = ArgumentCaptor.forClass(Exception.class);
+        verify(consumer).consumeError(error.capture());
+        assertTrue(error.getValue() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void badArgumentsAreReportedAsJson() throws JSONException {
+        PluginCommandConfig config = mock(PluginCommandConfig.class);
+        ConsumerInterface consumer = mock(ConsumerInterface.class);
+        doReturn(Arrays.asList(MAC, SERVICE, CHARACTERISTIC, "--bytes", "lots").iterator()).when(config).getArgs();
+        doReturn(consumer).when(config).getConsumer();
+        doReturn(true).when(config).isJsonFormat();
+        new ThroughputTestCommand(mock(PluginLoggerInterface.class)).run(config);
+        ArgumentCaptor<JSONObject> json = ArgumentCaptor.forClass(JSONObject.class);
+        verify(consumer).consumeJson(json.capture());
+        assertEquals("fail", json.getValue().getString("status"));
+    }
+}